@@ -17,10 +17,10 @@ import java.io.StringWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -40,17 +40,50 @@ public class App {
     }
 
     public static void invoke(final String[] args, final Properties p, final MyLogger log) throws Exception {
+        invoke(args, p, log, new RunStats("post"));
+    }
+
+    public static void invoke(
+            final String[] args, final Properties p, final MyLogger log, final RunStats stats) throws Exception {
         String pathToPom = args.length > 0 ? args[0] : null;
         pathToPom = pathToPom != null ? pathToPom.trim() : "";
         if ("".equals(pathToPom)) {
             pathToPom = ".";
         }
+        File traceFile = Trace.file(p, pathToPom, "post");
+        Trace.Span trace = Trace.root(traceFile, "push0ver post", log).attr("project.dir", pathToPom);
+        try {
+            post(args, pathToPom, p, log, stats);
+        } catch (Exception | Error e) {
+            trace.error(e);
+            throw e;
+        } finally {
+            trace.end();
+            if (trace.isRecording()) {
+                log.addBuildLogEntry("push0ver - TRACE: [" + traceFile.getPath() + "]");
+            }
+        }
+    }
+
+    private static void post(
+            final String[] args, String pathToPom, final Properties p, final MyLogger log, final RunStats stats)
+            throws Exception {
+        stats.setMemory(MemoryBudget.fromProperties(p));
 
         String userName = null;
         String userPassword = null;
         boolean doSomething = true;
 
         final boolean sslTrustAll = "true".equalsIgnoreCase(p.getProperty("ssl.trustAll"));
+        final boolean npmCli = "true".equalsIgnoreCase(p.getProperty("npm.cli"));
+        final boolean http2 = "true".equalsIgnoreCase(p.getProperty("http2"));
+        final List<String> mirrors = mirrors(p.getProperty("art.mirrors"));
+        final int uploadParallel = uploadParallel(p.getProperty("upload.parallel"));
+        final int uploadChunk = uploadChunk(p.getProperty("upload.chunk"));
+        if (uploadParallel > 0 || uploadChunk > 0) {
+            log.addBuildLogEntry("push0ver - UPLOAD TUNING: parallel=" + (uploadParallel > 0 ? uploadParallel : "default")
+                    + " chunk=" + (uploadChunk > 0 ? uploadChunk : "default"));
+        }
         final boolean doPush = args.length > 1 && "push".equalsIgnoreCase(args[1]);
         String mvnRepoName = null;
         String snapRepo = null;
@@ -117,10 +150,37 @@ public class App {
         }
 
         String[] badTag = new String[1];
-        fetchTags(log, gitTarget);
+        long start = System.currentTimeMillis();
+        Trace.Span phase = Trace.start("fetch-tags");
+        fetchTags(log, gitTarget, false, stats);
+        phase.end();
+        stats.phase("fetch-tags", start);
+        start = System.currentTimeMillis();
+        phase = Trace.start("tag-extract");
         Map<String, Tag> tags = TagExtractor.getTag(gitTarget, pathToPom, false, log, badTag);
+        phase.attr("tags", String.valueOf(tags)).end();
+        stats.phase("tag-extract", start);
 
         if (tags != null && tags.size() > 0) {
+            // Tag directories whose version was already published from this very tree are left out entirely.
+            start = System.currentTimeMillis();
+            phase = Trace.start("changes");
+            TreeIndex trees = "false".equalsIgnoreCase(p.getProperty("skip.unchanged")) ? null
+                    : TreeIndex.load(gitTarget, pathToPom, tags.values(), log);
+            List<Tag> unchanged = trees != null ? trees.unchanged(tags.values(), log) : Collections.<Tag>emptyList();
+            List<Tag> changed = new ArrayList<>(tags.values());
+            changed.removeAll(unchanged);
+            phase.attr("unchanged", unchanged.size()).end();
+            stats.phase("changes", start);
+
+            // One pass over the workspace (no injection here, the pre task did that): Maven and npm modules.
+            start = System.currentTimeMillis();
+            phase = Trace.start("scan");
+            WorkspaceScanner.Workspace workspace = WorkspaceScanner.scan(
+                    pathToPom, changed, unchanged, false, log, stats, null);
+            phase.end();
+            stats.phase("scan", start);
+
             for (Tag t : tags.values()) {
                 if (t == null) {
                     log.addBuildLogEntry("push0ver - ABORTING - unable to extract valid release or snapshot tag.");
@@ -128,6 +188,10 @@ public class App {
                 }
 
                 String windupStatus = extractAndDeletePreStatus(pathToPom, t, log);
+                if (unchanged.contains(t) || (windupStatus != null && windupStatus.startsWith("pre=unchanged"))) {
+                    log.addBuildLogEntry("push0ver - SKIPPING UNCHANGED TAG: " + t);
+                    continue;
+                }
 
                 log.addBuildLogEntry("push0ver - EXTRACTED TAG:       " + t);
                 final String basicAuthHeader = basicAuthHeader(userName, userPassword);
@@ -158,13 +222,25 @@ public class App {
                 }
 
                 log.addBuildLogEntry("push0ver - Will Execute:  " + String.valueOf(doSomething) + " Based on: " + pathToPom + t.getDirectory());
-                final Rename r = new Rename(pathToPom, t, mvnRepoName, nodeRepo, basicAuthHeader, url, log, sslTrustAll);
+                final Transport transport = Transport.open(http2, sslTrustAll, log);
+                final Rename r = new Rename(
+                        pathToPom, t, mvnRepoName, nodeRepo, basicAuthHeader, url, log, sslTrustAll, stats, transport,
+                        mirrors);
+                r.setUploadTuning(uploadParallel, uploadChunk);
 
+                WorkspaceScanner.Module module = workspace.get(t);
                 try {
-                    if (t.isMaven()) {
+                    if (module != null && module.isMaven()) {
+                        start = System.currentTimeMillis();
+                        phase = Trace.start("reactor").attr("tag", t.toString());
                         MavenStruct struct = mavenCheckIfAlreadyReleased(
-                                t, log, mvnCommand, pathToPom, basicAuthHeader, url, gitTarget, mvnRepoName
+                                t, log, mvnCommand, pathToPom, basicAuthHeader, url, gitTarget, mvnRepoName,
+                                stats.getMemory(), mirrors.isEmpty()
                         );
+                        phase.end();
+                        stats.phase("reactor", start);
+                        start = System.currentTimeMillis();
+                        phase = Trace.start("upload").attr("tag", t.toString());
                         if (struct != null) {
                             for (int z = 0; z < struct.moduleNames.size(); z++) {
                                 if (doSomething) {
@@ -176,32 +252,32 @@ public class App {
                                 }
                             }
                         }
+                        phase.end();
+                        stats.phase("upload", start);
                     }
-                    if (t.isNode(matches)) {
+                    if (module != null && module.isNode(matches)) {
                         NodeStruct struct = nodeCheckIfAlreadyReleased(
                                 t, log, pathToPom, basicAuthHeader, url, nodeRepo);
 
                         if (struct != null && doSomething) {
-                            File root = new File(pathToPom + t.getDirectory());
-                            Files.walk(root.toPath())
-                                    .map(Path::toFile)
-                                    .forEach(f -> {
-
-                                        String name = f.getName();
-                                        if ("package.json".equalsIgnoreCase(name)) {
-                                            f = canonical(f);
-                                            if (matches.contains(f)) {
-                                                r.npmPublish(f, doPush);
-                                            } else {
-                                                log.addBuildLogEntry("Ignoring [" + f.getPath()
-                                                        + "] since it did not contain the sentinel (0.0.0-PUSH0VE" + "R)");
-                                            }
-                                        }
-
-                                    });
+                            start = System.currentTimeMillis();
+                            phase = Trace.start("npm-publish").attr("tag", t.toString());
+                            List<File> packageFiles = new ArrayList<>();
+                            for (File f : module.getPackageJsons()) {
+                                if (matches.contains(f)) {
+                                    packageFiles.add(f);
+                                } else {
+                                    log.addBuildLogEntry("Ignoring [" + f.getPath()
+                                            + "] since it did not contain the sentinel (0.0.0-PUSH0VE" + "R)");
+                                }
+                            }
+                            r.npmPublishAll(packageFiles, doPush, npmCli);
+                            phase.end();
+                            stats.phase("npm-publish", start);
                         }
                     }
                 } finally {
+                    Finally.close(transport);
                     if (doPush) {
                         // "rm -f" is safe.
                         String[] param = new String[]{"rm", "-f", pathToPom + "/push0ver.windup.txt"};
@@ -219,8 +295,107 @@ public class App {
                         }
                     }
                 }
+                if (doPush && trees != null) {
+                    if (r.isComplete()) {
+                        trees.published(t);
+                    } else {
+                        log.addBuildLogEntry("push0ver - Not all of " + t + " was published, it will be published"
+                                + " again next time even if unchanged.");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the "art.mirrors" entries (comma or whitespace separated):  Artifactory URLs or repository names.
+     */
+    public static List<String> mirrors(String property) {
+        List<String> mirrors = new ArrayList<>();
+        if (property != null) {
+            for (String m : property.split("[,\\s]+")) {
+                if (!"".equals(m)) {
+                    mirrors.add(m);
+                }
             }
         }
+        return mirrors;
+    }
+
+    /**
+     * @return "upload.parallel" (files uploaded at the same time), or 0 for the default.
+     */
+    static int uploadParallel(String property) {
+        if (property == null || "".equals(property.trim())) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(property.trim()));
+        } catch (NumberFormatException nfe) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return "upload.chunk" in bytes ("256k" etc.), or 0 for the default.
+     */
+    static int uploadChunk(String property) {
+        long chunk = MemoryBudget.parseSize(property);
+        return chunk > 0 && chunk <= Integer.MAX_VALUE ? (int) chunk : 0;
+    }
+
+    /**
+     * The last lines of tool output:  at most maxLines, and never more than the memory budget allows
+     * (the oldest lines go first, and a single line longer than the budget's share is cut short).
+     */
+    static class Tail implements Iterable<String> {
+        private final LinkedList<String> lines = new LinkedList<>();
+        private final int maxLines;
+        private final MemoryBudget memory;
+        private long reserved;
+
+        Tail(int maxLines, MemoryBudget memory) {
+            this.maxLines = maxLines;
+            this.memory = memory;
+        }
+
+        void add(String line) {
+            if (2L * line.length() > memory.share()) {
+                line = line.substring(0, (int) (memory.share() / 4)) + "...";
+            }
+            long bytes = 2L * line.length();
+            if (lines.size() >= maxLines) {
+                removeFirst();
+            }
+            while (!memory.tryReserve(bytes)) {
+                if (lines.isEmpty()) {
+                    return;
+                }
+                removeFirst();
+            }
+            lines.add(line);
+            reserved += bytes;
+        }
+
+        private void removeFirst() {
+            long bytes = 2L * lines.removeFirst().length();
+            memory.release(bytes);
+            reserved -= bytes;
+        }
+
+        void clear() {
+            lines.clear();
+            memory.release(reserved);
+            reserved = 0;
+        }
+
+        int size() {
+            return lines.size();
+        }
+
+        public Iterator<String> iterator() {
+            return lines.iterator();
+        }
     }
 
     public static class MavenStruct {
@@ -234,14 +409,6 @@ public class App {
         public String packageName;
     }
 
-    private static File canonical(File f) {
-        try {
-            return f.getCanonicalFile();
-        } catch (IOException ioe) {
-            throw new RuntimeException("f.getCanonicalFile() failed: " + ioe);
-        }
-    }
-
     public static NodeStruct nodeCheckIfAlreadyReleased(
             Tag tag, MyLogger log, String pathToPackage, String basicAuthHeader, String url,
             String repoName
@@ -284,8 +451,27 @@ public class App {
     public static MavenStruct mavenCheckIfAlreadyReleased(
             Tag tag, MyLogger log, String mvnCommand, String pathToPom, String basicAuthHeader, String artUrl,
             String gitTarget, String repoName) throws IOException {
+        return mavenCheckIfAlreadyReleased(
+                tag, log, mvnCommand, pathToPom, basicAuthHeader, artUrl, gitTarget, repoName,
+                new MemoryBudget(MemoryBudget.DEFAULT_LIMIT));
+    }
+
+    public static MavenStruct mavenCheckIfAlreadyReleased(
+            Tag tag, MyLogger log, String mvnCommand, String pathToPom, String basicAuthHeader, String artUrl,
+            String gitTarget, String repoName, MemoryBudget memory) throws IOException {
+        return mavenCheckIfAlreadyReleased(
+                tag, log, mvnCommand, pathToPom, basicAuthHeader, artUrl, gitTarget, repoName, memory, true);
+    }
+
+    /**
+     * @param skipIfReleased false to go ahead even if the release repo has this version already (with mirrors,
+     *                       {@link Rename} then checks each file on each target, and completes the mirrors).
+     */
+    public static MavenStruct mavenCheckIfAlreadyReleased(
+            Tag tag, MyLogger log, String mvnCommand, String pathToPom, String basicAuthHeader, String artUrl,
+            String gitTarget, String repoName, MemoryBudget memory, boolean skipIfReleased) throws IOException {
         MavenStruct s = new MavenStruct();
-        parseMavenPoms(log, mvnCommand, pathToPom + tag.getDirectory(), s.groupNames, s.moduleNames);
+        parseMavenPoms(log, mvnCommand, pathToPom + tag.getDirectory(), s.groupNames, s.moduleNames, memory);
 
         if (s.groupNames.isEmpty() || s.moduleNames.isEmpty()) {
             log.addBuildLogEntry("push0ver - ERROR parsing output from mvn dependency:tree (is there a BUILD FAILURE?)");
@@ -294,7 +480,7 @@ public class App {
 
         String group = s.groupNames.get(0).replace('.', '/');
         String checkTarget = artUrl + repoName + "/" + group + "/" + s.moduleNames.get(0) + "/" + tag.getVersion();
-        if (!tag.getVersion().toString().contains("-SNAPSHOT")) {
+        if (skipIfReleased && !tag.getVersion().toString().contains("-SNAPSHOT")) {
 
             if (exists(log, checkTarget, basicAuthHeader)) {
                 log.addBuildLogEntry("push0ver: " + tag.toString() + " exists in artifactory, skipping push0ver");
@@ -307,43 +493,48 @@ public class App {
         return s;
     }
 
-    public static void fetchTags(MyLogger log, String projectDir) throws Exception {
-        String cmd = "git --no-pager --git-dir=" + projectDir + "/.git fetch --tags";
-        String[] command = cmd.split(" ");
-        Process process = Runtime.getRuntime().exec(command);
-        BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()));
-        String k;
-        while ((k = br.readLine()) != null) {
-            log.addBuildLogEntry("push0ver - Fetch Tags:   " + k);
-        }
-        process.waitFor();
-        // process.waitFor( 2, TimeUnit.SECONDS );
+    /**
+     * Brings the local tags up to date with the remote, fetching only new or moved tags.
+     * The post task skips the remote entirely when the pre task already synced the same HEAD.
+     */
+    public static void fetchTags(MyLogger log, String projectDir, boolean preTask, RunStats stats) {
+        TagSync.sync(log, projectDir, preTask, stats);
     }
 
 
     private static void parseMavenPoms(
-            MyLogger log, String mvn, String pom, List<String> groupNames, List<String> moduleNames) throws IOException {
+            MyLogger log, String mvn, String pom, List<String> groupNames, List<String> moduleNames,
+            MemoryBudget memory) throws IOException {
         String[] command = new String[]{mvn, "dependency:tree"};
         log.addBuildLogEntry("push0ver - RUNNING:   " + command[0] + " " + command[1] + " IN " + pom);
-        Process process = Runtime.getRuntime().exec(command, null, new File(pom));
-        BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()));
-        parse(br, log, groupNames, moduleNames);
+        Trace.Span span = Trace.client("mvn dependency:tree").attr("process.command", mvn).attr("dir", pom);
+        Jfr.Event jfr = Jfr.SUBPROCESS.begin();
+        try {
+            Process process = Runtime.getRuntime().exec(command, null, new File(pom));
+            BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            parse(br, log, groupNames, moduleNames, memory);
+            span.attr("modules", moduleNames.size());
+        } catch (IOException | RuntimeException e) {
+            span.error(e);
+            throw e;
+        } finally {
+            span.end();
+            jfr.set("command", mvn + " dependency:tree").commit();
+        }
     }
 
     private static void parse(
-            BufferedReader br, MyLogger log, List<String> groupNames, List<String> moduleNames) throws IOException {
+            BufferedReader br, MyLogger log, List<String> groupNames, List<String> moduleNames,
+            MemoryBudget memory) throws IOException {
         String line;
         boolean lookingForInfo = false;
-        List<String> last500 = new LinkedList<>();
+        Tail last500 = new Tail(500, memory);
         List<String> complete = new ArrayList<String>();
         int linesSinceBuildFailure = -1;
         while ((line = br.readLine()) != null) {
             // Keep an eye out for "BUILD FAILURE" in mvn dependency:tree output,
             // and dump the output to the log if it happens.
             last500.add(line);
-            while (last500.size() > 500) {
-                last500.remove(0);
-            }
             if (linesSinceBuildFailure < 0 && line.contains("BUILD FAILURE")) {
                 linesSinceBuildFailure = 0;
             } else if (linesSinceBuildFailure >= 0) {
@@ -395,6 +586,7 @@ public class App {
                 log.addBuildLogEntry("push0ver - mvn dependency:tree output: " + traceLine);
             }
         }
+        last500.clear();
 
         for (String b : complete) {
             String[] temp = b.split(":");
@@ -518,7 +710,7 @@ public class App {
                 }
             };
 
-            parse(br, ml, groups, arts);
+            parse(br, ml, groups, arts, new MemoryBudget(MemoryBudget.DEFAULT_LIMIT));
             System.out.println("GROUPS: " + groups);
             System.out.println("ARTS: " + arts);
 
@@ -530,17 +722,69 @@ public class App {
         return matcher.find();
     }
 
+    /**
+     * Same as {@link #exists(MyLogger, String, String)}, over the run's transport (if not null).
+     */
+    public static boolean exists(MyLogger log, String target, String basicAuthHeader, Transport transport) {
+        if (transport == null) {
+            return exists(log, target, basicAuthHeader);
+        }
+        Trace.Span span = Trace.start("exists").attr("url.full", target);
+        try {
+            if (WarmCache.knownToExist(target, basicAuthHeader)) {
+                span.attr("cached", true).attr("exists", true);
+                return true;
+            }
+            int firstDigit = transport.get(target, basicAuthHeader) / 100;
+            if (firstDigit != 4 && firstDigit != 5) {
+                WarmCache.exists(target, basicAuthHeader);
+                span.attr("exists", true);
+                return true;
+            }
+            span.attr("exists", false);
+            return false;
+        } catch (IOException ioe) {
+            span.error(ioe);
+            log.addBuildLogEntry("push0ver - URL Connection Failed (" + transport.getProtocol() + "): " + ioe);
+            return false;
+        } finally {
+            span.end();
+        }
+    }
+
     public static boolean exists(MyLogger log, String target, String basicAuthHeader) {
+        Trace.Span span = Trace.client("GET").attr("url.full", target);
         try {
-            HttpURLConnection.setFollowRedirects(false);
+            return exists(log, target, basicAuthHeader, span);
+        } finally {
+            span.end();
+        }
+    }
+
+    private static boolean exists(MyLogger log, String target, String basicAuthHeader, Trace.Span span) {
+        if (WarmCache.knownToExist(target, basicAuthHeader)) {
+            span.attr("cached", true).attr("exists", true);
+            return true;
+        }
+        try {
+            // Per connection:  HttpURLConnection.setFollowRedirects() would change it for the whole JVM.
             HttpURLConnection con = (HttpURLConnection) new URL(target).openConnection();
+            con.setInstanceFollowRedirects(false);
             con.setRequestProperty("Authorization", basicAuthHeader);
             con.setRequestMethod("GET");
             int resp = con.getResponseCode();
+            span.attr("http.response.status_code", resp);
             int firstDigit = Integer.parseInt(Integer.toString(resp).substring(0, 1));
             con.disconnect();
-            return firstDigit != 4 && firstDigit != 5;
+            if (firstDigit != 4 && firstDigit != 5) {
+                WarmCache.exists(target, basicAuthHeader);
+                span.attr("exists", true);
+                return true;
+            }
+            span.attr("exists", false);
+            return false;
         } catch (IOException ioe) {
+            span.error(ioe);
             StringWriter sw = new StringWriter();
             PrintWriter pw = new PrintWriter(sw);
             ioe.printStackTrace(pw);
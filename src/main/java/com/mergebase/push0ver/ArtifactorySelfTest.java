@@ -0,0 +1,346 @@
+package com.mergebase.push0ver;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Future;
+
+/**
+ * Checks an Artifactory configuration before a release depends on it:  round-trip latency, then read, deploy
+ * and delete permission on each repository (with a throwaway artifact under "com/mergebase/push0ver-selftest"),
+ * then single-stream upload and download throughput and the aggregate throughput of 1, 2, 4 ... parallel
+ * uploads.
+ * <p>
+ * From those it recommends "upload.parallel" (the fewest parallel uploads within 10% of the best aggregate)
+ * and "upload.chunk" (enough {@link FileTee} read-ahead to cover the bandwidth-delay product, within the
+ * default memory budget).  Everything it uploads is deleted again if the user may delete.
+ * <p>
+ * Never throws for a network or HTTP failure:  the result says what failed.
+ */
+public class ArtifactorySelfTest {
+    private static final String GROUP_PATH = "com/mergebase/push0ver-selftest/";
+    private static final String EMPTY = "Empty";
+    private static final int MAX_CHUNK = 4 * 1024 * 1024;
+
+    private final String url;
+    private final String basicAuth;
+    private final boolean sslTrustAll;
+    private final MyLogger log;
+
+    int pings = 5;
+    int singleBytes = 4 * 1024 * 1024;
+    int streamBytes = 1024 * 1024;
+    int maxParallel = 16;
+    long maxMillis = 60000;
+
+    public ArtifactorySelfTest(String url, String basicAuth, boolean sslTrustAll, MyLogger log) {
+        this.url = url.endsWith("/") ? url : url + "/";
+        this.basicAuth = basicAuth;
+        this.sslTrustAll = sslTrustAll;
+        this.log = log;
+    }
+
+    /**
+     * @param releaseRepo, snapRepo, npmRepo repository names (null, blank or "Empty" ones are skipped)
+     * @return the results and recommendation (see the admin UI's self-test view for the layout).
+     */
+    public JsonObject run(String releaseRepo, String snapRepo, String npmRepo) {
+        long start = System.currentTimeMillis();
+        String id = Long.toString(start);
+        JsonObject result = new JsonObject();
+        result.addProperty("url", url);
+        result.addProperty("time", start);
+
+        CloseableHttpClient client = Rename.allConnect(sslTrustAll);
+        try {
+            JsonObject latency = latency(client);
+            result.add("latency", latency);
+
+            JsonArray repos = new JsonArray();
+            String throughputBase = null;
+            String[][] roles = {{"release", releaseRepo, "0.0." + id},
+                    {"snapshot", snapRepo, "0.0." + id + "-SNAPSHOT"}, {"npm", npmRepo, "0.0." + id}};
+            List<String> cleanup = new ArrayList<>();
+            for (String[] role : roles) {
+                if (role[1] == null || "".equals(role[1].trim()) || EMPTY.equals(role[1].trim())) {
+                    continue;
+                }
+                String folder = url + role[1].trim() + "/" + GROUP_PATH + role[2] + "/";
+                JsonObject repo = repo(client, role[0], role[1].trim(), folder, role[2]);
+                repos.add(repo);
+                if (repo.get("deployed").getAsBoolean()) {
+                    cleanup.add(folder);
+                    if (throughputBase == null && !"snapshot".equals(role[0])) {
+                        throughputBase = folder + "push0ver-selftest-" + role[2];
+                    }
+                }
+            }
+            result.add("repos", repos);
+
+            JsonObject throughput = null;
+            if (throughputBase != null) {
+                throughput = throughput(client, throughputBase, start);
+                result.add("throughput", throughput);
+            }
+            result.add("recommendation", recommend(latency, throughput));
+
+            for (String folder : cleanup) {
+                int status = status(client, new HttpDelete(folder));
+                for (int i = 0; i < repos.size(); i++) {
+                    JsonObject repo = repos.get(i).getAsJsonObject();
+                    if (folder.startsWith(url + repo.get("repo").getAsString() + "/")) {
+                        repo.addProperty("delete", status);
+                        if (status / 100 != 2) {
+                            repo.addProperty("leftover", folder);
+                        }
+                    }
+                }
+            }
+        } finally {
+            Finally.close(client);
+        }
+        result.addProperty("durationMillis", System.currentTimeMillis() - start);
+        log.addBuildLogEntry("push0ver - SELF-TEST: " + result);
+        return result;
+    }
+
+    private JsonObject latency(CloseableHttpClient client) {
+        long[] millis = new long[pings];
+        int status = 0;
+        for (int i = 0; i < pings; i++) {
+            long start = System.nanoTime();
+            status = status(client, new HttpGet(url + "api/system/ping"));
+            millis[i] = (System.nanoTime() - start) / 1000000;
+            if (status < 0) {
+                break;
+            }
+        }
+        JsonObject latency = new JsonObject();
+        latency.addProperty("pingStatus", status);
+        if (status >= 0) {
+            Arrays.sort(millis);
+            latency.addProperty("medianMillis", millis[pings / 2]);
+            latency.addProperty("minMillis", millis[0]);
+            latency.addProperty("maxMillis", millis[pings - 1]);
+        } else {
+            latency.addProperty("error", "Artifactory unreachable at " + url);
+        }
+        return latency;
+    }
+
+    private JsonObject repo(CloseableHttpClient client, String role, String name, String folder, String version) {
+        JsonObject repo = new JsonObject();
+        repo.addProperty("role", role);
+        repo.addProperty("repo", name);
+        int read = status(client, new HttpGet(url + "api/storage/" + name));
+        repo.addProperty("read", read);
+
+        HttpPut put = new HttpPut(folder + "push0ver-selftest-" + version + ".txt");
+        put.setEntity(new ByteArrayEntity(("push0ver self-test " + version + "\n").getBytes(StandardCharsets.UTF_8)));
+        int deploy = status(client, put);
+        repo.addProperty("deploy", deploy);
+        boolean deployed = deploy / 100 == 2;
+        repo.addProperty("deployed", deployed);
+
+        String verdict;
+        if (read == 401 || deploy == 401) {
+            verdict = "bad credentials";
+        } else if (read == 404) {
+            verdict = "repository not found";
+        } else if (read < 0 || deploy < 0) {
+            verdict = "unreachable";
+        } else if (deploy == 403) {
+            verdict = "no deploy permission";
+        } else if (read == 403) {
+            verdict = "no read permission";
+        } else if (!deployed) {
+            verdict = "deploy failed: HTTP " + deploy;
+        } else if (read / 100 != 2) {
+            verdict = "read failed: HTTP " + read;
+        } else {
+            verdict = "ok";
+        }
+        repo.addProperty("verdict", verdict);
+        return repo;
+    }
+
+    private JsonObject throughput(CloseableHttpClient client, String base, long start) {
+        JsonObject throughput = new JsonObject();
+        byte[] payload = new byte[Math.max(singleBytes, streamBytes)];
+        new Random(start).nextBytes(payload);
+
+        String single = base + "-single.bin";
+        HttpPut put = new HttpPut(single);
+        put.setEntity(new ByteArrayEntity(payload, 0, singleBytes));
+        long t = System.nanoTime();
+        int status = status(client, put);
+        long nanos = System.nanoTime() - t;
+        throughput.addProperty("uploadStatus", status);
+        if (status / 100 != 2) {
+            return throughput;
+        }
+        throughput.addProperty("uploadBytesPerSecond", perSecond(singleBytes, nanos));
+
+        t = System.nanoTime();
+        long[] got = new long[1];
+        status = download(client, single, got);
+        nanos = System.nanoTime() - t;
+        throughput.addProperty("downloadStatus", status);
+        if (status / 100 == 2) {
+            throughput.addProperty("downloadBytesPerSecond", perSecond(got[0], nanos));
+        }
+
+        JsonArray parallel = new JsonArray();
+        long best = 0;
+        for (int streams = 1; streams <= maxParallel; streams *= 2) {
+            long bytesPerSecond = parallel(client, base + "-p" + streams + "-", payload, streams);
+            if (bytesPerSecond <= 0) {
+                break;
+            }
+            JsonObject step = new JsonObject();
+            step.addProperty("streams", streams);
+            step.addProperty("bytesPerSecond", bytesPerSecond);
+            parallel.add(step);
+            // Past the knee (less than 10% better), or out of time.
+            boolean gain = bytesPerSecond > best + best / 10;
+            best = Math.max(best, bytesPerSecond);
+            if (!gain || System.currentTimeMillis() - start > maxMillis) {
+                break;
+            }
+        }
+        throughput.add("parallel", parallel);
+        return throughput;
+    }
+
+    /**
+     * @return aggregate bytes per second of "streams" uploads at the same time, or -1 if any failed.
+     */
+    private long parallel(final CloseableHttpClient client, String prefix, final byte[] payload, int streams) {
+        List<Future<Integer>> results = new ArrayList<>();
+        long t = System.nanoTime();
+        TaskScope scope = TaskScope.pooled(streams);
+        try {
+            for (int i = 0; i < streams; i++) {
+                final HttpPut put = new HttpPut(prefix + i + ".bin");
+                put.setEntity(new ByteArrayEntity(payload, 0, streamBytes));
+                results.add(scope.fork(() -> status(client, put)));
+            }
+            scope.join();
+            for (Future<Integer> f : results) {
+                if (TaskScope.result(f) / 100 != 2) {
+                    return -1;
+                }
+            }
+        } finally {
+            scope.close();
+        }
+        return perSecond((long) streams * streamBytes, System.nanoTime() - t);
+    }
+
+    /**
+     * @return "upload.parallel" and "upload.chunk" with the reasoning behind them.
+     */
+    static JsonObject recommend(JsonObject latency, JsonObject throughput) {
+        JsonObject r = new JsonObject();
+        List<String> notes = new ArrayList<>();
+        int parallel = Rename.DEFAULT_PARALLEL_UPLOADS;
+        int chunk = FileTee.CHUNK;
+        JsonArray steps = throughput != null && throughput.has("parallel") ? throughput.getAsJsonArray("parallel") : null;
+        if (steps == null || steps.size() == 0) {
+            notes.add("No throughput measured (no repository accepted the test upload):  keeping the defaults.");
+        } else {
+            long best = 0;
+            for (int i = 0; i < steps.size(); i++) {
+                best = Math.max(best, steps.get(i).getAsJsonObject().get("bytesPerSecond").getAsLong());
+            }
+            for (int i = 0; i < steps.size(); i++) {
+                JsonObject step = steps.get(i).getAsJsonObject();
+                if (step.get("bytesPerSecond").getAsLong() >= best - best / 10) {
+                    parallel = step.get("streams").getAsInt();
+                    break;
+                }
+            }
+            notes.add(parallel + " parallel upload(s) reach " + mb(best) + " MB/s, within 10% of the best measured.");
+
+            long rttMillis = latency.has("medianMillis") ? latency.get("medianMillis").getAsLong() : 0;
+            long perStream = throughput.has("uploadBytesPerSecond") ? throughput.get("uploadBytesPerSecond").getAsLong() : 0;
+            long bdp = perStream * Math.max(1, rttMillis) / 1000;
+            int memoryCap = (int) Math.min(MAX_CHUNK, MemoryBudget.DEFAULT_LIMIT / ((long) parallel * FileTee.MAX_QUEUED));
+            while (chunk < MAX_CHUNK && (long) chunk * FileTee.MAX_QUEUED < bdp && chunk * 2 <= memoryCap) {
+                chunk *= 2;
+            }
+            notes.add("Bandwidth-delay product " + bdp / 1024 + " KB (" + mb(perStream) + " MB/s x " + rttMillis
+                    + " ms):  mirrored uploads read ahead " + FileTee.MAX_QUEUED + " chunks of " + chunk / 1024 + " KB.");
+        }
+        r.addProperty("upload.parallel", parallel);
+        r.addProperty("upload.chunk", chunk);
+        JsonArray n = new JsonArray();
+        for (String s : notes) {
+            n.add(new JsonPrimitive(s));
+        }
+        r.add("notes", n);
+        return r;
+    }
+
+    private static String mb(long bytesPerSecond) {
+        return String.format("%.1f", bytesPerSecond / (1024.0 * 1024.0));
+    }
+
+    private static long perSecond(long bytes, long nanos) {
+        return bytes * 1000000000L / Math.max(1, nanos);
+    }
+
+    /**
+     * @return the response status (body discarded), or -1 if the request never got one.
+     */
+    private int status(CloseableHttpClient client, HttpRequestBase request) {
+        return execute(client, request, null);
+    }
+
+    private int download(CloseableHttpClient client, String target, long[] bytes) {
+        return execute(client, new HttpGet(target), bytes);
+    }
+
+    private int execute(CloseableHttpClient client, HttpRequestBase request, long[] bytes) {
+        request.setHeader("Authorization", basicAuth);
+        CloseableHttpResponse response = null;
+        InputStream in = null;
+        try {
+            response = client.execute(request);
+            HttpEntity entity = response.getEntity();
+            if (bytes != null && entity != null) {
+                in = entity.getContent();
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) >= 0) {
+                    bytes[0] += n;
+                }
+            } else {
+                EntityUtils.consume(entity);
+            }
+            return response.getStatusLine().getStatusCode();
+        } catch (IOException ioe) {
+            log.addBuildLogEntry("push0ver - SELF-TEST: " + request.getMethod() + " " + request.getURI() + " failed: " + ioe);
+            return -1;
+        } finally {
+            Finally.close(in, response);
+        }
+    }
+}
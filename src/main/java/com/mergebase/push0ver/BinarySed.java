@@ -12,15 +12,26 @@ public class BinarySed {
     public static boolean replaceAll(
             File f, String find, String replace, InputStream in, OutputStream out
     ) throws IOException {
-        final byte[] buf = new byte[5000];
+        return replace(f, find, replace, in, out) > 0;
+    }
+
+    /**
+     * Same as {@link #replaceAll}, counting.
+     *
+     * @return how many times "find" was replaced.
+     */
+    public static int replace(
+            File f, String find, String replace, InputStream in, OutputStream out
+    ) throws IOException {
+        final byte[] buf = new byte[64 * 1024];
         final byte[] findBytes = find.getBytes("UTF-8");
         final byte[] replaceBytes = replace.getBytes("UTF-8");
         final KmpStringMatcher kmp = new KmpStringMatcher(find);
-        boolean foundMatch = false;
+        int matches = 0;
         try {
             // Match not possible if file is smaller than sentinel.
             if (f != null && f.length() < findBytes.length) {
-                return false;
+                return 0;
             }
 
             int pos = 0;
@@ -31,9 +42,10 @@ public class BinarySed {
                     continue;
                 }
 
-                int x = kmp.search(buf);
-                if (x >= 0 && x <= c + savedFromLastTime - findBytes.length) {
-                    foundMatch = true;
+                // Only the bytes read so far:  the rest of buf is left over from earlier reads.
+                int x = kmp.search(buf, 0, c + savedFromLastTime);
+                if (x >= 0) {
+                    matches++;
                     out.write(buf, 0, x);
                     out.write(replaceBytes);
                     pos = c - x - findBytes.length + savedFromLastTime;
@@ -53,13 +65,13 @@ public class BinarySed {
             }
 
             while (savedFromLastTime >= findBytes.length) {
-                int x = kmp.search(buf);
-                if (x < 0 || x > savedFromLastTime - findBytes.length) {
+                int x = kmp.search(buf, 0, savedFromLastTime);
+                if (x < 0) {
                     break;
                 }
 
                 // Finished reading from InputStream...
-                foundMatch = true;
+                matches++;
                 out.write(buf, 0, x);
                 out.write(replaceBytes);
                 savedFromLastTime -= (x + findBytes.length);
@@ -77,7 +89,7 @@ public class BinarySed {
                 out.close();
             }
         }
-        return foundMatch;
+        return matches;
     }
 
     public static void main(String[] args) throws Exception {
@@ -2,160 +2,521 @@ package com.mergebase.push0ver;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 
+/**
+ * Writes a changelog for a directory:  every commit in "git log --date-order" that touches the directory,
+ * with tag lines in between.
+ * <p>
+ * History is walked once ("git log --name-only") and the directory filter is applied here, in-process.
+ * Output is streamed to a {@link Writer} as the walk goes.
+ * <p>
+ * Once a release tag is in the past, its part of the changelog never changes.  The rendered text from the
+ * newest release tag down to the root is saved under ".git/push0ver/changelog/", and the next run only
+ * walks the commits since that tag ("git log HEAD ^tag") and then appends the saved text.  That is only
+ * the same as the full walk if every commit since the tag is newer than the tagged commit:  an older one
+ * (e.g., a long-lived branch merged after the release) sorts into the release's history by date, so then
+ * the full history is walked instead.
+ */
 public class ChangeLogGenerator {
+    static final String CACHE_DIR = "push0ver/changelog";
+    private static final String CACHE_HEADER = "# push0ver changelog v1 path=";
 
     public static void main(String[] args) throws Exception {
         File f = new File(args[0]);
-        String changeLog = generate(f);
-        System.out.println(changeLog);
+        Writer w = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        generate(f, w);
+        w.flush();
     }
 
     public static String generate(File dir) throws IOException {
+        StringWriter w = new StringWriter();
+        generate(dir, w);
+        return w.toString();
+    }
+
+    public static void generate(File dir, Writer out) throws IOException {
         dir = dir.getCanonicalFile();
         if (dir.isFile()) {
             dir = dir.getParentFile();
         }
 
-        Map<String, String> tags = log(dir, false);
-        Map<String, String> msgs = log(dir, true);
+        File gitDir = gitDir(dir);
+        if (gitDir == null) {
+            throw new IllegalArgumentException("Hit / without finding a .git dir: " + dir.getAbsolutePath());
+        }
+        generate(gitDir, Collections.singletonMap(subDirPath(gitDir, dir), out));
+    }
+
+    /**
+     * One changelog per tagged subdirectory (e.g., "api" for "api/1.2.0", "" for plain "1.2.0" tags),
+     * all from a single history walk.
+     *
+     * @return subdirectory to its changelog.
+     */
+    public static Map<String, String> generateAll(File dir) throws IOException {
+        dir = dir.getCanonicalFile();
+        File gitDir = gitDir(dir);
+        if (gitDir == null) {
+            throw new IllegalArgumentException("Hit / without finding a .git dir: " + dir.getAbsolutePath());
+        }
+
+        Map<String, Writer> outs = new TreeMap<>();
+        Git.Result r = Git.run(gitDir.getAbsolutePath(), "for-each-ref", "--format=%(refname:short)", "refs/tags");
+        for (String name : r.stdout) {
+            Tag t = new Tag("", name.trim(), null);
+            if (t.isValid()) {
+                String sub = t.getDirectory().startsWith("/") ? t.getDirectory().substring(1) : t.getDirectory();
+                if (!outs.containsKey(sub)) {
+                    outs.put(sub, new StringWriter());
+                }
+            }
+        }
+        generate(gitDir, outs);
+
+        Map<String, String> result = new TreeMap<>();
+        for (Map.Entry<String, Writer> entry : outs.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toString());
+        }
+        return result;
+    }
+
+    /**
+     * Walks history once and writes one changelog per subdirectory.
+     *
+     * @param gitDir   the ".git" directory
+     * @param outByDir subdirectory (relative to the repository root, "" for the whole repository) to the
+     *                 Writer for its changelog
+     */
+    public static void generate(File gitDir, Map<String, Writer> outByDir) throws IOException {
+        File cacheDir = new File(gitDir, CACHE_DIR);
+        List<Section> sections = new ArrayList<>();
+        PathTrie<Section> trie = new PathTrie<>();
+        List<String> cacheKeys = new ArrayList<>();
+        for (Map.Entry<String, Writer> entry : outByDir.entrySet()) {
+            Section section = new Section(cacheDir, entry.getKey(), entry.getValue());
+            sections.add(section);
+            cacheKeys.add(section.cacheKey);
+            trie.put(entry.getKey(), section);
+        }
+        String released = newestCachedRelease(gitDir, cacheDir, cacheKeys);
+        if (released != null && interleaves(gitDir, released)) {
+            released = null;
+        }
+
+        List<String> releasedText = new ArrayList<>();
+        for (Section section : sections) {
+            String text = released != null ? readCache(section.cacheFile(released), section.path) : null;
+            if (text == null) {
+                released = null;
+                break;
+            }
+            releasedText.add(text);
+        }
 
-        StringBuilder buf = new StringBuilder();
-        boolean prevWasTag = true;
-        for (Map.Entry<String, String> entry : tags.entrySet()) {
-            String hash = entry.getKey();
-            String tagString = entry.getValue();
-            if (!"".equals(tagString)) {
-                buf.append("    ").append(tagString).append('\n');
+        Renderer r = new Renderer(sections, trie);
+        walk(gitDir, released, r);
+        for (int i = 0; released != null && i < sections.size(); i++) {
+            sections.get(i).emit(releasedText.get(i));
+        }
+
+        if (r.release != null && r.isReleaseComplete(released)) {
+            for (Section section : sections) {
+                writeCache(section.cacheFile(r.release), section.path, section.tail.toString());
+            }
+        }
+    }
+
+    /**
+     * One subdirectory's changelog.  Once the walk reaches the first release tag, everything written is also
+     * captured in {@link #tail} so it can be saved.
+     */
+    private static class Section {
+        private final File cacheDir;
+        private final String path;
+        private final String cacheKey;
+        private final Writer out;
+        private boolean prevWasTag = true;
+        private boolean touched;
+        private StringBuilder tail;
+
+        Section(File cacheDir, String path, Writer out) {
+            this.cacheDir = cacheDir;
+            this.path = path;
+            this.cacheKey = Integer.toHexString(path.hashCode());
+            this.out = out;
+        }
+
+        File cacheFile(String commit) {
+            return new File(cacheDir, commit + "." + cacheKey + ".txt");
+        }
+
+        void render(Commit c, String tagLine) throws IOException {
+            if (tagLine != null) {
+                emit(tagLine);
                 prevWasTag = true;
             }
-            String msg = msgs.get(hash);
-            if (msg != null) {
+            if (touched) {
                 if (prevWasTag) {
-                    buf.append('\n');
+                    emit("\n");
                 }
-                buf.append(hash.substring(0, 10)).append(" ").append(msg).append("\n\n");
+                emit(c.hash.substring(0, 10) + " " + c.subject + "\n\n");
                 prevWasTag = false;
             }
         }
 
-        return buf.toString();
+        void emit(String s) throws IOException {
+            out.write(s);
+            if (tail != null) {
+                tail.append(s);
+            }
+        }
     }
 
-    private static File gitDir(File d) {
-        String dir = d.getAbsolutePath() + "/.git";
-        File gitDir = new File(dir);
+    /**
+     * Classifies each commit's paths against the subdirectory trie, and renders every section.  Also
+     * checks that everything after the first release tag is exactly that release's own history (no
+     * unrelated commits mixed in by date), so the captured tails can be reused by later runs.
+     */
+    private static class Renderer implements CommitVisitor {
+        private final List<Section> sections;
+        private final PathTrie<Section> trie;
+        private final List<Section> hits = new ArrayList<>();
 
-        if (gitDir.exists()) {
-            return gitDir;
-        } else {
-            File parent = d.getParentFile();
+        private String release;
+        private Set<String> releaseAncestors;
+        private boolean pure;
 
-            if (parent == null) {
-                return null;
+        Renderer(List<Section> sections, PathTrie<Section> trie) {
+            this.sections = sections;
+            this.trie = trie;
+        }
+
+        public void visit(Commit c) throws IOException {
+            if (release == null) {
+                if (c.hasReleaseTag()) {
+                    release = c.hash;
+                    releaseAncestors = new HashSet<>(Arrays.asList(c.parents));
+                    pure = true;
+                    for (Section section : sections) {
+                        section.tail = new StringBuilder();
+                    }
+                }
+            } else if (releaseAncestors.remove(c.hash)) {
+                releaseAncestors.addAll(Arrays.asList(c.parents));
             } else {
-                return gitDir(parent);
+                pure = false;
             }
-        }
-    }
 
-    private static LinkedHashMap<String, String> log(File d, boolean applyDirFilter) throws IOException {
-        LinkedHashMap<String, String> m = new LinkedHashMap<>();
+            // Same commits as "git log --no-merges --full-history -- dir" for each section.
+            hits.clear();
+            if (!c.isMerge()) {
+                for (String p : c.paths) {
+                    trie.collect(p, hits);
+                }
+            }
+            for (Section section : hits) {
+                section.touched = true;
+            }
+            String tagLine = null;
+            if (!c.tags.isEmpty()) {
+                StringBuilder buf = new StringBuilder("    ");
+                for (String tag : c.tags) {
+                    if (buf.length() > 4) {
+                        buf.append(", ");
+                    }
+                    buf.append(tag);
+                }
+                tagLine = buf.append('\n').toString();
+            }
+            for (Section section : sections) {
+                section.render(c, tagLine);
+                section.touched = false;
+            }
+        }
 
-        File gitDir = gitDir(d);
-        if (gitDir == null) {
-            throw new IllegalArgumentException("Hit / without finding a .git dir: " + d.getAbsolutePath());
+        boolean isReleaseComplete(String excluded) {
+            return pure && (excluded == null || releaseAncestors.contains(excluded));
         }
+    }
 
-        String gitDirPath = gitDir.getAbsolutePath();
+    /**
+     * Subdirectory roots keyed by path segment.  A path matches every root it lives under (roots may nest,
+     * and "" is the root of everything), found in one pass over the path's segments.
+     */
+    static class PathTrie<T> {
+        private final Map<String, PathTrie<T>> children = new HashMap<>();
+        private T value;
 
-        List<String> cmdArgs = new ArrayList<>();
-        cmdArgs.add("git");
-        cmdArgs.add("--no-pager");
-        cmdArgs.add("--git-dir=" + gitDirPath);
-        cmdArgs.add("log");
-        if (applyDirFilter) {
-            cmdArgs.add("--pretty=%H %s");
-        } else {
-            cmdArgs.add("--pretty=%H %d");
-        }
-        cmdArgs.add("--date-order");
-        cmdArgs.add("-2000");
-
-        if (applyDirFilter) {
-            String rootPath = gitDir.getParentFile().getAbsolutePath();
-            String subDirPath = d.getAbsolutePath();
-            if (subDirPath.startsWith(rootPath)) {
-                subDirPath = subDirPath.substring(rootPath.length());
-                if (subDirPath.startsWith("/") || subDirPath.startsWith("\\")) {
-                    if (subDirPath.length() > 0) {
-                        subDirPath = subDirPath.substring(1);
+        void put(String dir, T t) {
+            PathTrie<T> node = this;
+            for (String segment : dir.split("/")) {
+                if (!"".equals(segment)) {
+                    PathTrie<T> child = node.children.get(segment);
+                    if (child == null) {
+                        child = new PathTrie<>();
+                        node.children.put(segment, child);
                     }
+                    node = child;
                 }
             }
+            node.value = t;
+        }
 
-            cmdArgs.add("--no-merges");
-            cmdArgs.add("--");
-            cmdArgs.add(subDirPath);
+        void collect(String path, Collection<T> hits) {
+            PathTrie<T> node = this;
+            int start = 0;
+            while (node != null) {
+                if (node.value != null && !hits.contains(node.value)) {
+                    hits.add(node.value);
+                }
+                if (start > path.length() || node.children.isEmpty()) {
+                    break;
+                }
+                int end = path.indexOf('/', start);
+                end = end < 0 ? path.length() : end;
+                node = node.children.get(path.substring(start, end));
+                start = end + 1;
+            }
         }
+    }
 
-        String[] cmd = cmdArgs.toArray(new String[cmdArgs.size()]);
+    interface CommitVisitor {
+        void visit(Commit c) throws IOException;
+    }
 
-        Process process = Runtime.getRuntime().exec(cmd);
-        BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream()));
-        String line;
-        while ((line = br.readLine()) != null) {
-            int x = line.indexOf(' ');
-            String hash = null;
-            if (x >= 0) {
-                hash = line.substring(0, x).trim();
-                line = line.substring(x + 1).trim();
-            }
-            if (applyDirFilter) {
-                m.put(hash, line);
-            } else {
-                m.put(hash, "");
-
-                x = line.indexOf('(');
-                int y = line.lastIndexOf(')');
-                if (x >= 0 && y >= x) {
-                    String decorations = line.substring(x + 1, y);
-
-                    TreeSet<String> tags = new TreeSet<>();
-                    String[] toks = decorations.split(", ");
-                    for (String t : toks) {
-                        if (t.startsWith("tag: ")) {
-                            tags.add(t.substring(5));
-                        }
-                    }
+    static class Commit {
+        String hash;
+        String[] parents;
+        String subject;
+        final Set<String> tags = new TreeSet<>();
+        final List<String> paths = new ArrayList<>();
 
-                    if (!tags.isEmpty()) {
-                        StringBuilder buf = new StringBuilder();
-                        for (String tag : tags) {
-                            buf.append(tag).append(", ");
-                        }
+        boolean isMerge() {
+            return parents.length > 1;
+        }
 
-                        buf.deleteCharAt(buf.length() - 1);
-                        buf.deleteCharAt(buf.length() - 1);
-                        m.put(hash, buf.toString().trim());
-                    }
+        boolean hasReleaseTag() {
+            for (String name : tags) {
+                Tag t = new Tag("", name, null);
+                if (t.isValid() && !t.containsSnapshot()) {
+                    return true;
                 }
             }
+            return false;
+        }
+    }
 
+    /**
+     * Streams "git log --date-order --name-only" from HEAD (stopping at "exclude" and its history, if given),
+     * one {@link Commit} at a time.
+     */
+    static void walk(File gitDir, String exclude, CommitVisitor v) throws IOException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("git");
+        cmd.add("-c");
+        cmd.add("core.quotePath=false");
+        cmd.add("--no-pager");
+        cmd.add("--git-dir=" + gitDir.getAbsolutePath());
+        cmd.add("log");
+        cmd.add("--date-order");
+        cmd.add("--name-only");
+        cmd.add("--pretty=format:%x01%H %P%x02%d%x02%s");
+        cmd.add("HEAD");
+        if (exclude != null) {
+            cmd.add("^" + exclude);
         }
+        cmd.add("--");
+
+        Process process = null;
+        BufferedReader br = null;
         try {
+            process = new ProcessBuilder(cmd).start();
+            process.getOutputStream().close();
+            InputThread err = new InputThread(process.getErrorStream());
+            err.start();
+            br = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+
+            Commit c = null;
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith("\u0001")) {
+                    if (c != null) {
+                        v.visit(c);
+                    }
+                    c = parseHeader(line);
+                } else if (c != null && !"".equals(line)) {
+                    c.paths.add(line);
+                }
+            }
+            if (c != null) {
+                v.visit(c);
+            }
             process.waitFor();
+            err.join();
         } catch (InterruptedException ie) {
             Thread.currentThread().interrupt();
+        } finally {
+            Finally.close(br, process);
+        }
+    }
+
+    private static Commit parseHeader(String line) {
+        // \x01<hash> <parents...>\x02<decorations>\x02<subject>
+        int x = line.indexOf('\u0002');
+        int y = line.indexOf('\u0002', x + 1);
+        Commit c = new Commit();
+        String[] ids = line.substring(1, x).trim().split(" ");
+        c.hash = ids[0];
+        c.parents = Arrays.copyOfRange(ids, 1, ids.length);
+        c.subject = line.substring(y + 1).trim();
+
+        String decorations = line.substring(x + 1, y).trim();
+        if (decorations.startsWith("(") && decorations.endsWith(")")) {
+            for (String t : decorations.substring(1, decorations.length() - 1).split(", ")) {
+                if (t.startsWith(Tag.TAG_IDENTIFIER)) {
+                    c.tags.add(t.substring(Tag.TAG_IDENTIFIER.length()));
+                }
+            }
+        }
+        return c;
+    }
+
+    private static String subDirPath(File gitDir, File d) {
+        String rootPath = gitDir.getParentFile().getAbsolutePath();
+        String subDirPath = d.getAbsolutePath();
+        if (subDirPath.startsWith(rootPath)) {
+            subDirPath = subDirPath.substring(rootPath.length());
+            if (subDirPath.startsWith("/") || subDirPath.startsWith("\\")) {
+                subDirPath = subDirPath.substring(1);
+            }
+        }
+        return subDirPath.replace('\\', '/');
+    }
+
+    /**
+     * @return the newest first-parent ancestor of HEAD that has a saved changelog tail for every key, or null.
+     */
+    private static String newestCachedRelease(File gitDir, File cacheDir, List<String> cacheKeys) throws IOException {
+        String[] names = cacheDir.list();
+        Map<String, Integer> cached = new HashMap<>();
+        for (String name : names != null ? names : new String[0]) {
+            int x = name.indexOf('.');
+            if (x > 0 && name.endsWith(".txt") && cacheKeys.contains(name.substring(x + 1, name.length() - 4))) {
+                Integer count = cached.get(name.substring(0, x));
+                cached.put(name.substring(0, x), count != null ? count + 1 : 1);
+            }
+        }
+        if (cached.isEmpty()) {
+            return null;
+        }
+
+        FirstParentWalk walk = FirstParentWalk.open(gitDir.getAbsolutePath());
+        try {
+            while (walk != null && walk.next()) {
+                Integer count = cached.get(walk.oid());
+                if (count != null && count == cacheKeys.size()) {
+                    return walk.oid();
+                }
+            }
+            return null;
+        } finally {
+            Finally.close(walk);
+        }
+    }
+
+    /**
+     * @return true if some commit since the release is not newer than the release commit itself, so that
+     *         "git log --date-order" would list it after the release (ties included, to be safe).
+     */
+    private static boolean interleaves(File gitDir, String release) {
+        String dir = gitDir.getAbsolutePath();
+        Git.Result date = Git.run(dir, "log", "-1", "--format=%ct", release);
+        if (date.exitCode != 0 || date.stdout.isEmpty()) {
+            return true;
+        }
+        Git.Result older = Git.run(dir, "rev-list", "-1", "--min-age=" + date.stdout.get(0).trim(),
+                "HEAD", "^" + release);
+        return older.exitCode != 0 || !older.stdout.isEmpty();
+    }
+
+    private static String readCache(File f, String subDirPath) {
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8));
+            if (!(CACHE_HEADER + subDirPath).equals(br.readLine())) {
+                return null;
+            }
+            StringBuilder buf = new StringBuilder();
+            char[] chars = new char[8192];
+            int c;
+            while ((c = br.read(chars)) >= 0) {
+                buf.append(chars, 0, c);
+            }
+            return buf.toString();
+        } catch (IOException ioe) {
+            return null;
+        } finally {
+            Finally.close(br);
+        }
+    }
+
+    private static void writeCache(File f, String subDirPath, String text) {
+        File dir = f.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        File tmp = new File(dir, f.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        Writer w = null;
+        try {
+            w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8);
+            w.write(CACHE_HEADER + subDirPath + "\n");
+            w.write(text);
+            w.close();
+            w = null;
+            if (!tmp.renameTo(f)) {
+                f.delete();
+                tmp.renameTo(f);
+            }
+        } catch (IOException ioe) {
+            tmp.delete();
+        } finally {
+            Finally.close(w);
         }
-        return m;
     }
 
+    private static File gitDir(File d) {
+        String dir = d.getAbsolutePath() + "/.git";
+        File gitDir = new File(dir);
+
+        if (gitDir.exists()) {
+            return gitDir;
+        } else {
+            File parent = d.getParentFile();
+
+            if (parent == null) {
+                return null;
+            } else {
+                return gitDir(parent);
+            }
+        }
+    }
 }
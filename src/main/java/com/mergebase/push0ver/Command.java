@@ -20,7 +20,17 @@ public class Command {
     public Command execute() throws IOException {
         pb.directory(new File("."));
         pb.redirectErrorStream(true);
-        Process p = pb.start();
+        Trace.Span span = Trace.client("exec " + pb.command().get(0))
+                .attr("process.command_line", String.join(" ", pb.command()));
+        Jfr.Event jfr = Jfr.SUBPROCESS.begin();
+        Process p;
+        try {
+            p = pb.start();
+        } catch (IOException ioe) {
+            span.error(ioe).end();
+            jfr.set("command", String.join(" ", pb.command())).commit();
+            throw ioe;
+        }
 
         it = new InputThread(p.getInputStream());
         it.start();
@@ -31,7 +41,11 @@ public class Command {
             p.destroy();
 
         } catch (InterruptedException e) {
+            span.error(e);
             e.printStackTrace();
+        } finally {
+            span.attr("process.exit_code", exitCode).end();
+            jfr.set("command", String.join(" ", pb.command())).set("exitCode", exitCode).commit();
         }
         return this;
     }
@@ -39,7 +53,17 @@ public class Command {
     public Command execute(File dir) throws IOException {
         pb.directory(dir);
         pb.redirectErrorStream(true);
-        Process p = pb.start();
+        Trace.Span span = Trace.client("exec " + pb.command().get(0))
+                .attr("process.command_line", String.join(" ", pb.command()));
+        Jfr.Event jfr = Jfr.SUBPROCESS.begin();
+        Process p;
+        try {
+            p = pb.start();
+        } catch (IOException ioe) {
+            span.error(ioe).end();
+            jfr.set("command", String.join(" ", pb.command())).commit();
+            throw ioe;
+        }
 
         it = new InputThread(p.getInputStream());
         it.start();
@@ -49,7 +73,11 @@ public class Command {
             stdout = it.getOutput();
 
         } catch (InterruptedException e) {
+            span.error(e);
             e.printStackTrace();
+        } finally {
+            span.attr("process.exit_code", exitCode).end();
+            jfr.set("command", String.join(" ", pb.command())).set("exitCode", exitCode).commit();
         }
         return this;
     }
@@ -0,0 +1,199 @@
+package com.mergebase.push0ver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only view of git's ".git/objects/info/commit-graph" file (format version 1).
+ * <p>
+ * Commits are addressed by their position in the graph's sorted OID list.  Parents are stored as
+ * positions too, so walking history is just a chain of int lookups into a memory-mapped file:
+ * no subprocess, and no commit objects are inflated.
+ * <p>
+ * Only a single, non-split commit-graph is supported.  Anything else (split graph chains, shallow
+ * clones, unknown versions) makes {@link #open(File)} return null and callers fall back to "git log".
+ */
+public class CommitGraph {
+    public static final int NO_PARENT = -1;
+
+    private static final int SIGNATURE = 0x43475048; // "CGPH"
+    private static final int CHUNK_OID_FANOUT = 0x4f494446; // "OIDF"
+    private static final int CHUNK_OID_LOOKUP = 0x4f49444c; // "OIDL"
+    private static final int CHUNK_COMMIT_DATA = 0x43444154; // "CDAT"
+    private static final int GRAPH_PARENT_NONE = 0x70000000;
+
+    private final ByteBuffer buf;
+    private final int hashLen;
+    private final int commitCount;
+    private final int fanoutOffset;
+    private final int oidOffset;
+    private final int dataOffset;
+
+    private CommitGraph(ByteBuffer buf, int hashLen, int fanoutOffset, int oidOffset, int dataOffset) {
+        this.buf = buf;
+        this.hashLen = hashLen;
+        this.fanoutOffset = fanoutOffset;
+        this.oidOffset = oidOffset;
+        this.dataOffset = dataOffset;
+        this.commitCount = buf.getInt(fanoutOffset + 255 * 4);
+    }
+
+    /**
+     * @param gitDir the ".git" directory
+     * @return the commit-graph, or null if it is missing or not something we can read.
+     */
+    public static CommitGraph open(File gitDir) {
+        if (new File(gitDir, "shallow").exists() || new File(gitDir, "info/grafts").exists()) {
+            // git itself ignores the commit-graph for these.
+            return null;
+        }
+        File f = new File(gitDir, "objects/info/commit-graph");
+        if (!f.isFile()) {
+            return null;
+        }
+        CommitGraph warm = WarmCache.get(f, CommitGraph.class);
+        if (warm != null) {
+            return warm;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(f, "r");
+            FileChannel ch = raf.getChannel();
+            if (ch.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            CommitGraph graph = parse(buf);
+            WarmCache.put(f, graph);
+            return graph;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();  // mapping stays valid after close
+                } catch (IOException ioe) {
+                    // nobody cares
+                }
+            }
+        }
+    }
+
+    static CommitGraph parse(ByteBuffer buf) {
+        if (buf.limit() < 8 || buf.getInt(0) != SIGNATURE || buf.get(4) != 1) {
+            return null;
+        }
+        int hashVersion = buf.get(5);
+        int hashLen = hashVersion == 1 ? 20 : hashVersion == 2 ? 32 : -1;
+        int chunks = buf.get(6) & 0xFF;
+        int baseGraphs = buf.get(7) & 0xFF;
+        if (hashLen < 0 || baseGraphs != 0) {
+            return null;
+        }
+
+        int fanout = -1;
+        int oids = -1;
+        int data = -1;
+        for (int i = 0; i < chunks; i++) {
+            int pos = 8 + i * 12;
+            int id = buf.getInt(pos);
+            long offset = buf.getLong(pos + 4);
+            if (offset > buf.limit()) {
+                return null;
+            }
+            if (id == CHUNK_OID_FANOUT) {
+                fanout = (int) offset;
+            } else if (id == CHUNK_OID_LOOKUP) {
+                oids = (int) offset;
+            } else if (id == CHUNK_COMMIT_DATA) {
+                data = (int) offset;
+            }
+        }
+        if (fanout < 0 || oids < 0 || data < 0) {
+            return null;
+        }
+        return new CommitGraph(buf, hashLen, fanout, oids, data);
+    }
+
+    public int size() {
+        return commitCount;
+    }
+
+    /**
+     * @return position of the commit in the graph, or -1 if the graph does not contain it.
+     */
+    public int position(String hexOid) {
+        if (hexOid == null || hexOid.length() != hashLen * 2) {
+            return -1;
+        }
+        byte[] oid = new byte[hashLen];
+        for (int i = 0; i < hashLen; i++) {
+            int hi = Character.digit(hexOid.charAt(2 * i), 16);
+            int lo = Character.digit(hexOid.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                return -1;
+            }
+            oid[i] = (byte) ((hi << 4) | lo);
+        }
+        return position(oid);
+    }
+
+    int position(byte[] oid) {
+        int first = oid[0] & 0xFF;
+        int lo = first == 0 ? 0 : buf.getInt(fanoutOffset + (first - 1) * 4);
+        int hi = buf.getInt(fanoutOffset + first * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareOid(mid, oid);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareOid(int pos, byte[] oid) {
+        int base = oidOffset + pos * hashLen;
+        for (int i = 0; i < hashLen; i++) {
+            int c = (buf.get(base + i) & 0xFF) - (oid[i] & 0xFF);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    public String oid(int pos) {
+        char[] hex = new char[hashLen * 2];
+        int base = oidOffset + pos * hashLen;
+        for (int i = 0; i < hashLen; i++) {
+            int b = buf.get(base + i) & 0xFF;
+            hex[2 * i] = Character.forDigit(b >>> 4, 16);
+            hex[2 * i + 1] = Character.forDigit(b & 0xF, 16);
+        }
+        return new String(hex);
+    }
+
+    /**
+     * @return position of the first parent, or {@link #NO_PARENT} for a root commit.
+     */
+    public int firstParent(int pos) {
+        int p = buf.getInt(dataOffset + pos * (hashLen + 16) + hashLen);
+        return p == GRAPH_PARENT_NONE ? NO_PARENT : p;
+    }
+
+    /**
+     * @return the topological level ("generation number v1") of the commit, or 0 if git did not compute one.
+     */
+    public int generation(int pos) {
+        return buf.getInt(dataOffset + pos * (hashLen + 16) + hashLen + 8) >>> 2;
+    }
+}
@@ -0,0 +1,112 @@
+package com.mergebase.push0ver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Tells from a file's first bytes (its magic number) whether a plain-text sentinel could be in it.
+ * <p>
+ * Compressed and encoded formats (gzip, xz, images, web fonts...) can't hold the sentinel as plain bytes,
+ * so there is nothing to find by reading them.  Zips (jar, war, ear, zip) can hold it in their entries,
+ * usually deflated, so they're opened and read entry by entry instead.  Anything unrecognized is scanned.
+ */
+public class ContentSniffer {
+
+    public enum Kind {
+        /**
+         * Scan the bytes as they are.
+         */
+        RAW,
+        /**
+         * Compressed or encoded:  skip.
+         */
+        OPAQUE,
+        /**
+         * A zip archive:  scan each entry.
+         */
+        ZIP
+    }
+
+    /**
+     * Bytes {@link #sniff(byte[], int)} needs to see.
+     */
+    public static final int HEAD = 12;
+
+    private static final int[][] OPAQUE = {
+            {0x1F, 0x8B},                                     // gzip (.gz, .tgz)
+            {'B', 'Z', 'h'},                                  // bzip2
+            {0xFD, '7', 'z', 'X', 'Z', 0x00},                 // xz
+            {'7', 'z', 0xBC, 0xAF, 0x27, 0x1C},               // 7z
+            {0x28, 0xB5, 0x2F, 0xFD},                         // zstd
+            {0x04, 0x22, 0x4D, 0x18},                         // lz4
+            {'R', 'a', 'r', '!', 0x1A, 0x07},                 // rar
+            {'P', 'K', 0x05, 0x06},                           // empty zip
+            {0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A},    // png
+            {0xFF, 0xD8, 0xFF},                               // jpeg
+            {'G', 'I', 'F', '8'},                             // gif
+            {'w', 'O', 'F', 'F'},                             // woff
+            {'w', 'O', 'F', '2'},                             // woff2
+            {0xCA, 0xFE, 0xBA, 0xBE},                         // *.class (never edited, see WorkspaceScanner)
+    };
+
+    public static Kind sniff(File f) throws IOException {
+        InputStream in = new FileInputStream(f);
+        try {
+            byte[] head = new byte[HEAD];
+            return sniff(head, readHead(in, head));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param len how many bytes of head are valid (may be fewer than {@link #HEAD} for small files)
+     */
+    public static Kind sniff(byte[] head, int len) {
+        if (startsWith(head, len, 'P', 'K', 0x03, 0x04)) {
+            return Kind.ZIP;
+        }
+        for (int[] magic : OPAQUE) {
+            if (startsWith(head, len, magic)) {
+                return Kind.OPAQUE;
+            }
+        }
+        // webp ("RIFF" size "WEBP") and mp4/mov ("ftyp" after the box size)
+        if (startsWith(head, len, 'R', 'I', 'F', 'F') && len >= 12 && matchesAt(head, 8, 'W', 'E', 'B', 'P')) {
+            return Kind.OPAQUE;
+        }
+        if (len >= 8 && matchesAt(head, 4, 'f', 't', 'y', 'p')) {
+            return Kind.OPAQUE;
+        }
+        return Kind.RAW;
+    }
+
+    /**
+     * Reads until head is full or the stream ends.
+     *
+     * @return bytes read
+     */
+    static int readHead(InputStream in, byte[] head) throws IOException {
+        int len = 0;
+        int n;
+        while (len < head.length && (n = in.read(head, len, head.length - len)) >= 0) {
+            len += n;
+        }
+        return len;
+    }
+
+    private static boolean startsWith(byte[] head, int len, int... magic) {
+        return len >= magic.length && matchesAt(head, 0, magic);
+    }
+
+    private static boolean matchesAt(byte[] head, int offset, int... magic) {
+        for (int i = 0; i < magic.length; i++) {
+            if ((head[offset + i] & 0xFF) != magic[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,254 @@
+package com.mergebase.push0ver;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.mergebase.push0ver.pre.PreApp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resident push0ver for CLI use:  serves "pre" and "post" runs for {@link DaemonClient} over a loopback
+ * socket, so repeated releases skip JVM startup and class loading, and find HTTP connections, the trust-all
+ * TLS context, tag / scan indexes and commit-graphs already warm (see {@link WarmCache}).
+ * <p>
+ * The port and a random token go in ~/.push0ver/daemon.properties (owner-only);  a request without the token
+ * is refused.  The daemon exits after push0ver.daemon.idleMinutes (default 30) without requests, or when a
+ * client sends "stop".
+ * <p>
+ * Runs use the daemon's environment (PATH, JAVA_HOME, mvn, git), not the client's.
+ * <p>
+ * Protocol:  the client sends one JSON line {token, command, args, properties};  the daemon answers with
+ * "L &lt;log line&gt;" lines and a final "X &lt;exit code&gt;".
+ */
+public class Daemon {
+    private final ServerSocket server;
+    private final File stateFile;
+    private final String token;
+    private final long idleMillis;
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile long lastRequest = System.currentTimeMillis();
+    private volatile boolean stopping;
+
+    private Daemon(ServerSocket server, File stateFile, String token, long idleMillis) {
+        this.server = server;
+        this.stateFile = stateFile;
+        this.token = token;
+        this.idleMillis = idleMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        long idleMinutes = Long.getLong("push0ver.daemon.idleMinutes", 30);
+        Daemon d = start(DaemonClient.stateDir(), idleMinutes * 60 * 1000);
+        System.out.println("push0ver - daemon listening on " + d.getPort() + " (idle shutdown after " + idleMinutes + " min)");
+        d.serve();
+        System.out.println("push0ver - daemon stopped");
+    }
+
+    /**
+     * Binds a loopback port and publishes it (with a fresh token) in stateDir.
+     */
+    static Daemon start(File stateDir, long idleMillis) throws IOException {
+        if (!stateDir.isDirectory() && !stateDir.mkdirs()) {
+            throw new IOException("Cannot create " + stateDir);
+        }
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        StringBuilder token = new StringBuilder();
+        for (byte b : random) {
+            token.append(String.format("%02x", b & 0xFF));
+        }
+
+        ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        File stateFile = new File(stateDir, DaemonClient.STATE_FILE);
+        Properties state = new Properties();
+        state.setProperty("port", Integer.toString(server.getLocalPort()));
+        state.setProperty("token", token.toString());
+        File tmp = new File(stateDir, DaemonClient.STATE_FILE + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            try {
+                Files.setPosixFilePermissions(tmp.toPath(), PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException uoe) {
+                // Not a POSIX file system.
+            }
+            state.store(out, "push0ver daemon");
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(stateFile)) {
+            stateFile.delete();
+            tmp.renameTo(stateFile);
+        }
+        WarmCache.enable();
+        return new Daemon(server, stateFile, token.toString(), idleMillis);
+    }
+
+    int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Accepts requests until "stop" or the idle timeout.
+     */
+    void serve() throws IOException {
+        server.setSoTimeout((int) Math.max(10, Math.min(idleMillis, 1000)));
+        try {
+            while (!stopping) {
+                final Socket s;
+                try {
+                    s = server.accept();
+                } catch (SocketTimeoutException ste) {
+                    if (active.get() == 0 && System.currentTimeMillis() - lastRequest > idleMillis) {
+                        break;
+                    }
+                    continue;
+                } catch (IOException ioe) {
+                    if (stopping) {
+                        break;
+                    }
+                    throw ioe;
+                }
+                active.incrementAndGet();
+                Thread t = new Thread("push0ver-daemon-request") {
+                    public void run() {
+                        try {
+                            handle(s);
+                        } finally {
+                            lastRequest = System.currentTimeMillis();
+                            active.decrementAndGet();
+                        }
+                    }
+                };
+                t.start();
+            }
+        } finally {
+            shutdown();
+        }
+    }
+
+    private void shutdown() {
+        stopping = true;
+        Finally.close(server);
+        // Only our own state file:  a newer daemon may have replaced it.
+        Properties state = DaemonClient.readState(stateFile.getParentFile());
+        if (state != null && token.equals(state.getProperty("token"))) {
+            stateFile.delete();
+        }
+        WarmCache.disable();
+        Transport.closeKept();
+    }
+
+    private void handle(Socket s) {
+        try {
+            s.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            final Writer out = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8);
+            MyLogger log = logLine -> {
+                synchronized (out) {
+                    try {
+                        for (String line : String.valueOf(logLine).split("\\r?\\n")) {
+                            out.write("L " + line + "\n");
+                        }
+                        out.flush();
+                    } catch (IOException ioe) {
+                        // Client went away:  the run carries on.
+                    }
+                }
+                return logLine;
+            };
+            int exit = run(in.readLine(), log);
+            synchronized (out) {
+                out.write("X " + exit + "\n");
+                out.flush();
+            }
+        } catch (IOException ioe) {
+            // Client went away.
+        } finally {
+            Finally.close(s);
+        }
+    }
+
+    private int run(String request, MyLogger log) {
+        JsonObject json;
+        try {
+            json = new JsonParser().parse(request).getAsJsonObject();
+        } catch (RuntimeException re) {
+            log.addBuildLogEntry("push0ver - daemon: bad request");
+            return 2;
+        }
+        JsonElement t = json.get("token");
+        if (t == null || !MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                t.getAsString().getBytes(StandardCharsets.UTF_8))) {
+            log.addBuildLogEntry("push0ver - daemon: bad token");
+            return 2;
+        }
+        String command = json.has("command") ? json.get("command").getAsString() : "";
+        if ("ping".equals(command)) {
+            return 0;
+        } else if ("stop".equals(command)) {
+            stopping = true;
+            Finally.close(server);
+            return 0;
+        }
+
+        List<String> args = new ArrayList<>();
+        if (json.has("args")) {
+            JsonArray a = json.getAsJsonArray("args");
+            for (int i = 0; i < a.size(); i++) {
+                args.add(a.get(i).getAsString());
+            }
+        }
+        Properties p = new Properties();
+        if (json.has("properties")) {
+            for (Map.Entry<String, JsonElement> e : json.getAsJsonObject("properties").entrySet()) {
+                p.setProperty(e.getKey(), e.getValue().getAsString());
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            if ("post".equals(command)) {
+                App.invoke(args.toArray(new String[args.size()]), p, log, new RunStats("post"));
+            } else if ("pre".equals(command)) {
+                PreApp.invoke(args.toArray(new String[args.size()]), p, log, new RunStats("pre"));
+            } else {
+                log.addBuildLogEntry("push0ver - daemon: unknown command [" + command + "] (pre, post, ping, stop)");
+                return 2;
+            }
+            return 0;
+        } catch (Exception e) {
+            StringWriter sw = new StringWriter();
+            e.printStackTrace(new PrintWriter(sw));
+            log.addBuildLogEntry("push0ver - STACKTRACE:     " + sw);
+            return 1;
+        } finally {
+            log.addBuildLogEntry("push0ver - daemon: " + command + " took " + (System.currentTimeMillis() - start)
+                    + " ms (warm: " + WarmCache.describe() + ")");
+        }
+    }
+}
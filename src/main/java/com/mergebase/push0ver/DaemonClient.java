@@ -0,0 +1,223 @@
+package com.mergebase.push0ver;
+
+import com.mergebase.push0ver.pre.PreApp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Thin CLI front end for {@link Daemon}:  sends the run to the resident push0ver and prints its log.
+ * <p>
+ * Usage:  DaemonClient pre|post [path] [push] (with the usual -Drepo.name=... properties), or DaemonClient stop.
+ * <p>
+ * If no daemon is running, one is started in the background (same java, same classpath) unless
+ * -Dpush0ver.daemon.spawn=false;  if that fails too, the run happens right here, like App.main / PreApp.main.
+ * Deliberately loads nothing but java.* classes on the happy path, so the client JVM is up in milliseconds.
+ */
+public class DaemonClient {
+    static final String STATE_FILE = "daemon.properties";
+    static final int NO_DAEMON = -1;
+    private static final long SPAWN_WAIT_MILLIS = 10000;
+    private static final String[] JVM_PREFIXES = {
+            "java.", "javax.", "jdk.", "sun.", "os.", "user.", "file.", "line.", "path.", "awt.", "native.",
+            "stdout.", "stderr.", "push0ver.daemon."};
+
+    public static void main(String[] args) throws Exception {
+        String command = args.length > 0 ? args[0] : "";
+        List<String> rest = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            rest.add(args[i]);
+        }
+        if (!"stop".equals(command)) {
+            // The daemon has its own working directory:  send absolute paths.
+            String path = rest.isEmpty() || "".equals(rest.get(0).trim()) ? "." : rest.get(0).trim();
+            String abs = new File(path).getAbsoluteFile().toPath().normalize().toString();
+            if (rest.isEmpty()) {
+                rest.add(abs);
+            } else {
+                rest.set(0, abs);
+            }
+        }
+        Map<String, String> props = properties(System.getProperties());
+        if (props.containsKey("git.repo")) {
+            props.put("git.repo", new File(props.get("git.repo")).getAbsolutePath());
+        }
+
+        File stateDir = stateDir();
+        int exit = call(stateDir, command, rest, props, System.out);
+        if (exit == NO_DAEMON && !"stop".equals(command) && !"false".equals(System.getProperty("push0ver.daemon.spawn"))) {
+            spawn(stateDir);
+            long deadline = System.currentTimeMillis() + SPAWN_WAIT_MILLIS;
+            while (exit == NO_DAEMON && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+                exit = call(stateDir, command, rest, props, System.out);
+            }
+        }
+        if (exit == NO_DAEMON) {
+            exit = inProcess(command, rest, props);
+        }
+        System.exit(exit);
+    }
+
+    /**
+     * @return the daemon's exit code for the run, or {@link #NO_DAEMON} if no daemon answered.
+     */
+    static int call(File stateDir, String command, List<String> args, Map<String, String> props, PrintStream out) {
+        Properties state = readState(stateDir);
+        if (state == null) {
+            return NO_DAEMON;
+        }
+        Socket s;
+        try {
+            s = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(state.getProperty("port", "-1")));
+        } catch (IOException | RuntimeException e) {
+            return NO_DAEMON;
+        }
+        try {
+            s.setTcpNoDelay(true);
+            Writer w = new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8);
+            StringBuilder buf = new StringBuilder("{\"token\":");
+            quote(buf, state.getProperty("token", "")).append(",\"command\":");
+            quote(buf, command).append(",\"args\":[");
+            for (int i = 0; i < args.size(); i++) {
+                quote(i > 0 ? buf.append(',') : buf, args.get(i));
+            }
+            buf.append("],\"properties\":{");
+            boolean first = true;
+            for (Map.Entry<String, String> e : props.entrySet()) {
+                quote(first ? buf : buf.append(','), e.getKey()).append(':');
+                quote(buf, e.getValue());
+                first = false;
+            }
+            w.write(buf.append("}}\n").toString());
+            w.flush();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("L ")) {
+                    out.println(line.substring(2));
+                } else if (line.startsWith("X ")) {
+                    return Integer.parseInt(line.substring(2).trim());
+                }
+            }
+            out.println("push0ver - daemon went away before the run finished");
+            return 1;
+        } catch (IOException ioe) {
+            return NO_DAEMON;
+        } finally {
+            Finally.close(s);
+        }
+    }
+
+    /**
+     * Everything that was set with -D, minus the JVM's own properties.
+     */
+    static Map<String, String> properties(Properties p) {
+        Map<String, String> props = new TreeMap<>();
+        for (String key : p.stringPropertyNames()) {
+            boolean jvm = false;
+            for (String prefix : JVM_PREFIXES) {
+                jvm |= key.startsWith(prefix);
+            }
+            if (!jvm) {
+                props.put(key, p.getProperty(key));
+            }
+        }
+        return props;
+    }
+
+    static File stateDir() {
+        String dir = System.getProperty("push0ver.daemon.dir");
+        return dir != null ? new File(dir) : new File(System.getProperty("user.home"), ".push0ver");
+    }
+
+    static Properties readState(File stateDir) {
+        File f = new File(stateDir, STATE_FILE);
+        if (!f.isFile()) {
+            return null;
+        }
+        Properties state = new Properties();
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(f);
+            state.load(in);
+            return state;
+        } catch (IOException ioe) {
+            return null;
+        } finally {
+            Finally.close(in);
+        }
+    }
+
+    private static void spawn(File stateDir) {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> cmd = new ArrayList<>();
+        cmd.add(java);
+        for (String key : System.getProperties().stringPropertyNames()) {
+            if (key.startsWith("push0ver.daemon.")) {
+                cmd.add("-D" + key + "=" + System.getProperty(key));
+            }
+        }
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add("com.mergebase.push0ver.Daemon");
+        try {
+            stateDir.mkdirs();
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            pb.redirectErrorStream(true);
+            pb.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(stateDir, "daemon.log")));
+            pb.start();
+        } catch (IOException ioe) {
+            System.out.println("push0ver - could not start a daemon (" + ioe + "), running in-process");
+        }
+    }
+
+    private static int inProcess(String command, List<String> args, Map<String, String> props) throws Exception {
+        Properties p = new Properties();
+        p.putAll(props);
+        MyLogger log = logLine -> {
+            System.out.println(logLine);
+            return logLine;
+        };
+        String[] a = args.toArray(new String[args.size()]);
+        if ("post".equals(command)) {
+            App.invoke(a, p, log);
+        } else if ("pre".equals(command)) {
+            PreApp.invoke(a, p, log);
+        } else if (!"stop".equals(command)) {
+            System.out.println("Usage:  DaemonClient pre|post [path] [push]   or   DaemonClient stop");
+            return 2;
+        }
+        return 0;
+    }
+
+    private static StringBuilder quote(StringBuilder buf, String s) {
+        buf.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                buf.append('\\').append(c);
+            } else if (c < 0x20) {
+                buf.append(String.format("\\u%04x", (int) c));
+            } else {
+                buf.append(c);
+            }
+        }
+        return buf.append('"');
+    }
+}
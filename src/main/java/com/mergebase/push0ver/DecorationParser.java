@@ -0,0 +1,171 @@
+package com.mergebase.push0ver;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parses "git log --pretty=%d" decoration lines, e.g. " (HEAD -> master, tag: 1.2.3, tag: api/1.2.4-SNAPSHOT)".
+ * <p>
+ * Each line is scanned once, in place:  no trimming, substrings or splitting.  Every "tag: " token is sorted
+ * into the RELEASE or SNAPSHOT bucket (largest tag per directory) in the same pass.  Tags are parsed once
+ * per name and then reused from a small open-addressing table that is probed straight from the line's
+ * characters, so lines with no new tag names allocate nothing (and untagged lines never do).
+ */
+class DecorationParser {
+    private static final String SEPARATOR = ", ";
+
+    private final String projectDir;
+    private final MyLogger log;
+
+    private Entry[] table = new Entry[64];
+    private int size;
+
+    private Map<String, Tag> release;
+    private Map<String, Tag> snapshot;
+
+    private static class Entry {
+        final String name;
+        final int hash;
+        final Tag tag;
+        boolean logged;
+
+        Entry(String name, int hash, Tag tag) {
+            this.name = name;
+            this.hash = hash;
+            this.tag = tag;
+        }
+    }
+
+    DecorationParser(String projectDir, MyLogger log) {
+        this.projectDir = projectDir;
+        this.log = log;
+    }
+
+    /**
+     * Parses one decoration line.  Afterwards {@link #release()} and {@link #snapshot()} describe it.
+     */
+    void parse(String line) {
+        release = null;
+        snapshot = null;
+        if (line == null) {
+            return;
+        }
+
+        int start = 0;
+        int end = line.length();
+        while (start < end && line.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (end - start >= 2) {
+            if (line.charAt(start) == '(') {
+                start++;
+            }
+            if (line.charAt(end - 1) == ')') {
+                end--;
+            }
+        }
+
+        int tokenStart = start;
+        while (tokenStart < end) {
+            int tokenEnd = line.indexOf(SEPARATOR, tokenStart);
+            if (tokenEnd < 0 || tokenEnd > end) {
+                tokenEnd = end;
+            }
+            if (line.startsWith(Tag.TAG_IDENTIFIER, tokenStart)) {
+                add(line, tokenStart + Tag.TAG_IDENTIFIER.length(), tokenEnd);
+            }
+            tokenStart = tokenEnd + SEPARATOR.length();
+        }
+    }
+
+    /**
+     * @return largest RELEASE tag per directory on the last parsed line, or null if none.
+     */
+    Map<String, Tag> release() {
+        return release;
+    }
+
+    /**
+     * @return largest SNAPSHOT tag per directory on the last parsed line, or null if none.
+     */
+    Map<String, Tag> snapshot() {
+        return snapshot;
+    }
+
+    private void add(String line, int start, int end) {
+        // The name ends at the first trailing space (if any), same as trimming the split token.
+        while (end > start && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        Entry e = lookup(line, start, end);
+        Tag tag = e.tag;
+        if (!tag.isValid()) {
+            if (!e.logged && log != null) {
+                TagExtractor.logInvalid(log, tag, e.name);
+                e.logged = true;
+            }
+            return;
+        }
+
+        Map<String, Tag> bucket;
+        if (tag.containsSnapshot()) {
+            if (snapshot == null) {
+                snapshot = new HashMap<>();
+            }
+            bucket = snapshot;
+        } else {
+            if (release == null) {
+                release = new HashMap<>();
+            }
+            bucket = release;
+        }
+        Tag other = bucket.get(tag.getDirectory());
+        if (other == null || other.compareTo(tag) < 0) {
+            bucket.put(tag.getDirectory(), tag);
+        }
+    }
+
+    private Entry lookup(String line, int start, int end) {
+        int len = end - start;
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + line.charAt(i);
+        }
+
+        int mask = table.length - 1;
+        int i = (h ^ (h >>> 16)) & mask;
+        Entry e;
+        while ((e = table[i]) != null) {
+            if (e.hash == h && e.name.length() == len && line.regionMatches(start, e.name, 0, len)) {
+                return e;
+            }
+            i = (i + 1) & mask;
+        }
+
+        String name = line.substring(start, end);
+        e = new Entry(name, h, new Tag(projectDir, name, log));
+        table[i] = e;
+        if (++size * 2 > table.length) {
+            rehash();
+        }
+        return e;
+    }
+
+    private void rehash() {
+        Entry[] old = table;
+        table = new Entry[old.length * 2];
+        int mask = table.length - 1;
+        for (Entry e : old) {
+            if (e != null) {
+                int i = (e.hash ^ (e.hash >>> 16)) & mask;
+                while (table[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.mergebase.push0ver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads a stream once and hands the same bytes to several readers (one per upload target), each in its own
+ * thread and at its own pace.
+ * <p>
+ * There is no pump thread:  whichever branch runs out of buffered chunks reads the next one from the source
+ * and queues it for the others.  The fastest branch waits once a slower one is {@link #MAX_QUEUED} chunks
+ * behind, so memory stays bounded no matter the file size.  A branch that is closed early (its upload failed)
+ * is dropped and never holds the others up.  Every branch must be read or closed, otherwise the rest stall.
+ * <p>
+ * The chunk size ("upload.chunk") bounds how far ahead the fastest branch may run:  {@link #MAX_QUEUED} chunks.
+ */
+class FileTee {
+    static final int CHUNK = 64 * 1024;
+    static final int MAX_QUEUED = 16;
+
+    private final InputStream source;
+    private final List<Branch> branches;
+    private final int chunk;
+    private final Object lock = new Object();
+    private boolean eof;
+    private IOException error;
+
+    FileTee(InputStream source, int n) {
+        this(source, n, CHUNK);
+    }
+
+    FileTee(InputStream source, int n, int chunk) {
+        this.source = source;
+        this.chunk = chunk;
+        List<Branch> list = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            list.add(new Branch());
+        }
+        this.branches = Collections.unmodifiableList(list);
+    }
+
+    List<? extends InputStream> getBranches() {
+        return branches;
+    }
+
+    private byte[] next(Branch me) throws IOException {
+        synchronized (lock) {
+            while (true) {
+                if (!me.queued.isEmpty()) {
+                    lock.notifyAll();
+                    return me.queued.poll();
+                }
+                if (error != null) {
+                    throw error;
+                }
+                if (eof) {
+                    return null;
+                }
+                if (laggard(me)) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted waiting for a slower upload");
+                    }
+                    continue;
+                }
+                byte[] chunk = read();
+                lock.notifyAll();
+                if (chunk == null) {
+                    return null;
+                }
+                for (Branch b : branches) {
+                    if (b != me && !b.closed) {
+                        b.queued.add(chunk);
+                    }
+                }
+                return chunk;
+            }
+        }
+    }
+
+    private boolean laggard(Branch me) {
+        for (Branch b : branches) {
+            if (b != me && !b.closed && b.queued.size() >= MAX_QUEUED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private byte[] read() throws IOException {
+        byte[] buf = new byte[chunk];
+        int len = 0;
+        try {
+            int n;
+            while (len < buf.length && (n = source.read(buf, len, buf.length - len)) >= 0) {
+                len += n;
+            }
+        } catch (IOException ioe) {
+            error = ioe;
+            throw ioe;
+        }
+        if (len < buf.length) {
+            eof = true;
+            Finally.close(source);
+            if (len == 0) {
+                return null;
+            }
+            byte[] last = new byte[len];
+            System.arraycopy(buf, 0, last, 0, len);
+            return last;
+        }
+        return buf;
+    }
+
+    private class Branch extends InputStream {
+        private final ArrayDeque<byte[]> queued = new ArrayDeque<>();
+        private byte[] current;
+        private int pos;
+        private boolean closed;
+
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (current == null || pos == current.length) {
+                current = next(this);
+                pos = 0;
+                if (current == null) {
+                    return -1;
+                }
+            }
+            int n = Math.min(len, current.length - pos);
+            System.arraycopy(current, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        public void close() {
+            synchronized (lock) {
+                if (!closed) {
+                    closed = true;
+                    queued.clear();
+                    lock.notifyAll();
+                    boolean allClosed = true;
+                    for (Branch b : branches) {
+                        allClosed &= b.closed;
+                    }
+                    if (allClosed) {
+                        Finally.close(source);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -1,17 +1,22 @@
 package com.mergebase.push0ver;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Comparator;
-import java.util.Locale;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 public class FileUtil {
 
@@ -21,73 +26,269 @@ public class FileUtil {
     private final static String SENTINEL = "0".substring(0, 1) + ".0.0-PUSH0VER";
 
     public static Set<File> injectTagRecursive(File root, String tag, MyLogger log) {
-        Set<File> matches = new TreeSet<>();
-        if (root != null) {
-            String name = root.getName();
-            if ("..".equals(name)) {
-                return matches;
-            }
+        return injectTagRecursive(root, tag, log, new RunStats("pre"));
+    }
 
-            Path rootPath = Paths.get(root.getAbsolutePath());
+    public static Set<File> injectTagRecursive(File root, String tag, MyLogger log, RunStats stats) {
+        if (root == null || "..".equals(root.getName())) {
+            return new TreeSet<>();
+        }
+        return WorkspaceScanner.inject(root, tag, log, stats);
+    }
+
+    /**
+     * Replaces both sentinels in one file.  Compressed and encoded files are skipped (see {@link ContentSniffer}),
+     * and zips are rewritten entry by entry.
+     *
+     * @return how many sentinels were replaced (for a zip, how many entries had one), the file is then added to
+     * matches.
+     */
+    static int injectTags(File f, String tag, MyLogger log, Set<File> matches, MemoryBudget memory) throws IOException {
+        ContentSniffer.Kind kind = ContentSniffer.sniff(f);
+        if (kind == ContentSniffer.Kind.OPAQUE) {
+            return 0;
+        } else if (kind == ContentSniffer.Kind.ZIP) {
             try {
+                return injectIntoZip(f, tag, log, matches, memory);
+            } catch (ZipException ze) {
+                // Looks like a zip, isn't one we can read:  treat it as plain bytes.
+                log.addBuildLogEntry("push0ver - Not a readable zip, scanning as-is [" + f + "]: " + ze.getMessage());
+            }
+        }
+        int found = injectTag(f, LEGACY_SENTINEL, tag, log, matches, memory);
+        return injectTag(f, SENTINEL, tag, log, matches, memory) + found;
+    }
+
+    /**
+     * Replaces the sentinels inside a zip's entries (deflated or stored), rewriting the zip only if an entry
+     * had one.  Entries that are themselves opaque or zips are left alone.
+     */
+    private static int injectIntoZip(
+            File f, String tag, MyLogger log, Set<File> matches, MemoryBudget memory) throws IOException {
+        Set<String> hits = new LinkedHashSet<>();
+        ZipFile zip = new ZipFile(f);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && containsSentinel(zip.getInputStream(entry))) {
+                    hits.add(entry.getName());
+                }
+            }
+            if (hits.isEmpty()) {
+                return 0;
+            }
+        } finally {
+            zip.close();
+        }
 
-                Files.walk(rootPath)
-                        .sorted(Comparator.reverseOrder())
-                        .map(Path::toFile)
-                        .forEach(f -> {
-                            if (f.isFile() && f.canRead()) {
-                                String p = f.getPath();
-                                String n = f.getName().toLowerCase(Locale.ENGLISH);
-                                if (p.contains("/node_modules/") || p.contains("/.git/") || n.endsWith(".class")) {
-                                    // Don't edit *.class files, it just corrupts them.
-                                    // Don't edit anything under ".git/"
-                                    // Don't edit anything under "node_modules/" (waste of time)
-                                    return;
-                                }
-
-                                try {
-                                    injectTag(f, LEGACY_SENTINEL, tag, log, matches);
-                                    injectTag(f, SENTINEL, tag, log, matches);
-                                } catch (IOException ioe) {
-                                    throw new RuntimeException("Failed to inject tag [" + tag + "] in file [" + f.getAbsolutePath() + "]");
-                                }
-                            }
-                        });
-            } catch (IOException ioe) {
-                throw new RuntimeException("Files.walk() failed for [" + root.getAbsolutePath() + "] because " + ioe);
+        Trace.Span span = Trace.start("rewrite archive").attr("file", f.getPath()).attr("bytes", f.length())
+                .attr("entries", hits.size());
+        Jfr.Event jfr = Jfr.ARCHIVE_REWRITE.begin();
+        File parent = f.getAbsoluteFile().getParentFile();
+        File outputFile = File.createTempFile(f.getName() + ".push0ver", ".tmp", parent);
+        zip = new ZipFile(f);
+        ZipOutputStream zout = null;
+        try {
+            zout = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile), 64 * 1024));
+            if (zip.getComment() != null) {
+                zout.setComment(zip.getComment());
+            }
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                ZipEntry copy = new ZipEntry(entry);
+                if (hits.contains(entry.getName())) {
+                    MemoryBudget.Buffer replaced = replaceBoth(zip.getInputStream(entry), tag, memory);
+                    try {
+                        copy.setSize(replaced.length());
+                        copy.setCompressedSize(copy.getMethod() == ZipEntry.STORED ? replaced.length() : -1);
+                        copy.setCrc(crc(replaced));
+                        zout.putNextEntry(copy);
+                        replaced.writeTo(zout);
+                    } finally {
+                        replaced.dispose();
+                    }
+                } else {
+                    if (copy.getMethod() != ZipEntry.STORED) {
+                        // Recompressed, so the size will differ.
+                        copy.setCompressedSize(-1);
+                    }
+                    zout.putNextEntry(copy);
+                    copy(zip.getInputStream(entry), zout);
+                }
+                zout.closeEntry();
+            }
+            zout.close();
+            zout = null;
+            zip.close();
+            zip = null;
+
+            if (!outputFile.renameTo(f)) {
+                throw new RuntimeException("Failed to move [" + outputFile.getName() + "] to [" + f.getName() + "].");
+            }
+        } catch (IOException | RuntimeException e) {
+            span.error(e);
+            throw e;
+        } finally {
+            span.end();
+            jfr.set("file", f.getPath()).set("bytes", f.length()).set("entries", hits.size()).commit();
+            Finally.close(zout);
+            if (zip != null) {
+                zip.close();
+            }
+            if (outputFile.exists() && !outputFile.delete()) {
+                outputFile.deleteOnExit();
             }
         }
-        return matches;
+        matches.add(f);
+        log.addBuildLogEntry("push0ver - Injected tag [" + tag + "] into " + hits.size() + " entries of archive [" + f + "]: " + hits);
+        return hits.size();
     }
 
-    private static void injectTag(File f, String sentinel, String tag, MyLogger log, Set<File> matches) throws IOException {
-        long millis = System.currentTimeMillis() % 1000;
+    /**
+     * @return true if "in" has either sentinel (closes "in").  Opaque content and nested zips count as no.
+     */
+    static boolean containsSentinel(InputStream in) throws IOException {
+        KmpStringMatcher legacy = new KmpStringMatcher(LEGACY_SENTINEL);
+        KmpStringMatcher sentinel = new KmpStringMatcher(SENTINEL);
+        int overlap = Math.max(LEGACY_SENTINEL.length(), SENTINEL.length()) - 1;
+        try {
+            byte[] buf = new byte[64 * 1024];
+            int have = 0;
+            int n = 0;
+            while (have < ContentSniffer.HEAD && (n = in.read(buf, have, buf.length - have)) >= 0) {
+                have += n;
+            }
+            if (ContentSniffer.sniff(buf, have) != ContentSniffer.Kind.RAW) {
+                return false;
+            }
+            while (true) {
+                if (legacy.search(buf, 0, have) >= 0 || sentinel.search(buf, 0, have) >= 0) {
+                    return true;
+                }
+                if (n < 0) {
+                    return false;
+                }
+                // Keep the tail:  a sentinel may straddle two reads.
+                int keep = Math.min(have, overlap);
+                System.arraycopy(buf, have - keep, buf, 0, keep);
+                have = keep;
+                n = in.read(buf, have, buf.length - have);
+                have += Math.max(n, 0);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static MemoryBudget.Buffer replaceBoth(InputStream in, String tag, MemoryBudget memory) throws IOException {
+        MemoryBudget.Buffer once = memory.newBuffer("push0ver-zip");
+        MemoryBudget.Buffer twice = memory.newBuffer("push0ver-zip");
+        try {
+            BinarySed.replaceAll(null, LEGACY_SENTINEL, tag, in, once);
+            BinarySed.replaceAll(null, SENTINEL, tag, once.openStream(), twice);
+        } catch (IOException ioe) {
+            twice.dispose();
+            throw ioe;
+        } finally {
+            once.dispose();
+        }
+        return twice;
+    }
+
+    private static long crc(MemoryBudget.Buffer buffer) throws IOException {
+        final CRC32 crc = new CRC32();
+        buffer.writeTo(new OutputStream() {
+            @Override
+            public void write(int b) {
+                crc.update(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                crc.update(b, off, len);
+            }
+        });
+        return crc.getValue();
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        try {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                out.write(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Traced as a rewrite only if the file had the sentinel.
+     */
+    private static int injectTag(
+            File f, String sentinel, String tag, MyLogger log, Set<File> matches, MemoryBudget memory) throws IOException {
+        Trace.Span span = Trace.start("rewrite file");
+        if (span.isRecording()) {
+            // Every scanned file comes through here:  no extra stat() when not tracing.
+            span.attr("file", f.getPath()).attr("bytes", f.length());
+        }
+        boolean rewritten = false;
+        try {
+            int replaced = rewrite(f, sentinel, tag, log, matches, memory);
+            rewritten = replaced > 0;
+            span.attr("hits", replaced);
+            return replaced;
+        } catch (IOException | RuntimeException e) {
+            span.error(e);
+            rewritten = true;
+            throw e;
+        } finally {
+            if (rewritten) {
+                span.end();
+            } else {
+                span.discard();
+            }
+        }
+    }
+
+    private static int rewrite(
+            File f, String sentinel, String tag, MyLogger log, Set<File> matches, MemoryBudget memory) throws IOException {
         boolean deleteSuccess = true;
+        int foundMatch;
         long size = f.length();
         FileInputStream in = new FileInputStream(f);
-        if (size < 1000000) {
-            ByteArrayOutputStream out = new ByteArrayOutputStream((int) size);
-            boolean foundMatch = BinarySed.replaceAll(f, sentinel, tag, in, out);
-            if (foundMatch) {
-                matches.add(f);
-                FileOutputStream fout = null;
-                try {
-                    fout = new FileOutputStream(f);
-                    fout.write(out.toByteArray());
-                    fout.flush();
-                } finally {
-                    if (fout != null) {
-                        fout.close();
-                        log.addBuildLogEntry("push0ver - Injected tag [" + tag + "] into file [" + f + "] (in-memory)");
+        if (size < 1000000 && memory.tryReserve(size)) {
+            try {
+                // A little headroom: the tag is usually a few bytes longer than the sentinel.
+                ByteArrayOutputStream out = new ByteArrayOutputStream((int) size + 256);
+                foundMatch = BinarySed.replace(f, sentinel, tag, in, out);
+                if (foundMatch > 0) {
+                    matches.add(f);
+                    FileOutputStream fout = null;
+                    try {
+                        fout = new FileOutputStream(f);
+                        out.writeTo(fout);
+                        fout.flush();
+                    } finally {
+                        if (fout != null) {
+                            fout.close();
+                            log.addBuildLogEntry("push0ver - Injected tag [" + tag + "] into file [" + f + "] (in-memory)");
+                        }
                     }
                 }
+            } finally {
+                memory.release(size);
             }
         } else {
-            File outputFile = new File(f + ".push0ver" + millis + ".tmp");
+            // Unique name:  concurrent runs in one JVM must never share a tmp-file.
+            File outputFile = File.createTempFile(f.getName() + ".push0ver", ".tmp", f.getAbsoluteFile().getParentFile());
             try {
                 FileOutputStream out = new FileOutputStream(outputFile);
-                boolean foundMatch = BinarySed.replaceAll(f, sentinel, tag, in, out);
-                if (foundMatch) {
+                foundMatch = BinarySed.replace(f, sentinel, tag, in, out);
+                if (foundMatch > 0) {
                     matches.add(f);
                     if (!outputFile.renameTo(f)) {
                         throw new RuntimeException("Failed to move [" + outputFile.getName() + "] to [" + f.getName() + "].");
@@ -103,6 +304,7 @@ public class FileUtil {
                 throw new RuntimeException("Failed to delete [" + outputFile.getName() + "].");
             }
         }
+        return foundMatch;
     }
 
     public static void main(String[] args) throws Exception {
@@ -1,6 +1,7 @@
 package com.mergebase.push0ver;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -55,6 +56,8 @@ public class Finally {
                     ((ZipFile) o).close();
                 else if (o instanceof Process)
                     ((Process) o).destroy();
+                else if (o instanceof Closeable)
+                    ((Closeable) o).close();
                 else {
                     throw new IllegalArgumentException("cannot close: " + o.getClass());
                 }
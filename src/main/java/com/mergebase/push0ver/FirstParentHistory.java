@@ -0,0 +1,135 @@
+package com.mergebase.push0ver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams the same lines as "git log --pretty=%d --first-parent" (tag decorations only, one line per
+ * commit, newest first), but walks history through the {@link CommitGraph} instead of asking git to
+ * inflate every commit.
+ * <p>
+ * Lines are produced lazily as the caller reads, so there is no need for a "--max-count" limit:  the walk
+ * stops as soon as {@link TagExtractor} stops reading.
+ * <p>
+ * Commits newer than the commit-graph (made since git last wrote it) are listed with
+ * "git rev-list --first-parent HEAD" until the walk reaches a commit the graph knows about.
+ */
+public class FirstParentHistory extends Reader {
+    private final FirstParentWalk walk;
+    private final Map<String, String> decorationsByOid;
+    private final Map<Integer, String> decorationsByPos = new HashMap<>();
+
+    private String line = "";
+    private int lineIdx = 1;
+
+    private FirstParentHistory(FirstParentWalk walk, Map<String, String> decorationsByOid) {
+        this.walk = walk;
+        this.decorationsByOid = decorationsByOid;
+        for (Map.Entry<String, String> entry : decorationsByOid.entrySet()) {
+            int p = walk.getGraph().position(entry.getKey());
+            if (p >= 0) {
+                decorationsByPos.put(p, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @param gitDir the ".git" directory
+     * @return a reader positioned at HEAD, or null if there is no usable commit-graph.
+     */
+    public static FirstParentHistory open(String gitDir) throws IOException {
+        CommitGraph graph = CommitGraph.open(new File(gitDir));
+        if (graph == null) {
+            return null;
+        }
+        FirstParentWalk walk = FirstParentWalk.open(gitDir, graph);
+        if (walk == null) {
+            return null;
+        }
+        return new FirstParentHistory(walk, tagDecorations(gitDir));
+    }
+
+    /**
+     * @return peeled commit id to its "(tag: a, tag: b)" decoration.
+     */
+    static Map<String, String> tagDecorations(String gitDir) {
+        Git.Result r = Git.run(gitDir, "for-each-ref", "--format=%(objectname) %(*objectname) %(refname)", "refs/tags");
+        Map<String, List<String>> byOid = new HashMap<>();
+        for (String s : r.stdout) {
+            String[] toks = s.split(" ", 3);
+            if (toks.length == 3 && toks[2].startsWith("refs/tags/")) {
+                String commit = "".equals(toks[1]) ? toks[0] : toks[1];
+                List<String> names = byOid.get(commit);
+                if (names == null) {
+                    names = new ArrayList<>();
+                    byOid.put(commit, names);
+                }
+                names.add(toks[2].substring("refs/tags/".length()));
+            }
+        }
+
+        Map<String, String> decorations = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : byOid.entrySet()) {
+            decorations.put(entry.getKey(), decoration(entry.getValue()));
+        }
+        return decorations;
+    }
+
+    static String decoration(List<String> tagNames) {
+        StringBuilder buf = new StringBuilder(" (");
+        for (String name : tagNames) {
+            if (buf.length() > 2) {
+                buf.append(", ");
+            }
+            buf.append(Tag.TAG_IDENTIFIER).append(name);
+        }
+        return buf.append(')').toString();
+    }
+
+    private String nextLine() throws IOException {
+        if (!walk.next()) {
+            return null;
+        }
+        int p = walk.position();
+        String d = p >= 0 ? decorationsByPos.get(p) : decorationsByOid.get(walk.oid());
+        return d != null ? d : "";
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        while (n < len) {
+            if (lineIdx > line.length()) {
+                String next = nextLine();
+                if (next == null) {
+                    break;
+                }
+                line = next;
+                lineIdx = 0;
+            }
+            if (lineIdx == line.length()) {
+                cbuf[off + n++] = '\n';
+                lineIdx++;
+            } else {
+                int c = Math.min(len - n, line.length() - lineIdx);
+                line.getChars(lineIdx, lineIdx + c, cbuf, off + n);
+                lineIdx += c;
+                n += c;
+            }
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public void close() {
+        walk.close();
+    }
+}
@@ -0,0 +1,137 @@
+package com.mergebase.push0ver;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Walks first-parent history from HEAD, newest commit first, one commit per {@link #next()}.
+ * <p>
+ * Commits known to the {@link CommitGraph} are visited by position (no subprocess, no object inflation).
+ * Commits newer than the graph, or every commit if there is no usable graph, come from
+ * "git rev-list --first-parent HEAD", which is read lazily and abandoned as soon as the walk reaches
+ * the graph.
+ */
+public class FirstParentWalk implements Closeable {
+    private final CommitGraph graph;
+
+    private Process revList;
+    private BufferedReader revListOut;
+    private Trace.Span revListSpan;
+    private String oid;
+    private int pos = CommitGraph.NO_PARENT;
+    private int nextPos = CommitGraph.NO_PARENT;
+    private int prevGeneration = Integer.MAX_VALUE;
+    private int steps;
+    private boolean done;
+
+    private FirstParentWalk(CommitGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * @param gitDir the ".git" directory
+     * @param graph  the commit-graph to use, or null to use "git rev-list" only
+     * @return a walk positioned before HEAD, or null if HEAD cannot be resolved.
+     */
+    public static FirstParentWalk open(String gitDir, CommitGraph graph) throws IOException {
+        Git.Result head = Git.run(gitDir, "rev-parse", "HEAD");
+        if (head.exitCode != 0 || head.stdout.isEmpty()) {
+            return null;
+        }
+
+        FirstParentWalk w = new FirstParentWalk(graph);
+        w.nextPos = graph != null ? graph.position(head.stdout.get(0).trim()) : CommitGraph.NO_PARENT;
+        if (w.nextPos < 0) {
+            String[] cmd = {"git", "--no-pager", "--git-dir=" + gitDir, "rev-list", "--first-parent", "HEAD"};
+            w.revListSpan = Trace.async("git rev-list").attr("process.command_line", String.join(" ", cmd));
+            w.revList = Runtime.getRuntime().exec(cmd);
+            w.revList.getOutputStream().close();
+            w.revListOut = new BufferedReader(new InputStreamReader(w.revList.getInputStream(), StandardCharsets.UTF_8));
+        }
+        return w;
+    }
+
+    public static FirstParentWalk open(String gitDir) throws IOException {
+        return open(gitDir, CommitGraph.open(new File(gitDir)));
+    }
+
+    public CommitGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @return true if the walk moved to another commit, false at the root commit.
+     */
+    public boolean next() throws IOException {
+        if (done) {
+            return false;
+        }
+        if (revListOut != null) {
+            String line = revListOut.readLine();
+            if (line == null) {
+                done = true;
+                return false;
+            }
+            line = line.trim();
+            int p = graph != null ? graph.position(line) : CommitGraph.NO_PARENT;
+            if (p < 0) {
+                oid = line;
+                pos = CommitGraph.NO_PARENT;
+                return true;
+            }
+            closeRevList();
+            nextPos = p;
+        }
+        if (nextPos < 0) {
+            done = true;
+            return false;
+        }
+
+        pos = nextPos;
+        oid = null;
+        int generation = graph.generation(pos);
+        if (generation != 0 && generation >= prevGeneration || ++steps > graph.size()) {
+            throw new IOException("commit-graph is inconsistent at " + graph.oid(pos) + ", run 'git commit-graph write'");
+        }
+        prevGeneration = generation != 0 ? generation : Integer.MAX_VALUE;
+        nextPos = graph.firstParent(pos);
+        return true;
+    }
+
+    /**
+     * @return the current commit's position in the commit-graph, or -1 if it came from "git rev-list".
+     */
+    public int position() {
+        return pos;
+    }
+
+    /**
+     * @return the current commit id (hex).
+     */
+    public String oid() {
+        if (oid == null && pos >= 0) {
+            oid = graph.oid(pos);
+        }
+        return oid;
+    }
+
+    private void closeRevList() {
+        Finally.close(revListOut, revList);
+        revListOut = null;
+        revList = null;
+        if (revListSpan != null) {
+            revListSpan.end();
+            revListSpan = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        done = true;
+        closeRevList();
+    }
+}
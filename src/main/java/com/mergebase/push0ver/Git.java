@@ -0,0 +1,104 @@
+package com.mergebase.push0ver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs short git plumbing commands and collects their output.
+ */
+class Git {
+    static class Result {
+        final List<String> stdout = new ArrayList<>();
+        String stderr = "";
+        int exitCode = -1;
+    }
+
+    static Result run(String gitDir, String... args) {
+        return run(gitDir, null, args);
+    }
+
+    /**
+     * @param stdin lines to feed the command on stdin (written from a separate thread), or null.
+     */
+    static Result run(String gitDir, final List<String> stdin, String... args) {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("git");
+        cmd.add("--no-pager");
+        cmd.add("--git-dir=" + gitDir);
+        for (String arg : args) {
+            cmd.add(arg);
+        }
+
+        String subcommand = "";
+        for (String arg : args) {
+            if (!arg.startsWith("-")) {
+                subcommand = arg;
+                break;
+            }
+        }
+        Trace.Span span = Trace.client("git " + subcommand).attr("process.command_line", String.join(" ", cmd));
+        Jfr.Event jfr = Jfr.SUBPROCESS.begin();
+        Result result = new Result();
+        Process process = null;
+        BufferedReader br = null;
+        try {
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            pb.environment().put("GIT_TERMINAL_PROMPT", "0");
+            process = pb.start();
+            final OutputStream out = process.getOutputStream();
+            if (stdin == null) {
+                out.close();
+            } else {
+                Thread feeder = new Thread("push0ver-git-stdin") {
+                    public void run() {
+                        Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                        try {
+                            for (String line : stdin) {
+                                w.write(line);
+                                w.write('\n');
+                            }
+                            w.close();
+                        } catch (IOException ioe) {
+                            // git exited early: exit code and stderr will tell the story
+                        }
+                    }
+                };
+                feeder.setDaemon(true);
+                feeder.start();
+            }
+            InputThread err = new InputThread(process.getErrorStream());
+            err.start();
+            br = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = br.readLine()) != null) {
+                result.stdout.add(line);
+            }
+            result.exitCode = process.waitFor();
+            err.join();
+            result.stderr = err.getOutput();
+        } catch (IOException ioe) {
+            result.stderr = ioe.toString();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            result.stderr = ie.toString();
+        } finally {
+            Finally.close(br, process);
+            span.attr("process.exit_code", result.exitCode).attr("lines", result.stdout.size());
+            if (result.exitCode != 0) {
+                span.error(result.stderr);
+            }
+            span.end();
+            if (jfr.isRecording()) {
+                jfr.set("command", String.join(" ", cmd)).set("exitCode", result.exitCode).commit();
+            }
+        }
+        return result;
+    }
+}
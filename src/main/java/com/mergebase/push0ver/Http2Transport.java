@@ -0,0 +1,239 @@
+package com.mergebase.push0ver;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * {@link Transport} over java.net.http.HttpClient (Java 11+) with HTTP/2 preferred, called by reflection
+ * since push0ver compiles against Java 8.
+ */
+class Http2Transport extends Transport {
+    private final Object client;
+    private final Method newRequest;    // HttpRequest.newBuilder(URI)
+    private final Method header;        // HttpRequest.Builder.header(String, String)
+    private final Method method;        // HttpRequest.Builder.method(String, BodyPublisher)
+    private final Method build;         // HttpRequest.Builder.build()
+    private final Method ofFile;        // HttpRequest.BodyPublishers.ofFile(Path)
+    private final Method ofInputStream; // HttpRequest.BodyPublishers.ofInputStream(Supplier)
+    private final Method fromPublisher; // HttpRequest.BodyPublishers.fromPublisher(Flow.Publisher, long)
+    private final Object noBody;        // HttpRequest.BodyPublishers.noBody()
+    private final Object discarding;    // HttpResponse.BodyHandlers.discarding()
+    private final Method send;          // HttpClient.send(HttpRequest, BodyHandler)
+    private final Method sendAsync;     // HttpClient.sendAsync(HttpRequest, BodyHandler)
+    private final Method statusCode;    // HttpResponse.statusCode()
+    private final Method version;       // HttpResponse.version()
+
+    private Http2Transport(Object client) throws ReflectiveOperationException {
+        this.client = client;
+        Class<?> requestClass = Class.forName("java.net.http.HttpRequest");
+        Class<?> builderClass = Class.forName("java.net.http.HttpRequest$Builder");
+        Class<?> publisherClass = Class.forName("java.net.http.HttpRequest$BodyPublisher");
+        Class<?> publishersClass = Class.forName("java.net.http.HttpRequest$BodyPublishers");
+        Class<?> handlerClass = Class.forName("java.net.http.HttpResponse$BodyHandler");
+        Class<?> handlersClass = Class.forName("java.net.http.HttpResponse$BodyHandlers");
+        Class<?> responseClass = Class.forName("java.net.http.HttpResponse");
+        Class<?> clientClass = Class.forName("java.net.http.HttpClient");
+
+        newRequest = requestClass.getMethod("newBuilder", URI.class);
+        header = builderClass.getMethod("header", String.class, String.class);
+        method = builderClass.getMethod("method", String.class, publisherClass);
+        build = builderClass.getMethod("build");
+        ofFile = publishersClass.getMethod("ofFile", Path.class);
+        ofInputStream = publishersClass.getMethod("ofInputStream", Supplier.class);
+        fromPublisher = publishersClass.getMethod(
+                "fromPublisher", Class.forName("java.util.concurrent.Flow$Publisher"), long.class);
+        noBody = publishersClass.getMethod("noBody").invoke(null);
+        discarding = handlersClass.getMethod("discarding").invoke(null);
+        send = clientClass.getMethod("send", requestClass, handlerClass);
+        sendAsync = clientClass.getMethod("sendAsync", requestClass, handlerClass);
+        statusCode = responseClass.getMethod("statusCode");
+        version = responseClass.getMethod("version");
+        protocol = "HTTP_2";
+    }
+
+    /**
+     * @throws ReflectiveOperationException if this JVM has no java.net.http
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Http2Transport create(boolean sslTrustAll) throws ReflectiveOperationException, GeneralSecurityException {
+        Class<?> clientClass = Class.forName("java.net.http.HttpClient");
+        Class<?> builderClass = Class.forName("java.net.http.HttpClient$Builder");
+        Class versionClass = Class.forName("java.net.http.HttpClient$Version");
+        Class redirectClass = Class.forName("java.net.http.HttpClient$Redirect");
+
+        Object builder = clientClass.getMethod("newBuilder").invoke(null);
+        builderClass.getMethod("version", versionClass).invoke(builder, Enum.valueOf(versionClass, "HTTP_2"));
+        // Same as App.exists():  a redirect is an answer, not something to follow.
+        builderClass.getMethod("followRedirects", redirectClass).invoke(builder, Enum.valueOf(redirectClass, "NEVER"));
+        if (sslTrustAll) {
+            builderClass.getMethod("sslContext", SSLContext.class).invoke(builder, trustAll());
+        }
+        return new Http2Transport(builderClass.getMethod("build").invoke(builder));
+    }
+
+    private static SSLContext trustAll() throws GeneralSecurityException {
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(null, new TrustManager[]{new X509TrustManager() {
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+            }
+
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }}, null);
+        return ctx;
+    }
+
+    public int get(String url, String basicAuth) throws IOException {
+        return send("GET", url, -1, request("GET", url, null, basicAuth));
+    }
+
+    public int put(String url, File f, String basicAuth) throws IOException {
+        return send("PUT", url, f.length(), request("PUT", url, f, basicAuth));
+    }
+
+    public int put(String url, final InputStream body, long length, String basicAuth) throws IOException {
+        try {
+            Object publisher = call(fromPublisher, null, call(ofInputStream, null, new Supplier<InputStream>() {
+                public InputStream get() {
+                    return body;
+                }
+            }), length);
+            return send("PUT", url, length, requestOf("PUT", url, publisher, basicAuth));
+        } finally {
+            Finally.close(body);
+        }
+    }
+
+    private int send(String verb, String url, long bytes, Object request) throws IOException {
+        Trace.Span span = Trace.client(verb).attr("url.full", url);
+        if (bytes >= 0) {
+            span.attr("http.request.body.size", bytes);
+        }
+        try {
+            return traced(span, verb, status(call(send, client, request, discarding)));
+        } catch (IOException | RuntimeException e) {
+            span.error(e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    private int traced(Trace.Span span, String verb, int status) {
+        span.attr("http.response.status_code", status).attr("network.protocol.version", protocol);
+        if (failed(verb, status)) {
+            span.error("HTTP " + status);
+        }
+        return status;
+    }
+
+    /**
+     * All at once:  each upload is its own stream on the shared connection.
+     */
+    @Override
+    public void putAll(List<Upload> uploads, String basicAuth) {
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        List<Trace.Span> spans = new ArrayList<>();
+        for (final Upload u : uploads) {
+            final long start = System.currentTimeMillis();
+            // Ends on the thread that completes the request.
+            final Trace.Span span = Trace.async("PUT").attr("url.full", u.url)
+                    .attr("http.request.body.size", u.file.length());
+            spans.add(span);
+            try {
+                CompletableFuture<?> f = (CompletableFuture<?>) call(
+                        sendAsync, client, request("PUT", u.url, u.file, basicAuth), discarding);
+                pending.add(f.whenComplete(new BiConsumer<Object, Throwable>() {
+                    public void accept(Object response, Throwable t) {
+                        u.millis = System.currentTimeMillis() - start;
+                        if (t != null) {
+                            span.error(t);
+                        }
+                        span.end();
+                    }
+                }));
+            } catch (IOException ioe) {
+                u.failure = ioe;
+                span.error(ioe).end();
+                pending.add(null);
+            }
+        }
+        for (int i = 0; i < uploads.size(); i++) {
+            Upload u = uploads.get(i);
+            if (pending.get(i) == null) {
+                continue;
+            }
+            try {
+                u.status = traced(spans.get(i), "PUT", status(pending.get(i).get()));
+            } catch (ExecutionException ee) {
+                Throwable cause = ee.getCause();
+                u.failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                u.failure = new IOException("Interrupted waiting for " + u.url, ie);
+            } catch (IOException ioe) {
+                u.failure = ioe;
+            }
+        }
+    }
+
+    private Object request(String verb, String url, File f, String basicAuth) throws IOException {
+        return requestOf(verb, url, f != null ? call(ofFile, null, f.toPath()) : noBody, basicAuth);
+    }
+
+    private Object requestOf(String verb, String url, Object publisher, String basicAuth) throws IOException {
+        Object builder = call(newRequest, null, URI.create(url));
+        if (basicAuth != null) {
+            call(header, builder, "Authorization", basicAuth);
+        }
+        call(method, builder, verb, publisher);
+        return call(build, builder);
+    }
+
+    private int status(Object response) throws IOException {
+        protocol = String.valueOf(call(version, response));
+        return (Integer) call(statusCode, response);
+    }
+
+    private static Object call(Method m, Object target, Object... args) throws IOException {
+        try {
+            return m.invoke(target, args);
+        } catch (InvocationTargetException ite) {
+            Throwable cause = ite.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted: " + m.getName(), cause);
+            }
+            Finally.rethrowIfUnchecked(cause);
+            throw new IOException(cause);
+        } catch (IllegalAccessException iae) {
+            throw new RuntimeException("java.net.http not accessible: " + iae, iae);
+        }
+    }
+
+    public void close() {
+        // java.net.http.HttpClient has no close() before Java 21;  idle connections time out on their own.
+    }
+}
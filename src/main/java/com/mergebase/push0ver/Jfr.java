@@ -0,0 +1,281 @@
+package com.mergebase.push0ver;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Java Flight Recorder events (category "push0ver") so a recording on a Bamboo agent can attribute CPU,
+ * allocation and I/O to push0ver's work instead of anonymous socket and file reads.
+ * <p>
+ * The event types are built at runtime with jdk.jfr.EventFactory (Java 11+, 8u262+), through reflection like
+ * {@link Http2Transport} does for java.net.http, so the plugin still builds and runs on any Java 8.  Without JFR,
+ * or while no recording has an event enabled, {@link Type#begin()} is one check returning a shared no-op.
+ * <p>
+ * Usage:  {@code Jfr.Event e = Jfr.SUBPROCESS.begin(); ... e.set("exitCode", code).commit();}
+ */
+public class Jfr {
+    private static final Event OFF = new Event(null, null);
+
+    public static final Type TAG_RESOLUTION = new Type("TagResolution", "Tag Resolution",
+            "Resolving the release or SNAPSHOT tag from git history",
+            field(String.class, "gitDir", "Git Directory", null),
+            field(String.class, "tags", "Tags", null));
+
+    public static final Type SENTINEL_SCAN = new Type("SentinelScan", "Sentinel Scan",
+            "Reading one workspace file for the version sentinel (and rewriting it on a hit)",
+            field(String.class, "file", "File", null),
+            field(long.class, "bytes", "Size", "BYTES"),
+            field(int.class, "hits", "Hits", null));
+
+    public static final Type ARCHIVE_REWRITE = new Type("ArchiveRewrite", "Archive Rewrite",
+            "Rewriting a jar/war/zip with the tag in place of the sentinel",
+            field(String.class, "file", "File", null),
+            field(long.class, "bytes", "Size", "BYTES"),
+            field(int.class, "entries", "Entries Rewritten", null));
+
+    public static final Type FINGERPRINT = new Type("Fingerprint", "Fingerprint",
+            "Computing an artifact's MD5 and SHA-1",
+            field(String.class, "file", "File", null),
+            field(long.class, "bytes", "Size", "BYTES"));
+
+    public static final Type UPLOAD = new Type("Upload", "Upload",
+            "Uploading one artifact and its checksums to every repository",
+            field(String.class, "file", "File", null),
+            field(long.class, "bytes", "Size", "BYTES"),
+            field(int.class, "repos", "Repositories", null),
+            field(int.class, "status", "Worst HTTP Status", null),
+            field(int.class, "failures", "Failed Requests", null));
+
+    public static final Type SUBPROCESS = new Type("Subprocess", "Subprocess",
+            "Running git, mvn, jar or another external command",
+            field(String.class, "command", "Command", null),
+            field(int.class, "exitCode", "Exit Code", null));
+
+    private static Field field(Class<?> type, String name, String label, String dataAmount) {
+        return new Field(type, name, label, dataAmount);
+    }
+
+    private static class Field {
+        final Class<?> type;
+        final String name;
+        final String label;
+        final String dataAmount;
+
+        Field(Class<?> type, String name, String label, String dataAmount) {
+            this.type = type;
+            this.name = name;
+            this.label = label;
+            this.dataAmount = dataAmount;
+        }
+    }
+
+    /**
+     * One kind of event.
+     */
+    public static class Type {
+        private final Field[] fields;
+        private final Object factory;
+        private final Object eventType;
+
+        private Type(String name, String label, String description, Field... fields) {
+            this.fields = fields;
+            Object f = null;
+            Object t = null;
+            if (Api.AVAILABLE) {
+                try {
+                    f = Api.create(name, label, description, fields);
+                    t = Api.GET_EVENT_TYPE.invoke(f);
+                } catch (Throwable e) {
+                    f = null;
+                    t = null;
+                }
+            }
+            this.factory = f;
+            this.eventType = t;
+        }
+
+        /**
+         * @return true if a recording wants this event right now.
+         */
+        public boolean isEnabled() {
+            if (eventType == null) {
+                return false;
+            }
+            try {
+                return (Boolean) Api.IS_ENABLED.invoke(eventType);
+            } catch (Throwable t) {
+                return false;
+            }
+        }
+
+        /**
+         * @return a started event, or a no-op if no recording wants it.
+         */
+        public Event begin() {
+            if (!isEnabled()) {
+                return OFF;
+            }
+            try {
+                Object event = Api.NEW_EVENT.invoke(factory);
+                Api.BEGIN.invoke(event);
+                return new Event(this, event);
+            } catch (Throwable t) {
+                return OFF;
+            }
+        }
+
+        private int index(String field) {
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i].name.equals(field)) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("No field [" + field + "] in " + Arrays.asList(fieldNames()));
+        }
+
+        private String[] fieldNames() {
+            String[] names = new String[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                names[i] = fields[i].name;
+            }
+            return names;
+        }
+    }
+
+    /**
+     * One occurrence:  its duration runs from {@link Type#begin()} to {@link #commit()}.
+     */
+    public static class Event {
+        private final Type type;
+        private final Object event;
+
+        private Event(Type type, Object event) {
+            this.type = type;
+            this.event = event;
+        }
+
+        public boolean isRecording() {
+            return event != null;
+        }
+
+        public Event set(String field, Object value) {
+            if (event == null || value == null) {
+                return this;
+            }
+            int i = type.index(field);
+            Class<?> t = type.fields[i].type;
+            if (t == long.class) {
+                value = ((Number) value).longValue();
+            } else if (t == int.class) {
+                value = ((Number) value).intValue();
+            } else if (t == String.class) {
+                value = String.valueOf(value);
+            }
+            try {
+                Api.SET.invoke(event, i, value);
+            } catch (Throwable e) {
+                // A profiling aid must never fail the build.
+            }
+            return this;
+        }
+
+        /**
+         * Ends the event and hands it to the recording.  Calling it twice records it twice.
+         */
+        public void commit() {
+            if (event == null) {
+                return;
+            }
+            try {
+                Api.COMMIT.invoke(event);
+            } catch (Throwable e) {
+                // A profiling aid must never fail the build.
+            }
+        }
+    }
+
+    /**
+     * jdk.jfr through reflection (the plugin compiles against Java 8).
+     */
+    private static class Api {
+        static final boolean AVAILABLE;
+        static Constructor<?> annotationElement;
+        static Constructor<?> valueDescriptor;
+        static Method create;
+        static Class<? extends Annotation> nameAnnotation;
+        static Class<? extends Annotation> labelAnnotation;
+        static Class<? extends Annotation> descriptionAnnotation;
+        static Class<? extends Annotation> categoryAnnotation;
+        static Class<? extends Annotation> dataAmountAnnotation;
+        static MethodHandle GET_EVENT_TYPE;   // EventFactory.getEventType()
+        static MethodHandle IS_ENABLED;       // EventType.isEnabled()
+        static MethodHandle NEW_EVENT;        // EventFactory.newEvent()
+        static MethodHandle BEGIN;            // Event.begin()
+        static MethodHandle SET;              // Event.set(int, Object)
+        static MethodHandle COMMIT;           // Event.commit()
+
+        static {
+            boolean ok = false;
+            if (!"false".equalsIgnoreCase(System.getProperty("push0ver.jfr"))) {
+                try {
+                    Class<?> elementClass = Class.forName("jdk.jfr.AnnotationElement");
+                    Class<?> descriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+                    Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+                    Class<?> typeClass = Class.forName("jdk.jfr.EventType");
+                    Class<?> eventClass = Class.forName("jdk.jfr.Event");
+                    annotationElement = elementClass.getConstructor(Class.class, Object.class);
+                    valueDescriptor = descriptorClass.getConstructor(Class.class, String.class, List.class);
+                    create = factoryClass.getMethod("create", List.class, List.class);
+                    nameAnnotation = annotation("jdk.jfr.Name");
+                    labelAnnotation = annotation("jdk.jfr.Label");
+                    descriptionAnnotation = annotation("jdk.jfr.Description");
+                    categoryAnnotation = annotation("jdk.jfr.Category");
+                    dataAmountAnnotation = annotation("jdk.jfr.DataAmount");
+
+                    MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                    GET_EVENT_TYPE = lookup.unreflect(factoryClass.getMethod("getEventType"));
+                    IS_ENABLED = lookup.unreflect(typeClass.getMethod("isEnabled"));
+                    NEW_EVENT = lookup.unreflect(factoryClass.getMethod("newEvent"));
+                    BEGIN = lookup.unreflect(eventClass.getMethod("begin"));
+                    SET = lookup.unreflect(eventClass.getMethod("set", int.class, Object.class));
+                    COMMIT = lookup.unreflect(eventClass.getMethod("commit"));
+                    ok = true;
+                } catch (Throwable t) {
+                    // Java 8 before 8u262, or a JVM without jdk.jfr:  no events.
+                }
+            }
+            AVAILABLE = ok;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Class<? extends Annotation> annotation(String name) throws ClassNotFoundException {
+            return (Class<? extends Annotation>) Class.forName(name);
+        }
+
+        static Object create(String name, String label, String description, Field[] fields) throws Exception {
+            List<Object> annotations = new ArrayList<>();
+            annotations.add(annotationElement.newInstance(nameAnnotation, "push0ver." + name));
+            annotations.add(annotationElement.newInstance(labelAnnotation, label));
+            annotations.add(annotationElement.newInstance(descriptionAnnotation, description));
+            annotations.add(annotationElement.newInstance(categoryAnnotation, new String[]{"push0ver"}));
+
+            List<Object> descriptors = new ArrayList<>();
+            for (Field f : fields) {
+                List<Object> fieldAnnotations = new ArrayList<>();
+                fieldAnnotations.add(annotationElement.newInstance(labelAnnotation, f.label));
+                if (f.dataAmount != null) {
+                    fieldAnnotations.add(annotationElement.newInstance(dataAmountAnnotation, f.dataAmount));
+                }
+                descriptors.add(valueDescriptor.newInstance(f.type, f.name, Collections.unmodifiableList(fieldAnnotations)));
+            }
+            return create.invoke(null, annotations, descriptors);
+        }
+    }
+}
@@ -24,10 +24,13 @@
 package com.mergebase.push0ver;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
 
 public final class KmpStringMatcher {
     private final byte[] pattern;
     private final int[] lsp;  // Longest suffix-prefix table
+    private final int[] skip = new int[256];  // Horspool shift for the byte under the window's last position
 
     public KmpStringMatcher(String patt) throws IOException {
         if (patt == null) {
@@ -50,9 +53,54 @@ public final class KmpStringMatcher {
             }
             lsp[i] = j;
         }
+
+        Arrays.fill(skip, Math.max(pattern.length, 1));
+        for (int i = 0; i < pattern.length - 1; i++) {
+            skip[pattern[i] & 0xFF] = pattern.length - 1 - i;
+        }
     }
 
     public int search(byte[] text) {
+        if (text == null) {
+            throw new NullPointerException();
+        }
+        return search(text, 0, text.length);
+    }
+
+    /**
+     * Horspool search:  looks at the last byte under the window and, unless it starts a match, jumps
+     * ahead by up to the pattern's length.  For a sentinel in ordinary text that reads roughly one byte
+     * in every pattern.length bytes, where KMP reads them all.
+     *
+     * @return index of the first match that lies entirely within text[from..to), or -1.
+     */
+    public int search(byte[] text, int from, int to) {
+        if (pattern.length == 0) {
+            return from;
+        }
+        final int last = pattern.length - 1;
+        final byte lastByte = pattern[last];
+        for (int i = from + last; i < to; i += skip[text[i] & 0xFF]) {
+            if (text[i] == lastByte && matchesAt(text, i - last)) {
+                return i - last;
+            }
+        }
+        return -1;  // Not found
+    }
+
+    private boolean matchesAt(byte[] text, int start) {
+        for (int k = pattern.length - 2; k >= 0; k--) {
+            if (text[start + k] != pattern[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The original byte-at-a-time KMP scan (kept as the reference for tests and {@link #main}).
+     */
+    int searchKmp(byte[] text) {
         if (text == null) {
             throw new NullPointerException();
         }
@@ -76,4 +124,32 @@ public final class KmpStringMatcher {
         return -1;  // Not found
     }
 
+    /**
+     * Scan throughput, KMP versus Horspool, over source-like text with no sentinel in it.
+     * Usage:  KmpStringMatcher [megabytes] [rounds]
+     */
+    public static void main(String[] args) throws Exception {
+        int mb = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        byte[] text = new byte[mb * 1024 * 1024];
+        byte[] alphabet = "abcdefghijklmnopqrstuvwxyz ABCDEFGHIJKLMNOPQRSTUVWXYZ 0123456789 .-_;(){}<>=\"\n".getBytes("UTF-8");
+        Random r = new Random(1);
+        for (int i = 0; i < text.length; i++) {
+            text[i] = alphabet[r.nextInt(alphabet.length)];
+        }
+        KmpStringMatcher m = new KmpStringMatcher("0".substring(0, 1) + ".0.0-PUSH0VER");
+        for (int round = 0; round < rounds; round++) {
+            long t0 = System.nanoTime();
+            int a = m.searchKmp(text);
+            long t1 = System.nanoTime();
+            int b = m.search(text);
+            long t2 = System.nanoTime();
+            if (a != b) {
+                throw new IllegalStateException("KMP found " + a + " but Horspool found " + b);
+            }
+            System.out.printf("round %2d:  kmp %.2f GB/s, horspool %.2f GB/s%n",
+                    round, text.length / (double) (t1 - t0), text.length / (double) (t2 - t1));
+        }
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,227 @@
+package com.mergebase.push0ver;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * How much heap one push0ver run may hold for file contents, archive entries, tarballs and tool output.
+ * <p>
+ * Components ask before they buffer a payload in memory.  A payload bigger than one share of the budget
+ * (a quarter, so a few can be in flight together), or one that doesn't fit in what's left, is streamed
+ * (through a tmp-file if needed) instead.  The peak is reported in the run summary.
+ * <p>
+ * Configured with -Dmemory.budget=64m (per run) or -Dpush0ver.memory.budget=64m on the agent JVM (default
+ * for every run on that agent).  Suffixes k, m and g are understood.
+ */
+public class MemoryBudget {
+    public static final long DEFAULT_LIMIT = 64L * 1024 * 1024;
+    private static final int SHARES = 4;
+
+    private final long limit;
+    private long used;
+    private long peak;
+
+    public MemoryBudget(long limit) {
+        this.limit = limit;
+    }
+
+    MemoryBudget(long limit, long peak) {
+        this.limit = limit;
+        this.peak = peak;
+    }
+
+    /**
+     * @return budget from "memory.budget" in p, else the "push0ver.memory.budget" system property,
+     * else {@link #DEFAULT_LIMIT}.
+     */
+    public static MemoryBudget fromProperties(Properties p) {
+        String s = p.getProperty("memory.budget");
+        if (s == null || "".equals(s.trim())) {
+            s = System.getProperty("push0ver.memory.budget");
+        }
+        long limit = parseSize(s);
+        return new MemoryBudget(limit > 0 ? limit : DEFAULT_LIMIT);
+    }
+
+    /**
+     * @return "64m" as 67108864, or -1 if s is null or not a size.
+     */
+    public static long parseSize(String s) {
+        if (s == null) {
+            return -1;
+        }
+        s = s.trim().toLowerCase(Locale.ENGLISH);
+        if (s.endsWith("b")) {
+            s = s.substring(0, s.length() - 1);
+        }
+        long multiplier = 1;
+        if (s.endsWith("k")) {
+            multiplier = 1024;
+        } else if (s.endsWith("m")) {
+            multiplier = 1024 * 1024;
+        } else if (s.endsWith("g")) {
+            multiplier = 1024 * 1024 * 1024;
+        }
+        if (multiplier > 1) {
+            s = s.substring(0, s.length() - 1).trim();
+        }
+        try {
+            return Long.parseLong(s) * multiplier;
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return largest single payload a component may buffer in memory.
+     */
+    public long share() {
+        return limit / SHARES;
+    }
+
+    /**
+     * @return true if the caller may hold "bytes" more on the heap (and must {@link #release} them later).
+     */
+    public synchronized boolean tryReserve(long bytes) {
+        if (bytes > share() || used + bytes > limit) {
+            return false;
+        }
+        used += bytes;
+        peak = Math.max(peak, used);
+        return true;
+    }
+
+    public synchronized void release(long bytes) {
+        used = Math.max(0, used - bytes);
+    }
+
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    public synchronized long getPeak() {
+        return peak;
+    }
+
+    /**
+     * An OutputStream that stays on the heap while the budget allows it, and moves to a tmp-file when it doesn't.
+     * Call {@link #close} when done writing and {@link #dispose} when done reading.
+     */
+    public Buffer newBuffer(String prefix) {
+        return new Buffer(prefix);
+    }
+
+    public class Buffer extends OutputStream {
+        private final String prefix;
+        private ByteArrayOutputStream mem = new ByteArrayOutputStream(8192);
+        private File file;
+        private OutputStream fileOut;
+        private long length;
+        private long reserved;
+
+        private Buffer(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (mem != null) {
+                if (reserved + len <= share() && tryReserve(len)) {
+                    reserved += len;
+                    mem.write(b, off, len);
+                    length += len;
+                    return;
+                }
+                spill();
+            }
+            fileOut.write(b, off, len);
+            length += len;
+        }
+
+        private void spill() throws IOException {
+            file = File.createTempFile(prefix, ".tmp");
+            fileOut = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+            mem.writeTo(fileOut);
+            mem = null;
+            release(reserved);
+            reserved = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (fileOut != null) {
+                fileOut.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileOut != null) {
+                fileOut.close();
+            }
+        }
+
+        public long length() {
+            return length;
+        }
+
+        public boolean inMemory() {
+            return mem != null;
+        }
+
+        public InputStream openStream() throws IOException {
+            if (mem != null) {
+                return new ByteArrayInputStream(mem.toByteArray());
+            }
+            return new FileInputStream(file);
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            if (mem != null) {
+                mem.writeTo(out);
+                return;
+            }
+            InputStream in = new FileInputStream(file);
+            try {
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) >= 0) {
+                    out.write(buf, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+         * Gives the memory back (or deletes the tmp-file).
+         */
+        public void dispose() {
+            Finally.close(fileOut);
+            if (file != null && file.exists() && !file.delete()) {
+                file.deleteOnExit();
+            }
+            mem = null;
+            release(reserved);
+            reserved = 0;
+        }
+    }
+}
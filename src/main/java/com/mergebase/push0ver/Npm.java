@@ -1,20 +1,20 @@
 package com.mergebase.push0ver;
 
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonStreamParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import org.apache.http.StatusLine;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Map;
+import java.util.List;
 
 public class Npm {
 
@@ -50,22 +50,35 @@ public class Npm {
 				"0.5.1": {
 		
 		*/
-        JsonStreamParser p = new JsonStreamParser(br);
-        ArrayList<Version> versions = new ArrayList<>();
-        if (p.hasNext()) {
-            JsonObject json = p.next().getAsJsonObject();
-            JsonObject versionsObj = json.getAsJsonObject("versions");
-            for (Map.Entry<String, JsonElement> entry : versionsObj.entrySet()) {
-                String v = entry.getKey();
-                versions.add(new Version(v));
-            }
-        }
-
-        Collections.sort(versions);
+        List<Version> versions = listVersions(br);
+        VersionKey.sort(versions);
         for (Version v : versions) {
             System.out.println(v);
         }
 
     }
 
+    /**
+     * Reads just the keys of the packument's "versions" object.  Packuments of long-lived packages run to
+     * many MB (every version's full package.json), so the rest is skipped token by token, never held.
+     */
+    static List<Version> listVersions(Reader r) throws IOException {
+        List<Version> versions = new ArrayList<>();
+        JsonReader json = new JsonReader(r);
+        json.beginObject();
+        while (json.hasNext()) {
+            if ("versions".equals(json.nextName()) && json.peek() == JsonToken.BEGIN_OBJECT) {
+                json.beginObject();
+                while (json.hasNext()) {
+                    versions.add(new Version(json.nextName()));
+                    json.skipValue();
+                }
+                json.endObject();
+            } else {
+                json.skipValue();
+            }
+        }
+        return versions;
+    }
+
 }
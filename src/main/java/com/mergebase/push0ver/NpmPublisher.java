@@ -0,0 +1,630 @@
+package com.mergebase.push0ver;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Publishes npm packages without the npm CLI.
+ * <p>
+ * The package directory is packed the way "npm pack" does it (the "files" list, ".npmignore" or
+ * ".gitignore" rules, npm's always-included and always-ignored files) into a "package/" prefixed tar, gzipped
+ * as it is written.  The gzip output runs through SHA-1 and SHA-512 digests on its way into memory, so
+ * "shasum" and "integrity" cost no second pass.  The packument (package.json plus "dist" plus the tarball as
+ * a base64 attachment) is then PUT straight to the registry, which is what "npm publish" does too.
+ * <p>
+ * The tarball stays on the heap only while the run's {@link MemoryBudget} allows (otherwise it spills to a
+ * tmp-file), and the packument is streamed:  the base64 attachment is encoded as it is sent.
+ */
+public class NpmPublisher {
+    private static final int MAX_THREADS = 4;
+
+    // npm sets every entry's mtime to this (1985-10-26T08:15:00Z) so tarballs are reproducible.
+    private static final long NPM_MTIME = 499162500L;
+
+    private static final List<String> ALWAYS_IGNORED = Arrays.asList(
+            ".npmignore", ".gitignore", "**/.git", "**/.svn", "**/.hg", "**/CVS", "node_modules",
+            "/.lock-wscript", "/.wafpickle-*", "/build/config.gypi", "npm-debug.log", "**/.npmrc",
+            ".*.swp", ".DS_Store", "._*", "*.orig", "/package-lock.json", "/yarn.lock",
+            "/push0ver.windup.txt", "/push0ver-trace-*.json");
+
+    private static final Pattern ALWAYS_INCLUDED = Pattern.compile(
+            "(?i)^(package\\.json|readme(\\..*)?|licen[cs]e(\\..*)?)$");
+
+    /**
+     * A packed package:  the .tgz and its digests.  Call {@link #dispose} when done.
+     */
+    public static class Tarball {
+        final String name;
+        final String version;
+        final JsonObject manifest;
+        final List<String> files = new ArrayList<>();
+        MemoryBudget.Buffer tgz;
+        String shasum;
+        String integrity;
+
+        Tarball(String name, String version, JsonObject manifest) {
+            this.name = name;
+            this.version = version;
+            this.manifest = manifest;
+        }
+
+        void dispose() {
+            if (tgz != null) {
+                tgz.dispose();
+            }
+        }
+
+        /**
+         * @return e.g. "mb-lib-1.2.3.tgz" for "@mb/mb-lib" version "1.2.3".
+         */
+        String fileName() {
+            int x = name.lastIndexOf('/');
+            return (x >= 0 ? name.substring(x + 1) : name) + "-" + version + ".tgz";
+        }
+    }
+
+    /**
+     * Publishes each package directory, several at a time.
+     *
+     * @param httpClient shared by every package (and left open)
+     * @return number of packages published.
+     */
+    public static int publishAll(
+            List<File> packageDirs, final String registry, final String basicAuth,
+            final CloseableHttpClient httpClient, final boolean doPush, final MyLogger log, final RunStats stats) {
+        if (packageDirs.isEmpty()) {
+            return 0;
+        }
+        // Virtual threads on Java 21+, else a small pool;  the first failure cancels the rest.
+        TaskScope scope = TaskScope.pooled(Math.min(MAX_THREADS, packageDirs.size()));
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (final File dir : packageDirs) {
+                results.add(scope.fork(() -> publish(dir, registry, basicAuth, httpClient, doPush, log, stats)));
+            }
+            scope.join();
+            int published = 0;
+            for (Future<Boolean> f : results) {
+                if (Boolean.TRUE.equals(TaskScope.result(f))) {
+                    published++;
+                }
+            }
+            return published;
+        } finally {
+            scope.close();
+        }
+    }
+
+    /**
+     * @param httpClient left open
+     * @return true if the registry accepted the package (or, if !doPush, the package was packed).
+     */
+    public static boolean publish(
+            File packageDir, String registry, String basicAuth, CloseableHttpClient httpClient, boolean doPush,
+            MyLogger log, RunStats stats) throws IOException {
+        if (!registry.endsWith("/")) {
+            registry = registry + "/";
+        }
+        Tarball t = pack(packageDir, stats.getMemory());
+        if (t == null) {
+            log.addBuildLogEntry("push0ver - CANNOT NPM PUBLISH [" + packageDir + "] package.json has no name or version");
+            return false;
+        }
+        CloseableHttpResponse response = null;
+        try {
+            log.addBuildLogEntry("push0ver - Packed " + t.name + "@" + t.version + ": " + t.files.size() + " files, "
+                    + t.tgz.length() + " bytes" + (t.tgz.inMemory() ? "" : " (via tmp-file)") + ", shasum=" + t.shasum);
+
+            String target = registry + escapeName(t.name);
+            if (!doPush) {
+                log.addBuildLogEntry("push0ver - WOULD-DO:    PUT " + target);
+                return true;
+            }
+
+            PackumentEntity body = new PackumentEntity(packument(t, registry), t.tgz);
+            HttpPut put = new HttpPut(target);
+            put.setHeader("Authorization", basicAuth);
+            put.setEntity(body);
+
+            long start = System.currentTimeMillis();
+            Trace.Span span = Trace.client("PUT").attr("url.full", target).attr("file", t.fileName())
+                    .attr("http.request.body.size", body.getContentLength());
+            try {
+                response = httpClient.execute(put);
+                span.attr("http.response.status_code", response.getStatusLine().getStatusCode());
+            } catch (IOException | RuntimeException e) {
+                span.error(e);
+                throw e;
+            } finally {
+                span.end();
+            }
+            stats.uploaded(body.getContentLength(), System.currentTimeMillis() - start);
+            StatusLine statusLine = response.getStatusLine();
+            int statusCode = statusLine.getStatusCode();
+            if (statusCode / 100 == 4 || statusCode / 100 == 5) {
+                span.error(statusLine);
+                log.addBuildLogEntry("push0ver - ERROR! DID NOT PUBLISH: " + t.name + "@" + t.version + " -- " + statusLine);
+                return false;
+            }
+            log.addBuildLogEntry("push0ver - DONE:     " + statusCode + " - PUT " + target + " (" + t.fileName() + ")");
+            return true;
+        } finally {
+            Finally.close(response);
+            t.dispose();
+        }
+    }
+
+    static String escapeName(String name) {
+        return name.replace("/", "%2f");
+    }
+
+    /**
+     * @return the packument, with {@link PackumentEntity#DATA} standing in for the base64 tarball.
+     */
+    static JsonObject packument(Tarball t, String registry) {
+        JsonObject v = new JsonParser().parse(t.manifest.toString()).getAsJsonObject();
+        v.addProperty("_id", t.name + "@" + t.version);
+        JsonObject dist = new JsonObject();
+        dist.addProperty("shasum", t.shasum);
+        dist.addProperty("integrity", t.integrity);
+        dist.addProperty("tarball", registry + t.name + "/-/" + t.fileName());
+        v.add("dist", dist);
+
+        JsonObject versions = new JsonObject();
+        versions.add(t.version, v);
+        JsonObject distTags = new JsonObject();
+        distTags.addProperty("latest", t.version);
+
+        JsonObject attachment = new JsonObject();
+        attachment.addProperty("content_type", "application/octet-stream");
+        attachment.addProperty("data", PackumentEntity.DATA);
+        attachment.addProperty("length", t.tgz.length());
+        JsonObject attachments = new JsonObject();
+        attachments.add(t.fileName(), attachment);
+
+        JsonObject doc = new JsonObject();
+        doc.addProperty("_id", t.name);
+        doc.addProperty("name", t.name);
+        if (t.manifest.has("description")) {
+            doc.add("description", t.manifest.get("description"));
+        }
+        doc.add("dist-tags", distTags);
+        doc.add("versions", versions);
+        doc.add("_attachments", attachments);
+        return doc;
+    }
+
+    /**
+     * Packs a package directory like "npm pack".
+     *
+     * @return the tarball, or null if package.json has no name or version.
+     */
+    public static Tarball pack(File packageDir, MemoryBudget memory) throws IOException {
+        JsonObject manifest;
+        InputStreamReader isr = null;
+        try {
+            isr = new InputStreamReader(new FileInputStream(new File(packageDir, "package.json")), StandardCharsets.UTF_8);
+            manifest = new JsonParser().parse(isr).getAsJsonObject();
+        } finally {
+            Finally.close(isr);
+        }
+        if (!manifest.has("name") || !manifest.has("version")) {
+            return null;
+        }
+        Tarball t = new Tarball(manifest.get("name").getAsString(), manifest.get("version").getAsString(), manifest);
+        collect(packageDir, manifest, t.files);
+
+        MessageDigest sha1;
+        MessageDigest sha512;
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+            sha512 = MessageDigest.getInstance("SHA-512");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new RuntimeException("Stop the world, Java broken: " + nsae, nsae);
+        }
+        t.tgz = memory.newBuffer("push0ver-npm");
+        OutputStream out = new GZIPOutputStream(new DigestOutputStream(new DigestOutputStream(t.tgz, sha1), sha512), 8192);
+        try {
+            TarWriter tar = new TarWriter(out);
+            for (String path : t.files) {
+                tar.add("package/" + path, new File(packageDir, path));
+            }
+            tar.finish();
+            out.close();
+        } catch (IOException | RuntimeException e) {
+            Finally.close(out);
+            t.dispose();
+            throw e;
+        }
+        t.shasum = DatatypeConverter.printHexBinary(sha1.digest()).toLowerCase(Locale.ENGLISH);
+        t.integrity = "sha512-" + DatatypeConverter.printBase64Binary(sha512.digest());
+        return t;
+    }
+
+    /**
+     * Lists the files "npm pack" would include, relative to packageDir, with forward slashes, sorted.
+     */
+    static void collect(File packageDir, JsonObject manifest, List<String> files) throws IOException {
+        List<Rule> filesRules = null;
+        if (manifest.has("files") && manifest.get("files").isJsonArray()) {
+            filesRules = new ArrayList<>();
+            JsonArray a = manifest.getAsJsonArray("files");
+            for (JsonElement e : a) {
+                Rule r = Rule.parse("", e.getAsString(), true);
+                if (r != null) {
+                    filesRules.add(r);
+                }
+            }
+        }
+
+        List<Rule> ignoreRules = new ArrayList<>();
+        for (String s : ALWAYS_IGNORED) {
+            ignoreRules.add(Rule.parse("", s, false));
+        }
+        walk(packageDir, "", filesRules, ignoreRules, files);
+    }
+
+    private static void walk(File dir, String rel, List<Rule> filesRules, List<Rule> ignoreRules, List<String> files)
+            throws IOException {
+        File ignore = new File(dir, ".npmignore");
+        if (!ignore.isFile()) {
+            ignore = new File(dir, ".gitignore");
+        }
+        // With a "files" list npm ignores the top-level ignore file (nested ones still apply).
+        if (ignore.isFile() && !(filesRules != null && "".equals(rel))) {
+            ignoreRules = new ArrayList<>(ignoreRules);
+            for (String line : Files.readAllLines(ignore.toPath(), StandardCharsets.UTF_8)) {
+                Rule r = Rule.parse(rel, line, false);
+                if (r != null) {
+                    ignoreRules.add(r);
+                }
+            }
+        }
+
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            File f = new File(dir, name);
+            String path = "".equals(rel) ? name : rel + "/" + name;
+            boolean isDir = f.isDirectory();
+            boolean always = "".equals(rel) && !isDir && ALWAYS_INCLUDED.matcher(name).matches();
+            if (!always && Rule.matches(ignoreRules, path, isDir)) {
+                continue;
+            }
+            if (isDir) {
+                walk(f, path, filesRules, ignoreRules, files);
+            } else if (always || filesRules == null || Rule.matchesSelfOrParent(filesRules, path)) {
+                files.add(path);
+            }
+        }
+    }
+
+    /**
+     * One line of a ".npmignore" / ".gitignore" file (or one "files" entry).
+     */
+    static class Rule {
+        final Pattern pattern;
+        final boolean negate;
+        final boolean dirOnly;
+
+        private Rule(Pattern pattern, boolean negate, boolean dirOnly) {
+            this.pattern = pattern;
+            this.negate = negate;
+            this.dirOnly = dirOnly;
+        }
+
+        /**
+         * @param base     directory the rule's file lives in, relative to the package root
+         * @param anchored true for "files" entries (always relative to the package root)
+         */
+        static Rule parse(String base, String line, boolean anchored) {
+            String s = line.trim();
+            if ("".equals(s) || s.startsWith("#")) {
+                return null;
+            }
+            boolean negate = s.startsWith("!");
+            if (negate) {
+                s = s.substring(1);
+            }
+            if (s.startsWith("./")) {
+                s = s.substring(2);
+            }
+            boolean dirOnly = s.endsWith("/");
+            while (s.endsWith("/")) {
+                s = s.substring(0, s.length() - 1);
+            }
+            if ("".equals(s)) {
+                return null;
+            }
+            anchored = anchored || s.indexOf('/') >= 0;
+            if (s.startsWith("/")) {
+                s = s.substring(1);
+            }
+
+            StringBuilder regex = new StringBuilder();
+            if (!"".equals(base)) {
+                regex.append(Pattern.quote(base + "/"));
+            }
+            if (!anchored) {
+                regex.append("(?:.*/)?");
+            }
+            regex.append(globToRegex(s));
+            return new Rule(Pattern.compile(regex.toString()), negate, dirOnly);
+        }
+
+        static String globToRegex(String glob) {
+            StringBuilder buf = new StringBuilder();
+            for (int i = 0; i < glob.length(); i++) {
+                char c = glob.charAt(i);
+                if (c == '*' && glob.startsWith("**/", i)) {
+                    buf.append("(?:.*/)?");
+                    i += 2;
+                } else if (c == '*' && glob.startsWith("**", i)) {
+                    buf.append(".*");
+                    i++;
+                } else if (c == '*') {
+                    buf.append("[^/]*");
+                } else if (c == '?') {
+                    buf.append("[^/]");
+                } else if (Character.isLetterOrDigit(c) || c == '/') {
+                    buf.append(c);
+                } else {
+                    buf.append('\\').append(c);
+                }
+            }
+            return buf.toString();
+        }
+
+        /**
+         * Last matching rule wins.  A directory rule also covers everything under the directory.
+         */
+        static boolean matches(List<Rule> rules, String path, boolean isDir) {
+            boolean result = false;
+            for (Rule r : rules) {
+                if ((isDir || !r.dirOnly) && r.pattern.matcher(path).matches()) {
+                    result = !r.negate;
+                }
+            }
+            return result;
+        }
+
+        static boolean matchesSelfOrParent(List<Rule> rules, String path) {
+            boolean result = false;
+            for (Rule r : rules) {
+                for (String p = path; p != null; p = parent(p)) {
+                    if (r.pattern.matcher(p).matches()) {
+                        result = !r.negate;
+                        break;
+                    }
+                }
+            }
+            return result;
+        }
+
+        private static String parent(String path) {
+            int x = path.lastIndexOf('/');
+            return x > 0 ? path.substring(0, x) : null;
+        }
+    }
+
+    /**
+     * The packument as a request body:  JSON up to the attachment's "data", the tarball base64-encoded as it
+     * is written, then the rest of the JSON.  Repeatable, and the length is known up front.
+     */
+    static class PackumentEntity extends AbstractHttpEntity {
+        static final String DATA = "PUSH0VER_TARBALL_DATA";
+
+        private final byte[] head;
+        private final byte[] tail;
+        private final MemoryBudget.Buffer tgz;
+
+        PackumentEntity(JsonObject packument, MemoryBudget.Buffer tgz) {
+            String json = packument.toString();
+            int x = json.lastIndexOf('"' + DATA + '"') + 1;
+            this.head = json.substring(0, x).getBytes(StandardCharsets.UTF_8);
+            this.tail = json.substring(x + DATA.length()).getBytes(StandardCharsets.UTF_8);
+            this.tgz = tgz;
+            setContentType(ContentType.APPLICATION_JSON.toString());
+        }
+
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        public long getContentLength() {
+            return head.length + (tgz.length() + 2) / 3 * 4 + tail.length;
+        }
+
+        public InputStream getContent() throws IOException {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            writeTo(buf);
+            return new ByteArrayInputStream(buf.toByteArray());
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(head);
+            // The encoder's close() writes the final padding; it must not close "out".
+            OutputStream base64 = Base64.getEncoder().wrap(new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            });
+            tgz.writeTo(base64);
+            base64.close();
+            out.write(tail);
+            out.flush();
+        }
+
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+
+    /**
+     * Minimal streaming ustar writer (with PAX headers for long names).
+     */
+    static class TarWriter {
+        private static final int BLOCK = 512;
+        private final OutputStream out;
+        private final byte[] buf = new byte[8192];
+
+        TarWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        void add(String name, File f) throws IOException {
+            long size = f.length();
+            int mode = f.canExecute() ? 0755 : 0644;
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            String prefix = "";
+            String shortName = name;
+            if (nameBytes.length > 100) {
+                int x = splitPoint(name);
+                if (x > 0) {
+                    prefix = name.substring(0, x);
+                    shortName = name.substring(x + 1);
+                } else {
+                    byte[] pax = paxRecord("path", name);
+                    writeHeader("PaxHeader/" + truncate(name, 80), "", pax.length, 0644, 'x');
+                    out.write(pax);
+                    pad(pax.length);
+                    shortName = truncate(name, 100);
+                }
+            }
+            writeHeader(shortName, prefix, size, mode, '0');
+
+            InputStream in = new FileInputStream(f);
+            long written = 0;
+            try {
+                int n;
+                while (written < size && (n = in.read(buf, 0, (int) Math.min(buf.length, size - written))) >= 0) {
+                    out.write(buf, 0, n);
+                    written += n;
+                }
+            } finally {
+                in.close();
+            }
+            if (written != size) {
+                throw new IOException("File changed while packing: " + f);
+            }
+            pad(size);
+        }
+
+        void finish() throws IOException {
+            out.write(new byte[BLOCK * 2]);
+        }
+
+        private void pad(long size) throws IOException {
+            int rem = (int) (size % BLOCK);
+            if (rem != 0) {
+                out.write(new byte[BLOCK - rem]);
+            }
+        }
+
+        private static int splitPoint(String name) {
+            // ustar: prefix (<= 155 bytes) + '/' + name (<= 100 bytes).
+            for (int x = name.indexOf('/'); x > 0; x = name.indexOf('/', x + 1)) {
+                int prefixLen = name.substring(0, x).getBytes(StandardCharsets.UTF_8).length;
+                int nameLen = name.substring(x + 1).getBytes(StandardCharsets.UTF_8).length;
+                if (prefixLen <= 155 && nameLen <= 100) {
+                    return x;
+                }
+            }
+            return -1;
+        }
+
+        private static String truncate(String s, int maxBytes) {
+            while (s.getBytes(StandardCharsets.UTF_8).length > maxBytes) {
+                s = s.substring(0, s.length() - 1);
+            }
+            return s;
+        }
+
+        static byte[] paxRecord(String key, String value) {
+            // "<length> <key>=<value>\n" where length counts itself.
+            int body = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8).length;
+            int len = body + Integer.toString(body).length();
+            if (Integer.toString(len).length() != Integer.toString(body).length()) {
+                len++;
+            }
+            return (len + " " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+
+        private void writeHeader(String name, String prefix, long size, int mode, char type) throws IOException {
+            byte[] h = new byte[BLOCK];
+            put(h, 0, 100, name.getBytes(StandardCharsets.UTF_8));
+            octal(h, 100, 8, mode);
+            octal(h, 108, 8, 0);
+            octal(h, 116, 8, 0);
+            octal(h, 124, 12, size);
+            octal(h, 136, 12, NPM_MTIME);
+            Arrays.fill(h, 148, 156, (byte) ' ');
+            h[156] = (byte) type;
+            put(h, 257, 6, "ustar\0".getBytes(StandardCharsets.US_ASCII));
+            put(h, 263, 2, "00".getBytes(StandardCharsets.US_ASCII));
+            put(h, 345, 155, prefix.getBytes(StandardCharsets.UTF_8));
+
+            long sum = 0;
+            for (byte b : h) {
+                sum += b & 0xFF;
+            }
+            octal(h, 148, 7, sum);
+            h[155] = ' ';
+            out.write(h);
+        }
+
+        private static void put(byte[] h, int off, int len, byte[] value) {
+            System.arraycopy(value, 0, h, off, Math.min(len, value.length));
+        }
+
+        private static void octal(byte[] h, int off, int len, long value) {
+            String s = Long.toOctalString(value);
+            while (s.length() < len - 1) {
+                s = "0" + s;
+            }
+            put(h, off, len - 1, s.getBytes(StandardCharsets.US_ASCII));
+            h[off + len - 1] = 0;
+        }
+    }
+}
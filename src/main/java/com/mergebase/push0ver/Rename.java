@@ -1,15 +1,11 @@
 package com.mergebase.push0ver;
 
 import com.google.common.io.Files;
-import org.apache.http.HttpEntity;
-import org.apache.http.StatusLine;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPut;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLContextBuilder;
 import org.apache.http.conn.ssl.TrustStrategy;
-import org.apache.http.entity.FileEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
 
 import javax.xml.bind.DatatypeConverter;
@@ -17,7 +13,6 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -27,12 +22,19 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.Future;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -45,11 +47,49 @@ public class Rename {
     private String basicAuth;
     private MyLogger buildLogger;
     private boolean sslTrustAll;
+    private RunStats stats;
+    private Transport transport;
+    private List<String> mirrors;
+    private int parallelUploads = DEFAULT_PARALLEL_UPLOADS;
+    private int uploadChunk = FileTee.CHUNK;
+    private volatile boolean incomplete;
 
     public Rename(
             String pathToPom, Tag tag, String repoName, String nodeRepo, String basicAuth,
             String url, MyLogger buildLogger, boolean sslTrustAll) {
+        this(pathToPom, tag, repoName, nodeRepo, basicAuth, url, buildLogger, sslTrustAll, new RunStats("post"));
+    }
+
+    public Rename(
+            String pathToPom, Tag tag, String repoName, String nodeRepo, String basicAuth,
+            String url, MyLogger buildLogger, boolean sslTrustAll, RunStats stats) {
+        this(pathToPom, tag, repoName, nodeRepo, basicAuth, url, buildLogger, sslTrustAll, stats, null);
+    }
+
+    /**
+     * @param transport for existence checks and uploads, shared by the whole run (may be null:  each
+     *                  {@link #updateJars} call then opens and closes its own HTTP/1.1 transport).
+     */
+    public Rename(
+            String pathToPom, Tag tag, String repoName, String nodeRepo, String basicAuth,
+            String url, MyLogger buildLogger, boolean sslTrustAll, RunStats stats, Transport transport) {
+        this(pathToPom, tag, repoName, nodeRepo, basicAuth, url, buildLogger, sslTrustAll, stats, transport,
+                Collections.<String>emptyList());
+    }
+
+    /**
+     * @param mirrors where else every Maven artifact goes (same credentials):  another Artifactory URL (same
+     *                repository name) or another repository name on "url".  Each artifact is hashed and read
+     *                once, and streamed to all of them at the same time.
+     */
+    public Rename(
+            String pathToPom, Tag tag, String repoName, String nodeRepo, String basicAuth,
+            String url, MyLogger buildLogger, boolean sslTrustAll, RunStats stats, Transport transport,
+            List<String> mirrors) {
         this.tag = tag;
+        this.mirrors = mirrors;
+        this.transport = transport;
+        this.stats = stats;
         this.repoName = repoName;
         this.basicAuth = basicAuth;
         this.nodeRepo = nodeRepo;
@@ -108,7 +148,10 @@ public class Rename {
 
     }
 
-    public void publishNode(File packageDir) {
+    /**
+     * @return true if "npm publish" succeeded.
+     */
+    public boolean publishNode(File packageDir) {
         //runs after version replacement
         String publish = "npm publish --registry " + url + "api/npm/" + nodeRepo + "/";
         Command nodePublish = new Command(publish);
@@ -127,26 +170,103 @@ public class Rename {
                 buildLogger.addBuildLogEntry("Executing: " + publish);
                 nodePublish.execute(packageDir);
                 buildLogger.addBuildLogEntry(nodePublish.getStdout());
+                return nodePublish.getExitCode() == 0;
             } catch (IOException ioe) {
                 buildLogger.addBuildLogEntry("Caught IOexception: " + ioe.getMessage());
             }
         } else {
             buildLogger.addBuildLogEntry("NO PACKAGE.JSON - skipping npm publish");
         }
-
+        return false;
     }
 
-    public void npmPublish(File packageFile, boolean doPush) {
+    /**
+     * @return false if the package was not published (see {@link #isComplete}).
+     */
+    public boolean npmPublish(File packageFile, boolean doPush) {
         String dryRun = doPush ? "" : "(DRY-RUN)";
         File f = packageFile.getParentFile();
+        boolean ok = false;
         if (f.exists()) {
             buildLogger.addBuildLogEntry("RUNNING NPM PUBLISH IN: [" + f + "] " + dryRun);
-            if (doPush) {
-                publishNode(f);
-            }
+            ok = !doPush || publishNode(f);
         } else {
             buildLogger.addBuildLogEntry("CANNOT NPM PUBLISH [" + f + "] FILE-NOT-FOUND " + dryRun);
         }
+        if (!ok) {
+            incomplete = true;
+        }
+        return ok;
+    }
+
+    /**
+     * Publishes several package.json files.  By default they are packed and PUT to the registry in-process
+     * and concurrently (see {@link NpmPublisher}); with useCli each one runs "npm publish" in turn.
+     *
+     * @return false if any of them was not published (see {@link #isComplete}).
+     */
+    public boolean npmPublishAll(List<File> packageFiles, boolean doPush, boolean useCli) {
+        if (useCli) {
+            boolean ok = true;
+            for (File f : packageFiles) {
+                ok &= npmPublish(f, doPush);
+            }
+            return ok;
+        }
+
+        String dryRun = doPush ? "" : "(DRY-RUN)";
+        List<File> dirs = new ArrayList<>();
+        for (File packageFile : packageFiles) {
+            File f = packageFile.getParentFile();
+            if (f.exists()) {
+                buildLogger.addBuildLogEntry("RUNNING NPM PUBLISH IN: [" + f + "] " + dryRun);
+                dirs.add(f);
+            } else {
+                buildLogger.addBuildLogEntry("CANNOT NPM PUBLISH [" + f + "] FILE-NOT-FOUND " + dryRun);
+            }
+        }
+        String registry = url + "api/npm/" + nodeRepo + "/";
+        // The run's connection pool, if it has an HTTP/1.1 one, else one pool for all the packages.
+        CloseableHttpClient shared = transport != null ? transport.getHttpClient() : null;
+        CloseableHttpClient own = shared == null && doPush && !dirs.isEmpty() ? allConnect(sslTrustAll) : null;
+        int published;
+        try {
+            published = NpmPublisher.publishAll(
+                    dirs, registry, basicAuth, shared != null ? shared : own, doPush, buildLogger, stats);
+        } finally {
+            Finally.close(own);
+        }
+        boolean ok = published == packageFiles.size();
+        if (!ok) {
+            incomplete = true;
+        }
+        return ok;
+    }
+
+    /**
+     * Upload and npm publish failures are logged, and not all of them throw.
+     *
+     * @return false if anything this Rename was asked to upload or publish did not make it.
+     */
+    public boolean isComplete() {
+        return !incomplete;
+    }
+
+    static final int DEFAULT_PARALLEL_UPLOADS = 8;
+
+    /**
+     * HTTP/1.1 connections per host:  enough for every parallel upload to every mirror (HttpClient's default
+     * of 2 would quietly serialize them).
+     */
+    static final int MAX_CONNECTIONS = 64;
+
+    /**
+     * @param parallel files uploaded at the same time ("upload.parallel", see {@link ArtifactorySelfTest})
+     * @param chunk    bytes read at a time when one file goes to several repositories ("upload.chunk")
+     */
+    public void setUploadTuning(int parallel, int chunk) {
+        this.parallelUploads = parallel > 0 ? parallel : DEFAULT_PARALLEL_UPLOADS;
+        this.uploadChunk = chunk > 0 ? chunk : FileTee.CHUNK;
     }
 
     private static final Comparator POMS_LAST = new Comparator<File>() {
@@ -171,6 +291,19 @@ public class Rename {
     };
 
     public void updateJars(String search, String replace, String group, String module, boolean doPush) {
+        Transport t = transport != null ? transport : Transport.open(false, sslTrustAll, buildLogger);
+        try {
+            updateJars(search, replace, group, module, doPush, t);
+        } finally {
+            if (t != transport) {
+                Finally.close(t);
+            }
+        }
+    }
+
+    private void updateJars(
+            String search, String replace, final String group, final String module, final boolean doPush,
+            final Transport transport) {
         File[] files = new File(interimTarget + "/newfiles").listFiles();
         if (files == null) {
             return;
@@ -178,7 +311,9 @@ public class Rename {
 
         Arrays.sort(files, POMS_LAST);
 
-        long currentTime = System.currentTimeMillis();
+        final long currentTime = System.currentTimeMillis();
+        final List<File> artifacts = new ArrayList<>();
+        final List<File> poms = new ArrayList<>();
         for (File f : files) {
 
             String n = f.getName().toUpperCase();
@@ -187,17 +322,19 @@ public class Rename {
             }
 
             if (n.endsWith(".POM")) {
+                Trace.Span span = Trace.start("rewrite pom").attr("file", f.getPath()).attr("bytes", f.length());
                 try {
-                    String replaced = readAndReplace(f, search, replace);
-                    if (replaced != null) {
-                        FileOutputStream fOut = new FileOutputStream(f);
-                        fOut.write(replaced.getBytes("UTF-8"));
-                        fOut.close();
-                    }
+                    replaceInto(new FileInputStream(f), f.length(), f, search, replace);
                 } catch (IOException p) {
+                    span.error(p);
                     buildLogger.addBuildLogEntry("push0ver - failed to replace: " + f.getPath());
+                } finally {
+                    span.end();
                 }
             } else if (n.endsWith(".JAR") || n.endsWith(".WAR") || n.endsWith(".ZIP") || n.endsWith(".EAR")) {
+                Trace.Span span = Trace.start("rewrite archive").attr("file", f.getPath()).attr("bytes", f.length());
+                Jfr.Event jfr = Jfr.ARCHIVE_REWRITE.begin();
+                int rewritten = 0;
                 try {
                     LinkedHashSet<String> thingsToRezip = new LinkedHashSet<String>();
                     JarFile jarFile = new JarFile(f);
@@ -206,22 +343,17 @@ public class Rename {
                         JarEntry current = entries.nextElement();
                         String name = current.getName();
                         if (replaceable(name)) {
+                            String holdingLocation = interimTarget + "/updates/" + f.getName();
+                            File temp = new File(holdingLocation + "/" + current.getName());
                             InputStream is = jarFile.getInputStream(current);
-                            String replaced = readAndReplace(is, search, replace);
-                            if (replaced != null) {
-                                String holdingLocation = interimTarget + "/updates/" + f.getName();
-                                File temp = new File(holdingLocation + "/" + current.getName());
-                                temp.getParentFile().mkdirs();
-
-                                FileWriter writer = new FileWriter(temp);
-                                writer.write(replaced);
-                                writer.close();
+                            if (replaceInto(is, current.getSize(), temp, search, replace)) {
                                 thingsToRezip.add(holdingLocation);
+                                rewritten++;
                             }
-                            is.close();
                         }
                     }
                     jarFile.close();
+                    span.attr("rezip", thingsToRezip.size());
 
                     // rezip!
                     for (String s : thingsToRezip) {
@@ -232,116 +364,287 @@ public class Rename {
                     }
 
                 } catch (IOException e) {
+                    span.error(e);
                     e.printStackTrace();
+                } finally {
+                    span.end();
+                    jfr.set("file", f.getPath()).set("bytes", f.length()).set("entries", rewritten).commit();
                 }
             }
 
             String version = tag.getVersion().toString();
             String name = f.getName();
             if (name.contains(version) && !name.endsWith(".md5") && !name.endsWith(".sha1")) {
-                if (!version.endsWith("-SNAPSHOT")) {
-                    String existsSha1Target = existsTarget(name, group, module) + ".sha1";
-                    if (App.exists(buildLogger, existsSha1Target, basicAuth)) {
-                        buildLogger.addBuildLogEntry("push0ver - File " + existsTarget(name, group, module) + " Already Exists! Aborting.");
-                        return;
+                (name.endsWith(".pom") ? poms : artifacts).add(f);
+            }
+        }
+
+        // Existence checks and uploads are independent network round trips:  run them side by side
+        // (virtual threads on Java 21+, else one at a time as before).  POMs still go up last.
+        final List<String> repos = repoUrls();
+        List<File> all = new ArrayList<>(artifacts);
+        all.addAll(poms);
+        final Map<File, List<String>> destinations;
+        if (tag.getVersion().toString().endsWith("-SNAPSHOT")) {
+            destinations = new HashMap<>();
+            for (File f : all) {
+                destinations.put(f, repos);
+            }
+        } else {
+            destinations = whereMissing(all, repos, group, module, transport);
+            if (destinations == null) {
+                for (File f : all) {
+                    f.renameTo(new File(f.getAbsolutePath() + ".uploaded"));
+                }
+                return;
+            }
+        }
+        for (List<File> batch : Arrays.asList(artifacts, poms)) {
+            TaskScope scope = TaskScope.open(parallelUploads);
+            try {
+                for (final File f : batch) {
+                    if (destinations.get(f).isEmpty()) {
+                        // Nothing to do for it:  don't let the next module's pass pick it up either.
+                        f.renameTo(new File(f.getAbsolutePath() + ".uploaded"));
+                        continue;
                     }
+                    scope.fork(() -> {
+                        upload(f, destinations.get(f), group, module, doPush, currentTime, transport);
+                        return null;
+                    });
                 }
+                scope.join();
+            } finally {
+                scope.close();
+            }
+        }
+    }
 
-                mvnMakeFingerprints(f);
-                String fileToUpload = f.getAbsolutePath();
-                CloseableHttpClient httpClient = allConnect(sslTrustAll);
-                HttpPut[] puts = new HttpPut[3];
-                puts[0] = new HttpPut(uploadTarget(name, version, group, module, currentTime));
-                puts[1] = new HttpPut(uploadTarget(name + ".md5", version, group, module, currentTime));
-                puts[2] = new HttpPut(uploadTarget(name + ".sha1", version, group, module, currentTime));
-
-                File md5 = new File(fileToUpload + ".md5");
-                File sha1 = new File(fileToUpload + ".sha1");
-
-                HttpEntity entity = new FileEntity(f);
-                puts[0].setEntity(entity);
-
-                HttpEntity entitymd5 = new FileEntity(md5);
-                puts[1].setEntity(entitymd5);
-
-                HttpEntity entitysha1 = new FileEntity(sha1);
-                puts[2].setEntity(entitysha1);
-
-                for (int t = 0; t < 3; t++) {
-                    if (doPush) {
-                        CloseableHttpResponse response = null;
-                        int statusCode = 0;
-                        try {
-                            puts[t].setHeader("Authorization", basicAuth);
-                            if (httpClient == null) {
-                                buildLogger.addBuildLogEntry("push0ver - HttpClient is NULL");
-                            }
-                            response = httpClient.execute(puts[t]);
-                            StatusLine statusLine = response.getStatusLine();
-                            statusCode = statusLine.getStatusCode();
-                            String tempCode = Integer.toString(statusCode).substring(0, 1);
-
-                            if (Integer.parseInt(tempCode) == 4 || Integer.parseInt(tempCode) == 5) {
-                                buildLogger.addBuildLogEntry("push0ver - ERROR! DID NOT UPLOAD: " + fileToUpload + "--    error code: " + response.getStatusLine());
-
-                                if (statusCode == 502) {
-                                    throw new RuntimeException("Possibly " + repoName + " is not configured to receive Snapshots.");
-                                } else {
-                                    throw new RuntimeException("FAILED to push to Artifactory - See Logs.");
-                                }
-                            }
+    /**
+     * @return where Maven artifacts go:  url + repoName first, then each mirror.
+     */
+    private List<String> repoUrls() {
+        List<String> repos = new ArrayList<>();
+        repos.add(url + repoName + "/");
+        for (String m : mirrors) {
+            if (m.contains("://")) {
+                repos.add((m.endsWith("/") ? m : m + "/") + repoName + "/");
+            } else {
+                repos.add(url + m + "/");
+            }
+        }
+        return repos;
+    }
 
-                        } catch (IOException a) {
-                            a.printStackTrace();
-                        } finally {
-                            try {
-                                if (response == null) {
-                                    buildLogger.addBuildLogEntry("push0ver - HTTP Response is NULL");
-                                } else {
-                                    response.close();
-                                }
-                            } catch (IOException b) {
-                                b.printStackTrace();
-                            }
-                        }
-                        buildLogger.addBuildLogEntry("push0ver - DONE:     " + statusCode + " - " + puts[t]);
-                    } else {
-                        buildLogger.addBuildLogEntry("push0ver - WOULD-DO:    " + puts[t]);
-                    }
+    /**
+     * Checks every file against every repo.  Nothing is ever uploaded twice to the same repo, but whatever a repo
+     * is missing still goes there (e.g., a mirror that failed last time, while the first repo got everything).
+     * <p>
+     * Without mirrors there is nothing to complete, and any file already there aborts the module.
+     *
+     * @return for each file, the repos that don't have it yet, or null (and logs it) if every repo already has
+     * every file, or if there are no mirrors and the first repo has any of them.
+     */
+    private Map<File, List<String>> whereMissing(
+            List<File> files, List<String> repos, String group, String module, final Transport transport) {
+        Map<File, List<Future<Boolean>>> results = new LinkedHashMap<>();
+        TaskScope scope = TaskScope.open(parallelUploads);
+        try {
+            for (File f : files) {
+                List<Future<Boolean>> perRepo = new ArrayList<>();
+                for (String repo : repos) {
+                    final String target = existsTarget(repo, f.getName(), group, module) + ".sha1";
+                    perRepo.add(scope.fork(() -> App.exists(buildLogger, target, basicAuth, transport)));
                 }
+                results.put(f, perRepo);
+            }
+            scope.join();
+        } finally {
+            scope.close();
+        }
 
+        Map<File, List<String>> missing = new HashMap<>();
+        boolean anything = false;
+        for (Map.Entry<File, List<Future<Boolean>>> e : results.entrySet()) {
+            File f = e.getKey();
+            List<String> where = new ArrayList<>();
+            for (int i = 0; i < repos.size(); i++) {
+                String target = existsTarget(repos.get(i), f.getName(), group, module);
+                if (!Boolean.TRUE.equals(TaskScope.result(e.getValue().get(i)))) {
+                    where.add(repos.get(i));
+                } else if (repos.size() == 1) {
+                    // No mirrors to complete:  never add to a version that is already (even partly) released.
+                    buildLogger.addBuildLogEntry("push0ver - File " + target + " Already Exists! Aborting.");
+                    return null;
+                } else if (i == 0) {
+                    buildLogger.addBuildLogEntry("push0ver - File " + target + " Already Exists!");
+                } else {
+                    buildLogger.addBuildLogEntry("push0ver - File " + target + " already on mirror, skipping it there.");
+                }
+            }
+            missing.put(f, where);
+            anything |= !where.isEmpty();
+        }
+        if (!anything) {
+            buildLogger.addBuildLogEntry("push0ver - Release " + tag.getVersion() + " Already Exists everywhere! Aborting.");
+            return null;
+        }
+        return missing;
+    }
 
-                md5.renameTo(new File(md5.getAbsolutePath() + ".uploaded"));
-                sha1.renameTo(new File(sha1.getAbsolutePath() + ".uploaded"));
-                f.renameTo(new File(f.getAbsolutePath() + ".uploaded"));
+    private void upload(
+            File f, List<String> repos, String group, String module, boolean doPush, long currentTime,
+            Transport transport) {
+        Trace.Span span = Trace.start("upload " + f.getName()).attr("file", f.getPath()).attr("bytes", f.length())
+                .attr("repos", repos.size());
+        Jfr.Event jfr = Jfr.UPLOAD.begin();
+        long bytes = f.length();
+        try {
+            upload(f, repos, group, module, doPush, currentTime, transport, span, jfr);
+        } finally {
+            span.end();
+            jfr.set("file", f.getPath()).set("bytes", bytes).set("repos", repos.size()).commit();
+        }
+    }
 
-                try {
-                    httpClient.close();
-                } catch (IOException b) {
-                    b.printStackTrace();
+    private void upload(
+            File f, List<String> repos, String group, String module, boolean doPush, long currentTime,
+            Transport transport, Trace.Span span, Jfr.Event jfr) {
+        String version = tag.getVersion().toString();
+        String name = f.getName();
+        // Hashed once, however many repos it goes to.
+        mvnMakeFingerprints(f);
+        String fileToUpload = f.getAbsolutePath();
+        File md5 = new File(fileToUpload + ".md5");
+        File sha1 = new File(fileToUpload + ".sha1");
+        List<Transport.Upload> files = new ArrayList<>();
+        List<Transport.Upload> checksums = new ArrayList<>();
+        for (String repo : repos) {
+            files.add(new Transport.Upload(uploadTarget(repo, name, version, group, module, currentTime), f));
+            checksums.add(new Transport.Upload(uploadTarget(repo, name + ".md5", version, group, module, currentTime), md5));
+            checksums.add(new Transport.Upload(uploadTarget(repo, name + ".sha1", version, group, module, currentTime), sha1));
+        }
+        List<Transport.Upload> uploads = new ArrayList<>();
+        if (files.size() == 1) {
+            uploads.add(files.get(0));
+            uploads.addAll(checksums);
+            if (doPush) {
+                transport.putAll(uploads, basicAuth);
+            }
+        } else {
+            uploads.addAll(files);
+            uploads.addAll(checksums);
+            if (doPush) {
+                putTee(f, files, transport);
+                transport.putAll(checksums, basicAuth);
+            }
+        }
+
+        RuntimeException failed = null;
+        int worst = 0;
+        int failures = 0;
+        for (Transport.Upload u : uploads) {
+            if (!doPush) {
+                buildLogger.addBuildLogEntry("push0ver - WOULD-DO:    PUT " + u.url);
+                continue;
+            }
+            if (u.getFailure() != null) {
+                failures++;
+                buildLogger.addBuildLogEntry("push0ver - HTTP Response is NULL (" + u.getFailure() + ")");
+            } else {
+                stats.uploaded(u.file.length(), u.getMillis());
+                worst = Math.max(worst, u.getStatus());
+                String tempCode = Integer.toString(u.getStatus()).substring(0, 1);
+                if (Integer.parseInt(tempCode) == 4 || Integer.parseInt(tempCode) == 5) {
+                    failures++;
+                    buildLogger.addBuildLogEntry("push0ver - ERROR! DID NOT UPLOAD: " + fileToUpload + "--    error code: "
+                            + u.getStatus() + " (" + transport.getProtocol() + ") to " + u.url);
+
+                    // Every repo's result is logged before failing.
+                    if (failed != null) {
+                        continue;
+                    } else if (u.getStatus() == 502) {
+                        failed = new RuntimeException("Possibly " + repoName + " is not configured to receive Snapshots.");
+                    } else {
+                        failed = new RuntimeException("FAILED to push to Artifactory - See Logs.");
+                    }
+                    continue;
                 }
             }
+            buildLogger.addBuildLogEntry("push0ver - DONE:     " + u.getStatus() + " - PUT " + u.url + " " + transport.getProtocol());
+        }
+        jfr.set("status", worst).set("failures", failures);
+        if (failures > 0) {
+            incomplete = true;
+        }
+        if (failed != null) {
+            span.error(failed.getMessage());
+            throw failed;
+        }
+
+        md5.renameTo(new File(md5.getAbsolutePath() + ".uploaded"));
+        sha1.renameTo(new File(sha1.getAbsolutePath() + ".uploaded"));
+        f.renameTo(new File(f.getAbsolutePath() + ".uploaded"));
+    }
+
+    /**
+     * Reads the file once and PUTs it to every url at the same time (see {@link FileTee}).
+     */
+    private void putTee(File f, final List<Transport.Upload> uploads, final Transport transport) {
+        FileTee tee;
+        try {
+            tee = new FileTee(new FileInputStream(f), uploads.size(), uploadChunk);
+        } catch (IOException ioe) {
+            for (Transport.Upload u : uploads) {
+                u.failure = ioe;
+            }
+            return;
+        }
+        // The branches must be read side by side, so this needs real threads even without virtual ones.
+        TaskScope scope = TaskScope.pooled(uploads.size());
+        try {
+            for (int i = 0; i < uploads.size(); i++) {
+                final Transport.Upload u = uploads.get(i);
+                final InputStream branch = tee.getBranches().get(i);
+                scope.fork(() -> {
+                    long start = System.currentTimeMillis();
+                    try {
+                        u.status = transport.put(u.url, branch, u.file.length(), basicAuth);
+                    } catch (IOException ioe) {
+                        u.failure = ioe;
+                    } finally {
+                        Finally.close(branch);
+                        u.millis = System.currentTimeMillis() - start;
+                    }
+                    return null;
+                });
+            }
+            scope.join();
+        } finally {
+            scope.close();
         }
     }
 
     private void mvnMakeFingerprints(File f) {
+        if (f.getName().endsWith(".md5") || f.getName().endsWith(".sha1")) {
+            return;
+        }
+        Jfr.Event jfr = Jfr.FINGERPRINT.begin();
         try {
-            FileInputStream fin = new FileInputStream(f);
             MessageDigest md5 = MessageDigest.getInstance("MD5");
             MessageDigest sha1 = MessageDigest.getInstance("SHA1");
 
-            if (f.getName().endsWith(".md5") || f.getName().endsWith(".sha1")) {
-                return;
-            }
-            byte[] buf = new byte[4096];
-            int n;
-            while ((n = fin.read(buf, 0, buf.length)) != -1) {
-                md5.update(buf, 0, n);
-            }
-
-            fin = new FileInputStream(f);
-            while ((n = fin.read(buf, 0, buf.length)) != -1) {
-                sha1.update(buf, 0, n);
+            // One read feeds both digests.
+            FileInputStream fin = new FileInputStream(f);
+            try {
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = fin.read(buf, 0, buf.length)) != -1) {
+                    md5.update(buf, 0, n);
+                    sha1.update(buf, 0, n);
+                }
+            } finally {
+                fin.close();
             }
 
             String md5sum = DatatypeConverter.printHexBinary(md5.digest()).toLowerCase(Locale.ENGLISH);
@@ -356,6 +659,8 @@ public class Rename {
             fos.close();
         } catch (Exception e) {
             throw new RuntimeException("stuff happened", e);
+        } finally {
+            jfr.set("file", f.getPath()).set("bytes", f.length()).commit();
         }
     }
 
@@ -374,21 +679,64 @@ public class Rename {
                 || name.endsWith(".INI");
     }
 
-    private String uploadTarget(String fileName, String tag, String group, String module, long timestamp) {
-        String target = url + repoName + "/" + group + "/" + module + "/" + tag + "/" + fileName;
+    private String uploadTarget(String repo, String fileName, String tag, String group, String module, long timestamp) {
+        String target = repo + group + "/" + module + "/" + tag + "/" + fileName;
         return target + "?build.timestamp=" + timestamp;
     }
 
-    private String existsTarget(String fileName, String group, String module) {
-        return url + repoName + "/" + group + "/" + module + "/" + tag.getVersion() + "/" + fileName;
+    private String existsTarget(String repo, String fileName, String group, String module) {
+        return repo + group + "/" + module + "/" + tag.getVersion() + "/" + fileName;
     }
 
-    private static String readAndReplace(File f, String search, String replace) throws IOException {
-        FileInputStream fin = new FileInputStream(f);
+    /**
+     * Writes "in" to "target" with search replaced, if "in" contains search (closes "in").
+     * Payloads the memory budget can hold are replaced as a String; bigger ones (or ones of unknown size)
+     * are streamed through {@link BinarySed} into a tmp-file that then becomes the target.
+     *
+     * @return true if search was found (and target written).
+     */
+    private boolean replaceInto(InputStream in, long size, File target, String search, String replace) throws IOException {
+        MemoryBudget memory = stats.getMemory();
+        // The decoded String is two bytes per char, and the replaced copy is as big again.
+        long need = size * 4;
         try {
-            return readAndReplace(fin, search, replace);
+            target.getAbsoluteFile().getParentFile().mkdirs();
+            if (size >= 0 && memory.tryReserve(need)) {
+                try {
+                    String replaced = readAndReplace(in, search, replace);
+                    if (replaced == null) {
+                        return false;
+                    }
+                    FileOutputStream fOut = new FileOutputStream(target);
+                    try {
+                        fOut.write(replaced.getBytes("UTF-8"));
+                    } finally {
+                        fOut.close();
+                    }
+                    return true;
+                } finally {
+                    memory.release(need);
+                }
+            }
+
+            File tmp = File.createTempFile("push0ver-", ".tmp", target.getAbsoluteFile().getParentFile());
+            try {
+                if (!BinarySed.replaceAll(null, search, replace, in, new FileOutputStream(tmp))) {
+                    return false;
+                }
+                if (target.exists() && !target.delete() || !tmp.renameTo(target)) {
+                    throw new IOException("Failed to move [" + tmp.getName() + "] to [" + target.getName() + "].");
+                }
+                buildLogger.addBuildLogEntry("push0ver - replaced [" + search + "] in [" + target + "] (streamed, "
+                        + (size >= 0 ? size + " bytes" : "size unknown") + ")");
+                return true;
+            } finally {
+                if (tmp.exists()) {
+                    tmp.delete();
+                }
+            }
         } finally {
-            fin.close();
+            in.close();
         }
     }
 
@@ -403,6 +751,10 @@ public class Rename {
     }
 
     public void exec(String[] command, String dir) {
+        Trace.Span span = Trace.client("exec " + command[0]).attr("process.command_line", String.join(" ", command))
+                .attr("dir", dir);
+        Jfr.Event jfr = Jfr.SUBPROCESS.begin();
+        int exitCode = -1;
         try {
             Process process;
             if (dir == null) {
@@ -433,10 +785,11 @@ public class Rename {
                 isr = new InputStreamReader(in, "UTF-8");
                 br = new BufferedReader(isr);
                 while ((line = br.readLine()) != null) {
-                    System.out.println("ERR-STREAM: " + line);
+                    buildLogger.addBuildLogEntry("push0ver - ERR-STREAM: " + line);
                 }
 
-                process.waitFor();
+                exitCode = process.waitFor();
+                span.attr("process.exit_code", exitCode);
                 // process.waitFor( 60, TimeUnit.SECONDS );
                 if (hasError) {
                     throw new IOException("Failed HTTP response: [" + buf + "]");
@@ -445,14 +798,47 @@ public class Rename {
                 Finally.close(br, isr, in);
             }
         } catch (Exception e) {
-            buildLogger.addBuildLogEntry("push0ver - CMD FAILED: " + command[0]);
-            e.printStackTrace();
+            span.error(e);
+            buildLogger.addBuildLogEntry("push0ver - CMD FAILED: " + command[0] + " " + e);
+        } finally {
+            span.end();
+            if (jfr.isRecording()) {
+                jfr.set("command", String.join(" ", command)).set("exitCode", exitCode).commit();
+            }
         }
     }
 
     public static CloseableHttpClient allConnect(boolean sslTrustAll) {
-        CloseableHttpClient httpClient = null;
+        return allConnect(sslTrustAll, true);
+    }
+
+    /**
+     * @param followRedirects false to get a 3xx back as is (e.g., a login page redirect is not "it exists").
+     */
+    public static CloseableHttpClient allConnect(boolean sslTrustAll, boolean followRedirects) {
+        HttpClientBuilder builder = HttpClients.custom()
+                .setMaxConnPerRoute(MAX_CONNECTIONS).setMaxConnTotal(MAX_CONNECTIONS * 2);
+        if (!followRedirects) {
+            builder.disableRedirectHandling();
+        }
         if (sslTrustAll) {
+            SSLConnectionSocketFactory sslsf = trustAllFactory();
+            if (sslsf == null) {
+                return null;
+            }
+            builder.setSSLSocketFactory(sslsf);
+        }
+        return builder.build();
+    }
+
+    private static volatile SSLConnectionSocketFactory trustAll;
+
+    /**
+     * Built once per JVM:  the SSLContext is the expensive part of a trust-all client.
+     */
+    private static SSLConnectionSocketFactory trustAllFactory() {
+        SSLConnectionSocketFactory sslsf = trustAll;
+        if (sslsf == null) {
             try {
                 SSLContextBuilder builder = new SSLContextBuilder();
                 builder.loadTrustMaterial(null, new TrustStrategy() {
@@ -461,8 +847,8 @@ public class Rename {
                         return true;
                     }
                 });
-                SSLConnectionSocketFactory sslsf = new SSLConnectionSocketFactory(builder.build());
-                httpClient = HttpClients.custom().setSSLSocketFactory(sslsf).build();
+                sslsf = new SSLConnectionSocketFactory(builder.build());
+                trustAll = sslsf;
             } catch (KeyStoreException u) {
                 u.printStackTrace();
             } catch (NoSuchAlgorithmException u) {
@@ -470,9 +856,7 @@ public class Rename {
             } catch (KeyManagementException u) {
                 u.printStackTrace();
             }
-        } else {
-            httpClient = HttpClients.createDefault();
         }
-        return httpClient;
+        return sslsf;
     }
 }
@@ -0,0 +1,158 @@
+package com.mergebase.push0ver;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * The most recent push0ver runs for a single plan, oldest first.
+ * <p>
+ * Serialized as a JSON array so it can be kept as a single plugin-settings string.
+ */
+public class RunHistory {
+    public static final int MAX_RUNS = 200;
+
+    private final String planKey;
+    private final List<RunStats> runs = new ArrayList<>();
+
+    public RunHistory(String planKey) {
+        this.planKey = planKey;
+    }
+
+    public static RunHistory fromJson(String planKey, String json) {
+        RunHistory h = new RunHistory(planKey);
+        if (json != null && !"".equals(json.trim())) {
+            JsonArray array = new JsonParser().parse(json).getAsJsonArray();
+            for (JsonElement e : array) {
+                h.runs.add(RunStats.fromJson(e.getAsJsonObject()));
+            }
+        }
+        return h;
+    }
+
+    public void add(RunStats stats) {
+        runs.add(stats);
+        while (runs.size() > MAX_RUNS) {
+            runs.remove(0);
+        }
+    }
+
+    public String getPlanKey() {
+        return planKey;
+    }
+
+    public List<RunStats> getRuns() {
+        return Collections.unmodifiableList(runs);
+    }
+
+    public JsonArray toJson() {
+        JsonArray array = new JsonArray();
+        for (RunStats stats : runs) {
+            array.add(stats.toJson());
+        }
+        return array;
+    }
+
+    /**
+     * Full export for operators: every run, plus p50/p95 of each metric overall and per day.
+     */
+    public JsonObject export() {
+        JsonObject json = new JsonObject();
+        json.addProperty("plan", planKey);
+        json.add("overall", summarize(runs));
+        JsonObject days = new JsonObject();
+        for (Map.Entry<String, JsonObject> entry : daily().entrySet()) {
+            days.add(entry.getKey(), entry.getValue());
+        }
+        json.add("daily", days);
+        json.add("runs", toJson());
+        return json;
+    }
+
+    /**
+     * @return {@link #summarize} of each UTC day's runs, oldest day first.
+     */
+    public Map<String, JsonObject> daily() {
+        Map<String, List<RunStats>> byDay = new LinkedHashMap<>();
+        SimpleDateFormat df = new SimpleDateFormat("yyyy-MM-dd");
+        df.setTimeZone(TimeZone.getTimeZone("UTC"));
+        for (RunStats stats : runs) {
+            String day = df.format(new Date(stats.getStarted()));
+            List<RunStats> list = byDay.get(day);
+            if (list == null) {
+                list = new ArrayList<>();
+                byDay.put(day, list);
+            }
+            list.add(stats);
+        }
+        Map<String, JsonObject> days = new LinkedHashMap<>();
+        for (Map.Entry<String, List<RunStats>> entry : byDay.entrySet()) {
+            days.put(entry.getKey(), summarize(entry.getValue()));
+        }
+        return days;
+    }
+
+    /**
+     * p50 and p95 for total time, each phase, upload MB/s, files scanned per second, cache hit rate and memory peak.
+     * Runs that did not exercise a metric (e.g., a pre task has no uploads) are left out of that metric.
+     */
+    public static JsonObject summarize(List<RunStats> runs) {
+        Map<String, List<Double>> metrics = new LinkedHashMap<>();
+        for (RunStats stats : runs) {
+            sample(metrics, stats.getTask() + ".totalMillis", stats.getTotalMillis());
+            for (Map.Entry<String, Long> entry : stats.getPhaseMillis().entrySet()) {
+                sample(metrics, stats.getTask() + ".phase." + entry.getKey(), entry.getValue());
+            }
+            sample(metrics, "uploadMBps", stats.getUploadMBps());
+            sample(metrics, "filesScannedPerSecond", stats.getFilesScannedPerSecond());
+            sample(metrics, "cacheHitRate", stats.getCacheHitRate());
+            sample(metrics, stats.getTask() + ".memoryPeakMB", stats.getMemory().getPeak() / (1024.0 * 1024.0));
+        }
+
+        JsonObject json = new JsonObject();
+        json.addProperty("runs", runs.size());
+        for (Map.Entry<String, List<Double>> entry : metrics.entrySet()) {
+            List<Double> values = entry.getValue();
+            Collections.sort(values);
+            JsonObject m = new JsonObject();
+            m.addProperty("n", values.size());
+            m.addProperty("p50", percentile(values, 50));
+            m.addProperty("p95", percentile(values, 95));
+            json.add(entry.getKey(), m);
+        }
+        return json;
+    }
+
+    private static void sample(Map<String, List<Double>> metrics, String name, double value) {
+        if (value < 0) {
+            return;
+        }
+        List<Double> values = metrics.get(name);
+        if (values == null) {
+            values = new ArrayList<>();
+            metrics.put(name, values);
+        }
+        values.add(value);
+    }
+
+    /**
+     * Nearest-rank percentile of an already sorted list.
+     */
+    static double percentile(List<Double> sorted, int p) {
+        if (sorted.isEmpty()) {
+            return -1;
+        }
+        int rank = (int) Math.ceil(p / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, rank - 1)));
+    }
+}
@@ -0,0 +1,232 @@
+package com.mergebase.push0ver;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timings and counters for a single push0ver run (either the pre task or the post task).
+ * <p>
+ * Phases are recorded in the order they finish.  A phase that runs several times (e.g., once per
+ * directory-scoped tag) accumulates.
+ */
+public class RunStats {
+    private final String task;
+    private final long started;
+    private final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+    private long finished;
+    private String outcome = "unknown";
+
+    private long bytesUploaded;
+    private long uploadMillis;
+    private long filesUploaded;
+    private long filesScanned;
+    private long bytesScanned;
+    private long filesSkipped;
+    private long scanMillis;
+    private long cacheHits;
+    private long cacheMisses;
+    private MemoryBudget memory = new MemoryBudget(MemoryBudget.DEFAULT_LIMIT);
+
+    public RunStats(String task) {
+        this(task, System.currentTimeMillis());
+    }
+
+    RunStats(String task, long started) {
+        this.task = task;
+        this.started = started;
+    }
+
+    /**
+     * Adds the time elapsed since "startMillis" to the given phase.
+     */
+    public synchronized void phase(String name, long startMillis) {
+        long elapsed = System.currentTimeMillis() - startMillis;
+        Long prev = phaseMillis.get(name);
+        phaseMillis.put(name, prev != null ? prev + elapsed : elapsed);
+    }
+
+    public synchronized void uploaded(long bytes, long millis) {
+        bytesUploaded += bytes;
+        uploadMillis += millis;
+        filesUploaded++;
+    }
+
+    public synchronized void scanned(long files, long bytes, long millis) {
+        filesScanned += files;
+        bytesScanned += bytes;
+        scanMillis += millis;
+    }
+
+    /**
+     * Files the scan index said were unchanged (counted in filesScanned, but not read).
+     */
+    public synchronized void scanSkipped(long files) {
+        filesSkipped += files;
+    }
+
+    public synchronized void cacheHit() {
+        cacheHits++;
+    }
+
+    public synchronized void cacheMiss() {
+        cacheMisses++;
+    }
+
+    /**
+     * Replaces the default budget (see {@link MemoryBudget#fromProperties}).  Call before any work starts.
+     */
+    public synchronized void setMemory(MemoryBudget memory) {
+        this.memory = memory;
+    }
+
+    public synchronized MemoryBudget getMemory() {
+        return memory;
+    }
+
+    public synchronized void finish(String outcome) {
+        this.finished = System.currentTimeMillis();
+        this.outcome = outcome;
+    }
+
+    public String getTask() {
+        return task;
+    }
+
+    public long getStarted() {
+        return started;
+    }
+
+    public synchronized long getTotalMillis() {
+        return (finished > 0 ? finished : System.currentTimeMillis()) - started;
+    }
+
+    public synchronized Map<String, Long> getPhaseMillis() {
+        return new LinkedHashMap<>(phaseMillis);
+    }
+
+    public synchronized String getOutcome() {
+        return outcome;
+    }
+
+    public synchronized long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    public synchronized long getFilesScanned() {
+        return filesScanned;
+    }
+
+    public synchronized long getFilesSkipped() {
+        return filesSkipped;
+    }
+
+    public synchronized long getBytesScanned() {
+        return bytesScanned;
+    }
+
+    /**
+     * @return upload throughput in MB/s, or -1 if nothing was uploaded.
+     */
+    public synchronized double getUploadMBps() {
+        if (filesUploaded == 0 || uploadMillis <= 0) {
+            return -1;
+        }
+        return (bytesUploaded / (1024.0 * 1024.0)) / (uploadMillis / 1000.0);
+    }
+
+    /**
+     * @return files scanned for sentinels per second, or -1 if nothing was scanned.
+     */
+    public synchronized double getFilesScannedPerSecond() {
+        if (filesScanned == 0) {
+            return -1;
+        }
+        return filesScanned / (Math.max(scanMillis, 1) / 1000.0);
+    }
+
+    /**
+     * @return cache hit rate between 0 and 1, or -1 if no cache was consulted.
+     */
+    public synchronized double getCacheHitRate() {
+        long total = cacheHits + cacheMisses;
+        return total == 0 ? -1 : (double) cacheHits / total;
+    }
+
+    public synchronized String summary() {
+        StringBuilder buf = new StringBuilder();
+        buf.append("push0ver - RUN SUMMARY (").append(task).append("): ").append(outcome)
+                .append(" in ").append(getTotalMillis()).append("ms");
+        for (Map.Entry<String, Long> entry : phaseMillis.entrySet()) {
+            buf.append(", ").append(entry.getKey()).append('=').append(entry.getValue()).append("ms");
+        }
+        if (filesScanned > 0) {
+            buf.append(", scanned=").append(filesScanned).append(" files");
+            if (filesSkipped > 0) {
+                buf.append(" (").append(filesSkipped).append(" unchanged)");
+            }
+        }
+        if (filesUploaded > 0) {
+            buf.append(", uploaded=").append(bytesUploaded).append(" bytes");
+        }
+        buf.append(", memory=").append(memory.getPeak()).append('/').append(memory.getLimit()).append(" bytes");
+        return buf.toString();
+    }
+
+    public synchronized JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("task", task);
+        json.addProperty("started", started);
+        json.addProperty("totalMillis", getTotalMillis());
+        json.addProperty("outcome", outcome);
+        JsonObject phases = new JsonObject();
+        for (Map.Entry<String, Long> entry : phaseMillis.entrySet()) {
+            phases.addProperty(entry.getKey(), entry.getValue());
+        }
+        json.add("phases", phases);
+        json.addProperty("bytesUploaded", bytesUploaded);
+        json.addProperty("uploadMillis", uploadMillis);
+        json.addProperty("filesUploaded", filesUploaded);
+        json.addProperty("filesScanned", filesScanned);
+        json.addProperty("bytesScanned", bytesScanned);
+        json.addProperty("filesSkipped", filesSkipped);
+        json.addProperty("scanMillis", scanMillis);
+        json.addProperty("cacheHits", cacheHits);
+        json.addProperty("cacheMisses", cacheMisses);
+        json.addProperty("memoryLimit", memory.getLimit());
+        json.addProperty("memoryPeak", memory.getPeak());
+        return json;
+    }
+
+    public static RunStats fromJson(String s) {
+        return fromJson(new JsonParser().parse(s).getAsJsonObject());
+    }
+
+    public static RunStats fromJson(JsonObject json) {
+        RunStats stats = new RunStats(json.get("task").getAsString(), json.get("started").getAsLong());
+        stats.finished = stats.started + json.get("totalMillis").getAsLong();
+        stats.outcome = json.get("outcome").getAsString();
+        JsonObject phases = json.getAsJsonObject("phases");
+        for (Map.Entry<String, JsonElement> entry : phases.entrySet()) {
+            stats.phaseMillis.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        stats.bytesUploaded = json.get("bytesUploaded").getAsLong();
+        stats.uploadMillis = json.get("uploadMillis").getAsLong();
+        stats.filesUploaded = json.get("filesUploaded").getAsLong();
+        stats.filesScanned = json.get("filesScanned").getAsLong();
+        stats.bytesScanned = json.get("bytesScanned").getAsLong();
+        stats.scanMillis = json.get("scanMillis").getAsLong();
+        if (json.has("filesSkipped")) {
+            stats.filesSkipped = json.get("filesSkipped").getAsLong();
+        }
+        stats.cacheHits = json.get("cacheHits").getAsLong();
+        stats.cacheMisses = json.get("cacheMisses").getAsLong();
+        if (json.has("memoryLimit")) {
+            stats.memory = new MemoryBudget(json.get("memoryLimit").getAsLong(), json.get("memoryPeak").getAsLong());
+        }
+        return stats;
+    }
+}
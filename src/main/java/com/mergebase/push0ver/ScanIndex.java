@@ -0,0 +1,215 @@
+package com.mergebase.push0ver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Persistent record of the workspace files known to contain no sentinel, saved in
+ * ".git/push0ver/scan-index.txt" between runs.
+ * <p>
+ * Each clean file is recorded with its size, mtime, file key (device and inode, where the OS has one) and
+ * git blob id (when the file is tracked and unmodified).  The next inject pass skips a file only if all four
+ * still match, so it reads just the files that are new or changed since the last run on this agent.
+ * <p>
+ * Files that did contain a sentinel are never recorded:  they're rescanned every time (the pre task rewrites
+ * them anyway, and the next checkout puts the sentinel back).
+ */
+public class ScanIndex {
+    static final String INDEX_FILE = "push0ver/scan-index.txt";
+    private static final String HEADER = "# push0ver scan index v1";
+    private static final String UNKNOWN = "-";
+
+    private final File file;
+    private final Path root;
+    private final Map<String, String> saved;
+    private final Map<String, String> blobs;
+    private final Map<String, String> clean = new TreeMap<>();
+    private final Map<String, String> pending = new HashMap<>();
+    private int hits;
+
+    private ScanIndex(File file, Path root, Map<String, String> saved, Map<String, String> blobs) {
+        this.file = file;
+        this.root = root;
+        this.saved = saved;
+        this.blobs = blobs;
+    }
+
+    /**
+     * @param projectDir the checkout (its ".git" directory holds the index)
+     * @return the index for this checkout, or null if it has no ".git" directory.
+     */
+    public static ScanIndex load(File projectDir) {
+        File dir = projectDir.getAbsoluteFile().toPath().normalize().toFile();
+        File gitDir = new File(dir, ".git");
+        if (!gitDir.isDirectory()) {
+            return null;
+        }
+        File f = new File(gitDir, INDEX_FILE);
+        @SuppressWarnings("unchecked")
+        Map<String, String> saved = WarmCache.get(f, Map.class);
+        if (saved == null) {
+            saved = read(f);
+            WarmCache.put(f, saved);
+        }
+        return new ScanIndex(f, dir.toPath(), saved != null ? saved : new HashMap<String, String>(), blobs(gitDir, dir));
+    }
+
+    /**
+     * Blob ids of tracked files whose worktree copy matches git's index (as far as git's stat check can tell).
+     */
+    private static Map<String, String> blobs(File gitDir, File workTree) {
+        Map<String, String> blobs = new HashMap<>();
+        String gd = gitDir.getPath();
+        String wt = "--work-tree=" + workTree.getPath();
+        Git.Result staged = Git.run(gd, wt, "ls-files", "-s", "-z");
+        Git.Result dirty = Git.run(gd, wt, "diff-files", "--name-only", "-z");
+        if (staged.exitCode != 0 || dirty.exitCode != 0) {
+            return blobs;
+        }
+        Set<String> modified = new HashSet<>();
+        for (String path : split(dirty.stdout)) {
+            modified.add(path);
+        }
+        for (String entry : split(staged.stdout)) {
+            // <mode> SP <blob> SP <stage> TAB <path>
+            int tab = entry.indexOf('\t');
+            String[] toks = tab > 0 ? entry.substring(0, tab).split(" ") : new String[0];
+            if (toks.length == 3 && "0".equals(toks[2])) {
+                String path = entry.substring(tab + 1);
+                if (!modified.contains(path)) {
+                    blobs.put(path, toks[1]);
+                }
+            }
+        }
+        return blobs;
+    }
+
+    private static String[] split(List<String> nulTerminated) {
+        StringBuilder buf = new StringBuilder();
+        for (String line : nulTerminated) {
+            buf.append(line).append('\n');
+        }
+        String s = buf.toString();
+        return "".equals(s.trim()) ? new String[0] : s.split("\0\n?");
+    }
+
+    /**
+     * @return true if this file was clean last time and hasn't changed since (the caller can skip it).
+     */
+    public boolean isUnchanged(Path path, BasicFileAttributes attrs) {
+        String rel = relative(path);
+        if (rel == null) {
+            return false;
+        }
+        String blob = blobs.get(rel);
+        Object fileKey = attrs.fileKey();
+        String key = attrs.size() + " " + attrs.lastModifiedTime().toString() + " "
+                + (fileKey != null ? fileKey.toString().replace(' ', '_') : UNKNOWN) + " "
+                + (blob != null ? blob : UNKNOWN);
+        if (key.equals(saved.get(rel))) {
+            clean.put(rel, key);
+            hits++;
+            return true;
+        }
+        pending.put(rel, key);
+        return false;
+    }
+
+    /**
+     * Records that the file just checked by {@link #isUnchanged} turned out to have no sentinel.
+     */
+    public void markClean(Path path) {
+        String rel = relative(path);
+        String key = rel != null ? pending.remove(rel) : null;
+        if (key != null) {
+            clean.put(rel, key);
+        }
+    }
+
+    /**
+     * @return files skipped since this index was loaded.
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    private String relative(Path path) {
+        if (!path.startsWith(root)) {
+            return null;
+        }
+        String rel = root.relativize(path).toString().replace(File.separatorChar, '/');
+        return rel.indexOf('\n') < 0 ? rel : null;
+    }
+
+    private static Map<String, String> read(File f) {
+        if (!f.isFile()) {
+            return null;
+        }
+        Map<String, String> saved = new HashMap<>();
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8));
+            String line = br.readLine();
+            if (!HEADER.equals(line)) {
+                return null;
+            }
+            while ((line = br.readLine()) != null) {
+                // <size> <mtime> <file-key> <blob> <path>
+                String[] toks = line.split(" ", 5);
+                if (toks.length == 5) {
+                    saved.put(toks[4], toks[0] + " " + toks[1] + " " + toks[2] + " " + toks[3]);
+                }
+            }
+        } catch (IOException ioe) {
+            return null;
+        } finally {
+            Finally.close(br);
+        }
+        return saved;
+    }
+
+    /**
+     * Replaces the saved index with the files found clean by this run (files not visited are dropped).
+     */
+    public void save() {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        File tmp = new File(dir, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        Writer w = null;
+        try {
+            w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8);
+            w.write(HEADER + "\n");
+            for (Map.Entry<String, String> entry : clean.entrySet()) {
+                w.write(entry.getValue() + " " + entry.getKey() + "\n");
+            }
+            w.close();
+            w = null;
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                tmp.renameTo(file);
+            }
+            WarmCache.put(file, new HashMap<>(clean));
+        } catch (IOException ioe) {
+            tmp.delete();
+        } finally {
+            Finally.close(w);
+        }
+    }
+}
@@ -13,11 +13,10 @@ public class Tag implements Comparable<Tag> {
     private final String rawVersion;
     private final String directory;
     private final Version version;
-    private int staleCount;
-    private boolean isValid = false;
+    private final int staleCount;
+    private final boolean isValid;
     private final String projectDir;
     private final MyLogger log;
-    private Boolean isNode = null;
 
     public Tag(String projectDir, String tag, MyLogger log) {
         this(projectDir, tag, 0, log);
@@ -56,6 +55,7 @@ public class Tag implements Comparable<Tag> {
 
         } else {
             this.version = null;
+            this.isValid = false;
         }
         this.staleCount = staleCount;
     }
@@ -111,16 +111,9 @@ public class Tag implements Comparable<Tag> {
     }
 
     public boolean isNode(Set<File> matches) {
-        if (isNode != null) {
-            return isNode;
-        }
-
         String dir = projectDir + directory;
         for (File f : matches) {
             String match = f.getPath();
-
-            System.out.println("Considering for dir=" + dir + " match=" + match);
-
             if (match.endsWith("package.json") && match.startsWith(dir)) {
                 return true;
             }
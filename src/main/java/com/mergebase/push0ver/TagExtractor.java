@@ -1,18 +1,16 @@
 package com.mergebase.push0ver;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
 
 /**
  * Given a git checkout, this utility extracts the most salient tag for a given HEAD.
@@ -56,6 +54,18 @@ public class TagExtractor {
     }
 
     public static Map<String, Tag> getTag(String gitDir, String projectDir, boolean releaseExists, MyLogger log, String[] badTag) {
+        Jfr.Event jfr = Jfr.TAG_RESOLUTION.begin();
+        Map<String, Tag> tags = null;
+        try {
+            tags = resolve(gitDir, projectDir, releaseExists, log, badTag);
+            return tags;
+        } finally {
+            jfr.set("gitDir", gitDir).set("tags", tags).commit();
+        }
+    }
+
+    private static Map<String, Tag> resolve(
+            String gitDir, String projectDir, boolean releaseExists, MyLogger log, String[] badTag) {
         // Use " git symbolic-ref --short HEAD " to get current branch.
         // Including "current branch" in log messages (especially error messages) makes them more useful.
         String cmd = "git --no-pager --git-dir=" + gitDir + "/.git symbolic-ref --short HEAD ";
@@ -66,13 +76,17 @@ public class TagExtractor {
         InputStream in = null;
         InputStreamReader isr = null;
         BufferedReader br = null;
+        Trace.Span span = Trace.client("git symbolic-ref").attr("process.command_line", cmd.trim());
+        Jfr.Event jfr = Jfr.SUBPROCESS.begin();
         try {
             process = Runtime.getRuntime().exec(command);
             in = process.getInputStream();
             isr = new InputStreamReader(in, "UTF-8");
             br = new BufferedReader(isr);
             currentBranch = br.readLine();
+            span.attr("branch", currentBranch);
         } catch (IOException ioe) {
+            span.error(ioe);
             // No luck!
             final String msg = "push0ver - TagExtractor Failed to run 'git symbolic-ref --short HEAD' command: " + ioe.toString();
             if (log != null) {
@@ -83,16 +97,36 @@ public class TagExtractor {
             return null;
         } finally {
             Finally.close(br, isr, in, process);
+            span.end();
+            jfr.set("command", cmd.trim()).commit();
         }
 
-        // Get last 1000 commits to scan for possible release and snapshot tags:
-        cmd = "git --no-pager --git-dir=" + gitDir + "/.git log --pretty=%d --first-parent --max-count=1000";
-        command = cmd.split(" ");
+        // Walk first-parent history (lazily, as far back as needed) for possible release and snapshot tags.
+        // Prefer the persistent tag index; else decorate through the commit-graph; else stream "git log".
+        TagSource source = null;
+        Reader history = null;
+        process = null;
+        in = null;
+        isr = null;
         try {
-            process = Runtime.getRuntime().exec(command);
-            in = process.getInputStream();
-            isr = new InputStreamReader(in, "UTF-8");
-            Map<String, Tag> tags = extractTag(projectDir, isr, releaseExists, log, badTag, currentBranch);
+            TagIndex index = TagIndex.update(gitDir + "/.git");
+            FirstParentWalk walk = index != null ? FirstParentWalk.open(gitDir + "/.git") : null;
+            if (walk != null) {
+                source = index.history(walk, projectDir, log);
+            } else {
+                history = FirstParentHistory.open(gitDir + "/.git");
+                if (history == null) {
+                    cmd = "git --no-pager --git-dir=" + gitDir + "/.git log --pretty=%d --first-parent";
+                    command = cmd.split(" ");
+                    span = Trace.async("git log").attr("process.command_line", cmd);
+                    process = Runtime.getRuntime().exec(command);
+                    in = process.getInputStream();
+                    isr = new InputStreamReader(in, "UTF-8");
+                    history = isr;
+                }
+                source = new DecorationSource(projectDir, history, log);
+            }
+            Map<String, Tag> tags = extractTag(source, releaseExists, log, badTag, currentBranch);
             validateAndCleanTags(tags);
             return tags;
         } catch (IOException ioe) {
@@ -105,7 +139,10 @@ public class TagExtractor {
             }
             return null;
         } finally {
-            Finally.close(isr, in, process);
+            Finally.close(source, history, isr, in, process);
+            if (process != null) {
+                span.end();
+            }
         }
     }
 
@@ -169,41 +206,91 @@ public class TagExtractor {
         }
     }
 
+    /**
+     * Tags along first-parent history, one commit per {@link #next()}, newest commit first.
+     */
+    interface TagSource extends Closeable {
+        boolean next() throws IOException;
+
+        /**
+         * @return largest RELEASE tag per directory on the current commit, or null if none.
+         */
+        Map<String, Tag> release();
+
+        /**
+         * @return largest SNAPSHOT tag per directory on the current commit, or null if none.
+         */
+        Map<String, Tag> snapshot();
+    }
+
+    /**
+     * Reads "git log --pretty=%d" style decoration lines.
+     */
+    private static class DecorationSource implements TagSource {
+        private final BufferedReader br;
+        private final DecorationParser parser;
+
+        DecorationSource(String projectDir, Reader r, MyLogger log) {
+            this.br = r instanceof BufferedReader ? (BufferedReader) r : new BufferedReader(r);
+            this.parser = new DecorationParser(projectDir, log);
+        }
+
+        public boolean next() throws IOException {
+            String line = br.readLine();
+            parser.parse(line);
+            return line != null;
+        }
+
+        public Map<String, Tag> release() {
+            return parser.release();
+        }
+
+        public Map<String, Tag> snapshot() {
+            return parser.snapshot();
+        }
+
+        public void close() throws IOException {
+            br.close();
+        }
+    }
+
     static Map<String, Tag> extractTag(String projectDir, Reader r, boolean releaseExists, MyLogger log, String[] badTag, String currentBranch) {
-        Set<String> alreadyLoggedInvalids = new TreeSet<String>();
-        BufferedReader br = null;
+        return extractTag(new DecorationSource(projectDir, r, log), releaseExists, log, badTag, currentBranch);
+    }
+
+    static Map<String, Tag> extractTag(TagSource source, boolean releaseExists, MyLogger log, String[] badTag, String currentBranch) {
         Map<String, Tag> tag = null;
+        int lineCount = 0;
         try {
-            br = r instanceof BufferedReader ? (BufferedReader) r : new BufferedReader(r);
-            String line = br.readLine();
+            boolean hasLine = source.next();
+            lineCount = hasLine ? 1 : 0;
 
             // Is there a release in current tag (first line of "git log" command")?
-            final Map<String, Tag> releaseTag = extractTag(projectDir, line, TagMode.RELEASE, log, alreadyLoggedInvalids);
+            final Map<String, Tag> releaseTag = hasLine ? source.release() : null;
             tag = releaseTag;
 
             // Special "release exists" logic if snapshot tag on same commit AND release exists in artifactory.
             if (releaseTag != null && releaseExists) {
-                Map<String, Tag> snapshot = extractTag(projectDir, line, TagMode.SNAPSHOT, null, alreadyLoggedInvalids);
+                Map<String, Tag> snapshot = source.snapshot();
                 return snapshotIfLarger(releaseTag, snapshot);
             }
 
             // Back to regular logic:  is snapshot on same commit?  (unknown if release in artifactory)
-            if (tag == null) {
+            if (tag == null && hasLine) {
                 // okay, what about a SNAPSHOT?
-                tag = extractTag(projectDir, line, TagMode.SNAPSHOT, log, alreadyLoggedInvalids);
+                tag = source.snapshot();
             }
 
             // No release in current commit, so let's go back in history and look for
             // a SNAPSHOT tag.
-            int lineCount = 1;
-            while (tag == null && (line = br.readLine()) != null) {
+            while (tag == null && source.next()) {
                 lineCount++;
                 // First check if a release tag is there:
-                tag = extractTag(projectDir, line, TagMode.RELEASE, log, alreadyLoggedInvalids);
+                tag = source.release();
                 if (tag != null) {
                     // Release tags after the 0th position kills our search for a "SNAPSHOT" tag.
                     // But if this tag happens to have SNAPSHOT, we can return that:
-                    Map<String, Tag> snapshot = extractTag(projectDir, line, TagMode.SNAPSHOT, log, alreadyLoggedInvalids);
+                    Map<String, Tag> snapshot = source.snapshot();
                     Map<String, Tag> snapshotIfLarger = snapshotIfLarger(tag, snapshot);
                     if (snapshot == null || snapshotIfLarger == null) {
                         int staleCount = lineCount - 1;
@@ -227,7 +314,7 @@ public class TagExtractor {
                 }
 
                 // If release tag didn't kill our search, look for SNAPSHOT tag:
-                tag = extractTag(projectDir, line, TagMode.SNAPSHOT, log, alreadyLoggedInvalids);
+                tag = source.snapshot();
             }
 
         } catch (IOException ioe) {
@@ -235,15 +322,16 @@ public class TagExtractor {
             System.err.println("TagExtractor Failed readline(): " + ioe.toString());
             return null;
         } finally {
-            Finally.close(br);
+            Finally.close(source);
         }
 
         if (tag == null) {
             if (log != null) {
-                log.addBuildLogEntry("push0ver - Unable to set version in pom.xml. No valid tags found in last 1,000 commits.");
+                log.addBuildLogEntry("push0ver - Unable to set version in pom.xml. No valid tags found in "
+                        + lineCount + " commits of first-parent history.");
                 log.addBuildLogEntry("push0ver - To see for yourself:");
                 log.addBuildLogEntry("  git fetch");
-                log.addBuildLogEntry("  git log --first-parent --pretty='%h | %ci | %d' -1000 origin/" + currentBranch);
+                log.addBuildLogEntry("  git log --first-parent --pretty='%h | %ci | %d' -" + lineCount + " origin/" + currentBranch);
             }
         }
         return tag;
@@ -279,78 +367,13 @@ public class TagExtractor {
         MAVEN
     }
 
-    private static Map<String, Tag> extractTag(
-            String projectDir, String tagString, TagMode mode, MyLogger log, Set<String> alreadyLoggedInvalids) {
-        tagString = tagString != null ? tagString.trim() : "";
-        if (tagString.length() >= 2) {
-            if (tagString.charAt(0) == '(') {
-                tagString = tagString.substring(1);
-            }
-            if (tagString.charAt(tagString.length() - 1) == ')') {
-                tagString = tagString.substring(0, tagString.length() - 1);
-            }
-        }
-        tagString = tagString.trim();
-
-        String[] toks = tagString.split(", ");
-        List<Tag> tags = new ArrayList<Tag>();
-        for (String t : toks) {
-            if (t.contains("tag: ")) {
-                t = t.substring(5);
-                Tag tag = new Tag(projectDir, t, log);
-
-                // boolean isValid = isValidTag( t );
-                boolean isValid = tag.isValid();
-                if (!isValid && !alreadyLoggedInvalids.contains(t)) {
-                    if (log != null) {
-                        if (tag.hasSlashes()) {
-                            log.addBuildLogEntry("push0ver - IGNORING TAG \"" + t
-                                    + "\" since the 1st character after the last slash is not a digit.");
-                        } else {
-                            log.addBuildLogEntry("push0ver - IGNORING TAG \"" + t
-                                    + "\" since the 1st character is not a digit.");
-                        }
-                        alreadyLoggedInvalids.add(t);
-                    }
-                }
-                if (isValid) {
-                    switch (mode) {
-                        case ALL:
-                            tags.add(tag);
-                            break;
-                        case SNAPSHOT:
-                            if (tag.containsSnapshot()) {
-                                tags.add(tag);
-                            }
-                            break;
-                        case RELEASE:
-                            if (!tag.containsSnapshot()) {
-                                tags.add(tag);
-                            }
-                    }
-                }
-            }
-        }
-        if (!tags.isEmpty()) {
-            // Return "biggest" tag (for each subdir):
-            return coalesce(tags);
+    static void logInvalid(MyLogger log, Tag tag, String t) {
+        if (tag.hasSlashes()) {
+            log.addBuildLogEntry("push0ver - IGNORING TAG \"" + t
+                    + "\" since the 1st character after the last slash is not a digit.");
         } else {
-            return null;
-        }
-    }
-
-    private static Map<String, Tag> coalesce(List<Tag> tags) {
-
-        // Turn our list into map keyed by sub-directory to biggest tag.
-
-        Map<String, Tag> byDir = new HashMap<>();
-        for (Tag t : tags) {
-            String dir = t.getDirectory();
-            Tag other = byDir.get(dir);
-            if (other == null || other.compareTo(t) < 0) {
-                byDir.put(dir, t);
-            }
+            log.addBuildLogEntry("push0ver - IGNORING TAG \"" + t
+                    + "\" since the 1st character is not a digit.");
         }
-        return byDir;
     }
 }
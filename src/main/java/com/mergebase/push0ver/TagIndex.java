@@ -0,0 +1,345 @@
+package com.mergebase.push0ver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Persistent reverse index from commit id to the tags that point at it, saved in
+ * ".git/push0ver/tag-index.txt" between runs.
+ * <p>
+ * Each tag is classified once, when its ref first shows up (or moves):  RELEASE, SNAPSHOT, or invalid.
+ * Per commit the index keeps the largest RELEASE and the largest SNAPSHOT tag for each directory, so
+ * {@link TagExtractor} can walk first-parent history and answer "which tags are here?" with a map
+ * lookup instead of asking git to decorate every commit.
+ * <p>
+ * {@link #update(String)} lists the tag refs (cheap, no objects are read) and only peels and classifies
+ * the refs that are new or that moved since the index was last saved.
+ */
+public class TagIndex {
+    static final String INDEX_FILE = "push0ver/tag-index.txt";
+    private static final String HEADER = "# push0ver tag index v2";
+    private static final char RELEASE = 'R';
+    private static final char SNAPSHOT = 'S';
+    private static final char INVALID = 'X';
+    // A tag of a tree or blob:  never on a commit, kept only so its ref isn't peeled again every run.
+    private static final char NOT_A_COMMIT = 'N';
+    private static final String NO_COMMIT = "-";
+
+    /**
+     * Tags on a single commit.  Directory keys are the same as {@link Tag#getDirectory()}.
+     */
+    static class Entry {
+        final Map<String, String> release = new HashMap<>();
+        final Map<String, String> snapshot = new HashMap<>();
+        final List<String> invalid = new ArrayList<>();
+    }
+
+    private static class Ref {
+        final String oid;
+        final String commit;
+        final char kind;
+
+        Ref(String oid, String commit, char kind) {
+            this.oid = oid;
+            this.commit = commit;
+            this.kind = kind;
+        }
+    }
+
+    private final Map<String, Ref> refs = new TreeMap<>();
+    private final Map<String, Entry> byCommit = new HashMap<>();
+    private int lastChanged;
+
+    private TagIndex() {
+    }
+
+    /**
+     * Loads the saved index (if any), brings it up to date with the repository's tag refs, and saves it
+     * again if anything changed.
+     *
+     * @param gitDir the ".git" directory
+     * @return the up-to-date index, or null if git could not list or peel the tags.
+     */
+    public static TagIndex update(String gitDir) {
+        File f = new File(gitDir, INDEX_FILE);
+        synchronized (WarmCache.lock(f)) {
+            return update(gitDir, f);
+        }
+    }
+
+    private static TagIndex update(String gitDir, File f) {
+        TagIndex warm = WarmCache.get(f, TagIndex.class);
+        TagIndex index = warm != null ? warm.copy() : read(f);
+        if (index == null) {
+            index = new TagIndex();
+        }
+
+        Git.Result r = Git.run(gitDir, "for-each-ref", "--format=%(objectname) %(refname)", "refs/tags");
+        if (r.exitCode != 0) {
+            return null;
+        }
+        Map<String, String> current = new TreeMap<>();
+        for (String line : r.stdout) {
+            int x = line.indexOf(' ');
+            if (x > 0 && line.startsWith("refs/tags/", x + 1)) {
+                current.put(line.substring(x + 1 + "refs/tags/".length()), line.substring(0, x));
+            }
+        }
+
+        Set<String> affectedCommits = new TreeSet<>();
+        for (Map.Entry<String, Ref> entry : new ArrayList<>(index.refs.entrySet())) {
+            String oid = current.get(entry.getKey());
+            if (oid == null || !oid.equals(entry.getValue().oid)) {
+                index.refs.remove(entry.getKey());
+                if (entry.getValue().kind != NOT_A_COMMIT) {
+                    affectedCommits.add(entry.getValue().commit);
+                }
+            }
+        }
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            if (!index.refs.containsKey(entry.getKey())) {
+                changed.add(entry.getKey());
+            }
+        }
+
+        if (!changed.isEmpty()) {
+            // Peel only what changed:  "refs/tags/x^{commit}" follows annotated tags (even tags of tags).
+            List<String> peel = new ArrayList<>(changed.size());
+            for (String name : changed) {
+                peel.add("refs/tags/" + name + "^{commit}");
+            }
+            Git.Result peeled = Git.run(gitDir, peel, "cat-file", "--batch-check=%(objectname) %(objecttype)");
+            if (peeled.exitCode != 0 || peeled.stdout.size() != changed.size()) {
+                return null;
+            }
+            for (int i = 0; i < changed.size(); i++) {
+                String name = changed.get(i);
+                String[] toks = peeled.stdout.get(i).split(" ");
+                if (toks.length == 2 && "commit".equals(toks[1])) {
+                    index.refs.put(name, new Ref(current.get(name), toks[0], classify(name)));
+                    affectedCommits.add(toks[0]);
+                } else {
+                    index.refs.put(name, new Ref(current.get(name), NO_COMMIT, NOT_A_COMMIT));
+                }
+            }
+        }
+
+        for (String commit : affectedCommits) {
+            index.byCommit.remove(commit);
+        }
+        for (Map.Entry<String, Ref> entry : index.refs.entrySet()) {
+            if (affectedCommits.contains(entry.getValue().commit)) {
+                index.add(entry.getKey(), entry.getValue());
+            }
+        }
+
+        index.lastChanged = changed.size() + affectedCommits.size();
+        if (index.lastChanged > 0 || !f.isFile()) {
+            index.write(f);
+        }
+        WarmCache.put(f, index.copy());
+        return index;
+    }
+
+    /**
+     * Entries are never modified once another commit's tags are added ({@link #update} drops and rebuilds
+     * the entries of every affected commit), so a shallow copy is enough.
+     */
+    private TagIndex copy() {
+        TagIndex copy = new TagIndex();
+        copy.refs.putAll(refs);
+        copy.byCommit.putAll(byCommit);
+        return copy;
+    }
+
+    static char classify(String name) {
+        Tag t = new Tag("", name, null);
+        if (!t.isValid()) {
+            return INVALID;
+        }
+        return t.containsSnapshot() ? SNAPSHOT : RELEASE;
+    }
+
+    private void add(String name, Ref ref) {
+        Entry e = byCommit.get(ref.commit);
+        if (e == null) {
+            e = new Entry();
+            byCommit.put(ref.commit, e);
+        }
+        if (ref.kind == INVALID) {
+            e.invalid.add(name);
+            return;
+        }
+
+        Map<String, String> bucket = ref.kind == RELEASE ? e.release : e.snapshot;
+        Tag t = new Tag("", name, null);
+        String other = bucket.get(t.getDirectory());
+        if (other == null || new Tag("", other, null).compareTo(t) < 0) {
+            bucket.put(t.getDirectory(), name);
+        }
+    }
+
+    /**
+     * @return the tags on this commit, or null if there are none.
+     */
+    Entry get(String commit) {
+        return byCommit.get(commit);
+    }
+
+    public int size() {
+        return refs.size();
+    }
+
+    /**
+     * @return number of refs and commits re-indexed by the last {@link #update(String)}.
+     */
+    public int getLastChanged() {
+        return lastChanged;
+    }
+
+    private static TagIndex read(File f) {
+        if (!f.isFile()) {
+            return null;
+        }
+        TagIndex index = new TagIndex();
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8));
+            String line = br.readLine();
+            if (!HEADER.equals(line)) {
+                return null;
+            }
+            while ((line = br.readLine()) != null) {
+                // <kind> <ref-oid> <commit-oid> <tag-name>
+                String[] toks = line.split(" ", 4);
+                if (toks.length == 4 && toks[0].length() == 1) {
+                    Ref ref = new Ref(toks[1], toks[2], toks[0].charAt(0));
+                    index.refs.put(toks[3], ref);
+                    if (ref.kind != NOT_A_COMMIT) {
+                        index.add(toks[3], ref);
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            return null;
+        } finally {
+            Finally.close(br);
+        }
+        return index;
+    }
+
+    private void write(File f) {
+        File dir = f.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return;
+        }
+        File tmp = new File(dir, f.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        Writer w = null;
+        try {
+            w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8);
+            w.write(HEADER + "\n");
+            for (Map.Entry<String, Ref> entry : refs.entrySet()) {
+                Ref ref = entry.getValue();
+                w.write(ref.kind + " " + ref.oid + " " + ref.commit + " " + entry.getKey() + "\n");
+            }
+            w.close();
+            w = null;
+            if (!tmp.renameTo(f)) {
+                f.delete();
+                tmp.renameTo(f);
+            }
+        } catch (IOException ioe) {
+            tmp.delete();
+        } finally {
+            Finally.close(w);
+        }
+    }
+
+    /**
+     * Walks first-parent history and serves each commit's tags out of this index.
+     */
+    TagExtractor.TagSource history(FirstParentWalk walk, String projectDir, MyLogger log) {
+        return new IndexedHistory(this, walk, projectDir, log);
+    }
+
+    private static class IndexedHistory implements TagExtractor.TagSource {
+        private final TagIndex index;
+        private final FirstParentWalk walk;
+        private final String projectDir;
+        private final MyLogger log;
+        private final Map<Integer, Entry> byPos = new HashMap<>();
+        private final Set<String> alreadyLoggedInvalids = new TreeSet<>();
+        private Entry current;
+
+        IndexedHistory(TagIndex index, FirstParentWalk walk, String projectDir, MyLogger log) {
+            this.index = index;
+            this.walk = walk;
+            this.projectDir = projectDir;
+            this.log = log;
+            CommitGraph graph = walk.getGraph();
+            if (graph != null) {
+                for (Map.Entry<String, Entry> entry : index.byCommit.entrySet()) {
+                    int p = graph.position(entry.getKey());
+                    if (p >= 0) {
+                        byPos.put(p, entry.getValue());
+                    }
+                }
+            }
+        }
+
+        public boolean next() throws IOException {
+            if (!walk.next()) {
+                current = null;
+                return false;
+            }
+            int p = walk.position();
+            current = p >= 0 ? byPos.get(p) : index.get(walk.oid());
+            if (current != null && log != null) {
+                for (String name : current.invalid) {
+                    if (alreadyLoggedInvalids.add(name)) {
+                        TagExtractor.logInvalid(log, new Tag(projectDir, name, log), name);
+                    }
+                }
+            }
+            return true;
+        }
+
+        public Map<String, Tag> release() {
+            return current != null ? tags(current.release) : null;
+        }
+
+        public Map<String, Tag> snapshot() {
+            return current != null ? tags(current.snapshot) : null;
+        }
+
+        private Map<String, Tag> tags(Map<String, String> names) {
+            if (names.isEmpty()) {
+                return null;
+            }
+            Map<String, Tag> byDir = new HashMap<>();
+            for (Map.Entry<String, String> entry : names.entrySet()) {
+                byDir.put(entry.getKey(), new Tag(projectDir, entry.getValue(), log));
+            }
+            return byDir;
+        }
+
+        public void close() {
+            walk.close();
+        }
+    }
+}
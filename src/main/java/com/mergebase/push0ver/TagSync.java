@@ -0,0 +1,209 @@
+package com.mergebase.push0ver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Incremental replacement for "git fetch --tags".
+ * <p>
+ * Asks the remote for its tag advertisement ("git ls-remote --tags --refs origin"), compares it to the
+ * local "refs/tags", and fetches only the tags that are missing locally or that moved.
+ * Tags deleted on the remote are left alone (same as "git fetch --tags" without "--prune").
+ * <p>
+ * The pre task saves a snapshot of the tags it synced, marked with the HEAD commit it synced for.  The post
+ * task that follows against the same HEAD consumes that mark and skips talking to the remote altogether,
+ * as long as every tag in the snapshot is still there locally.
+ */
+public class TagSync {
+    public static final int SKIPPED = -1;
+    public static final int FAILED = -2;
+
+    static final String SNAPSHOT_FILE = "push0ver/tag-snapshot.txt";
+    private static final String REMOTE = "origin";
+    private static final int REFSPECS_PER_FETCH = 200;
+
+    /**
+     * @param projectDir directory that contains the ".git" directory
+     * @param preTask    true for the pre task (always syncs), false for the post task (may skip)
+     * @return number of tag refs fetched, or {@link #SKIPPED} or {@link #FAILED}.
+     */
+    public static int sync(MyLogger log, String projectDir, boolean preTask, RunStats stats) {
+        String gitDir = projectDir + "/.git";
+        File snapshotFile = new File(gitDir, SNAPSHOT_FILE);
+        Snapshot previous = Snapshot.read(snapshotFile);
+
+        String head = firstLine(Git.run(gitDir, "rev-parse", "HEAD"));
+        Map<String, String> local = localTags(gitDir);
+        if (!preTask && head != null && previous != null && head.equals(previous.head) && "pre".equals(previous.state)
+                && local.entrySet().containsAll(previous.refs.entrySet())) {
+            log.addBuildLogEntry("push0ver - Fetch Tags:   pre task already synced tags for " + head + ", skipping.");
+            stats.cacheHit();
+            previous.state = "post";
+            previous.write(snapshotFile);
+            return SKIPPED;
+        }
+        stats.cacheMiss();
+
+        Git.Result lsRemote = Git.run(gitDir, "ls-remote", "--tags", "--refs", REMOTE);
+        if (lsRemote.exitCode != 0) {
+            log.addBuildLogEntry("push0ver - Fetch Tags:   'git ls-remote' failed (exit=" + lsRemote.exitCode
+                    + "), falling back to 'git fetch --tags': " + lsRemote.stderr);
+            Git.Result fetch = Git.run(gitDir, "fetch", "--tags", REMOTE);
+            logLines(log, fetch);
+            return FAILED;
+        }
+
+        Map<String, String> remote = new TreeMap<>();
+        for (String line : lsRemote.stdout) {
+            int x = line.indexOf('\t');
+            if (x > 0) {
+                remote.put(line.substring(x + 1).trim(), line.substring(0, x).trim());
+            }
+        }
+
+        List<String> changed = changedRefs(remote, local);
+
+        int fetched = 0;
+        boolean ok = true;
+        for (int i = 0; i < changed.size(); i += REFSPECS_PER_FETCH) {
+            List<String> cmd = new ArrayList<>();
+            cmd.add("fetch");
+            cmd.add("--no-tags");
+            cmd.add(REMOTE);
+            for (String ref : changed.subList(i, Math.min(changed.size(), i + REFSPECS_PER_FETCH))) {
+                cmd.add("+" + ref + ":" + ref);
+            }
+            Git.Result fetch = Git.run(gitDir, cmd.toArray(new String[cmd.size()]));
+            logLines(log, fetch);
+            if (fetch.exitCode != 0) {
+                ok = false;
+                break;
+            }
+            fetched += cmd.size() - 3;
+        }
+        log.addBuildLogEntry("push0ver - Fetch Tags:   " + remote.size() + " remote tags, "
+                + changed.size() + " new or moved, " + fetched + " fetched.");
+
+        if (ok) {
+            Snapshot s = new Snapshot();
+            s.head = head;
+            s.state = preTask ? "pre" : "post";
+            s.refs.putAll(local);
+            s.refs.putAll(remote);
+            s.write(snapshotFile);
+        } else if (snapshotFile.exists() && !snapshotFile.delete()) {
+            log.addBuildLogEntry("push0ver - WARNING: failed to delete [" + snapshotFile.getAbsolutePath() + "]");
+        }
+        return fetched;
+    }
+
+    static List<String> changedRefs(Map<String, String> remote, Map<String, String> known) {
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, String> entry : remote.entrySet()) {
+            if (!entry.getValue().equals(known.get(entry.getKey()))) {
+                changed.add(entry.getKey());
+            }
+        }
+        return changed;
+    }
+
+    private static Map<String, String> localTags(String gitDir) {
+        Map<String, String> refs = new TreeMap<>();
+        Git.Result r = Git.run(gitDir, "for-each-ref", "--format=%(objectname) %(refname)", "refs/tags");
+        if (r.exitCode == 0) {
+            for (String line : r.stdout) {
+                int x = line.indexOf(' ');
+                if (x > 0) {
+                    refs.put(line.substring(x + 1).trim(), line.substring(0, x).trim());
+                }
+            }
+        }
+        return refs;
+    }
+
+    private static void logLines(MyLogger log, Git.Result r) {
+        for (String line : r.stdout) {
+            log.addBuildLogEntry("push0ver - Fetch Tags:   " + line);
+        }
+        if (!"".equals(r.stderr)) {
+            log.addBuildLogEntry("push0ver - Fetch Tags:   " + r.stderr);
+        }
+    }
+
+    private static String firstLine(Git.Result r) {
+        return r.exitCode == 0 && !r.stdout.isEmpty() ? r.stdout.get(0).trim() : null;
+    }
+
+    static class Snapshot {
+        String head;
+        String state;
+        final Map<String, String> refs = new TreeMap<>();
+
+        static Snapshot read(File f) {
+            if (!f.isFile()) {
+                return null;
+            }
+            Snapshot s = new Snapshot();
+            BufferedReader br = null;
+            try {
+                br = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8));
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.startsWith("head=")) {
+                        s.head = line.substring(5);
+                    } else if (line.startsWith("state=")) {
+                        s.state = line.substring(6);
+                    } else {
+                        int x = line.indexOf(' ');
+                        if (x > 0) {
+                            s.refs.put(line.substring(x + 1), line.substring(0, x));
+                        }
+                    }
+                }
+            } catch (IOException ioe) {
+                return null;
+            } finally {
+                Finally.close(br);
+            }
+            return s;
+        }
+
+        void write(File f) {
+            File dir = f.getParentFile();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                return;
+            }
+            File tmp = new File(dir, f.getName() + "." + Thread.currentThread().getId() + ".tmp");
+            Writer w = null;
+            try {
+                w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8);
+                w.write("head=" + head + "\n");
+                w.write("state=" + state + "\n");
+                for (Map.Entry<String, String> entry : refs.entrySet()) {
+                    w.write(entry.getValue() + " " + entry.getKey() + "\n");
+                }
+                w.close();
+                w = null;
+                if (!tmp.renameTo(f)) {
+                    f.delete();
+                    tmp.renameTo(f);
+                }
+            } catch (IOException ioe) {
+                tmp.delete();
+            } finally {
+                Finally.close(w);
+            }
+        }
+    }
+}
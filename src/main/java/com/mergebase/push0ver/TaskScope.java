@@ -0,0 +1,205 @@
+package com.mergebase.push0ver;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a group of independent blocking jobs (existence checks, uploads, npm publishes, per-directory tag
+ * work) and waits for all of them.
+ * <p>
+ * Fail-fast:  when a job fails, the jobs still running are interrupted and the ones not started yet never
+ * start.  {@link #join} waits until every job has stopped and then rethrows the first failure, so no job
+ * outlives its scope.
+ * <p>
+ * On Java 21+ every job gets its own virtual thread (Executors.newVirtualThreadPerTaskExecutor(), called by
+ * reflection since push0ver is built for Java 8), at most "limit" at a time.  On older JVMs {@link #open}
+ * runs the jobs one after another on the calling thread, just like before, and {@link #pooled} uses "limit"
+ * platform threads.  -Dpush0ver.virtualThreads=false on the agent turns virtual threads off.
+ */
+public class TaskScope {
+    private static final Method VIRTUAL_THREADS = findVirtualThreads();
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final List<Future<?>> futures = new ArrayList<>();
+    private final Set<Thread> running = new HashSet<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private TaskScope(ExecutorService executor, int limit) {
+        this.executor = executor;
+        this.permits = new Semaphore(Math.max(limit, 1));
+    }
+
+    /**
+     * @param limit most jobs running at once (virtual threads only:  otherwise they run one at a time)
+     */
+    public static TaskScope open(int limit) {
+        return new TaskScope(newVirtualThreadExecutor(), limit);
+    }
+
+    /**
+     * Like {@link #open}, but without virtual threads the jobs still run side by side, on "limit" platform threads.
+     */
+    public static TaskScope pooled(int limit) {
+        ExecutorService executor = newVirtualThreadExecutor();
+        if (executor == null && limit > 1) {
+            executor = Executors.newFixedThreadPool(limit);
+        }
+        return new TaskScope(executor, limit);
+    }
+
+    /**
+     * @return true if this JVM runs scoped jobs on virtual threads.
+     */
+    public static boolean isVirtual() {
+        return VIRTUAL_THREADS != null;
+    }
+
+    public <T> Future<T> fork(Callable<T> job) {
+        FutureTask<T> task = new FutureTask<>(wrap(job));
+        synchronized (futures) {
+            futures.add(task);
+        }
+        if (executor != null) {
+            executor.execute(task);
+        } else {
+            task.run();
+        }
+        return task;
+    }
+
+    private <T> Callable<T> wrap(final Callable<T> job) {
+        // The job's spans nest under whatever the forking thread was doing.
+        final Trace.Span parent = Trace.current();
+        return new Callable<T>() {
+            public T call() throws Exception {
+                if (failure.get() != null) {
+                    return null;
+                }
+                try {
+                    permits.acquire();
+                } catch (InterruptedException ie) {
+                    return null;
+                }
+                synchronized (running) {
+                    running.add(Thread.currentThread());
+                }
+                Trace.Span previous = Trace.attach(parent);
+                try {
+                    return failure.get() == null ? job.call() : null;
+                } catch (Exception | Error t) {
+                    if (failure.compareAndSet(null, t)) {
+                        cancel();
+                    }
+                    throw t;
+                } finally {
+                    Trace.detach(previous);
+                    synchronized (running) {
+                        running.remove(Thread.currentThread());
+                    }
+                    permits.release();
+                }
+            }
+        };
+    }
+
+    private void cancel() {
+        synchronized (running) {
+            for (Thread t : running) {
+                if (t != Thread.currentThread()) {
+                    t.interrupt();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for every job, then rethrows the first failure (unchecked as is, checked wrapped in a RuntimeException).
+     */
+    public void join() {
+        List<Future<?>> all;
+        synchronized (futures) {
+            all = new ArrayList<>(futures);
+        }
+        for (Future<?> f : all) {
+            try {
+                f.get();
+            } catch (ExecutionException ee) {
+                // Recorded in "failure" by the job itself.
+            } catch (InterruptedException ie) {
+                failure.compareAndSet(null, ie);
+                cancel();
+                close();
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        Throwable t = failure.get();
+        if (t != null) {
+            Finally.rethrowIfUnchecked(t);
+            throw new RuntimeException(t.toString(), t);
+        }
+    }
+
+    /**
+     * @return the value of a job forked in a scope that has joined cleanly (null if the job never ran).
+     */
+    public static <T> T result(Future<T> f) {
+        if (!f.isDone()) {
+            throw new IllegalStateException("Not joined yet");
+        }
+        try {
+            return f.get();
+        } catch (ExecutionException | InterruptedException e) {
+            throw new IllegalStateException("Job failed: " + e, e);
+        }
+    }
+
+    /**
+     * Interrupts whatever is still running and waits (briefly) for it to stop.
+     */
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        if (VIRTUAL_THREADS == null) {
+            return null;
+        }
+        try {
+            return (ExecutorService) VIRTUAL_THREADS.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Method findVirtualThreads() {
+        if ("false".equalsIgnoreCase(System.getProperty("push0ver.virtualThreads"))) {
+            return null;
+        }
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException nsme) {
+            return null;
+        }
+    }
+}
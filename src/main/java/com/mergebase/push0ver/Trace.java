@@ -0,0 +1,377 @@
+package com.mergebase.push0ver;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Lightweight tracing:  nested spans for each phase and for every subprocess, HTTP call and file rewrite,
+ * written as one OTLP-JSON file per run (Jaeger, Grafana Tempo, otel-desktop-viewer etc. load it as is).
+ * <p>
+ * A run is traced when it opens a {@link #root} span with a file to write to (see {@link #file}).  Spans started
+ * on a thread with no current span are a shared no-op, so an untraced run pays one ThreadLocal lookup per
+ * operation.  {@link TaskScope} hands the forking thread's span on to its jobs.
+ */
+public class Trace {
+    static final int INTERNAL = 1;
+    static final int CLIENT = 3;
+    // A "git fetch" of many tags has a long command line.
+    private static final int MAX_VALUE = 4096;
+
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Span NOOP = new Span(null, null, "", INTERNAL);
+
+    /**
+     * @return "trace.file" in p (relative to baseDir), else "push0ver-trace-[task].json" in baseDir if the
+     * "push0ver.trace" system property is true (every build on the agent), else null (no tracing).
+     */
+    public static File file(Properties p, String baseDir, String task) {
+        String name = p.getProperty("trace.file");
+        if (name == null || "".equals(name.trim())) {
+            if (!"true".equalsIgnoreCase(System.getProperty("push0ver.trace"))) {
+                return null;
+            }
+            name = "push0ver-trace-" + task + ".json";
+        }
+        File f = new File(name.trim());
+        return f.isAbsolute() ? f : new File(baseDir, name.trim());
+    }
+
+    /**
+     * Starts a traced run on this thread.  {@link Span#end()} on the returned span writes the file.
+     *
+     * @param out where the OTLP-JSON goes, or null for no tracing (returns the no-op span).
+     * @param log the run's build log (a failure to write the file goes there).
+     */
+    public static Span root(File out, String name, MyLogger log) {
+        if (out == null) {
+            return NOOP;
+        }
+        return new Recorder(out, log).start(null, name, INTERNAL);
+    }
+
+    /**
+     * @return a child of this thread's current span (it becomes the current span until it ends).
+     */
+    public static Span start(String name) {
+        Span parent = CURRENT.get();
+        return parent == null ? NOOP : parent.recorder.start(parent, name, INTERNAL);
+    }
+
+    /**
+     * Like {@link #start}, for a call to another service (HTTP request, subprocess).
+     */
+    public static Span client(String name) {
+        Span parent = CURRENT.get();
+        return parent == null ? NOOP : parent.recorder.start(parent, name, CLIENT);
+    }
+
+    /**
+     * Like {@link #client}, but never the current span:  for a stream read a bit at a time, or a request that
+     * completes on another thread.
+     */
+    static Span async(String name) {
+        Span parent = CURRENT.get();
+        if (parent == null) {
+            return NOOP;
+        }
+        Span s = parent.recorder.start(parent, name, CLIENT);
+        CURRENT.set(parent);
+        return s;
+    }
+
+    static Span current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Makes "span" this thread's current span (for work handed to another thread).
+     *
+     * @return what was current before, for {@link #detach}.
+     */
+    static Span attach(Span span) {
+        Span previous = CURRENT.get();
+        if (span != null && span != NOOP) {
+            CURRENT.set(span);
+        }
+        return previous;
+    }
+
+    static void detach(Span previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    public static class Span {
+        private final Recorder recorder;
+        private final Span parent;
+        private final String name;
+        private final int kind;
+        private final String spanId;
+        private final long startNanos;
+        private Span previous;
+        private long endNanos;
+        private Map<String, Object> attributes;
+        private String error;
+        private boolean ended;
+
+        private Span(Recorder recorder, Span parent, String name, int kind) {
+            this.recorder = recorder;
+            this.parent = parent;
+            this.name = name;
+            this.kind = kind;
+            this.spanId = recorder != null ? hex(8) : "";
+            this.startNanos = recorder != null ? recorder.now() : 0;
+        }
+
+        public boolean isRecording() {
+            return recorder != null;
+        }
+
+        /**
+         * @param value String, Number or Boolean (anything else is recorded as its toString)
+         */
+        public Span attr(String key, Object value) {
+            if (recorder != null && value != null) {
+                if (value instanceof String && ((String) value).length() > MAX_VALUE) {
+                    value = ((String) value).substring(0, MAX_VALUE) + "...";
+                }
+                synchronized (this) {
+                    if (attributes == null) {
+                        attributes = new LinkedHashMap<>();
+                    }
+                    attributes.put(key, value);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Marks the span failed (status ERROR).
+         */
+        public Span error(Object cause) {
+            if (recorder != null) {
+                synchronized (this) {
+                    error = String.valueOf(cause);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Records the span (the root span also writes the file, closing whatever is still open as failed).
+         * Ending twice does nothing.
+         */
+        public void end() {
+            finish(true);
+        }
+
+        /**
+         * Ends the span without recording it (e.g., a scanned file that needed no rewrite).
+         */
+        public void discard() {
+            finish(false);
+        }
+
+        private void finish(boolean keep) {
+            if (recorder == null) {
+                return;
+            }
+            synchronized (this) {
+                if (ended) {
+                    return;
+                }
+                ended = true;
+                endNanos = recorder.now();
+            }
+            // Children an exception skipped past end with this span.
+            for (Span s = CURRENT.get(); s != null; s = s.parent) {
+                if (s == this) {
+                    detach(previous);
+                    break;
+                }
+            }
+            recorder.finished(this, keep);
+            if (parent == null) {
+                detach(previous);
+                recorder.write();
+            }
+        }
+    }
+
+    /**
+     * Everything traced in one run.
+     */
+    private static class Recorder {
+        private final File out;
+        private final MyLogger log;
+        private final String traceId = hex(16);
+        private final long epochNanos = System.currentTimeMillis() * 1000000L;
+        private final long baseNanos = System.nanoTime();
+        private final List<Span> spans = new ArrayList<>();
+        private final Set<Span> open = new LinkedHashSet<>();
+
+        Recorder(File out, MyLogger log) {
+            this.out = out;
+            this.log = log;
+        }
+
+        long now() {
+            return epochNanos + (System.nanoTime() - baseNanos);
+        }
+
+        Span start(Span parent, String name, int kind) {
+            Span s = new Span(this, parent, name, kind);
+            s.previous = CURRENT.get();
+            CURRENT.set(s);
+            synchronized (this) {
+                open.add(s);
+            }
+            return s;
+        }
+
+        synchronized void finished(Span s, boolean keep) {
+            open.remove(s);
+            if (keep) {
+                spans.add(s);
+            }
+        }
+
+        /**
+         * Best effort:  a trace must never fail the build.
+         */
+        synchronized void write() {
+            for (Span s : open) {
+                synchronized (s) {
+                    s.ended = true;
+                    s.endNanos = now();
+                    if (s.error == null) {
+                        s.error = "not ended";
+                    }
+                }
+                spans.add(s);
+            }
+            open.clear();
+            JsonArray list = new JsonArray();
+            for (Span s : spans) {
+                list.add(toJson(s));
+            }
+            JsonObject scope = new JsonObject();
+            scope.addProperty("name", "push0ver");
+            JsonObject scopeSpans = new JsonObject();
+            scopeSpans.add("scope", scope);
+            scopeSpans.add("spans", list);
+            JsonArray scopes = new JsonArray();
+            scopes.add(scopeSpans);
+
+            JsonObject resource = new JsonObject();
+            JsonArray resourceAttributes = new JsonArray();
+            resourceAttributes.add(attribute("service.name", "push0ver"));
+            resource.add("attributes", resourceAttributes);
+            JsonObject resourceSpans = new JsonObject();
+            resourceSpans.add("resource", resource);
+            resourceSpans.add("scopeSpans", scopes);
+            JsonArray all = new JsonArray();
+            all.add(resourceSpans);
+            JsonObject json = new JsonObject();
+            json.add("resourceSpans", all);
+
+            File dir = out.getAbsoluteFile().getParentFile();
+            File tmp = new File(dir, out.getName() + ".tmp");
+            Writer w = null;
+            try {
+                dir.mkdirs();
+                w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8);
+                w.write(json.toString());
+                w.close();
+                w = null;
+                if (!tmp.renameTo(out)) {
+                    out.delete();
+                    tmp.renameTo(out);
+                }
+            } catch (IOException ioe) {
+                log.addBuildLogEntry("push0ver - could not write trace [" + out + "]: " + ioe);
+            } finally {
+                Finally.close(w);
+                tmp.delete();
+            }
+        }
+
+        private JsonObject toJson(Span s) {
+            JsonObject json = new JsonObject();
+            json.addProperty("traceId", traceId);
+            json.addProperty("spanId", s.spanId);
+            if (s.parent != null) {
+                json.addProperty("parentSpanId", s.parent.spanId);
+            }
+            json.addProperty("name", s.name);
+            json.addProperty("kind", s.kind);
+            json.addProperty("startTimeUnixNano", Long.toString(s.startNanos));
+            json.addProperty("endTimeUnixNano", Long.toString(s.endNanos));
+            JsonArray attributes = new JsonArray();
+            synchronized (s) {
+                if (s.attributes != null) {
+                    for (Map.Entry<String, Object> e : s.attributes.entrySet()) {
+                        attributes.add(attribute(e.getKey(), e.getValue()));
+                    }
+                }
+                JsonObject status = new JsonObject();
+                if (s.error != null) {
+                    status.addProperty("code", 2);
+                    status.addProperty("message", s.error);
+                } else {
+                    status.addProperty("code", 1);
+                }
+                json.add("attributes", attributes);
+                json.add("status", status);
+            }
+            return json;
+        }
+    }
+
+    private static JsonObject attribute(String key, Object value) {
+        JsonObject v = new JsonObject();
+        if (value instanceof Boolean) {
+            v.addProperty("boolValue", (Boolean) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            v.addProperty("doubleValue", (Number) value);
+        } else if (value instanceof Number) {
+            // int64 is a string in OTLP-JSON.
+            v.addProperty("intValue", value.toString());
+        } else {
+            v.addProperty("stringValue", String.valueOf(value));
+        }
+        JsonObject a = new JsonObject();
+        a.addProperty("key", key);
+        a.add("value", v);
+        return a;
+    }
+
+    private static String hex(int bytes) {
+        byte[] b = new byte[bytes];
+        RANDOM.nextBytes(b);
+        StringBuilder buf = new StringBuilder(bytes * 2);
+        for (byte x : b) {
+            buf.append(Character.forDigit((x >> 4) & 0xF, 16)).append(Character.forDigit(x & 0xF, 16));
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,276 @@
+package com.mergebase.push0ver;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * How one run talks to Artifactory:  existence checks (GET, body discarded) and uploads (PUT).
+ * <p>
+ * The default is HTTP/1.1 through one Apache HttpClient (and its connection pool) for the whole run.
+ * With the task's HTTP/2 option it's java.net.http.HttpClient instead, multiplexing the run's requests over
+ * a single connection per host, and sending an artifact's uploads (the file, its .md5 and its .sha1) all at
+ * once.  Plain "http://" URLs are upgraded with h2c;  a server that won't upgrade is simply spoken to in
+ * HTTP/1.1 over the same client.
+ * <p>
+ * java.net.http needs Java 11.  push0ver is built for Java 8, so {@link Http2Transport} drives it by
+ * reflection, and {@link #open} falls back to HTTP/1.1 on agents that don't have it.
+ */
+public abstract class Transport implements Closeable {
+
+    /**
+     * One PUT, filled in by {@link #putAll}.
+     */
+    public static class Upload {
+        public final String url;
+        public final File file;
+        int status;
+        long millis;
+        IOException failure;
+
+        public Upload(String url, File file) {
+            this.url = url;
+            this.file = file;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * @return why the request never got a response, or null if it did.
+         */
+        public IOException getFailure() {
+            return failure;
+        }
+    }
+
+    private static final Map<String, Transport> KEPT = new ConcurrentHashMap<>();
+
+    protected volatile String protocol;
+
+    /**
+     * @param http2 true to try HTTP/2 (falls back to HTTP/1.1 on Java 8)
+     */
+    public static Transport open(boolean http2, boolean sslTrustAll, MyLogger log) {
+        if (WarmCache.isEnabled()) {
+            // Long-lived JVM:  one transport per kind, connections kept warm between runs.
+            String key = http2 + " " + sslTrustAll;
+            Transport t = KEPT.get(key);
+            if (t == null) {
+                t = new Kept(connect(http2, sslTrustAll, log));
+                Transport raced = KEPT.putIfAbsent(key, t);
+                if (raced != null) {
+                    Finally.close(((Kept) t).delegate);
+                    t = raced;
+                }
+            }
+            return t;
+        }
+        return connect(http2, sslTrustAll, log);
+    }
+
+    /**
+     * Really closes the transports {@link #open} kept open (see {@link WarmCache}).
+     */
+    static void closeKept() {
+        for (Transport t : KEPT.values()) {
+            Finally.close(((Kept) t).delegate);
+        }
+        KEPT.clear();
+    }
+
+    private static Transport connect(boolean http2, boolean sslTrustAll, MyLogger log) {
+        if (http2) {
+            try {
+                return Http2Transport.create(sslTrustAll);
+            } catch (ReflectiveOperationException roe) {
+                log.addBuildLogEntry("push0ver - HTTP/2 needs Java 11 or newer on the agent, using HTTP/1.1 (" + roe + ")");
+            } catch (GeneralSecurityException gse) {
+                log.addBuildLogEntry("push0ver - HTTP/2 unavailable, using HTTP/1.1 (" + gse + ")");
+            }
+        }
+        // Like Http2Transport (and App.exists before it):  a redirect, say to an SSO page, is not a 200.
+        return new Http1(Rename.allConnect(sslTrustAll, false));
+    }
+
+    /**
+     * @return status code of a GET (the body is read and discarded).
+     */
+    public abstract int get(String url, String basicAuth) throws IOException;
+
+    /**
+     * @return status code of a PUT of the file.
+     */
+    public abstract int put(String url, File f, String basicAuth) throws IOException;
+
+    /**
+     * @return status code of a PUT of "length" bytes read from "body" (always closed).
+     */
+    public abstract int put(String url, InputStream body, long length, String basicAuth) throws IOException;
+
+    /**
+     * Sends every upload and waits for all of them.  One request's failure doesn't stop the others
+     * (see {@link Upload#getFailure}).
+     */
+    public void putAll(List<Upload> uploads, String basicAuth) {
+        for (Upload u : uploads) {
+            long start = System.currentTimeMillis();
+            try {
+                u.status = put(u.url, u.file, basicAuth);
+            } catch (IOException ioe) {
+                u.failure = ioe;
+            }
+            u.millis = System.currentTimeMillis() - start;
+        }
+    }
+
+    /**
+     * @return true if a traced request failed:  a GET's 404 is just "not there yet".
+     */
+    static boolean failed(String method, int status) {
+        return status >= 500 || (status >= 400 && !("GET".equals(method) && status == 404));
+    }
+
+    /**
+     * @return protocol of the last response (e.g., "HTTP/1.1", "HTTP_2"), or the one asked for if none yet.
+     */
+    public String getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * @return the HTTP/1.1 client (and connection pool) behind this transport, for requests it doesn't cover
+     * (e.g., {@link NpmPublisher}'s packument PUT), or null if there is none.  Closed with the transport.
+     */
+    public CloseableHttpClient getHttpClient() {
+        return null;
+    }
+
+    /**
+     * Shared by every run in a long-lived JVM:  close() leaves the connections open.
+     */
+    private static class Kept extends Transport {
+        private final Transport delegate;
+
+        Kept(Transport delegate) {
+            this.delegate = delegate;
+        }
+
+        public int get(String url, String basicAuth) throws IOException {
+            return delegate.get(url, basicAuth);
+        }
+
+        public int put(String url, File f, String basicAuth) throws IOException {
+            return delegate.put(url, f, basicAuth);
+        }
+
+        public int put(String url, InputStream body, long length, String basicAuth) throws IOException {
+            return delegate.put(url, body, length, basicAuth);
+        }
+
+        @Override
+        public void putAll(List<Upload> uploads, String basicAuth) {
+            delegate.putAll(uploads, basicAuth);
+        }
+
+        @Override
+        public String getProtocol() {
+            return delegate.getProtocol();
+        }
+
+        @Override
+        public CloseableHttpClient getHttpClient() {
+            return delegate.getHttpClient();
+        }
+
+        public void close() {
+        }
+    }
+
+    static class Http1 extends Transport {
+        private final CloseableHttpClient httpClient;
+
+        Http1(CloseableHttpClient httpClient) {
+            this.httpClient = httpClient;
+            this.protocol = "HTTP/1.1";
+        }
+
+        @Override
+        public CloseableHttpClient getHttpClient() {
+            return httpClient;
+        }
+
+        public int get(String url, String basicAuth) throws IOException {
+            return execute(new HttpGet(url), basicAuth);
+        }
+
+        public int put(String url, File f, String basicAuth) throws IOException {
+            HttpPut put = new HttpPut(url);
+            put.setEntity(new FileEntity(f));
+            return execute(put, basicAuth);
+        }
+
+        public int put(String url, InputStream body, long length, String basicAuth) throws IOException {
+            try {
+                HttpPut put = new HttpPut(url);
+                put.setEntity(new InputStreamEntity(body, length));
+                return execute(put, basicAuth);
+            } finally {
+                Finally.close(body);
+            }
+        }
+
+        private int execute(HttpRequestBase request, String basicAuth) throws IOException {
+            if (basicAuth != null) {
+                request.setHeader("Authorization", basicAuth);
+            }
+            Trace.Span span = Trace.client(request.getMethod()).attr("url.full", request.getURI().toString());
+            if (request instanceof HttpPut) {
+                span.attr("http.request.body.size", ((HttpPut) request).getEntity().getContentLength());
+            }
+            try {
+                CloseableHttpResponse response = httpClient.execute(request);
+                try {
+                    EntityUtils.consume(response.getEntity());
+                    protocol = response.getStatusLine().getProtocolVersion().toString();
+                    int status = response.getStatusLine().getStatusCode();
+                    span.attr("http.response.status_code", status).attr("network.protocol.version", protocol);
+                    if (failed(request.getMethod(), status)) {
+                        span.error(response.getStatusLine());
+                    }
+                    return status;
+                } finally {
+                    response.close();
+                }
+            } catch (IOException | RuntimeException e) {
+                span.error(e);
+                throw e;
+            } finally {
+                span.end();
+            }
+        }
+
+        public void close() throws IOException {
+            httpClient.close();
+        }
+    }
+}
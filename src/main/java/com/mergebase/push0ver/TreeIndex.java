@@ -0,0 +1,217 @@
+package com.mergebase.push0ver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Persistent record of the git tree id each tag directory had when push0ver last published its version, saved
+ * in ".git/push0ver/tree-index.txt" between runs.
+ * <p>
+ * A tag directory whose tree at HEAD is the one recorded for its current version has nothing new to publish:
+ * the pre and post tasks skip it entirely (no injection, no reactor discovery, no upload), so a monorepo build
+ * only costs as much as the subprojects that changed.  A tree id covers everything committed under the
+ * directory, and nothing outside it (e.g., a parent pom further up).  Set "skip.unchanged=false" to publish
+ * every tag directory every time.
+ * <p>
+ * Only a post task that pushed records anything, so a skipped directory's artifacts are always already
+ * in Artifactory.
+ */
+public class TreeIndex {
+    static final String INDEX_FILE = "push0ver/tree-index.txt";
+    private static final String HEADER = "# push0ver tree index v1";
+
+    private final File file;
+    private final Map<String, String> trees;
+    private final Map<String, String> published;
+
+    private TreeIndex(File file, Map<String, String> trees, Map<String, String> published) {
+        this.file = file;
+        this.trees = trees;
+        this.published = published;
+    }
+
+    /**
+     * Looks up every tag directory's tree id at HEAD (one "git rev-parse").
+     *
+     * @param gitRepo    the checkout (its ".git" directory holds the index)
+     * @param projectDir tag directories are relative to it
+     * @return the index, or null if there is no ".git" directory or git could not resolve the trees.
+     */
+    public static TreeIndex load(String gitRepo, String projectDir, Collection<Tag> tags, MyLogger log) {
+        File root;
+        File project;
+        try {
+            root = new File(gitRepo).getCanonicalFile();
+            project = new File(projectDir).getCanonicalFile();
+        } catch (IOException ioe) {
+            return null;
+        }
+        File gitDir = new File(root, ".git");
+        if (!gitDir.isDirectory()) {
+            return null;
+        }
+
+        List<String> dirs = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        args.add("rev-parse");
+        for (Tag t : tags) {
+            String rel = relative(root, new File(project, t.getDirectory()));
+            if (rel != null && !dirs.contains(t.getDirectory())) {
+                dirs.add(t.getDirectory());
+                args.add("HEAD:" + rel);
+            }
+        }
+        Map<String, String> trees = new HashMap<>();
+        if (!dirs.isEmpty()) {
+            Git.Result r = Git.run(gitDir.getPath(), args.toArray(new String[args.size()]));
+            if (r.exitCode != 0 || r.stdout.size() != dirs.size()) {
+                log.addBuildLogEntry("push0ver - Tree index: git rev-parse failed, publishing every tag directory: "
+                        + r.stderr.trim());
+                return null;
+            }
+            for (int i = 0; i < dirs.size(); i++) {
+                trees.put(dirs.get(i), r.stdout.get(i).trim());
+            }
+        }
+
+        File f = new File(gitDir, INDEX_FILE);
+        Map<String, String> published;
+        synchronized (WarmCache.lock(f)) {
+            published = read(f);
+        }
+        return new TreeIndex(f, trees, published);
+    }
+
+    /**
+     * @return path of dir under root ("" for root itself, "/" separated), or null if it is outside root.
+     */
+    private static String relative(File root, File dir) {
+        String rel;
+        try {
+            rel = root.toPath().relativize(dir.getCanonicalFile().toPath()).toString().replace(File.separatorChar, '/');
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+        return rel.startsWith("..") ? null : rel;
+    }
+
+    /**
+     * @return the tag directory's tree id at HEAD, or null if unknown.
+     */
+    public String getTree(Tag t) {
+        return trees.get(t.getDirectory());
+    }
+
+    /**
+     * @return true if this tag's version was published from exactly this tree before.
+     */
+    public synchronized boolean isUnchanged(Tag t) {
+        String tree = getTree(t);
+        return tree != null && (t.getVersion() + " " + tree).equals(published.get(t.getDirectory()));
+    }
+
+    /**
+     * @return the tags whose directories are unchanged since their version was published (each one logged).
+     */
+    public List<Tag> unchanged(Collection<Tag> tags, MyLogger log) {
+        List<Tag> unchanged = new ArrayList<>();
+        for (Tag t : tags) {
+            if (isUnchanged(t)) {
+                log.addBuildLogEntry("push0ver - UNCHANGED:  " + t + " was published from tree " + getTree(t)
+                        + ", skipping it");
+                unchanged.add(t);
+            }
+        }
+        return unchanged;
+    }
+
+    /**
+     * Records that the tag's version is now published from its tree at HEAD (saved right away).
+     */
+    public void published(Tag t) {
+        String tree = getTree(t);
+        if (tree == null) {
+            return;
+        }
+        synchronized (WarmCache.lock(file)) {
+            // Another run may have recorded other directories meanwhile.
+            Map<String, String> latest = read(file);
+            latest.put(t.getDirectory(), t.getVersion() + " " + tree);
+            if (write(file, latest)) {
+                synchronized (this) {
+                    published.clear();
+                    published.putAll(latest);
+                }
+            }
+        }
+    }
+
+    private static Map<String, String> read(File f) {
+        Map<String, String> saved = new TreeMap<>();
+        if (!f.isFile()) {
+            return saved;
+        }
+        BufferedReader br = null;
+        try {
+            br = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8));
+            String line = br.readLine();
+            if (!HEADER.equals(line)) {
+                return saved;
+            }
+            while ((line = br.readLine()) != null) {
+                // <tree> <version> <directory>   (the root directory is "")
+                String[] toks = line.split(" ", 3);
+                if (toks.length == 3) {
+                    saved.put(toks[2], toks[1] + " " + toks[0]);
+                }
+            }
+        } catch (IOException ioe) {
+            saved.clear();
+        } finally {
+            Finally.close(br);
+        }
+        return saved;
+    }
+
+    private static boolean write(File file, Map<String, String> published) {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return false;
+        }
+        File tmp = new File(dir, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        Writer w = null;
+        try {
+            w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8);
+            w.write(HEADER + "\n");
+            for (Map.Entry<String, String> entry : published.entrySet()) {
+                String[] versionAndTree = entry.getValue().split(" ");
+                w.write(versionAndTree[1] + " " + versionAndTree[0] + " " + entry.getKey() + "\n");
+            }
+            w.close();
+            w = null;
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                return tmp.renameTo(file);
+            }
+            return true;
+        } catch (IOException ioe) {
+            tmp.delete();
+            return false;
+        } finally {
+            Finally.close(w);
+        }
+    }
+}
@@ -11,6 +11,7 @@ import javax.annotation.Nullable;
 public class Version implements Comparable<Version> {
     private final String version;
     private final String[] split;
+    private volatile byte[] key;
 
     public Version(final String version) {
         String v = version != null ? version.trim() : "";
@@ -42,6 +43,18 @@ public class Version implements Comparable<Version> {
         return split;
     }
 
+    /**
+     * @return byte-comparable sort key (see {@link VersionKey}).  Callers must not modify it.
+     */
+    public byte[] getKey() {
+        byte[] k = key;
+        if (k == null) {
+            k = VersionKey.encode(this);
+            key = k;
+        }
+        return k;
+    }
+
     @Override
     public boolean equals(Object obj) {
         return obj instanceof Version && this.compareTo((Version) obj) == 0;
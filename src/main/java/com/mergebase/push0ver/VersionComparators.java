@@ -206,7 +206,7 @@ public class VersionComparators {
         return splits.toArray(new String[splits.size()]);
     }
 
-    private static int calculateScore(String word) {
+    static int calculateScore(String word) {
         // special case for "RC" or "alpha" or "beta" or "a" or "b" or "u" or "update" or
         // "patch" or "p" or "rev" or "r" or "svn" or "bzr" or "rel" or "release".
         if (word.equals("rc")) {
@@ -276,7 +276,7 @@ public class VersionComparators {
         }
     }
 
-    private static Long toLong(String s) {
+    static Long toLong(String s) {
         if ("".equals(s)) {
             return null; // no digits.
         }
@@ -0,0 +1,136 @@
+package com.mergebase.push0ver;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Encodes a {@link Version} as a byte array whose unsigned lexicographic order is the order of
+ * {@link VersionComparators#COMPARE_VERSIONS}, so versions can be sorted (or stored in sorted indexes)
+ * with plain byte comparisons.
+ * <p>
+ * The key is built from the same pieces the comparator looks at:
+ * <pre>
+ *   key       = component* string
+ *   component = word*                     (the words of splitIntoAlphasAndNums(), including the final "")
+ *   word      = [score + 128] number      (pure numbers, score 100)
+ *             | [score + 128] text 0x00   (everything else:  rc, beta, snapshot, push0ver, release, patch, "abc"...)
+ *   number    = order-preserving variable length long (so "0003" and "3" encode the same)
+ *   text      = UTF-16 code units written the way UTF-8 writes code points (keeps String.compareTo order)
+ * </pre>
+ * Components stop after the first one with no letters or digits (the final "" component, or something like
+ * "-") and the trimmed version string follows as the tie-breaker, just like the comparator's last resort.
+ * <p>
+ * Two kinds of version make COMPARE_VERSIONS itself non-transitive, so no key can match it for them:
+ * letters or digits after an empty dot-component (e.g. "1..2", ".5"), and digit runs that overflow a long.
+ * Those still get keys (the components after the empty one are simply not encoded, and overflowing digit runs
+ * encode as text), they just don't promise to agree with the comparator.
+ */
+public class VersionKey {
+
+    private static final int SCORE_OFFSET = 128;
+
+    /**
+     * Unsigned lexicographic byte[] order (shorter arrays first when one is a prefix of the other).
+     */
+    public static final Comparator<byte[]> COMPARE_KEYS = new Comparator<byte[]>() {
+        public int compare(byte[] k1, byte[] k2) {
+            int len = Math.min(k1.length, k2.length);
+            for (int i = 0; i < len; i++) {
+                int c = (k1[i] & 0xFF) - (k2[i] & 0xFF);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return k1.length - k2.length;
+        }
+    };
+
+    public static byte[] encode(Version v) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(v.toString().length() * 3 + 16);
+        for (String component : v.getSplit()) {
+            String[] words = VersionComparators.splitIntoAlphasAndNums(component);
+            for (String word : words) {
+                int score = VersionComparators.calculateScore(word);
+                out.write(score + SCORE_OFFSET);
+                Long l = score == 100 ? VersionComparators.toLong(word) : null;
+                if (l != null) {
+                    writeLong(out, l);
+                } else {
+                    writeChars(out, word);
+                    out.write(0);
+                }
+            }
+            if (words.length == 1) {
+                // Nothing but specials (or nothing at all):  the comparator never gets past this component.
+                break;
+            }
+        }
+        writeChars(out, v.toString());
+        return out.toByteArray();
+    }
+
+    /**
+     * Sorts the list into COMPARE_VERSIONS order, encoding each version once.
+     */
+    public static void sort(List<Version> versions) {
+        Version[] sorted = sortedArray(versions);
+        for (int i = 0; i < sorted.length; i++) {
+            versions.set(i, sorted[i]);
+        }
+    }
+
+    private static Version[] sortedArray(List<Version> versions) {
+        final byte[][] keys = new byte[versions.size()][];
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = versions.get(i).getKey();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                return COMPARE_KEYS.compare(keys[i1], keys[i2]);
+            }
+        });
+        Version[] sorted = new Version[keys.length];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = versions.get(order[i]);
+        }
+        return sorted;
+    }
+
+    /**
+     * Header byte says how many value bytes follow and orders by sign and magnitude:
+     * 0x80 + n for non-negative values (n big-endian bytes), 0x7F - n for negative ones
+     * (n low bytes of the value, where n is what ~value needs).
+     */
+    static void writeLong(ByteArrayOutputStream out, long l) {
+        long magnitude = l >= 0 ? l : ~l;
+        int n = (64 - Long.numberOfLeadingZeros(magnitude) + 7) / 8;
+        out.write(l >= 0 ? 0x80 + n : 0x7F - n);
+        for (int i = n - 1; i >= 0; i--) {
+            out.write((int) (l >>> (i * 8)));
+        }
+    }
+
+    /**
+     * Writes each UTF-16 code unit as 1 to 3 bytes (as UTF-8 would write that value as a code point),
+     * so byte order is String.compareTo order.  Words never contain '\0' (it's a special), so 0x00 can end them.
+     */
+    static void writeChars(ByteArrayOutputStream out, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out.write(c);
+            } else if (c < 0x800) {
+                out.write(0xC0 | (c >> 6));
+                out.write(0x80 | (c & 0x3F));
+            } else {
+                out.write(0xE0 | (c >> 12));
+                out.write(0x80 | ((c >> 6) & 0x3F));
+                out.write(0x80 | (c & 0x3F));
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.mergebase.push0ver;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory caches that only pay off when one JVM serves many runs ({@link Daemon}).  Off unless
+ * {@link #enable()} was called, so Bamboo and plain CLI runs behave exactly as before.
+ * <p>
+ * File-backed values (tag index, scan index, commit-graph) are kept with the file's size, mtime and file key,
+ * and dropped as soon as any of them changes.  push0ver always replaces those files by renaming a tmp-file
+ * over them, so a rewrite always shows up as a new file key.
+ * <p>
+ * Positive existence checks are remembered for {@link #EXISTS_TTL_MILLIS}, per URL and credentials:  a released
+ * artifact doesn't go away (negative answers are never cached, the next upload could change them).
+ */
+public class WarmCache {
+    static final long EXISTS_TTL_MILLIS = 10 * 60 * 1000;
+
+    private static volatile boolean enabled;
+    private static final Map<String, Stamped> FILES = new ConcurrentHashMap<>();
+    private static final Map<String, Long> EXISTS = new ConcurrentHashMap<>();
+    private static final Map<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    private static class Stamped {
+        final String stamp;
+        final Object value;
+
+        Stamped(String stamp, Object value) {
+            this.stamp = stamp;
+            this.value = value;
+        }
+    }
+
+    public static void enable() {
+        enabled = true;
+    }
+
+    /**
+     * Turns caching off again and forgets everything.
+     */
+    static void disable() {
+        enabled = false;
+        FILES.clear();
+        EXISTS.clear();
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return what {@link #put} stored for this file, if the file hasn't changed since (else null).
+     */
+    static <T> T get(File f, Class<T> type) {
+        if (!enabled) {
+            return null;
+        }
+        Stamped s = FILES.get(f.getAbsolutePath());
+        if (s == null || !s.stamp.equals(stamp(f)) || !type.isInstance(s.value)) {
+            return null;
+        }
+        return type.cast(s.value);
+    }
+
+    /**
+     * Remembers a value derived from the file as it is right now.  The value must not be modified after this.
+     */
+    static void put(File f, Object value) {
+        if (!enabled) {
+            return;
+        }
+        String stamp = stamp(f);
+        if (stamp != null && value != null) {
+            FILES.put(f.getAbsolutePath(), new Stamped(stamp, value));
+        } else {
+            FILES.remove(f.getAbsolutePath());
+        }
+    }
+
+    /**
+     * One lock per file:  concurrent runs against the same checkout take turns updating its indexes.
+     */
+    static Object lock(File f) {
+        return LOCKS.computeIfAbsent(f.getAbsolutePath(), k -> new Object());
+    }
+
+    /**
+     * @param basicAuth part of the key:  the daemon serves plans with different credentials, and what one may
+     *                  see another may not.
+     */
+    static boolean knownToExist(String url, String basicAuth) {
+        if (!enabled) {
+            return false;
+        }
+        String key = existsKey(url, basicAuth);
+        Long when = EXISTS.get(key);
+        if (when != null && System.currentTimeMillis() - when < EXISTS_TTL_MILLIS) {
+            return true;
+        }
+        EXISTS.remove(key);
+        return false;
+    }
+
+    static void exists(String url, String basicAuth) {
+        if (enabled) {
+            EXISTS.put(existsKey(url, basicAuth), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * @return a hash of the credentials (they are not kept around) and the URL.
+     */
+    private static String existsKey(String url, String basicAuth) {
+        if (basicAuth == null) {
+            return "- " + url;
+        }
+        try {
+            byte[] h = MessageDigest.getInstance("SHA-256").digest(basicAuth.getBytes(StandardCharsets.UTF_8));
+            return DatatypeConverter.printHexBinary(h) + " " + url;
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new RuntimeException("Stop the world, Java broken: " + nsae, nsae);
+        }
+    }
+
+    /**
+     * @return number of cached files and existence answers (for the daemon's log).
+     */
+    static String describe() {
+        return FILES.size() + " index file(s), " + EXISTS.size() + " existence answer(s)";
+    }
+
+    private static String stamp(File f) {
+        try {
+            BasicFileAttributes a = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+            return a.size() + " " + a.lastModifiedTime().toMillis() + " " + a.fileKey();
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.mergebase.push0ver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Walks the workspace once for all tag directories together.
+ * <p>
+ * Each file is attributed to the innermost tag directory it lives in (a stack of directories, pushed and
+ * popped as the walk enters and leaves them).  In the same pass the scanner optionally injects that
+ * tag's version in place of the sentinels, notes whether the directory is a Maven project (pom.xml) and
+ * collects every package.json that could be published.
+ * <p>
+ * Used by {@link com.mergebase.push0ver.pre.PreApp} (with injection) and {@link App} (without).
+ */
+public class WorkspaceScanner {
+
+    /**
+     * One tag directory.
+     */
+    public static class Module {
+        private final Tag tag;
+        private final String version;
+        private final File dir;
+        private boolean maven;
+        private boolean node;
+        private final Set<File> matches = new TreeSet<>();
+        private final List<File> packageJsons = new ArrayList<>();
+
+        Module(Tag tag, String version, File dir) {
+            this.tag = tag;
+            this.version = version;
+            this.dir = dir;
+        }
+
+        public Tag getTag() {
+            return tag;
+        }
+
+        public File getDir() {
+            return dir;
+        }
+
+        /**
+         * @return true if the tag directory itself contains a pom.xml.
+         */
+        public boolean isMaven() {
+            return maven;
+        }
+
+        /**
+         * @return true if a sentinel was injected into one of this module's package.json files.
+         */
+        public boolean isNode() {
+            return node;
+        }
+
+        /**
+         * @param injected canonical files the pre task injected the sentinel into
+         */
+        public boolean isNode(Set<File> injected) {
+            for (File f : packageJsons) {
+                if (injected.contains(f)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return files the sentinel was replaced in (only when scanning with injection).
+         */
+        public Set<File> getMatches() {
+            return matches;
+        }
+
+        /**
+         * @return canonical package.json files in this module (node_modules excluded), in walk order.
+         */
+        public List<File> getPackageJsons() {
+            return packageJsons;
+        }
+    }
+
+    public static class Workspace {
+        private final Map<String, Module> modules = new LinkedHashMap<>();
+        private long files;
+        private long bytes;
+        private long unchanged;
+        private long scanMillis;
+
+        /**
+         * @return the module for this tag's directory, or null if the directory does not exist.
+         */
+        public Module get(Tag tag) {
+            return modules.get(tag.getDirectory());
+        }
+
+        public Collection<Module> getModules() {
+            return modules.values();
+        }
+
+        public long getFiles() {
+            return files;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return files the scan index let the inject pass skip.
+         */
+        public long getUnchanged() {
+            return unchanged;
+        }
+    }
+
+    /**
+     * @param projectDir the project root; tag directories are relative to it
+     * @param inject     true to replace the sentinels with each module's version (the pre task)
+     */
+    public static Workspace scan(String projectDir, Collection<Tag> tags, boolean inject, MyLogger log, RunStats stats) {
+        return scan(projectDir, tags, inject, log, stats, null);
+    }
+
+    /**
+     * @param index files it knows are unchanged and clean are not read again (may be null).  Saved afterwards.
+     */
+    public static Workspace scan(
+            String projectDir, Collection<Tag> tags, boolean inject, MyLogger log, RunStats stats, ScanIndex index) {
+        return scan(projectDir, tags, Collections.<Tag>emptyList(), inject, log, stats, index);
+    }
+
+    /**
+     * @param skipped tag directories left out altogether (see {@link TreeIndex}):  not walked, not even from an
+     *                enclosing tag directory, and without a module.
+     */
+    public static Workspace scan(
+            String projectDir, Collection<Tag> tags, Collection<Tag> skipped, boolean inject, MyLogger log,
+            RunStats stats, ScanIndex index) {
+        Set<File> skip = new HashSet<>();
+        for (Tag tag : skipped) {
+            skip.add(absolute(new File(projectDir + tag.getDirectory())));
+        }
+        Map<File, Module> byDir = new HashMap<>();
+        Workspace ws = new Workspace();
+        for (Tag tag : tags) {
+            File dir = absolute(new File(projectDir + tag.getDirectory()));
+            if (dir.isDirectory() && !byDir.containsKey(dir)) {
+                Module m = new Module(tag, tag.getVersion().toString(), dir);
+                byDir.put(dir, m);
+                ws.modules.put(tag.getDirectory(), m);
+            }
+        }
+        walk(byDir, skip, inject, log, ws, stats.getMemory(), index);
+        if (index != null && inject) {
+            index.save();
+            ws.unchanged = index.getHits();
+            log.addBuildLogEntry("push0ver - Scan index: skipped " + ws.unchanged + " unchanged files of " + ws.files);
+        }
+        return finish(ws, stats);
+    }
+
+    /**
+     * Injects a single version into everything under root (see {@link FileUtil#injectTagRecursive}).
+     */
+    static Set<File> inject(File root, String version, MyLogger log, RunStats stats) {
+        Workspace ws = new Workspace();
+        File dir = absolute(root);
+        if (!dir.exists()) {
+            finish(ws, stats);
+            return new TreeSet<>();
+        }
+        Module m = new Module(null, version, dir);
+        ws.modules.put("", m);
+        walk(Collections.singletonMap(dir, m), Collections.<File>emptySet(), true, log, ws, stats.getMemory(), null);
+        finish(ws, stats);
+        return m.matches;
+    }
+
+    private static Workspace finish(Workspace ws, RunStats stats) {
+        stats.scanned(ws.files, ws.bytes, ws.scanMillis);
+        stats.scanSkipped(ws.unchanged);
+        return ws;
+    }
+
+    private static void walk(
+            final Map<File, Module> byDir, final Set<File> skip, final boolean inject, final MyLogger log, final Workspace ws,
+            final MemoryBudget memory, final ScanIndex index) {
+        final long start = System.currentTimeMillis();
+
+        // Walk only the outermost tag directories: nested ones are reached from their parents.
+        List<File> roots = new ArrayList<>();
+        for (File dir : byDir.keySet()) {
+            boolean nested = false;
+            for (File parent = dir.getParentFile(); parent != null && !nested; parent = parent.getParentFile()) {
+                nested = byDir.containsKey(parent);
+            }
+            if (!nested) {
+                roots.add(dir);
+            }
+        }
+
+        final Deque<Module> stack = new ArrayDeque<>();
+        for (File root : roots) {
+            try {
+                Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        String name = dir.getFileName() != null ? dir.getFileName().toString() : "";
+                        if (stack.size() > 0 && ("node_modules".equals(name) || ".git".equals(name))) {
+                            // Don't edit anything under ".git/"
+                            // Don't edit anything under "node_modules/" (waste of time)
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                        if (stack.size() > 0 && skip.contains(dir.toFile())) {
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                        Module m = byDir.get(dir.toFile());
+                        stack.push(m != null ? m : stack.peek());
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                        stack.pop();
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+                        if (!attrs.isRegularFile()) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        Module m = stack.peek();
+                        File f = path.toFile();
+                        String n = f.getName().toLowerCase(Locale.ENGLISH);
+                        if ("pom.xml".equals(n) && m.dir.equals(f.getParentFile())) {
+                            m.maven = true;
+                        } else if ("package.json".equals(n)) {
+                            m.packageJsons.add(f.getCanonicalFile());
+                        }
+
+                        ws.files++;
+                        ws.bytes += attrs.size();
+                        if (inject && !n.endsWith(".class") && f.canRead()) {
+                            // Don't edit *.class files, it just corrupts them.
+                            if (index != null && index.isUnchanged(path, attrs)) {
+                                return FileVisitResult.CONTINUE;
+                            }
+                            Jfr.Event jfr = Jfr.SENTINEL_SCAN.begin();
+                            int hits = 0;
+                            try {
+                                hits = FileUtil.injectTags(f, m.version, log, m.matches, memory);
+                                if (hits > 0) {
+                                    if ("package.json".equals(n)) {
+                                        m.node = true;
+                                    }
+                                } else if (index != null) {
+                                    index.markClean(path);
+                                }
+                            } catch (IOException ioe) {
+                                throw new RuntimeException("Failed to inject tag [" + m.version + "] in file [" + f.getAbsolutePath() + "]");
+                            } finally {
+                                if (jfr.isRecording()) {
+                                    jfr.set("file", path.toString()).set("bytes", attrs.size()).set("hits", hits).commit();
+                                }
+                            }
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (IOException ioe) {
+                throw new RuntimeException("Files.walkFileTree() failed for [" + root.getAbsolutePath() + "] because " + ioe);
+            }
+        }
+        ws.scanMillis = System.currentTimeMillis() - start;
+    }
+
+    private static File absolute(File f) {
+        return f.getAbsoluteFile().toPath().normalize().toFile();
+    }
+}
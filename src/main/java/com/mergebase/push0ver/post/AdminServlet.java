@@ -5,8 +5,13 @@ import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
 import com.atlassian.sal.api.auth.LoginUriProvider;
 import com.atlassian.sal.api.pluginsettings.PluginSettings;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.sal.api.transaction.TransactionTemplate;
 import com.atlassian.sal.api.user.UserManager;
 import com.atlassian.templaterenderer.TemplateRenderer;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.mergebase.push0ver.RunHistory;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -16,13 +21,19 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 @ExportAsService({AdminServlet.class})
 @Named("Push0verAdminServlet")
 public class AdminServlet extends HttpServlet {
     private static final String PLUGIN_STORAGE_KEY = "push0ver.adminui";
+    // Days of per-day percentiles shown next to the overall ones (the JSON export has them all).
+    private static final int TREND_DAYS = 14;
 
     @ComponentImport
     private final UserManager userManager;
@@ -36,13 +47,18 @@ public class AdminServlet extends HttpServlet {
     @ComponentImport
     private final PluginSettingsFactory pluginSettingsFactory;
 
+    @ComponentImport
+    private final TransactionTemplate transactionTemplate;
+
     @Inject
     public AdminServlet(UserManager userManager, LoginUriProvider loginUriProvider,
-                        TemplateRenderer renderer, PluginSettingsFactory pluginSettingsFactory) {
+                        TemplateRenderer renderer, PluginSettingsFactory pluginSettingsFactory,
+                        TransactionTemplate transactionTemplate) {
         this.userManager = userManager;
         this.loginUriProvider = loginUriProvider;
         this.renderer = renderer;
         this.pluginSettingsFactory = pluginSettingsFactory;
+        this.transactionTemplate = transactionTemplate;
     }
 
     @Override
@@ -56,6 +72,16 @@ public class AdminServlet extends HttpServlet {
 
         PluginSettings pluginSettings = pluginSettingsFactory.createGlobalSettings();
 
+        if ("history".equals(request.getParameter("view"))) {
+            renderHistory(request, response, pluginSettings);
+            return;
+        }
+
+        if ("selftest".equals(request.getParameter("view"))) {
+            renderSelfTest(request, response, pluginSettings);
+            return;
+        }
+
         if (pluginSettings.get(PLUGIN_STORAGE_KEY + ".username") == null ||
                 pluginSettings.get(PLUGIN_STORAGE_KEY + ".username").equals("")) {
             String noName = "Empty";
@@ -112,6 +138,22 @@ public class AdminServlet extends HttpServlet {
     protected void doPost(HttpServletRequest req, HttpServletResponse response)
             throws ServletException, IOException {
         PluginSettings pluginSettings = pluginSettingsFactory.createGlobalSettings();
+        String action = req.getParameter("action");
+        if ("selftest".equals(action) || "apply".equals(action)) {
+            String name = userManager.getRemoteUsername(req);
+            if (name == null || !userManager.isSystemAdmin(name)) {
+                redirectToLogin(req, response);
+                return;
+            }
+            if ("selftest".equals(action)) {
+                // The page refreshes itself until it is done.
+                SelfTestStore.start(pluginSettingsFactory, transactionTemplate);
+            } else {
+                SelfTestStore.apply(pluginSettings);
+            }
+            response.sendRedirect("admin?view=selftest");
+            return;
+        }
         pluginSettings.put(PLUGIN_STORAGE_KEY + ".username", req.getParameter("username"));
         pluginSettings.put(PLUGIN_STORAGE_KEY + ".password", req.getParameter("password"));
         pluginSettings.put(PLUGIN_STORAGE_KEY + ".url", req.getParameter("url"));
@@ -122,6 +164,139 @@ public class AdminServlet extends HttpServlet {
         response.sendRedirect("admin");
     }
 
+    private void renderHistory(HttpServletRequest request, HttpServletResponse response, PluginSettings pluginSettings)
+            throws IOException {
+        String plan = request.getParameter("plan");
+        List<RunHistory> histories = new ArrayList<RunHistory>();
+        for (String planKey : RunHistoryStore.plans(pluginSettings)) {
+            if (plan == null || "".equals(plan) || plan.equals(planKey)) {
+                histories.add(RunHistoryStore.load(pluginSettings, planKey));
+            }
+        }
+
+        if ("json".equals(request.getParameter("format"))) {
+            JsonArray export = new JsonArray();
+            for (RunHistory h : histories) {
+                export.add(h.export());
+            }
+            response.setContentType("application/json;charset=utf-8");
+            response.setHeader("Content-Disposition", "attachment; filename=\"push0ver-history.json\"");
+            response.getWriter().write(export.toString());
+            return;
+        }
+
+        List<Map<String, Object>> plans = new ArrayList<Map<String, Object>>();
+        for (RunHistory h : histories) {
+            Map<String, Object> m = new HashMap<String, Object>();
+            m.put("key", h.getPlanKey());
+            m.put("runs", h.getRuns());
+            Map<String, JsonObject> daily = h.daily();
+            List<String> days = new ArrayList<String>(daily.keySet());
+            days = days.subList(Math.max(0, days.size() - TREND_DAYS), days.size());
+            m.put("days", days);
+            m.put("summary", summaryRows(RunHistory.summarize(h.getRuns()), daily, days));
+            plans.add(m);
+        }
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("plans", plans);
+        response.setContentType("text/html;charset=utf-8");
+        renderer.render("history.vm", context, response.getWriter());
+    }
+
+    private void renderSelfTest(HttpServletRequest request, HttpServletResponse response, PluginSettings pluginSettings)
+            throws IOException {
+        JsonObject status = SelfTestStore.status(pluginSettings);
+        JsonObject result = status != null ? status.getAsJsonObject("result") : null;
+        if ("json".equals(request.getParameter("format"))) {
+            response.setContentType("application/json;charset=utf-8");
+            response.setHeader("Content-Disposition", "attachment; filename=\"push0ver-selftest.json\"");
+            response.getWriter().write(result != null ? result.toString() : "{}");
+            return;
+        }
+
+        Map<String, Object> context = new HashMap<String, Object>();
+        context.put("running", status != null && status.has("started"));
+        context.put("started", status != null && status.has("started")
+                ? new Date(status.get("started").getAsLong()).toString() : "");
+        context.put("hasResult", result != null);
+        context.put("uploadparallel", SelfTestStore.get(pluginSettings, SelfTestStore.PARALLEL_KEY));
+        context.put("uploadchunk", SelfTestStore.get(pluginSettings, SelfTestStore.CHUNK_KEY));
+        if (result != null) {
+            context.put("error", result.has("error") ? result.get("error").getAsString() : "");
+            context.put("url", result.has("url") ? result.get("url").getAsString() : "");
+            context.put("time", result.has("time") ? new Date(result.get("time").getAsLong()).toString() : "");
+            context.put("latency", fields(result.getAsJsonObject("latency")));
+            context.put("repos", rows(result.getAsJsonArray("repos")));
+            JsonObject throughput = result.getAsJsonObject("throughput");
+            context.put("throughput", fields(throughput));
+            context.put("parallel", rows(throughput != null ? throughput.getAsJsonArray("parallel") : null));
+            JsonObject recommendation = result.getAsJsonObject("recommendation");
+            context.put("recommendation", fields(recommendation));
+            List<String> notes = new ArrayList<String>();
+            if (recommendation != null) {
+                for (JsonElement note : recommendation.getAsJsonArray("notes")) {
+                    notes.add(note.getAsString());
+                }
+            }
+            context.put("notes", notes);
+        }
+        response.setContentType("text/html;charset=utf-8");
+        renderer.render("selftest.vm", context, response.getWriter());
+    }
+
+    /**
+     * @return the object's primitive fields as strings, in order (empty for null).
+     */
+    private static Map<String, String> fields(JsonObject o) {
+        Map<String, String> m = new LinkedHashMap<String, String>();
+        if (o != null) {
+            for (Map.Entry<String, JsonElement> e : o.entrySet()) {
+                if (e.getValue().isJsonPrimitive()) {
+                    m.put(e.getKey(), e.getValue().getAsString());
+                }
+            }
+        }
+        return m;
+    }
+
+    private static List<Map<String, String>> rows(JsonArray a) {
+        List<Map<String, String>> rows = new ArrayList<Map<String, String>>();
+        if (a != null) {
+            for (JsonElement e : a) {
+                rows.add(fields(e.getAsJsonObject()));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * One row per metric:  overall samples, p50 and p95, then "p50 / p95" for each of the given days.
+     */
+    private static List<Map<String, Object>> summaryRows(JsonObject summary, Map<String, JsonObject> daily,
+                                                         List<String> days) {
+        List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>();
+        for (Map.Entry<String, JsonElement> entry : summary.entrySet()) {
+            if (entry.getValue().isJsonObject()) {
+                JsonObject m = entry.getValue().getAsJsonObject();
+                Map<String, Object> row = new HashMap<String, Object>();
+                row.put("metric", entry.getKey());
+                row.put("n", m.get("n").getAsString());
+                row.put("p50", String.format("%.2f", m.get("p50").getAsDouble()));
+                row.put("p95", String.format("%.2f", m.get("p95").getAsDouble()));
+                List<String> trend = new ArrayList<String>();
+                for (String day : days) {
+                    JsonObject d = daily.get(day).getAsJsonObject(entry.getKey());
+                    trend.add(d != null
+                            ? String.format("%.2f / %.2f", d.get("p50").getAsDouble(), d.get("p95").getAsDouble())
+                            : "-");
+                }
+                row.put("trend", trend);
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
     private void redirectToLogin(HttpServletRequest request, HttpServletResponse response) throws IOException {
         response.sendRedirect(loginUriProvider.getLoginUri(getUri(request)).toASCIIString());
     }
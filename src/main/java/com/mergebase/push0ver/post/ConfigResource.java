@@ -13,6 +13,7 @@ import javax.inject.Named;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
@@ -120,4 +121,50 @@ public class ConfigResource {
         });
         return Response.noContent().build();
     }
+
+    /**
+     * @return whether the Artifactory self-test is running or done, with the last result (see
+     * {@link SelfTestStore#status}), or 404 if none ran yet.
+     */
+    @GET
+    @Path("/selftest")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getSelfTest(@Context HttpServletRequest request) {
+        String username = userManager.getRemoteUsername(request);
+        if (username == null || !userManager.isSystemAdmin(username)) {
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+
+        Object result = transactionTemplate.execute(new TransactionCallback() {
+            public Object doInTransaction() {
+                return SelfTestStore.status(pluginSettingsFactory.createGlobalSettings());
+            }
+        });
+        if (result == null) {
+            return Response.status(Status.NOT_FOUND).build();
+        }
+        return Response.ok(result.toString()).build();
+    }
+
+    /**
+     * Starts the self-test in the background (it takes up to a minute):  202, then poll GET /selftest.  If one
+     * is already running, no second one starts.
+     */
+    @POST
+    @Path("/selftest")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response runSelfTest(@Context HttpServletRequest request) {
+        String username = userManager.getRemoteUsername(request);
+        if (username == null || !userManager.isSystemAdmin(username)) {
+            return Response.status(Status.UNAUTHORIZED).build();
+        }
+
+        SelfTestStore.start(pluginSettingsFactory, transactionTemplate);
+        Object status = transactionTemplate.execute(new TransactionCallback() {
+            public Object doInTransaction() {
+                return SelfTestStore.status(pluginSettingsFactory.createGlobalSettings());
+            }
+        });
+        return Response.status(Status.ACCEPTED).entity(status.toString()).build();
+    }
 }
@@ -12,7 +12,7 @@ public class PostConfig extends AbstractTaskConfigurator {
     private String pushCheckBox = "true";
     private String taskClient = "false";
     String[] toFill = {"tasklocaldir", "taskreleaserepo", "tasksnaprepo", "tasknoderepo", "taskurl", "taskusername", "taskpassword", "mavenhome",
-            "checkbox", "pushcheckbox", "taskclient"};
+            "checkbox", "pushcheckbox", "taskclient", "taskhttp2", "taskmirrors"};
 
     public Map<String, String> generateTaskConfigMap(final ActionParametersMap params, final TaskDefinition previousTaskDefinition) {
         final Map<String, String> config = super.generateTaskConfigMap(params, previousTaskDefinition);
@@ -10,6 +10,7 @@ import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
 import com.atlassian.sal.api.pluginsettings.PluginSettings;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
 import com.mergebase.push0ver.App;
+import com.mergebase.push0ver.RunStats;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -66,6 +67,8 @@ public class PostTask implements TaskType {
         String taskReleaseRepo = nullTrim(taskContext.getConfigurationMap().get("taskreleaserepo"));
         String taskSnapRepo = nullTrim(taskContext.getConfigurationMap().get("tasksnaprepo"));
         String taskNodeRepo = nullTrim(taskContext.getConfigurationMap().get("tasknoderepo"));
+        final boolean http2 = "true".equals(nullTrim(taskContext.getConfigurationMap().get("taskhttp2")));
+        String taskMirrors = nullTrim(taskContext.getConfigurationMap().get("taskmirrors"));
 
         String push = "";
         if (pushCheckBox.equals("true")) {
@@ -83,6 +86,9 @@ public class PostTask implements TaskType {
 
         log.addBuildLogEntry("push0ver - RELEASE REPO:  " + taskReleaseRepo);
         log.addBuildLogEntry("push0ver - NODE REPO:  " + taskNodeRepo);
+        if (!"".equals(taskMirrors)) {
+            log.addBuildLogEntry("push0ver - MIRRORS:  " + taskMirrors);
+        }
 
         if (taskUsername.equals("Empty") || taskPassword.equals("Empty")) {
             log.addBuildLogEntry("push0ver - REPOSITORY Username/Password NOT SET");
@@ -101,6 +107,8 @@ public class PostTask implements TaskType {
         }
         log.addBuildLogEntry("push0ver - WORKING DIR:  " + localdir);
 
+        final RunStats stats = new RunStats("post");
+        String outcome = "failed";
         try {
             String[] arg = new String[]{localdir, push};
             p.setProperty("repo.name", taskReleaseRepo);
@@ -111,9 +119,15 @@ public class PostTask implements TaskType {
             p.setProperty("mvn.home", mavenHome);
             p.setProperty("noderepo.name", taskNodeRepo);
             p.setProperty("ssl.trustAll", Boolean.toString(sslTrustAll));
+            p.setProperty("http2", Boolean.toString(http2));
+            p.setProperty("art.mirrors", taskMirrors);
+            // Applied from the admin UI's Artifactory self-test.
+            p.setProperty("upload.parallel", SelfTestStore.get(settings, SelfTestStore.PARALLEL_KEY));
+            p.setProperty("upload.chunk", SelfTestStore.get(settings, SelfTestStore.CHUNK_KEY));
             App.invoke(arg, p, logLine -> {
                 return log.addBuildLogEntry(logLine);
-            });
+            }, stats);
+            outcome = "success";
         } catch (Exception e) {
             StringWriter sw = new StringWriter();
             PrintWriter pw = new PrintWriter(sw);
@@ -121,6 +135,10 @@ public class PostTask implements TaskType {
             String stacktrace = sw.toString();
             log.addBuildLogEntry("push0ver - STACKTRACE:     " + stacktrace);
             taskResultBuilder.failed();
+        } finally {
+            stats.finish(outcome);
+            log.addBuildLogEntry(stats.summary());
+            RunHistoryStore.record(taskContext, settings, stats, log);
         }
 
         return taskResultBuilder.build();
@@ -0,0 +1,65 @@
+package com.mergebase.push0ver.post;
+
+import com.atlassian.bamboo.build.logger.BuildLogger;
+import com.atlassian.bamboo.task.TaskContext;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.mergebase.push0ver.RunHistory;
+import com.mergebase.push0ver.RunStats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Keeps each plan's {@link RunHistory} in the global plugin settings, next to the admin config.
+ */
+public class RunHistoryStore {
+    private static final String PLUGIN_STORAGE_KEY = "push0ver.adminui";
+    private static final String HISTORY_KEY = PLUGIN_STORAGE_KEY + ".history.";
+    private static final String PLANS_KEY = PLUGIN_STORAGE_KEY + ".history-plans";
+    private static final Object LOCK = new Object();
+
+    /**
+     * Records a finished task run under its job's plan key.  Never fails the build.
+     */
+    public static void record(TaskContext taskContext, PluginSettings settings, RunStats stats, BuildLogger log) {
+        try {
+            String planKey = taskContext.getBuildContext().getPlanResultKey().getPlanKey().getKey();
+            record(settings, planKey, stats);
+        } catch (RuntimeException re) {
+            log.addBuildLogEntry("push0ver - WARNING: failed to record run history: " + re);
+        }
+    }
+
+    public static void record(PluginSettings settings, String planKey, RunStats stats) {
+        if (planKey == null || "".equals(planKey)) {
+            return;
+        }
+        synchronized (LOCK) {
+            RunHistory history = load(settings, planKey);
+            history.add(stats);
+            settings.put(HISTORY_KEY + planKey, history.toJson().toString());
+
+            List<String> plans = plans(settings);
+            if (!plans.contains(planKey)) {
+                plans.add(planKey);
+                settings.put(PLANS_KEY, new ArrayList<>(new TreeSet<>(plans)));
+            }
+        }
+    }
+
+    public static RunHistory load(PluginSettings settings, String planKey) {
+        Object json = settings.get(HISTORY_KEY + planKey);
+        return RunHistory.fromJson(planKey, json instanceof String ? (String) json : null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static List<String> plans(PluginSettings settings) {
+        Object o = settings.get(PLANS_KEY);
+        List<String> plans = new ArrayList<>();
+        if (o instanceof List) {
+            plans.addAll((List<String>) o);
+        }
+        return plans;
+    }
+}
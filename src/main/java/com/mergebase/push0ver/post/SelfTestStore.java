@@ -0,0 +1,158 @@
+package com.mergebase.push0ver.post;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.sal.api.transaction.TransactionTemplate;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.mergebase.push0ver.App;
+import com.mergebase.push0ver.ArtifactorySelfTest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs the {@link ArtifactorySelfTest} against the global Artifactory settings, keeps the last result, and
+ * applies its recommended upload tuning (which {@link PostTask} then hands to every run).
+ * <p>
+ * A self-test takes up to a minute, so the admin UI and REST API {@link #start} it in the background and
+ * poll {@link #status}.
+ */
+public class SelfTestStore {
+    private static final String PLUGIN_STORAGE_KEY = "push0ver.adminui";
+    private static final String RESULT_KEY = PLUGIN_STORAGE_KEY + ".selftest";
+    static final String PARALLEL_KEY = PLUGIN_STORAGE_KEY + ".uploadparallel";
+    static final String CHUNK_KEY = PLUGIN_STORAGE_KEY + ".uploadchunk";
+    // Two self-tests at once would only measure each other.
+    private static final Object LOCK = new Object();
+    private static long runningSince;
+
+    /**
+     * Runs the self-test on a background thread, and saves its result when done.  The settings are read and
+     * written in their own transactions (not the one of the request that started it), but the self-test itself
+     * runs outside of any.
+     *
+     * @return false if one is already running (no second one is started).
+     */
+    public static boolean start(final PluginSettingsFactory factory, final TransactionTemplate transactions) {
+        synchronized (LOCK) {
+            if (runningSince != 0) {
+                return false;
+            }
+            runningSince = System.currentTimeMillis();
+        }
+        Thread t = new Thread(() -> {
+            try {
+                JsonObject result;
+                try {
+                    result = run(transactions.execute(() -> config(factory.createGlobalSettings())));
+                } catch (Throwable e) {
+                    // Even an Error (e.g., no HTTP/2 client classes):  leave a result, not a forever running test.
+                    result = new JsonObject();
+                    result.addProperty("error", "Self-test failed: " + e);
+                    result.addProperty("time", System.currentTimeMillis());
+                }
+                final JsonObject done = result;
+                transactions.execute(() -> {
+                    save(factory.createGlobalSettings(), done);
+                    return null;
+                });
+            } finally {
+                synchronized (LOCK) {
+                    runningSince = 0;
+                }
+            }
+        }, "push0ver-selftest");
+        t.setDaemon(true);
+        t.start();
+        return true;
+    }
+
+    /**
+     * @return {"state": "running" (with "started") or "done", "result": the last saved result (if any)},
+     * or null if no self-test ever ran.
+     */
+    public static JsonObject status(PluginSettings settings) {
+        long since;
+        synchronized (LOCK) {
+            since = runningSince;
+        }
+        JsonObject result = load(settings);
+        if (since == 0 && result == null) {
+            return null;
+        }
+        JsonObject status = new JsonObject();
+        status.addProperty("state", since != 0 ? "running" : "done");
+        if (since != 0) {
+            status.addProperty("started", since);
+        }
+        if (result != null) {
+            status.add("result", result);
+        }
+        return status;
+    }
+
+    /**
+     * @return the global Artifactory settings the self-test needs.
+     */
+    private static Map<String, String> config(PluginSettings settings) {
+        Map<String, String> config = new HashMap<>();
+        for (String key : new String[]{
+                ".url", ".username", ".password", ".globalclient", ".releaserepo", ".snaprepo", ".noderepo"}) {
+            config.put(key, get(settings, key));
+        }
+        return config;
+    }
+
+    /**
+     * @return the self-test result (not saved yet, see {@link #save}).
+     */
+    private static JsonObject run(Map<String, String> config) {
+        String url = config.get(".url");
+        if ("".equals(url) || "Empty".equals(url)) {
+            JsonObject result = new JsonObject();
+            result.addProperty("error", "No Artifactory URL configured");
+            return result;
+        }
+        String basicAuth = App.basicAuthHeader(config.get(".username"), config.get(".password"));
+        boolean sslTrustAll = "true".equalsIgnoreCase(config.get(".globalclient"));
+        return new ArtifactorySelfTest(url, basicAuth, sslTrustAll, line -> line).run(
+                config.get(".releaserepo"), config.get(".snaprepo"), config.get(".noderepo"));
+    }
+
+    public static void save(PluginSettings settings, JsonObject result) {
+        settings.put(RESULT_KEY, result.toString());
+    }
+
+    /**
+     * @return the last saved result, or null.
+     */
+    public static JsonObject load(PluginSettings settings) {
+        Object json = settings.get(RESULT_KEY);
+        if (!(json instanceof String) || "".equals(json)) {
+            return null;
+        }
+        return new JsonParser().parse((String) json).getAsJsonObject();
+    }
+
+    /**
+     * Makes the last result's recommendation the upload tuning for every run.
+     *
+     * @return false if there is no recommendation to apply.
+     */
+    public static boolean apply(PluginSettings settings) {
+        JsonObject result = load(settings);
+        if (result == null || !result.has("recommendation")) {
+            return false;
+        }
+        JsonObject r = result.getAsJsonObject("recommendation");
+        settings.put(PARALLEL_KEY, r.get("upload.parallel").getAsString());
+        settings.put(CHUNK_KEY, r.get("upload.chunk").getAsString());
+        return true;
+    }
+
+    static String get(PluginSettings settings, String key) {
+        Object o = settings.get(key.startsWith(".") ? PLUGIN_STORAGE_KEY + key : key);
+        return o != null ? o.toString().trim() : "";
+    }
+}
@@ -1,19 +1,31 @@
 package com.mergebase.push0ver.pre;
 
 import com.mergebase.push0ver.App;
-import com.mergebase.push0ver.FileUtil;
+import com.mergebase.push0ver.MemoryBudget;
 import com.mergebase.push0ver.MyLogger;
+import com.mergebase.push0ver.RunStats;
+import com.mergebase.push0ver.ScanIndex;
 import com.mergebase.push0ver.Tag;
 import com.mergebase.push0ver.TagExtractor;
+import com.mergebase.push0ver.TaskScope;
+import com.mergebase.push0ver.Trace;
+import com.mergebase.push0ver.TreeIndex;
+import com.mergebase.push0ver.WorkspaceScanner;
 
 import java.io.File;
 import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 
 public class PreApp {
+    private static final int MAX_PARALLEL_TAGS = 4;
+
     public static void main(String[] args) throws Exception {
         invoke(args, System.getProperties(), logLine -> {
             System.out.println(logLine);
@@ -22,15 +34,36 @@ public class PreApp {
     }
 
     public static void invoke(String[] args, Properties p, MyLogger log) throws Exception {
-        String userName = null;
-        String userPassword = null;
-        String mvnRepoName = null;
-        String nodeRepo = null;
+        invoke(args, p, log, new RunStats("pre"));
+    }
+
+    public static void invoke(String[] args, Properties p, MyLogger log, RunStats stats) throws Exception {
         String pathToEntry = args.length > 0 ? args[0] : null;
         pathToEntry = pathToEntry != null ? pathToEntry.trim() : "";
         if ("".equals(pathToEntry)) {
             pathToEntry = ".";
         }
+        File traceFile = Trace.file(p, pathToEntry, "pre");
+        Trace.Span trace = Trace.root(traceFile, "push0ver pre", log).attr("project.dir", pathToEntry);
+        try {
+            pre(pathToEntry, p, log, stats);
+        } catch (Exception | Error e) {
+            trace.error(e);
+            throw e;
+        } finally {
+            trace.end();
+            if (trace.isRecording()) {
+                log.addBuildLogEntry("push0ver - TRACE: [" + traceFile.getPath() + "]");
+            }
+        }
+    }
+
+    private static void pre(String pathToEntry, Properties p, MyLogger log, RunStats stats) throws Exception {
+        stats.setMemory(MemoryBudget.fromProperties(p));
+        String userName = null;
+        String userPassword = null;
+        String mvnRepoName = null;
+        String nodeRepo = null;
 
         if (p.getProperty("repo.name") != null) {
             mvnRepoName = p.getProperty("repo.name");
@@ -80,73 +113,155 @@ public class PreApp {
         }
 
         String[] badTag = new String[1];
-        App.fetchTags(log, gitTarget);
+        long start = System.currentTimeMillis();
+        Trace.Span phase = Trace.start("fetch-tags");
+        App.fetchTags(log, gitTarget, true, stats);
+        phase.end();
+        stats.phase("fetch-tags", start);
+        start = System.currentTimeMillis();
+        phase = Trace.start("tag-extract");
         Map<String, Tag> tags = TagExtractor.getTag(gitTarget, pathToEntry, false, log, badTag);
+        phase.attr("tags", String.valueOf(tags)).end();
+        stats.phase("tag-extract", start);
 
         if (tags != null) {
-            for (Tag tag : tags.values()) {
-                File packageDir = new File(pathToEntry + tag.getDirectory());
-                File f = new File(pathToEntry + tag.getDirectory() + "/push0ver.windup.txt");
-                FileWriter pref = new FileWriter(f);
+            // Tag directories whose version was already published from this very tree are left out entirely.
+            start = System.currentTimeMillis();
+            phase = Trace.start("changes");
+            TreeIndex trees = "false".equalsIgnoreCase(p.getProperty("skip.unchanged")) ? null
+                    : TreeIndex.load(gitTarget, pathToEntry, tags.values(), log);
+            List<Tag> unchanged = trees != null ? trees.unchanged(tags.values(), log) : Collections.<Tag>emptyList();
+            List<Tag> changed = new ArrayList<>(tags.values());
+            changed.removeAll(unchanged);
+            for (Tag tag : unchanged) {
+                // Tells the post task to leave it alone too.
+                FileWriter pref = new FileWriter(pathToEntry + tag.getDirectory() + "/push0ver.windup.txt");
+                try {
+                    pref.write("pre=unchanged\n");
+                } finally {
+                    pref.close();
+                }
+            }
+            phase.attr("unchanged", unchanged.size()).end();
+            stats.phase("changes", start);
+            if (changed.isEmpty()) {
+                return;
+            }
 
-                // Replace the SENTINEL with the TAG !
-                Set<File> matches = new HashSet<>();
+            // One pass over the workspace: inject every tag directory's version, detect Maven and npm modules.
+            start = System.currentTimeMillis();
+            phase = Trace.start("inject");
+            // Files found clean by the last run on this agent, and unchanged since, are not read again.
+            ScanIndex index = "false".equalsIgnoreCase(p.getProperty("scan.index")) ? null : ScanIndex.load(new File(pathToEntry));
+            WorkspaceScanner.Workspace workspace = WorkspaceScanner.scan(
+                    pathToEntry, changed, unchanged, true, log, stats, index);
+            phase.end();
+            stats.phase("inject", start);
 
-                try {
-                    if (packageDir.exists()) {
-                        matches = FileUtil.injectTagRecursive(packageDir, tag.getVersion().toString(), log);
-                        log.addBuildLogEntry("Looking at: " + tag.toString() + " isMaven=" + tag.isMaven() + " isNode=" + tag.isNode(matches));
-
-                        App.MavenStruct mavenStruct = null;
-                        App.NodeStruct nodeStruct = null;
-                        if (tag.isMaven()) {
-                            // Switch to SNAPSHOT if appropriate:
-                            mavenStruct = App.mavenCheckIfAlreadyReleased(
-                                    tag, log, mvnCommand, pathToEntry, basicAuthHeader, url, gitTarget, mvnRepoName);
+            // Each tag directory is independent:  run them side by side (virtual threads on Java 21+).
+            final String mvn = mvnCommand;
+            final String repo = mvnRepoName;
+            final String target = gitTarget;
+            final String artifactory = url;
+            final String entry = pathToEntry;
+            final String node = nodeRepo;
+            // With mirrors, a release already on the primary may still be missing from a mirror.
+            final boolean skipIfReleased = App.mirrors(p.getProperty("art.mirrors")).isEmpty();
+            TaskScope scope = TaskScope.open(MAX_PARALLEL_TAGS);
+            try {
+                for (final Tag tag : changed) {
+                    final WorkspaceScanner.Module module = workspace.get(tag);
+                    scope.fork(() -> {
+                        Trace.Span span = Trace.start("windup").attr("tag", tag.toString());
+                        try {
+                            windup(tag, module, badTag[0], log, mvn, entry, basicAuthHeader, artifactory, target, repo, node,
+                                    skipIfReleased, stats);
+                        } finally {
+                            span.end();
                         }
+                        return null;
+                    });
+                }
+                scope.join();
+            } finally {
+                scope.close();
+            }
+        } else {
+            log.addBuildLogEntry("PUSH0VER COULD NOT EXTRACT TAG FROM: " + gitTarget);
+        }
+    }
 
-                        if (tag.isNode(matches)) {
-                            nodeStruct = App.nodeCheckIfAlreadyReleased(
-                                    tag, log, pathToEntry, basicAuthHeader, url, nodeRepo);
-                        }
+    private static void windup(
+            Tag tag, WorkspaceScanner.Module module, String badTag, MyLogger log, String mvnCommand, String pathToEntry,
+            String basicAuthHeader, String url, String gitTarget, String mvnRepoName, String nodeRepo,
+            boolean skipIfReleased, RunStats stats) throws IOException {
+        long start;
+        File f = new File(pathToEntry + tag.getDirectory() + "/push0ver.windup.txt");
+        FileWriter pref = new FileWriter(f);
+
+        // Replace the SENTINEL with the TAG !
+        Set<File> matches = new HashSet<>();
+
+        try {
+            if (module != null) {
+                matches = module.getMatches();
+                log.addBuildLogEntry("Looking at: " + tag.toString() + " isMaven=" + module.isMaven() + " isNode=" + module.isNode());
+
+                App.MavenStruct mavenStruct = null;
+                App.NodeStruct nodeStruct = null;
+                if (module.isMaven()) {
+                    // Switch to SNAPSHOT if appropriate:
+                    start = System.currentTimeMillis();
+                    Trace.Span phase = Trace.start("reactor");
+                    mavenStruct = App.mavenCheckIfAlreadyReleased(
+                            tag, log, mvnCommand, pathToEntry, basicAuthHeader, url, gitTarget, mvnRepoName,
+                            stats.getMemory(), skipIfReleased);
+                    phase.end();
+                    stats.phase("reactor", start);
+                }
 
-                        if (mavenStruct != null || nodeStruct != null) {
-
-                            if (mavenStruct != null) {
-                                tag = mavenStruct.tag;
-                                if (nodeStruct != null) {
-                                    log.addBuildLogEntry("push0ver - WINDUP EXTRACTED VALID NODE+MAVEN TAG: " + tag.getVersion());
-                                } else {
-                                    log.addBuildLogEntry("push0ver - WINDUP EXTRACTED VALID MAVEN TAG: " + tag.getVersion());
-                                }
-                            } else {
-                                tag = nodeStruct.tag;
-                                log.addBuildLogEntry("push0ver - WINDUP EXTRACTED VALID NODE TAG: " + tag.getVersion());
-                            }
-                            pref.write("pre=valid\n");
+                if (module.isNode()) {
+                    start = System.currentTimeMillis();
+                    Trace.Span phase = Trace.start("npm-check");
+                    nodeStruct = App.nodeCheckIfAlreadyReleased(
+                            tag, log, pathToEntry, basicAuthHeader, url, nodeRepo);
+                    phase.end();
+                    stats.phase("npm-check", start);
+                }
+
+                if (mavenStruct != null || nodeStruct != null) {
+
+                    if (mavenStruct != null) {
+                        tag = mavenStruct.tag;
+                        if (nodeStruct != null) {
+                            log.addBuildLogEntry("push0ver - WINDUP EXTRACTED VALID NODE+MAVEN TAG: " + tag.getVersion());
                         } else {
-                            log.addBuildLogEntry("push0ver - WINDUP EXTRACTED ALREADY RELEASED TAG: " + tag.getVersion());
-                            pref.write("pre=released\n");
+                            log.addBuildLogEntry("push0ver - WINDUP EXTRACTED VALID MAVEN TAG: " + tag.getVersion());
                         }
-                    } else if (badTag[0] != null) {
-                        String tagString = badTag[0];
-                        log.addBuildLogEntry("push0ver - WINDUP EXTRACTED STALE TAG: " + tagString);
-                        pref.write("pre=stale\n");
                     } else {
-                        log.addBuildLogEntry("what is happening in here");
-                    }
-                } finally {
-                    try {
-                        for (File match : matches) {
-                            pref.write(match.getAbsolutePath() + "\n");
-                        }
-                    } finally {
-                        pref.close();
+                        tag = nodeStruct.tag;
+                        log.addBuildLogEntry("push0ver - WINDUP EXTRACTED VALID NODE TAG: " + tag.getVersion());
                     }
+                    pref.write("pre=valid\n");
+                } else {
+                    log.addBuildLogEntry("push0ver - WINDUP EXTRACTED ALREADY RELEASED TAG: " + tag.getVersion());
+                    pref.write("pre=released\n");
                 }
+            } else if (badTag != null) {
+                String tagString = badTag;
+                log.addBuildLogEntry("push0ver - WINDUP EXTRACTED STALE TAG: " + tagString);
+                pref.write("pre=stale\n");
+            } else {
+                log.addBuildLogEntry("what is happening in here");
+            }
+        } finally {
+            try {
+                for (File match : matches) {
+                    pref.write(match.getAbsolutePath() + "\n");
+                }
+            } finally {
+                pref.close();
             }
-        } else {
-            log.addBuildLogEntry("PUSH0VER COULD NOT EXTRACT TAG FROM: " + gitTarget);
         }
     }
 }
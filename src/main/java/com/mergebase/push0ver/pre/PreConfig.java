@@ -9,7 +9,7 @@ import java.util.Map;
 
 public class PreConfig extends AbstractTaskConfigurator {
     private String[] toFill = {"tasklocaldir", "allowAllConnect", "defaultcheckbox", "taskusername", "mavenhome",
-            "taskpassword", "taskurl", "taskreleaserepo", "tasksnaprepo", "tasknoderepo"
+            "taskpassword", "taskurl", "taskreleaserepo", "tasksnaprepo", "tasknoderepo", "taskmirrors"
     };
 
     public Map<String, String> generateTaskConfigMap(final ActionParametersMap params, final TaskDefinition previousTaskDefinition) {
@@ -9,6 +9,8 @@ import com.atlassian.bamboo.task.TaskType;
 import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
 import com.atlassian.sal.api.pluginsettings.PluginSettings;
 import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.mergebase.push0ver.RunStats;
+import com.mergebase.push0ver.post.RunHistoryStore;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -61,6 +63,7 @@ public class PreTask implements TaskType {
         String taskUrl = nullTrim(taskContext.getConfigurationMap().get("taskurl"));
         String taskReleaseRepo = nullTrim(taskContext.getConfigurationMap().get("taskreleaserepo"));
         String taskNodeRepo = nullTrim(taskContext.getConfigurationMap().get("tasknoderepo"));
+        String taskMirrors = nullTrim(taskContext.getConfigurationMap().get("taskmirrors"));
 
         if (globalConfig.equals("true")) {
             taskUsername = checkGlobalConfig(taskUsername, "username", context);
@@ -87,6 +90,8 @@ public class PreTask implements TaskType {
         }
         log.addBuildLogEntry("push0ver - WORKING DIR:  " + localdir);
 
+        final RunStats stats = new RunStats("pre");
+        String outcome = "failed";
         try {
             p.setProperty("art.username", taskUsername);
             p.setProperty("art.password", taskPassword);
@@ -95,14 +100,20 @@ public class PreTask implements TaskType {
             p.setProperty("art.url", taskUrl);
             p.setProperty("mvn.home", mavenHome);
             p.setProperty("ssl.trustAll", Boolean.toString(sslTrustAll));
+            p.setProperty("art.mirrors", taskMirrors);
 
             String[] arg = new String[]{localdir};
             PreApp.invoke(arg, p, logLine -> {
                 return log.addBuildLogEntry(logLine);
-            });
+            }, stats);
+            outcome = "success";
         } catch (Exception e) {
             logStackTrace(log, e);
             taskResultBuilder.failed();
+        } finally {
+            stats.finish(outcome);
+            log.addBuildLogEntry(stats.summary());
+            RunHistoryStore.record(taskContext, settings, stats, log);
         }
 
         return taskResultBuilder.build();
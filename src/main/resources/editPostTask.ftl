@@ -9,6 +9,7 @@
   [@ww.checkbox labelKey='push0ver.push.label' name='pushcheckbox' toggle='true'/]
   [@ww.checkbox labelKey='push0ver.checkbox.label' name='checkbox' toggle='true'/]
   [@ww.checkbox labelKey='push0ver.task.client' name='taskclient' toggle='true'/]
+  [@ww.checkbox labelKey='push0ver.task.http2' name='taskhttp2' toggle='true'/]
   <h2>Below only required if not using Defaults</h2>
   [@ww.textfield labelKey="push0ver.task.username" name="taskusername" required='false'/]
   [@ww.textfield labelKey="push0ver.task.password" name="taskpassword" required='false'/]
@@ -16,5 +17,6 @@
   [@ww.textfield labelKey="push0ver.task.releaserepo" name="taskreleaserepo" required='false'/]
   [@ww.textfield labelKey="push0ver.task.noderepo" name="tasknoderepo" required='false'/]
   [@ww.textfield labelKey="push0ver.task.snaprepo" name="tasksnaprepo" required='false'/]
+  [@ww.textfield labelKey="push0ver.task.mirrors" name="taskmirrors" required='false'/]
   </body>
 </html>
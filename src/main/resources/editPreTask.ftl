@@ -14,6 +14,7 @@
   [@ww.textfield labelKey="push0ver.task.url" name="taskurl" required='false'/]
   [@ww.textfield labelKey="push0ver.task.releaserepo" name="taskreleaserepo" required='false'/]
   [@ww.textfield labelKey="push0ver.task.noderepo" name="tasknoderepo" required='false'/]
+  [@ww.textfield labelKey="push0ver.task.mirrors" name="taskmirrors" required='false'/]
 
   </body>
 </html>
@@ -7,3 +7,5 @@
 [@ww.label labelKey="push0ver.task.url" name="taskurl"/]
 [@ww.label labelKey="push0ver.mvnhome" name="mavenhome"/]
 [@ww.label labelKey="push0ver.task.client" name="taskclient"/]
+[@ww.label labelKey="push0ver.task.http2" name="taskhttp2"/]
+[@ww.label labelKey="push0ver.task.mirrors" name="taskmirrors"/]
@@ -5,3 +5,4 @@
 [@ww.label labelKey="push0ver.task.noderepo" name="tasknoderepo"/]
 [@ww.label labelKey="push0ver.task.url" name="taskurl"/]
 [@ww.label labelKey="push0ver.task.client" name="allowAllConnect"/]
+[@ww.label labelKey="push0ver.task.mirrors" name="taskmirrors"/]
@@ -0,0 +1,91 @@
+package com.mergebase.push0ver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Throwaway git repositories for tests (a bare "remote" plus working clones).
+ */
+public class GitFixture {
+    public final File root;
+
+    public GitFixture() throws IOException {
+        root = Files.createTempDirectory("push0ver-git").toFile();
+    }
+
+    public String git(File dir, String... args) throws IOException {
+        return gitAt(dir, -1, args);
+    }
+
+    /**
+     * @param seconds author and committer date for any commit this makes (epoch seconds), or -1 for now.
+     */
+    public String gitAt(File dir, long seconds, String... args) throws IOException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add("git");
+        cmd.add("-c");
+        cmd.add("user.name=push0ver");
+        cmd.add("-c");
+        cmd.add("user.email=push0ver@example.com");
+        cmd.add("-c");
+        cmd.add("commit.gpgsign=false");
+        cmd.addAll(Arrays.asList(args));
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.directory(dir);
+        if (seconds >= 0) {
+            pb.environment().put("GIT_AUTHOR_DATE", seconds + " +0000");
+            pb.environment().put("GIT_COMMITTER_DATE", seconds + " +0000");
+        }
+        pb.redirectErrorStream(true);
+        Process p = pb.start();
+        InputThread out = new InputThread(p.getInputStream());
+        out.start();
+        try {
+            int exit = p.waitFor();
+            out.join();
+            if (exit != 0) {
+                throw new IOException("git " + Arrays.toString(args) + " failed: " + out.getOutput());
+            }
+        } catch (InterruptedException ie) {
+            throw new IOException(ie);
+        }
+        return out.getOutput();
+    }
+
+    public File bareRemote(String name) throws IOException {
+        File dir = new File(root, name);
+        git(root, "init", "-q", "--bare", dir.getName());
+        return dir;
+    }
+
+    public File cloneOf(File remote, String name, String... extraArgs) throws IOException {
+        List<String> args = new ArrayList<>(Arrays.asList("clone", "-q"));
+        args.addAll(Arrays.asList(extraArgs));
+        args.add(remote.getAbsolutePath());
+        args.add(name);
+        git(root, args.toArray(new String[args.size()]));
+        return new File(root, name);
+    }
+
+    public void commit(File dir, String file, String content) throws IOException {
+        commitAt(dir, file, content, -1);
+    }
+
+    public void commitAt(File dir, String file, String content, long seconds) throws IOException {
+        File f = new File(dir, file);
+        f.getParentFile().mkdirs();
+        Files.write(f.toPath(), content.getBytes("UTF-8"));
+        git(dir, "add", file);
+        gitAt(dir, seconds, "commit", "-q", "-m", "change " + file);
+    }
+
+    public void delete() throws IOException {
+        Files.walk(root.toPath()).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+}
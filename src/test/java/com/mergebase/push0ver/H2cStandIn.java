@@ -0,0 +1,246 @@
+package com.mergebase.push0ver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for Artifactory that speaks HTTP/1.1 (keep-alive) and h2c (HTTP/2 after an "Upgrade: h2c").
+ * <p>
+ * Just enough HTTP/2 for java.net.http.HttpClient:  request headers are never decoded (a stream that ends
+ * with its HEADERS is a GET, one that ends with DATA is a PUT), responses carry nothing but a :status, and
+ * every DATA frame is acknowledged with WINDOW_UPDATEs so uploads never stall.  Every response waits
+ * "latencyMillis" first, like a server across the network would.
+ */
+public class H2cStandIn implements Closeable {
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    private static final int DATA = 0, HEADERS = 1, SETTINGS = 4, PING = 6, GOAWAY = 7, WINDOW_UPDATE = 8;
+    private static final int END_STREAM = 0x1, ACK = 0x1, END_HEADERS = 0x4;
+
+    private final ServerSocket server;
+    private final ScheduledExecutorService delays = Executors.newScheduledThreadPool(4);
+    private final long latencyMillis;
+    volatile int getStatus = 404;
+    final AtomicInteger connections = new AtomicInteger();
+    final AtomicInteger h1Requests = new AtomicInteger();
+    final AtomicInteger h2Requests = new AtomicInteger();
+    final AtomicLong bytesReceived = new AtomicLong();
+
+    public H2cStandIn(long latencyMillis) throws IOException {
+        this.latencyMillis = latencyMillis;
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread("h2c-stand-in") {
+            public void run() {
+                while (!server.isClosed()) {
+                    try {
+                        final Socket s = server.accept();
+                        s.setTcpNoDelay(true);
+                        connections.incrementAndGet();
+                        Thread t = new Thread("h2c-stand-in-conn") {
+                            public void run() {
+                                serve(s);
+                            }
+                        };
+                        t.setDaemon(true);
+                        t.start();
+                    } catch (IOException ioe) {
+                        // closed
+                    }
+                }
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String url() {
+        return "http://127.0.0.1:" + server.getLocalPort() + "/";
+    }
+
+    public void close() throws IOException {
+        server.close();
+        delays.shutdownNow();
+    }
+
+    private void serve(Socket s) {
+        try {
+            InputStream in = new BufferedInputStream(s.getInputStream(), 64 * 1024);
+            OutputStream out = new BufferedOutputStream(s.getOutputStream(), 64 * 1024);
+            String line;
+            while ((line = readLine(in)) != null) {
+                String verb = line.split(" ")[0];
+                long length = 0;
+                boolean upgrade = false;
+                while (!"".equals(line = readLine(in)) && line != null) {
+                    String lower = line.toLowerCase(Locale.ENGLISH);
+                    if (lower.startsWith("content-length:")) {
+                        length = Long.parseLong(lower.substring(15).trim());
+                    } else if (lower.startsWith("upgrade:") && lower.contains("h2c")) {
+                        upgrade = true;
+                    }
+                }
+                skip(in, length);
+                bytesReceived.addAndGet(length);
+                int status = "PUT".equals(verb) ? 201 : getStatus;
+                if (upgrade) {
+                    out.write("HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n"
+                            .getBytes(StandardCharsets.ISO_8859_1));
+                    http2(in, out, status);
+                    return;
+                }
+                sleep(latencyMillis);
+                h1Requests.incrementAndGet();
+                out.write(("HTTP/1.1 " + status + " OK\r\nContent-Length: 0\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+            }
+        } catch (IOException ioe) {
+            // client went away
+        } finally {
+            Finally.close(s);
+        }
+    }
+
+    private void http2(InputStream in, final OutputStream out, int firstStatus) throws IOException {
+        frame(out, SETTINGS, 0, 0, new byte[0]);
+        byte[] preface = new byte[PREFACE.length];
+        new DataInputStream(in).readFully(preface);
+        if (!Arrays.equals(PREFACE, preface)) {
+            throw new IOException("Bad HTTP/2 preface");
+        }
+        respond(out, 1, firstStatus);
+
+        DataInputStream data = new DataInputStream(in);
+        byte[] header = new byte[9];
+        while (true) {
+            try {
+                data.readFully(header);
+            } catch (EOFException eof) {
+                return;
+            }
+            int length = ((header[0] & 0xFF) << 16) | ((header[1] & 0xFF) << 8) | (header[2] & 0xFF);
+            int type = header[3];
+            int flags = header[4];
+            int stream = (((header[5] & 0x7F) << 24) | ((header[6] & 0xFF) << 16) | ((header[7] & 0xFF) << 8) | (header[8] & 0xFF));
+            byte[] payload = new byte[length];
+            data.readFully(payload);
+
+            if (type == DATA) {
+                bytesReceived.addAndGet(length);
+                if (length > 0) {
+                    frame(out, WINDOW_UPDATE, 0, 0, int32(length));
+                    frame(out, WINDOW_UPDATE, 0, stream, int32(length));
+                }
+                if ((flags & END_STREAM) != 0) {
+                    respond(out, stream, 201);
+                }
+            } else if (type == HEADERS && (flags & END_STREAM) != 0) {
+                respond(out, stream, getStatus);
+            } else if (type == SETTINGS && (flags & ACK) == 0) {
+                frame(out, SETTINGS, ACK, 0, new byte[0]);
+            } else if (type == PING && (flags & ACK) == 0) {
+                frame(out, PING, ACK, 0, payload);
+            } else if (type == GOAWAY) {
+                return;
+            }
+        }
+    }
+
+    private void respond(final OutputStream out, final int stream, final int status) {
+        delays.schedule(new Runnable() {
+            public void run() {
+                try {
+                    h2Requests.incrementAndGet();
+                    frame(out, HEADERS, END_STREAM | END_HEADERS, stream, hpackStatus(status));
+                } catch (IOException ioe) {
+                    // client went away
+                }
+            }
+        }, latencyMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * ":status" from the HPACK static table (200, 204, 206, 304, 400, 404, 500), else as a literal.
+     */
+    private static byte[] hpackStatus(int status) {
+        int[] indexed = {200, 204, 206, 304, 400, 404, 500};
+        for (int i = 0; i < indexed.length; i++) {
+            if (indexed[i] == status) {
+                return new byte[]{(byte) (0x80 | (8 + i))};
+            }
+        }
+        byte[] digits = Integer.toString(status).getBytes(StandardCharsets.ISO_8859_1);
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        b.write(0x08);  // literal without indexing, name = static entry 8 (":status")
+        b.write(digits.length);
+        b.write(digits, 0, digits.length);
+        return b.toByteArray();
+    }
+
+    private static void frame(OutputStream out, int type, int flags, int stream, byte[] payload) throws IOException {
+        synchronized (out) {
+            out.write(payload.length >>> 16);
+            out.write(payload.length >>> 8);
+            out.write(payload.length);
+            out.write(type);
+            out.write(flags);
+            out.write(int32(stream));
+            out.write(payload);
+            out.flush();
+        }
+    }
+
+    private static byte[] int32(int i) {
+        return new byte[]{(byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i};
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder buf = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                int len = buf.length();
+                return len > 0 && buf.charAt(len - 1) == '\r' ? buf.substring(0, len - 1) : buf.toString();
+            }
+            buf.append((char) c);
+        }
+        return buf.length() > 0 ? buf.toString() : null;
+    }
+
+    private static void skip(InputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
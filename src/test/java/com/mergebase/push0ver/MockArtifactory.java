@@ -0,0 +1,332 @@
+package com.mergebase.push0ver;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Just enough Artifactory for a full pre + post release:  deploy (PUT any path), download / existence checks
+ * (GET a file or a folder), "api/storage" file info, and npm publish ("PUT api/npm/{repo}/{package}" with the
+ * tarball as a base64 attachment, which then shows up at "api/npm/{repo}/{package}/-/{file}.tgz"), and DELETE
+ * of a file or folder.
+ * <p>
+ * Every request waits "latencyMillis" first.  Request and response bodies share one simulated link of
+ * "bytesPerSecond" (0:  unlimited), so concurrent uploads split the bandwidth like they would on a real
+ * network.  Only small files (checksums) keep their content;  everything else is stored as its size (and
+ * downloads as that many zeros).  With {@link #requireAuth} set, any other Authorization gets a 401.
+ */
+public class MockArtifactory implements Closeable {
+    private static final int KEEP_CONTENT = 1024;
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final long latencyMillis;
+    private final long bytesPerSecond;
+    private final Map<String, byte[]> small = new ConcurrentSkipListMap<>();
+    private final Map<String, Long> sizes = new ConcurrentSkipListMap<>();
+    private long linkFreeAtNanos;
+    private volatile String auth;
+    private volatile String failPuts;
+    private volatile String redirectGets;
+
+    final AtomicInteger gets = new AtomicInteger();
+    final AtomicInteger puts = new AtomicInteger();
+    final AtomicInteger deletes = new AtomicInteger();
+    final AtomicInteger npmPublishes = new AtomicInteger();
+    final AtomicInteger logins = new AtomicInteger();
+    final AtomicLong bytesReceived = new AtomicLong();
+
+    public MockArtifactory(long latencyMillis, long bytesPerSecond) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.bytesPerSecond = bytesPerSecond;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 64);
+        server.setExecutor(executor);
+        server.createContext("/", exchange -> {
+            try {
+                handle(exchange);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * @return e.g., "http://127.0.0.1:4567/artifactory/"
+     */
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/artifactory/";
+    }
+
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @param basicAuth the only Authorization header accepted from now on (null:  anything goes).
+     */
+    public void requireAuth(String basicAuth) {
+        this.auth = basicAuth;
+    }
+
+    /**
+     * @param prefix PUTs to paths under it (relative to {@link #url()}) get a 500 from now on (null:  none do).
+     */
+    public void failPuts(String prefix) {
+        this.failPuts = prefix;
+    }
+
+    /**
+     * @param prefix GETs of paths under it (relative to {@link #url()}) get a 302 to a login page (always a 200)
+     *               from now on, like behind an SSO proxy (null:  none do).
+     */
+    public void redirectGets(String prefix) {
+        this.redirectGets = prefix;
+    }
+
+    /**
+     * @return stored paths (relative to {@link #url()}) and their sizes.
+     */
+    public Map<String, Long> getStored() {
+        return sizes;
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        sleep(latencyMillis);
+        String path = ex.getRequestURI().getRawPath();
+        if ("/login".equals(path)) {
+            logins.incrementAndGet();
+            respond(ex, 200, "<html><body>Log in</body></html>".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        if (!path.startsWith("/artifactory/")) {
+            error(ex, 404, "Not Found");
+            return;
+        }
+        path = path.substring("/artifactory/".length());
+        String method = ex.getRequestMethod();
+        String a = auth;
+        if (a != null && !a.equals(ex.getRequestHeaders().getFirst("Authorization"))) {
+            readBody(ex.getRequestBody(), Integer.MAX_VALUE);
+            error(ex, 401, "Bad credentials");
+            return;
+        }
+        if ("PUT".equals(method)) {
+            puts.incrementAndGet();
+            String fail = failPuts;
+            if (fail != null && path.startsWith(fail)) {
+                readBody(ex.getRequestBody(), Integer.MAX_VALUE);
+                error(ex, 500, "Internal Server Error");
+                return;
+            }
+            if (path.startsWith("api/npm/")) {
+                npmPublish(path, readBody(ex.getRequestBody(), Integer.MAX_VALUE));
+            } else {
+                ByteArrayOutputStream keep = new ByteArrayOutputStream();
+                long size = receive(ex.getRequestBody(), keep);
+                sizes.put(path, size);
+                if (size <= KEEP_CONTENT) {
+                    small.put(path, keep.toByteArray());
+                }
+            }
+            respond(ex, 201, ("{\"uri\":\"" + url() + path + "\"}").getBytes(StandardCharsets.UTF_8));
+        } else if ("GET".equals(method) || "HEAD".equals(method)) {
+            gets.incrementAndGet();
+            String redirect = redirectGets;
+            if (redirect != null && path.startsWith(redirect)) {
+                ex.getResponseHeaders().set("Location", "http://127.0.0.1:" + server.getAddress().getPort() + "/login");
+                respond(ex, 302, new byte[0]);
+                return;
+            }
+            if (path.startsWith("api/storage/")) {
+                storage(ex, path.substring("api/storage/".length()));
+                return;
+            }
+            Long size = sizes.get(path);
+            if (size != null) {
+                // Big files are only a size here.
+                byte[] body = small.get(path);
+                if (body != null) {
+                    respond(ex, 200, body);
+                } else {
+                    respondZeros(ex, size);
+                }
+            } else if (isFolder(path)) {
+                respond(ex, 200, ("<html><body>" + path + "</body></html>").getBytes(StandardCharsets.UTF_8));
+            } else {
+                error(ex, 404, "Not Found");
+            }
+        } else if ("DELETE".equals(method)) {
+            deletes.incrementAndGet();
+            String prefix = path.endsWith("/") ? path : path + "/";
+            boolean found = sizes.remove(path) != null;
+            for (String key : ((ConcurrentSkipListMap<String, Long>) sizes).tailMap(prefix).keySet()) {
+                if (!key.startsWith(prefix)) {
+                    break;
+                }
+                sizes.remove(key);
+                small.remove(key);
+                found = true;
+            }
+            small.remove(path);
+            if (found) {
+                respond(ex, 204, new byte[0]);
+            } else {
+                error(ex, 404, "Could not locate artifact");
+            }
+        } else {
+            error(ex, 405, "Method Not Allowed");
+        }
+    }
+
+    private boolean isFolder(String path) {
+        String prefix = path.endsWith("/") ? path : path + "/";
+        String next = ((ConcurrentSkipListMap<String, Long>) sizes).ceilingKey(prefix);
+        return next != null && next.startsWith(prefix);
+    }
+
+    private void storage(HttpExchange ex, String path) throws IOException {
+        Long size = sizes.get(path);
+        // A bare repository key is always there (it may just be empty).
+        if (size == null && path.indexOf('/') >= 0 && !isFolder(path)) {
+            error(ex, 404, "Unable to find item");
+            return;
+        }
+        JsonObject info = new JsonObject();
+        int slash = path.indexOf('/');
+        info.addProperty("repo", slash > 0 ? path.substring(0, slash) : path);
+        info.addProperty("path", slash > 0 ? path.substring(slash) : "/");
+        if (size != null) {
+            info.addProperty("size", Long.toString(size));
+            byte[] sha1 = small.get(path + ".sha1");
+            if (sha1 != null) {
+                JsonObject checksums = new JsonObject();
+                checksums.addProperty("sha1", new String(sha1, StandardCharsets.UTF_8).trim());
+                info.add("checksums", checksums);
+            }
+        }
+        respond(ex, 200, info.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Stores each attachment of the packument where npm would later download it from.
+     */
+    private void npmPublish(String path, byte[] body) {
+        npmPublishes.incrementAndGet();
+        JsonObject packument = new JsonParser().parse(new String(body, StandardCharsets.UTF_8)).getAsJsonObject();
+        JsonObject attachments = packument.getAsJsonObject("_attachments");
+        if (attachments == null) {
+            return;
+        }
+        for (Map.Entry<String, JsonElement> e : attachments.entrySet()) {
+            JsonObject a = e.getValue().getAsJsonObject();
+            long length = a.has("length") ? a.get("length").getAsLong() : a.get("data").getAsString().length() * 3 / 4;
+            sizes.put(path + "/-/" + e.getKey(), length);
+        }
+    }
+
+    /**
+     * Always with a body:  the JDK's HttpServer drops a kept-alive connection after a body-less GET response.
+     */
+    private void error(HttpExchange ex, int status, String message) throws IOException {
+        respond(ex, status, ("{\"errors\":[{\"status\":" + status + ",\"message\":\"" + message + "\"}]}")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void respond(HttpExchange ex, int status, byte[] body) throws IOException {
+        boolean head = "HEAD".equals(ex.getRequestMethod());
+        ex.sendResponseHeaders(status, body.length == 0 || head ? -1 : body.length);
+        if (body.length > 0 && !head) {
+            OutputStream out = ex.getResponseBody();
+            transfer(body.length);
+            out.write(body);
+            out.close();
+        }
+    }
+
+    private void respondZeros(HttpExchange ex, long size) throws IOException {
+        boolean head = "HEAD".equals(ex.getRequestMethod());
+        ex.sendResponseHeaders(200, head || size == 0 ? -1 : size);
+        if (!head) {
+            OutputStream out = ex.getResponseBody();
+            byte[] buf = new byte[64 * 1024];
+            for (long left = size; left > 0; left -= buf.length) {
+                int n = (int) Math.min(left, buf.length);
+                transfer(n);
+                out.write(buf, 0, n);
+            }
+            out.close();
+        }
+    }
+
+    private long receive(InputStream in, ByteArrayOutputStream keep) throws IOException {
+        byte[] buf = new byte[64 * 1024];
+        long total = 0;
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            transfer(n);
+            if (total + n <= KEEP_CONTENT) {
+                keep.write(buf, 0, n);
+            }
+            total += n;
+        }
+        bytesReceived.addAndGet(total);
+        return total;
+    }
+
+    private byte[] readBody(InputStream in, int max) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buf)) >= 0 && out.size() < max) {
+            transfer(n);
+            out.write(buf, 0, n);
+        }
+        bytesReceived.addAndGet(out.size());
+        return out.toByteArray();
+    }
+
+    /**
+     * Waits until "bytes" have gone through the shared link.
+     */
+    private void transfer(long bytes) {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+        long doneAt;
+        synchronized (this) {
+            long now = System.nanoTime();
+            linkFreeAtNanos = Math.max(now, linkFreeAtNanos) + bytes * 1000000000L / bytesPerSecond;
+            doneAt = linkFreeAtNanos;
+        }
+        sleep((doneAt - System.nanoTime()) / 1000000);
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
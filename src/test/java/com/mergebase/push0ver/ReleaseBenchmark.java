@@ -0,0 +1,294 @@
+package com.mergebase.push0ver;
+
+import com.mergebase.push0ver.pre.PreApp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A whole release, pre task then post task, against a {@link MockArtifactory}:  a synthetic Maven reactor
+ * (optionally also an npm package) on top of a synthetic, already tagged git history, tagged and pushed to a
+ * bare "origin".
+ * <p>
+ * There is no real Maven here.  "mvn dependency:tree" is a script that prints the reactor's modules, and the
+ * build between the two tasks is simulated by writing each module's jars and pom straight into a private
+ * ~/.m2 (user.home points elsewhere while the benchmark runs).
+ * <p>
+ * Usage:  ReleaseBenchmark [key=value ...], keys (defaults):  modules (10), artifacts (3) jars per module,
+ * artifactBytes (1000000), files (50) source files per module, fileBytes (4000), density (0.2) share of
+ * source files holding the sentinel, commits (2000, at least 20) of {@link TagHistory}, latencyMillis (5),
+ * bandwidth (0 = unlimited) in bytes/second, npm (true), http2 (false), rounds (1), trace (none) a directory
+ * to write "trace-pre.json" and "trace-post.json" into (see {@link Trace}).
+ */
+public class ReleaseBenchmark {
+    // Keep the sentinel out of this file's source and bytecode.
+    private static final String SENTINEL = "0".substring(0, 1) + ".0.0-PUSH0VER";
+    static final String VERSION = "1.2.3";
+    static final String GROUP = "com.example.bench";
+
+    private final Map<String, String> settings = new LinkedHashMap<>();
+    private GitFixture fx;
+    private File workspace;
+    private File home;
+    private File mvnHome;
+
+    RunStats pre;
+    RunStats post;
+    long preMillis;
+    long postMillis;
+    long buildMillis;
+    File preTrace;
+    File postTrace;
+    final StringBuffer log = new StringBuffer();
+
+    ReleaseBenchmark(String... args) {
+        settings.put("modules", "10");
+        settings.put("artifacts", "3");
+        settings.put("artifactBytes", "1000000");
+        settings.put("files", "50");
+        settings.put("fileBytes", "4000");
+        settings.put("density", "0.2");
+        settings.put("commits", "2000");
+        settings.put("latencyMillis", "5");
+        settings.put("bandwidth", "0");
+        settings.put("npm", "true");
+        settings.put("http2", "false");
+        settings.put("rounds", "1");
+        settings.put("trace", "");
+        settings.put("mirrors", "");
+        for (String arg : args) {
+            int x = arg.indexOf('=');
+            if (x < 0 || !settings.containsKey(arg.substring(0, x))) {
+                throw new IllegalArgumentException("Unknown setting [" + arg + "], expected one of " + settings.keySet());
+            }
+            settings.put(arg.substring(0, x), arg.substring(x + 1));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        ReleaseBenchmark b = new ReleaseBenchmark(args);
+        System.out.println("settings: " + b.settings);
+        for (int round = 0; round < b.integer("rounds"); round++) {
+            b.setUp();
+            MockArtifactory art = new MockArtifactory(b.integer("latencyMillis"), b.integer("bandwidth"));
+            try {
+                b.run(art);
+                System.out.println(b.report(round, art));
+            } finally {
+                art.close();
+                b.tearDown();
+            }
+        }
+    }
+
+    private int integer(String key) {
+        return Integer.parseInt(settings.get(key));
+    }
+
+    static String module(int m) {
+        return "m" + m;
+    }
+
+    /**
+     * Generates the history, the reactor and the fake mvn;  none of this is timed.
+     */
+    void setUp() throws IOException {
+        fx = new GitFixture();
+        home = new File(fx.root, "home");
+        mvnHome = new File(fx.root, "maven");
+        Random random = new Random(45);
+        File remote = fx.bareRemote("origin.git");
+        File upstream = new File(fx.root, "upstream");
+        new TagHistory(integer("commits"), 45, TagHistory.Scenario.SNAPSHOT_AFTER_RELEASE).writeTo(upstream);
+
+        int modules = integer("modules");
+        int files = integer("files");
+        int fileBytes = integer("fileBytes");
+        double density = Double.parseDouble(settings.get("density"));
+        StringBuilder pom = new StringBuilder("<project>\n  <groupId>" + GROUP + "</groupId>\n  <artifactId>parent</artifactId>\n"
+                + "  <version>" + SENTINEL + "</version>\n  <modules>\n");
+        StringBuilder tree = new StringBuilder("[INFO] Scanning for projects...\n");
+        for (int m = 0; m < modules; m++) {
+            pom.append("    <module>").append(module(m)).append("</module>\n");
+            tree.append("[INFO] --- maven-dependency-plugin:3.6.1:tree (default-cli) @ ").append(module(m)).append(" ---\n");
+            tree.append("[INFO] ").append(GROUP).append(':').append(module(m)).append(":jar:").append(VERSION).append('\n');
+            tree.append("[INFO] \\- junit:junit:jar:4.13.2:test\n");
+            File dir = new File(upstream, module(m));
+            write(new File(dir, "pom.xml"), "<project><artifactId>" + module(m) + "</artifactId><parent><version>"
+                    + SENTINEL + "</version></parent></project>\n");
+            for (int i = 0; i < files; i++) {
+                boolean withSentinel = random.nextDouble() < density;
+                write(new File(dir, "src/main/java/bench/C" + i + ".java"), source(m, i, fileBytes, withSentinel, random));
+            }
+        }
+        write(new File(upstream, "pom.xml"), pom.append("  </modules>\n</project>\n").toString());
+        if (Boolean.parseBoolean(settings.get("npm"))) {
+            write(new File(upstream, "package.json"), "{\"name\":\"bench-ui\",\"version\":\"" + SENTINEL
+                    + "\",\"files\":[\"index.js\"]}");
+            write(new File(upstream, "index.js"), "module.exports = '" + SENTINEL + "';\n");
+        }
+        tree.append("[INFO] BUILD SUCCESS\n");
+        fx.git(upstream, "add", "-A");
+        fx.git(upstream, "commit", "-q", "-m", "reactor");
+        fx.git(upstream, "tag", VERSION);
+        fx.git(upstream, "push", "-q", remote.getAbsolutePath(), "HEAD:refs/heads/master", "--tags");
+        workspace = fx.cloneOf(remote, "agent", "--no-tags", "--branch", "master");
+
+        write(new File(mvnHome, "tree.txt"), tree.toString());
+        File mvn = new File(mvnHome, "bin/mvn");
+        write(mvn, "#!/bin/sh\ncat \"$(dirname \"$0\")/../tree.txt\"\n");
+        mvn.setExecutable(true);
+    }
+
+    /**
+     * Back to the checkout (as a fresh build of the same commit would see it).
+     */
+    void resetWorkspace() throws IOException {
+        fx.git(workspace, "reset", "-q", "--hard");
+    }
+
+    void tearDown() throws IOException {
+        if (fx != null) {
+            fx.delete();
+        }
+    }
+
+    /**
+     * Pre task, simulated build, post task (with push).
+     */
+    void run(MockArtifactory art) throws Exception {
+        Properties p = new Properties();
+        p.setProperty("repo.name", "libs-release-local");
+        p.setProperty("noderepo.name", "npm-local");
+        p.setProperty("art.url", art.url());
+        p.setProperty("art.username", "u");
+        p.setProperty("art.password", "p");
+        p.setProperty("mvn.home", mvnHome.getAbsolutePath());
+        p.setProperty("http2", settings.get("http2"));
+        p.setProperty("art.mirrors", settings.get("mirrors"));
+        boolean trace = !"".equals(settings.get("trace"));
+        preTrace = trace ? new File(settings.get("trace"), "trace-pre.json").getAbsoluteFile() : null;
+        postTrace = trace ? new File(settings.get("trace"), "trace-post.json").getAbsoluteFile() : null;
+        MyLogger logger = line -> {
+            log.append(line).append('\n');
+            return line;
+        };
+
+        String userHome = System.getProperty("user.home");
+        System.setProperty("user.home", home.getAbsolutePath());
+        try {
+            if (trace) {
+                p.setProperty("trace.file", preTrace.getPath());
+            }
+            pre = new RunStats("pre");
+            long start = System.nanoTime();
+            PreApp.invoke(new String[]{workspace.getAbsolutePath()}, p, logger, pre);
+            pre.finish("success");
+            preMillis = (System.nanoTime() - start) / 1000000;
+
+            start = System.nanoTime();
+            build();
+            buildMillis = (System.nanoTime() - start) / 1000000;
+
+            if (trace) {
+                p.setProperty("trace.file", postTrace.getPath());
+            }
+            post = new RunStats("post");
+            start = System.nanoTime();
+            App.invoke(new String[]{workspace.getAbsolutePath(), "push"}, p, logger, post);
+            post.finish("success");
+            postMillis = (System.nanoTime() - start) / 1000000;
+        } finally {
+            System.setProperty("user.home", userHome);
+        }
+    }
+
+    /**
+     * What "mvn install" would have left in ~/.m2:  per module a pom and "artifacts" jars (main jar, then
+     * classifiers), each with its pom.properties and an incompressible payload of "artifactBytes".
+     */
+    private void build() throws IOException {
+        Random random = new Random(46);
+        byte[] payload = new byte[integer("artifactBytes")];
+        for (int m = 0; m < integer("modules"); m++) {
+            String a = module(m);
+            File dir = new File(home, ".m2/repository/" + GROUP.replace('.', '/') + "/" + a + "/" + VERSION);
+            dir.mkdirs();
+            write(new File(dir, a + "-" + VERSION + ".pom"), "<project><groupId>" + GROUP + "</groupId><artifactId>"
+                    + a + "</artifactId><version>" + VERSION + "</version></project>\n");
+            for (int i = 0; i < integer("artifacts"); i++) {
+                random.nextBytes(payload);
+                String name = a + "-" + VERSION + (i == 0 ? "" : "-c" + i) + ".jar";
+                jar(new File(dir, name), a, payload);
+            }
+        }
+    }
+
+    private static void jar(File f, String artifactId, byte[] payload) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(f));
+        try {
+            zip.putNextEntry(new ZipEntry("META-INF/maven/" + GROUP + "/" + artifactId + "/pom.properties"));
+            zip.write(("groupId=" + GROUP + "\nartifactId=" + artifactId + "\nversion=" + VERSION + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+            ZipEntry data = new ZipEntry("bench/payload.bin");
+            data.setMethod(ZipEntry.STORED);
+            data.setSize(payload.length);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            data.setCrc(crc.getValue());
+            zip.putNextEntry(data);
+            zip.write(payload);
+            zip.closeEntry();
+        } finally {
+            zip.close();
+        }
+    }
+
+    String report(int round, MockArtifactory art) {
+        StringBuilder buf = new StringBuilder();
+        buf.append(String.format("round %d  pre %6d ms  %s%n", round, preMillis, phases(pre)));
+        buf.append(String.format("round %d  build (simulated) %d ms%n", round, buildMillis));
+        buf.append(String.format("round %d  post %6d ms  %s%n", round, postMillis, phases(post)));
+        double mb = art.bytesReceived.get() / (1024.0 * 1024.0);
+        buf.append(String.format("round %d  %d PUTs (%d npm), %d GETs, %.1f MB received:  %.1f MB/s over the post task"
+                        + ", %.1f MB/s per upload, %.0f files scanned/s%n",
+                round, art.puts.get(), art.npmPublishes.get(), art.gets.get(), mb,
+                mb / Math.max(postMillis / 1000.0, 0.001), post.getUploadMBps(), pre.getFilesScannedPerSecond()));
+        return buf.toString();
+    }
+
+    private static String phases(RunStats stats) {
+        StringBuilder buf = new StringBuilder();
+        for (Map.Entry<String, Long> e : stats.getPhaseMillis().entrySet()) {
+            buf.append(e.getKey()).append('=').append(e.getValue()).append("ms ");
+        }
+        return buf.toString().trim();
+    }
+
+    private static String source(int module, int i, int bytes, boolean withSentinel, Random random) {
+        StringBuilder buf = new StringBuilder("package bench;\n\npublic class C" + i + " {\n");
+        if (withSentinel) {
+            buf.append("    public static final String VERSION = \"").append(SENTINEL).append("\";\n");
+        }
+        while (buf.length() < bytes) {
+            buf.append("    int f").append(module).append('_').append(random.nextInt(1000000)).append(";\n");
+        }
+        return buf.append("}\n").toString();
+    }
+
+    private static void write(File f, String content) throws IOException {
+        f.getParentFile().mkdirs();
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
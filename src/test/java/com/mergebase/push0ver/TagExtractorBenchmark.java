@@ -0,0 +1,142 @@
+package com.mergebase.push0ver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Latency and memory of tag resolution on {@link TagHistory} repositories, per history length and scenario:
+ * <ul>
+ * <li>parse:  {@link TagExtractor#extractTag} over the generated decoration stream (no git at all)</li>
+ * <li>git-log:  the same over "git log --pretty=%d --first-parent" (the fallback path)</li>
+ * <li>cold:  {@link TagExtractor#getTag} with no saved tag index and no commit-graph</li>
+ * <li>warm:  getTag with the tag index already saved</li>
+ * <li>graph:  getTag with the tag index and a commit-graph</li>
+ * </ul>
+ * Times are medians;  "alloc" is what the calling thread allocated (git's own memory is not counted).
+ * <p>
+ * Usage:  TagExtractorBenchmark [commits,...] [scenario,...] [repetitions], defaults
+ * "1000,10000,100000" "RELEASE_ON_HEAD,STALE_RELEASE,DEEP_SNAPSHOT" 5.
+ */
+public class TagExtractorBenchmark {
+
+    interface Resolve {
+        Map<String, Tag> run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] sizes = (args.length > 0 ? args[0] : "1000,10000,100000").split(",");
+        String[] scenarios = (args.length > 1 ? args[1] : "RELEASE_ON_HEAD,STALE_RELEASE,DEEP_SNAPSHOT").split(",");
+        int reps = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        System.out.printf("%-8s %-16s %-8s %6s %10s %12s  %s%n", "commits", "scenario", "path", "tags", "median ms",
+                "alloc KB", "result");
+        for (String size : sizes) {
+            for (String s : scenarios) {
+                final TagHistory history = new TagHistory(Integer.parseInt(size.trim()), 46,
+                        TagHistory.Scenario.valueOf(s.trim()));
+                File root = Files.createTempDirectory("push0ver-tags").toFile();
+                try {
+                    final File repo = new File(root, "repo");
+                    history.writeTo(repo);
+                    final String path = repo.getAbsolutePath();
+                    final File index = new File(repo, ".git/" + TagIndex.INDEX_FILE);
+
+                    measure(history, "parse", reps, () -> extract(history.decorations()));
+                    measure(history, "git-log", reps, () -> {
+                        Process p = new ProcessBuilder("git", "--no-pager", "log", "--pretty=%d", "--first-parent")
+                                .directory(repo).start();
+                        try {
+                            return extract(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8));
+                        } finally {
+                            Finally.close(p);
+                        }
+                    });
+                    measure(history, "cold", reps, () -> {
+                        index.delete();
+                        return getTag(path);
+                    });
+                    measure(history, "warm", reps, () -> getTag(path));
+                    git(repo, "commit-graph", "write", "--reachable");
+                    measure(history, "graph", reps, () -> getTag(path));
+                } finally {
+                    delete(root);
+                }
+            }
+        }
+    }
+
+    private static Map<String, Tag> extract(Reader r) {
+        Map<String, Tag> tags = TagExtractor.extractTag(".", r, false, null, new String[1], "master");
+        TagExtractor.validateAndCleanTags(tags);
+        return tags;
+    }
+
+    private static Map<String, Tag> getTag(String path) {
+        return TagExtractor.getTag(path, path, false, null, new String[1]);
+    }
+
+    private static void measure(TagHistory history, String name, int reps, Resolve resolve) throws Exception {
+        long[] nanos = new long[reps];
+        long[] bytes = new long[reps];
+        String result = null;
+        for (int i = 0; i < reps; i++) {
+            long allocated = allocated();
+            long start = System.nanoTime();
+            Map<String, Tag> tags;
+            try {
+                tags = resolve.run();
+                result = String.valueOf(tags);
+            } catch (IllegalArgumentException iae) {
+                result = iae.getMessage();
+            }
+            nanos[i] = System.nanoTime() - start;
+            bytes[i] = allocated() - allocated;
+        }
+        Arrays.sort(nanos);
+        Arrays.sort(bytes);
+        System.out.printf("%-8d %-16s %-8s %6d %10.1f %12d  %s%n", history.commits, history.scenario, name,
+                history.getTagCount(), nanos[reps / 2] / 1000000.0, bytes[reps / 2] / 1024, result);
+    }
+
+    /**
+     * @return bytes allocated by this thread so far, or 0 if the JVM can't tell.
+     */
+    private static long allocated() {
+        java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (mx instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static void git(File dir, String... args) throws IOException, InterruptedException {
+        String[] cmd = new String[args.length + 1];
+        cmd[0] = "git";
+        System.arraycopy(args, 0, cmd, 1, args.length);
+        Process p = new ProcessBuilder(cmd).directory(dir).redirectErrorStream(true).start();
+        InputThread out = new InputThread(p.getInputStream());
+        out.start();
+        if (p.waitFor() != 0) {
+            out.join();
+            throw new IOException(Arrays.toString(cmd) + " failed: " + out.getOutput());
+        }
+        out.join();
+    }
+
+    private static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                delete(c);
+            }
+        }
+        f.delete();
+    }
+}
@@ -137,6 +137,25 @@ public class TagExtractorTest {
         Assert.assertNull(TagExtractor.extractTagTestLogic(r));
     }
 
+    @Test
+    public void testDecorationParser() {
+        DecorationParser p = new DecorationParser(".", null);
+        p.parse(" (HEAD -> master, origin/master, tag: 1.9, tag: 1.11, tag: api/2.0-SNAPSHOT, tag: api/2.1-SNAPSHOT, tag: x)");
+        Assert.assertEquals("1.11", p.release().get("").toString());
+        Assert.assertEquals(1, p.release().size());
+        Assert.assertEquals("/api/2.1-SNAPSHOT", p.snapshot().get("/api").toString());
+        Tag parsed = p.release().get("");
+
+        p.parse("");
+        Assert.assertNull(p.release());
+        Assert.assertNull(p.snapshot());
+
+        // Same name on a later line is the same Tag, not a fresh parse.
+        p.parse(" (tag: 1.11)");
+        Assert.assertSame(parsed, p.release().get(""));
+        Assert.assertNull(p.snapshot());
+    }
+
     public static void main(String[] args) {
         TagExtractorTest t = new TagExtractorTest();
 
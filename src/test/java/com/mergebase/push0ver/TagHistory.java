@@ -0,0 +1,284 @@
+package com.mergebase.push0ver;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Reproducible first-parent histories for tag resolution:  the same history can be read as
+ * "git log --pretty=%d --first-parent" lines ({@link #decorations()}), or written into a real repository
+ * with git fast-import ({@link #writeTo(File)}).
+ * <p>
+ * Older commits carry background tags every few dozen commits:  ascending releases, a SNAPSHOT now and then,
+ * directory-scoped tags, and tags push0ver must ignore.  The newest commits are shaped by the {@link Scenario},
+ * which decides what {@link TagExtractor} should find.
+ */
+public class TagHistory {
+
+    enum Scenario {
+        /**
+         * No background tags at all (a plain history to build on).
+         */
+        UNTAGGED,
+        /**
+         * HEAD has "9.0.0" (plus a smaller release and an invalid tag):  "9.0.0".
+         */
+        RELEASE_ON_HEAD,
+        /**
+         * HEAD has "9.1.0" and "9.1.1-SNAPSHOT":  the release, or the SNAPSHOT if the release already exists.
+         */
+        RELEASE_AND_SNAPSHOT_ON_HEAD,
+        /**
+         * "9.2.0-SNAPSHOT" three commits back, after release "9.1.0":  the SNAPSHOT.
+         */
+        SNAPSHOT_AFTER_RELEASE,
+        /**
+         * Release "9.3.0" a tenth of the history back, with only invalid tags since:  nothing (stale).
+         */
+        STALE_RELEASE,
+        /**
+         * HEAD has "api/9.4.0", "api/v2/9.4.0" and "web/9.5.0":  "/api" and "/web" (the child agrees with its parent).
+         */
+        DIRECTORIES,
+        /**
+         * HEAD has "lib/9.6.0" and "lib/core/9.7.0":  an incompatible parent/child combo.
+         */
+        PARENT_CHILD_CONFLICT,
+        /**
+         * Only invalid tags in the whole history, and "0.1.0-SNAPSHOT" on the very first commit:  found after
+         * walking everything (the worst case).
+         */
+        DEEP_SNAPSHOT
+    }
+
+    private static final String[] INVALID = {"build-", "latest-", "release/candidate-", "nightly."};
+
+    final int commits;
+    final Scenario scenario;
+    private final String[][] tags;
+    private final Set<String> names = new HashSet<>();
+
+    /**
+     * @param commits length of first-parent history (at least 20)
+     * @param seed    same seed, same history
+     */
+    TagHistory(int commits, long seed, Scenario scenario) {
+        if (commits < 20) {
+            throw new IllegalArgumentException("need at least 20 commits, not " + commits);
+        }
+        this.commits = commits;
+        this.scenario = scenario;
+        this.tags = new String[commits][];
+        if (scenario == Scenario.UNTAGGED) {
+            return;
+        }
+
+        Random random = new Random(seed);
+        int newest = commits - 1;
+        int backgroundEnd = newest - Math.max(12, staleCommits());
+        int release = 0;
+        for (int c = 1 + random.nextInt(30); c < backgroundEnd; c += 10 + random.nextInt(40)) {
+            List<String> batch = new ArrayList<>();
+            int kind = random.nextInt(10);
+            if (scenario == Scenario.DEEP_SNAPSHOT || kind == 0) {
+                batch.add(INVALID[random.nextInt(INVALID.length)] + c);
+            } else if (kind == 1) {
+                batch.add(version(release) + "-SNAPSHOT");
+            } else if (kind == 2) {
+                batch.add((random.nextBoolean() ? "api/" : "web/") + version(release++));
+            } else if (kind == 3) {
+                // A release and the next SNAPSHOT on the same commit.
+                batch.add(version(release++));
+                batch.add(version(release) + "-SNAPSHOT");
+            } else {
+                batch.add(version(release++));
+            }
+            tag(c, batch.toArray(new String[batch.size()]));
+        }
+
+        switch (scenario) {
+            case RELEASE_ON_HEAD:
+                tag(newest, "9.0.0", "8.9.9", "abc");
+                break;
+            case RELEASE_AND_SNAPSHOT_ON_HEAD:
+                tag(newest, "9.1.0", "9.1.1-SNAPSHOT");
+                break;
+            case SNAPSHOT_AFTER_RELEASE:
+                tag(newest - 3, "9.2.0-SNAPSHOT");
+                tag(newest - 10, "9.1.0");
+                break;
+            case STALE_RELEASE:
+                for (int c = newest; c > newest - staleCommits(); c -= 7) {
+                    tag(c, "build-" + c);
+                }
+                tag(newest - staleCommits(), "9.3.0");
+                break;
+            case DIRECTORIES:
+                tag(newest, "api/9.4.0", "api/v2/9.4.0", "web/9.5.0");
+                break;
+            case PARENT_CHILD_CONFLICT:
+                tag(newest, "lib/9.6.0", "lib/core/9.7.0");
+                break;
+            case DEEP_SNAPSHOT:
+                tag(0, "0.1.0-SNAPSHOT");
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return how many commits STALE_RELEASE's release is behind HEAD.
+     */
+    int staleCommits() {
+        return Math.max(5, commits / 10);
+    }
+
+    int getTagCount() {
+        return names.size();
+    }
+
+    /**
+     * A tag name is only used once (git would move the ref to the later commit).
+     */
+    private void tag(int commit, String... candidates) {
+        List<String> fresh = new ArrayList<>();
+        for (String name : candidates) {
+            if (names.add(name)) {
+                fresh.add(name);
+            }
+        }
+        if (!fresh.isEmpty()) {
+            tags[commit] = fresh.toArray(new String[fresh.size()]);
+        }
+    }
+
+    private static String version(int n) {
+        return "1." + (n / 50) + "." + (n % 50);
+    }
+
+    /**
+     * @return the history as "git log --pretty=%d --first-parent" prints it (newest first, HEAD decorated with
+     * the branch too), produced as it is read.
+     */
+    Reader decorations() {
+        return new Reader() {
+            private int next = commits - 1;
+            private String line = "";
+            private int pos;
+
+            public int read(char[] buf, int off, int len) {
+                while (pos >= line.length()) {
+                    if (next < 0) {
+                        return -1;
+                    }
+                    line = decoration(next, next == commits - 1) + "\n";
+                    next--;
+                    pos = 0;
+                }
+                int n = Math.min(len, line.length() - pos);
+                line.getChars(pos, pos + n, buf, off);
+                pos += n;
+                return n;
+            }
+
+            public void close() {
+                next = -1;
+                pos = line.length();
+            }
+        };
+    }
+
+    private String decoration(int commit, boolean head) {
+        String[] onCommit = tags[commit];
+        if (onCommit == null && !head) {
+            return "";
+        }
+        StringBuilder buf = new StringBuilder(" (");
+        if (head) {
+            buf.append("HEAD -> master");
+        }
+        if (onCommit != null) {
+            for (String name : onCommit) {
+                if (buf.length() > 2) {
+                    buf.append(", ");
+                }
+                buf.append(Tag.TAG_IDENTIFIER).append(name);
+            }
+        }
+        return buf.append(')').toString();
+    }
+
+    /**
+     * Creates a repository in "dir" (which must not exist yet) holding this history on master, each commit
+     * changing one of a few hundred small files, with every tag as a lightweight tag.  HEAD is checked out.
+     */
+    void writeTo(File dir) throws IOException {
+        File parent = dir.getAbsoluteFile().getParentFile();
+        run(parent, null, "git", "init", "-q", dir.getName());
+        File stream = new File(parent, dir.getName() + ".fast-import");
+        Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(stream), StandardCharsets.UTF_8));
+        try {
+            long when = 1500000000L;
+            for (int c = 0; c < commits; c++) {
+                String msg = "commit " + c + "\n";
+                String content = "line " + c + "\n";
+                w.write("commit refs/heads/master\nmark :" + (c + 1) + "\n");
+                w.write("committer push0ver <push0ver@example.com> " + (when + c * 60L) + " +0000\n");
+                w.write("data " + msg.length() + "\n" + msg);
+                if (c > 0) {
+                    w.write("from :" + c + "\n");
+                }
+                w.write("M 644 inline history/f" + (c % 300) + ".txt\n");
+                w.write("data " + content.length() + "\n" + content + "\n");
+            }
+            for (int c = 0; c < commits; c++) {
+                if (tags[c] != null) {
+                    for (String name : tags[c]) {
+                        w.write("reset refs/tags/" + name + "\nfrom :" + (c + 1) + "\n\n");
+                    }
+                }
+            }
+        } finally {
+            w.close();
+        }
+        try {
+            run(dir, stream, "git", "fast-import", "--quiet");
+            run(dir, null, "git", "checkout", "-q", "-f", "master");
+        } finally {
+            stream.delete();
+        }
+    }
+
+    private static void run(File dir, File input, String... cmd) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(cmd);
+        pb.directory(dir);
+        pb.redirectErrorStream(true);
+        if (input != null) {
+            pb.redirectInput(input);
+        }
+        Process p = pb.start();
+        InputThread out = new InputThread(p.getInputStream());
+        out.start();
+        try {
+            int exit = p.waitFor();
+            out.join();
+            if (exit != 0) {
+                throw new IOException(Arrays.toString(cmd) + " failed: " + out.getOutput());
+            }
+        } catch (InterruptedException ie) {
+            throw new IOException(ie);
+        }
+    }
+}
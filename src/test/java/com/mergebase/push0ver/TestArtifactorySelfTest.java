@@ -0,0 +1,203 @@
+package com.mergebase.push0ver;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+import com.atlassian.sal.api.transaction.TransactionCallback;
+import com.atlassian.sal.api.transaction.TransactionTemplate;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.mergebase.push0ver.post.SelfTestStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestArtifactorySelfTest {
+    private static final String AUTH = App.basicAuthHeader("admin", "password");
+    private MockArtifactory art;
+
+    @Before
+    public void setUp() throws Exception {
+        // 4 MB/s shared by every stream and hardly any latency to hide:  more parallel uploads can't help,
+        // so the sweep stops early.
+        art = new MockArtifactory(2, 4 * 1024 * 1024);
+        art.requireAuth(AUTH);
+    }
+
+    @After
+    public void tearDown() {
+        art.close();
+    }
+
+    @Test
+    public void testAllRepos() {
+        ArtifactorySelfTest t = selfTest(AUTH);
+        JsonObject r = t.run("libs-release-local", "libs-snapshot-local", "npm-local");
+
+        Assert.assertTrue(r.getAsJsonObject("latency").get("medianMillis").getAsLong() >= 2);
+        JsonArray repos = r.getAsJsonArray("repos");
+        Assert.assertEquals(3, repos.size());
+        for (int i = 0; i < repos.size(); i++) {
+            JsonObject repo = repos.get(i).getAsJsonObject();
+            Assert.assertEquals(repo.toString(), "ok", repo.get("verdict").getAsString());
+            Assert.assertEquals(204, repo.get("delete").getAsInt());
+        }
+
+        JsonObject throughput = r.getAsJsonObject("throughput");
+        long upload = throughput.get("uploadBytesPerSecond").getAsLong();
+        Assert.assertTrue(throughput.toString(), upload > 1024 * 1024 && upload < 8 * 1024 * 1024);
+        Assert.assertTrue(throughput.toString(), throughput.get("downloadBytesPerSecond").getAsLong() > 1024 * 1024);
+        JsonArray parallel = throughput.getAsJsonArray("parallel");
+        Assert.assertTrue(throughput.toString(), parallel.size() >= 2 && parallel.size() < 5);
+
+        JsonObject rec = r.getAsJsonObject("recommendation");
+        Assert.assertTrue(rec.toString(), rec.get("upload.parallel").getAsInt() <= 2);
+        Assert.assertTrue(rec.get("upload.chunk").getAsInt() >= FileTee.CHUNK);
+        // Nothing left behind.
+        Assert.assertTrue(art.getStored().toString(), art.getStored().isEmpty());
+    }
+
+    @Test
+    public void testBadCredentials() {
+        JsonObject r = selfTest(App.basicAuthHeader("admin", "wrong")).run("libs-release-local", "Empty", null);
+        JsonArray repos = r.getAsJsonArray("repos");
+        Assert.assertEquals(1, repos.size());
+        Assert.assertEquals("bad credentials", repos.get(0).getAsJsonObject().get("verdict").getAsString());
+        Assert.assertNull(r.get("throughput"));
+        JsonObject rec = r.getAsJsonObject("recommendation");
+        Assert.assertEquals(Rename.DEFAULT_PARALLEL_UPLOADS, rec.get("upload.parallel").getAsInt());
+        Assert.assertEquals(FileTee.CHUNK, rec.get("upload.chunk").getAsInt());
+    }
+
+    @Test
+    public void testUnreachable() {
+        art.close();
+        JsonObject r = selfTest(AUTH).run("libs-release-local", null, null);
+        Assert.assertEquals(-1, r.getAsJsonObject("latency").get("pingStatus").getAsInt());
+        Assert.assertEquals("unreachable", r.getAsJsonArray("repos").get(0).getAsJsonObject().get("verdict").getAsString());
+    }
+
+    @Test
+    public void testRunsInBackground() throws Exception {
+        Settings settings = new Settings();
+        settings.map.put("push0ver.adminui.url", art.url());
+        settings.map.put("push0ver.adminui.username", "admin");
+        settings.map.put("push0ver.adminui.password", "password");
+        settings.map.put("push0ver.adminui.releaserepo", "libs-release-local");
+        Assert.assertNull(SelfTestStore.status(settings));
+
+        Assert.assertTrue(SelfTestStore.start(settings, settings));
+        // A second click while it runs starts nothing.
+        Assert.assertFalse(SelfTestStore.start(settings, settings));
+        JsonObject status = SelfTestStore.status(settings);
+        Assert.assertEquals("running", status.get("state").getAsString());
+        Assert.assertTrue(status.has("started"));
+
+        status = awaitDone(settings);
+        JsonObject repo = status.getAsJsonObject("result").getAsJsonArray("repos").get(0).getAsJsonObject();
+        Assert.assertEquals("ok", repo.get("verdict").getAsString());
+        Assert.assertEquals(0, settings.outsideTransaction.get());
+    }
+
+    @Test
+    public void testErrorDoesNotLeaveItRunning() throws Exception {
+        final Settings settings = new Settings();
+        settings.map.put("push0ver.adminui.url", art.url());
+        // Whatever the self-test hits, even an Error, ends up as its result.
+        settings.failNext = new NoClassDefFoundError("okhttp3/OkHttpClient");
+        Assert.assertTrue(SelfTestStore.start(settings, settings));
+        JsonObject status = awaitDone(settings);
+        Assert.assertTrue(status.toString(),
+                status.getAsJsonObject("result").get("error").getAsString().contains("NoClassDefFoundError"));
+
+        // And the next one can start.
+        Assert.assertTrue(SelfTestStore.start(settings, settings));
+        awaitDone(settings);
+    }
+
+    private static JsonObject awaitDone(Settings settings) throws InterruptedException {
+        JsonObject status = SelfTestStore.status(settings);
+        long deadline = System.currentTimeMillis() + 120000;
+        while ("running".equals(status.get("state").getAsString()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+            status = SelfTestStore.status(settings);
+        }
+        Assert.assertEquals("done", status.get("state").getAsString());
+        return status;
+    }
+
+    /**
+     * Global settings in a map, its own factory, and a transaction template that notes any settings access from
+     * the background thread outside of a transaction.
+     */
+    private static class Settings implements PluginSettings, PluginSettingsFactory, TransactionTemplate {
+        final Map<String, Object> map = new ConcurrentHashMap<>();
+        final AtomicInteger outsideTransaction = new AtomicInteger();
+        private final ThreadLocal<Boolean> inTransaction = new ThreadLocal<>();
+        volatile Error failNext;
+
+        public Object get(String key) {
+            check();
+            return map.get(key);
+        }
+
+        public Object put(String key, Object value) {
+            check();
+            return map.put(key, value);
+        }
+
+        public Object remove(String key) {
+            check();
+            return map.remove(key);
+        }
+
+        private void check() {
+            if ("push0ver-selftest".equals(Thread.currentThread().getName()) && inTransaction.get() == null) {
+                outsideTransaction.incrementAndGet();
+            }
+        }
+
+        public PluginSettings createSettingsForKey(String key) {
+            return this;
+        }
+
+        public PluginSettings createGlobalSettings() {
+            Error e = failNext;
+            if (e != null) {
+                failNext = null;
+                throw e;
+            }
+            return this;
+        }
+
+        public <T> T execute(TransactionCallback<T> callback) {
+            inTransaction.set(Boolean.TRUE);
+            try {
+                return callback.doInTransaction();
+            } finally {
+                inTransaction.remove();
+            }
+        }
+    }
+
+    @Test
+    public void testUploadTuningProperties() {
+        Assert.assertEquals(0, App.uploadParallel(null));
+        Assert.assertEquals(0, App.uploadParallel("x"));
+        Assert.assertEquals(4, App.uploadParallel(" 4 "));
+        Assert.assertEquals(0, App.uploadChunk(""));
+        Assert.assertEquals(256 * 1024, App.uploadChunk("256k"));
+    }
+
+    private ArtifactorySelfTest selfTest(String auth) {
+        ArtifactorySelfTest t = new ArtifactorySelfTest(art.url(), auth, false, line -> line);
+        // Big enough for the link, not the per-request overhead, to set the pace.
+        t.singleBytes = 1024 * 1024;
+        t.streamBytes = 1024 * 1024;
+        return t;
+    }
+}
@@ -1,9 +1,11 @@
 package com.mergebase.push0ver;
 
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.Random;
 
 public class TestBinarySed {
 
@@ -20,4 +22,47 @@ public class TestBinarySed {
         System.out.println(bout.toString("UTF-8"));
     }
 
+    @Test
+    public void testSearchAgreesWithKmp() throws Exception {
+        String find = "0.0.0.0.0-SNAPSHOT";
+        KmpStringMatcher m = new KmpStringMatcher(find);
+        Random r = new Random(39);
+        byte[] alphabet = "0.-SNAPHOTx".getBytes(StandardCharsets.UTF_8);
+        for (int n = 0; n < 20000; n++) {
+            byte[] text = new byte[r.nextInt(60)];
+            for (int i = 0; i < text.length; i++) {
+                text[i] = alphabet[r.nextInt(alphabet.length)];
+            }
+            if (text.length >= find.length() && r.nextInt(3) == 0) {
+                byte[] f = find.getBytes(StandardCharsets.UTF_8);
+                System.arraycopy(f, 0, text, r.nextInt(text.length - f.length + 1), f.length);
+            }
+            Assert.assertEquals(new String(text, StandardCharsets.UTF_8), m.searchKmp(text), m.search(text));
+
+            // Bounded:  a match must lie entirely inside [from, to).
+            int from = r.nextInt(text.length + 1);
+            int to = from + r.nextInt(text.length - from + 1);
+            String window = new String(text, from, to - from, StandardCharsets.UTF_8);
+            int x = window.indexOf(find);
+            Assert.assertEquals(x < 0 ? -1 : from + x, m.search(text, from, to));
+        }
+    }
+
+    @Test
+    public void testReplaceAcrossReads() throws Exception {
+        String find = "0.0.0.0.0-SNAPSHOT";
+        Random r = new Random(5);
+        for (int n = 0; n < 500; n++) {
+            StringBuilder buf = new StringBuilder();
+            while (buf.length() < 200000) {
+                buf.append(r.nextInt(4) == 0 ? find : "0.0.0.0.0-SNAP").append(r.nextInt(100));
+            }
+            byte[] b = buf.toString().getBytes(StandardCharsets.UTF_8);
+            SillyStream ss = new SillyStream(b, 1 + r.nextInt(30), r.nextInt(5), 1 + r.nextInt(70000), 7, -1);
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            Assert.assertTrue(BinarySed.replaceAll(null, find, "1.2.3", ss, bout));
+            Assert.assertEquals(buf.toString().replace(find, "1.2.3"), bout.toString("UTF-8"));
+        }
+    }
+
 }
@@ -0,0 +1,194 @@
+package com.mergebase.push0ver;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+public class TestChangeLog {
+    private GitFixture fx;
+    private File repo;
+
+    @Before
+    public void setUp() throws Exception {
+        fx = new GitFixture();
+        repo = new File(fx.root, "repo");
+        fx.git(fx.root, "init", "-q", "repo");
+        for (int i = 0; i < 6; i++) {
+            fx.commit(repo, i % 2 == 0 ? "api/a.txt" : "web/w.txt", "commit " + i);
+        }
+        fx.git(repo, "tag", "0.9.0-SNAPSHOT");
+        fx.git(repo, "checkout", "-q", "-b", "side");
+        fx.commit(repo, "api/side.txt", "side");
+        fx.git(repo, "checkout", "-q", "-");
+        fx.commit(repo, "web/w.txt", "main");
+        fx.git(repo, "merge", "-q", "--no-ff", "-m", "merge", "side");
+        fx.commit(repo, "api/a.txt", "released");
+        fx.git(repo, "tag", "1.0.0");
+        fx.git(repo, "tag", "api/1.0.0");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fx.delete();
+    }
+
+    @Test
+    public void testMatchesGitLogAndReusesReleasedSections() throws Exception {
+        File api = new File(repo, "api");
+        String first = ChangeLogGenerator.generate(api);
+        Assert.assertEquals(reference("api"), first);
+        Assert.assertTrue(first.contains("    1.0.0, api/1.0.0\n"));
+        Assert.assertFalse(first.contains("change web/w.txt"));
+
+        String[] cached = new File(repo, ".git/" + ChangeLogGenerator.CACHE_DIR).list();
+        Assert.assertEquals(1, cached.length);
+        Assert.assertEquals(first, ChangeLogGenerator.generate(api));
+
+        fx.commit(repo, "api/b.txt", "after release");
+        fx.commit(repo, "web/w.txt", "after release");
+        Assert.assertEquals(reference("api"), ChangeLogGenerator.generate(api));
+
+        fx.git(repo, "tag", "1.1.0");
+        fx.commit(repo, "api/b.txt", "after second release");
+        String third = ChangeLogGenerator.generate(api);
+        Assert.assertEquals(reference("api"), third);
+        Assert.assertEquals(2, new File(repo, ".git/" + ChangeLogGenerator.CACHE_DIR).list().length);
+
+        Assert.assertEquals(reference(""), ChangeLogGenerator.generate(repo));
+    }
+
+    @Test
+    public void testAllSubprojectsFromOneWalk() throws Exception {
+        fx.git(repo, "tag", "web/2.0.0", "HEAD~1");
+        fx.commit(repo, "web/w.txt", "after release");
+
+        Map<String, String> all = ChangeLogGenerator.generateAll(repo);
+        Assert.assertEquals("[, api, web]", all.keySet().toString());
+        for (Map.Entry<String, String> entry : all.entrySet()) {
+            Assert.assertEquals(reference(entry.getKey()), entry.getValue());
+        }
+        Assert.assertEquals(3, new File(repo, ".git/" + ChangeLogGenerator.CACHE_DIR).list().length);
+
+        // Second run reuses the saved sections for all three.
+        fx.commit(repo, "api/a.txt", "newer");
+        all = ChangeLogGenerator.generateAll(repo);
+        for (Map.Entry<String, String> entry : all.entrySet()) {
+            Assert.assertEquals(reference(entry.getKey()), entry.getValue());
+        }
+    }
+
+    @Test
+    public void testOlderBranchMergedAfterRelease() throws Exception {
+        File dated = new File(fx.root, "dated");
+        fx.git(fx.root, "init", "-q", "dated");
+        long t = 1500000000L;
+        fx.commitAt(dated, "api/a.txt", "first", t);
+        fx.git(dated, "checkout", "-q", "-b", "side");
+        fx.commitAt(dated, "api/side.txt", "older than the release", t + 500);
+        fx.git(dated, "checkout", "-q", "-");
+        fx.commitAt(dated, "api/a.txt", "released", t + 1000);
+        fx.git(dated, "tag", "1.0.0");
+        File api = new File(dated, "api");
+        ChangeLogGenerator.generate(api);
+
+        // Mark the saved release section, to see when it is reused.
+        File[] cached = new File(dated, ".git/" + ChangeLogGenerator.CACHE_DIR).listFiles();
+        Assert.assertEquals(1, cached.length);
+        Files.write(cached[0].toPath(), "# reused\n".getBytes("UTF-8"), StandardOpenOption.APPEND);
+
+        fx.commitAt(dated, "api/b.txt", "newer than the release", t + 2000);
+        Assert.assertTrue(ChangeLogGenerator.generate(api).endsWith("# reused\n"));
+
+        // The side commit belongs below the release tag, same as a cold run.
+        fx.gitAt(dated, t + 3000, "merge", "-q", "--no-ff", "-m", "merge", "side");
+        String warm = ChangeLogGenerator.generate(api);
+        Assert.assertFalse(warm.contains("# reused"));
+        Assert.assertTrue(warm.indexOf("    1.0.0\n") < warm.indexOf("change api/side.txt"));
+        for (File f : new File(dated, ".git/" + ChangeLogGenerator.CACHE_DIR).listFiles()) {
+            Assert.assertTrue(f.delete());
+        }
+        Assert.assertEquals(ChangeLogGenerator.generate(api), warm);
+    }
+
+    @Test
+    public void testPathTrie() {
+        ChangeLogGenerator.PathTrie<String> trie = new ChangeLogGenerator.PathTrie<>();
+        trie.put("api", "api");
+        trie.put("api/v2", "api/v2");
+        trie.put("web", "web");
+        List<String> hits = new ArrayList<>();
+        trie.collect("api/v2/x.java", hits);
+        Assert.assertEquals("[api, api/v2]", hits.toString());
+        hits.clear();
+        trie.collect("apix/y.java", hits);
+        trie.collect("web", hits);
+        Assert.assertEquals("[web]", hits.toString());
+        trie.put("", "");
+        hits.clear();
+        trie.collect("README", hits);
+        Assert.assertEquals(1, hits.size());
+        Assert.assertEquals("", hits.get(0));
+    }
+
+    /**
+     * What the old two-pass implementation printed:  one "git log" for tags, one for the directory's commits.
+     */
+    private String reference(String dir) throws Exception {
+        Map<String, String> tags = new LinkedHashMap<>();
+        BufferedReader br = new BufferedReader(new StringReader(fx.git(repo, "log", "--pretty=%H %d", "--date-order")));
+        String line;
+        while ((line = br.readLine()) != null) {
+            line = line + " ";
+            int x = line.indexOf(' ');
+            TreeSet<String> names = new TreeSet<>();
+            String d = line.substring(x + 1).trim().replace("(", "").replace(")", "");
+            for (String t : d.split(", ")) {
+                if (t.startsWith("tag: ")) {
+                    names.add(t.substring(5));
+                }
+            }
+            String s = names.toString();
+            tags.put(line.substring(0, x), s.substring(1, s.length() - 1));
+        }
+
+        Map<String, String> msgs = new LinkedHashMap<>();
+        String[] args = "".equals(dir)
+                ? new String[]{"log", "--pretty=%H %s", "--date-order", "--no-merges"}
+                : new String[]{"log", "--pretty=%H %s", "--date-order", "--no-merges", "--", dir};
+        br = new BufferedReader(new StringReader(fx.git(repo, args)));
+        while ((line = br.readLine()) != null) {
+            int x = line.indexOf(' ');
+            msgs.put(line.substring(0, x), line.substring(x + 1).trim());
+        }
+
+        StringBuilder buf = new StringBuilder();
+        boolean prevWasTag = true;
+        for (Map.Entry<String, String> entry : tags.entrySet()) {
+            if (!"".equals(entry.getValue())) {
+                buf.append("    ").append(entry.getValue()).append('\n');
+                prevWasTag = true;
+            }
+            String msg = msgs.get(entry.getKey());
+            if (msg != null) {
+                if (prevWasTag) {
+                    buf.append('\n');
+                }
+                buf.append(entry.getKey().substring(0, 10)).append(" ").append(msg).append("\n\n");
+                prevWasTag = false;
+            }
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,107 @@
+package com.mergebase.push0ver;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+public class TestCommitGraph {
+    private GitFixture fx;
+    private File repo;
+
+    @Before
+    public void setUp() throws Exception {
+        fx = new GitFixture();
+        repo = new File(fx.root, "repo");
+        fx.git(fx.root, "init", "-q", "repo");
+        for (int i = 0; i < 30; i++) {
+            fx.commit(repo, "f.txt", "commit " + i);
+            if (i % 7 == 0) {
+                fx.git(repo, "tag", "1." + i + ".0");
+            }
+            if (i % 10 == 3) {
+                fx.git(repo, "tag", "-a", "-m", "annotated", "sub/2." + i + "-SNAPSHOT");
+            }
+        }
+        // A merge, so first-parent actually matters.
+        fx.git(repo, "checkout", "-q", "-b", "side", "HEAD~5");
+        fx.commit(repo, "side.txt", "side");
+        fx.git(repo, "tag", "9.9.9");
+        fx.git(repo, "checkout", "-q", "-");
+        fx.git(repo, "merge", "-q", "--no-ff", "-m", "merge", "side");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fx.delete();
+    }
+
+    @Test
+    public void testNoGraphMeansFallback() throws Exception {
+        Assert.assertNull(FirstParentHistory.open(repo.getAbsolutePath() + "/.git"));
+    }
+
+    @Test
+    public void testMatchesGitLog() throws Exception {
+        fx.git(repo, "commit-graph", "write", "--reachable");
+        Assert.assertEquals(gitLogTags(), walkTags());
+
+        // Commits made after the commit-graph was written are picked up via "git rev-list".
+        fx.commit(repo, "g.txt", "newer");
+        fx.git(repo, "tag", "3.0.0-SNAPSHOT");
+        fx.commit(repo, "g.txt", "newest");
+        Assert.assertEquals(gitLogTags(), walkTags());
+
+        String path = repo.getAbsolutePath();
+        Map<String, Tag> tags = TagExtractor.getTag(path, path, false, null, null);
+        Assert.assertEquals("3.0.0-SNAPSHOT", tags.get("").toString());
+
+        CommitGraph graph = CommitGraph.open(new File(repo, ".git"));
+        int head = graph.position(fx.git(repo, "rev-parse", "HEAD~2"));
+        Assert.assertTrue(head >= 0);
+        Assert.assertEquals(fx.git(repo, "rev-parse", "HEAD~3"), graph.oid(graph.firstParent(head)));
+        Assert.assertTrue(graph.generation(head) > graph.generation(graph.firstParent(head)));
+    }
+
+    private List<String> gitLogTags() throws Exception {
+        return tagsPerLine(fx.git(repo, "log", "--pretty=%d", "--first-parent") + "\n");
+    }
+
+    private List<String> walkTags() throws Exception {
+        StringBuilder buf = new StringBuilder();
+        FirstParentHistory h = FirstParentHistory.open(repo.getAbsolutePath() + "/.git");
+        Assert.assertNotNull(h);
+        BufferedReader br = new BufferedReader(h);
+        String line;
+        while ((line = br.readLine()) != null) {
+            buf.append(line).append('\n');
+        }
+        br.close();
+        return tagsPerLine(buf.toString());
+    }
+
+    private static List<String> tagsPerLine(String log) throws Exception {
+        List<String> result = new ArrayList<>();
+        BufferedReader br = new BufferedReader(new StringReader(log));
+        String line;
+        while ((line = br.readLine()) != null) {
+            TreeSet<String> tags = new TreeSet<>();
+            line = line.trim().replace("(", "").replace(")", "");
+            for (String tok : line.split(", ")) {
+                if (tok.startsWith("tag: ")) {
+                    tags.add(tok.substring(5));
+                }
+            }
+            result.add(tags.toString());
+        }
+        return result;
+    }
+}
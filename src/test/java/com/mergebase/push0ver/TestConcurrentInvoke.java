@@ -0,0 +1,151 @@
+package com.mergebase.push0ver;
+
+import com.mergebase.push0ver.pre.PreApp;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Many plans in one agent JVM:  pre and post tasks for different workspaces, all at once.
+ */
+public class TestConcurrentInvoke {
+    // Keep the sentinel out of this file's source and bytecode.
+    private static final String SENTINEL = "0".substring(0, 1) + ".0.0-PUSH0VER";
+    private static final int WORKSPACES = 12;
+
+    private GitFixture fx;
+    private HttpServer registry;
+    private final List<File> workspaces = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        fx = new GitFixture();
+        for (int i = 0; i < WORKSPACES; i++) {
+            File remote = fx.bareRemote("remote" + i + ".git");
+            File upstream = fx.cloneOf(remote, "upstream" + i);
+            fx.commit(upstream, "package.json", "{\"name\":\"pkg" + i + "\",\"version\":\"" + SENTINEL + "\"}");
+            fx.commit(upstream, "big.txt", big(i));
+            fx.git(upstream, "tag", "1.2." + i);
+            fx.git(upstream, "push", "-q", "origin", "HEAD:refs/heads/master", "--tags");
+            workspaces.add(fx.cloneOf(remote, "agent" + i, "--no-tags", "--branch", "master"));
+        }
+
+        // Nothing is released yet.
+        registry = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        registry.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        registry.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        registry.stop(0);
+        fx.delete();
+    }
+
+    @Test
+    public void testParallelPreAndPostTasks() throws Exception {
+        String url = "http://127.0.0.1:" + registry.getAddress().getPort() + "/";
+        final Properties p = new Properties();
+        p.setProperty("repo.name", "libs-release-local");
+        p.setProperty("noderepo.name", "npm-local");
+        p.setProperty("art.url", url);
+        p.setProperty("art.username", "u");
+        p.setProperty("art.password", "p");
+
+        List<StringBuffer> preLogs = runAll(p, true);
+        List<StringBuffer> postLogs = runAll(p, false);
+
+        Assert.assertTrue(HttpURLConnection.getFollowRedirects());
+        for (int i = 0; i < WORKSPACES; i++) {
+            File ws = workspaces.get(i);
+            String version = "1.2." + i;
+            Assert.assertEquals("{\"name\":\"pkg" + i + "\",\"version\":\"" + version + "\"}", read(new File(ws, "package.json")));
+            Assert.assertEquals(big(i).replace(SENTINEL, version), read(new File(ws, "big.txt")));
+
+            String pre = preLogs.get(i).toString();
+            Assert.assertTrue(pre, pre.contains("WINDUP EXTRACTED VALID NODE TAG: " + version));
+            String post = postLogs.get(i).toString();
+            Assert.assertTrue(post, post.contains("Packed pkg" + i + "@" + version));
+            for (int j = 0; j < WORKSPACES; j++) {
+                if (j != i) {
+                    Assert.assertFalse(post, post.contains("pkg" + j + "@"));
+                }
+            }
+
+            String[] names = ws.list();
+            for (String name : names) {
+                Assert.assertFalse(name, name.endsWith(".tmp"));
+            }
+        }
+    }
+
+    private List<StringBuffer> runAll(final Properties p, final boolean pre) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(WORKSPACES);
+        final CountDownLatch go = new CountDownLatch(1);
+        try {
+            List<StringBuffer> logs = new ArrayList<>();
+            List<Future<Object>> results = new ArrayList<>();
+            for (final File ws : workspaces) {
+                final StringBuffer buf = new StringBuffer();
+                logs.add(buf);
+                results.add(pool.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        MyLogger log = line -> {
+                            buf.append(line).append('\n');
+                            return line;
+                        };
+                        String[] args = {ws.getAbsolutePath()};
+                        go.await();
+                        if (pre) {
+                            PreApp.invoke(args, p, log, new RunStats("pre"));
+                        } else {
+                            App.invoke(args, p, log, new RunStats("post"));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            go.countDown();
+            for (Future<Object> f : results) {
+                f.get();
+            }
+            return logs;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Over 1MB, so the sentinel is replaced through a tmp-file.
+     */
+    private static String big(int i) {
+        StringBuilder buf = new StringBuilder(1100000);
+        while (buf.length() < 1050000) {
+            buf.append("workspace ").append(i).append(' ').append(SENTINEL).append('\n');
+        }
+        return buf.toString();
+    }
+
+    private static String read(File f) throws Exception {
+        return new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,156 @@
+package com.mergebase.push0ver;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+public class TestDaemon {
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("push0ver-daemon").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testRunsAndStops() throws Exception {
+        Thread t = serve(Daemon.start(dir, 60000));
+        try {
+            Assert.assertTrue(WarmCache.isEnabled());
+            Assert.assertEquals(0, DaemonClient.call(dir, "ping", args(), props(), quiet()));
+
+            // Log lines come back as the run writes them.
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int exit = DaemonClient.call(dir, "post", args(dir.getAbsolutePath()), props(), new PrintStream(out, true));
+            Assert.assertEquals(0, exit);
+            Assert.assertTrue(out.toString().contains("You forgot to enter a Repository name!"));
+            Assert.assertTrue(out.toString().contains("push0ver - daemon: post took"));
+
+            Assert.assertEquals(2, DaemonClient.call(dir, "bogus", args(), props(), quiet()));
+        } finally {
+            Assert.assertEquals(0, DaemonClient.call(dir, "stop", args(), props(), quiet()));
+            t.join(10000);
+        }
+        Assert.assertFalse(t.isAlive());
+        Assert.assertFalse(new File(dir, DaemonClient.STATE_FILE).exists());
+        Assert.assertFalse(WarmCache.isEnabled());
+        Assert.assertEquals(DaemonClient.NO_DAEMON, DaemonClient.call(dir, "ping", args(), props(), quiet()));
+    }
+
+    @Test
+    public void testRefusesWrongToken() throws Exception {
+        Thread t = serve(Daemon.start(dir, 60000));
+        try {
+            Properties state = DaemonClient.readState(dir);
+            File other = new File(dir, "other");
+            other.mkdirs();
+            state.setProperty("token", "0123");
+            FileOutputStream out = new FileOutputStream(new File(other, DaemonClient.STATE_FILE));
+            try {
+                state.store(out, null);
+            } finally {
+                out.close();
+            }
+            Assert.assertEquals(2, DaemonClient.call(other, "stop", args(), props(), quiet()));
+            Assert.assertTrue(t.isAlive());
+            new File(other, DaemonClient.STATE_FILE).delete();
+            other.delete();
+        } finally {
+            DaemonClient.call(dir, "stop", args(), props(), quiet());
+            t.join(10000);
+        }
+    }
+
+    @Test
+    public void testIdleShutdown() throws Exception {
+        Thread t = serve(Daemon.start(dir, 200));
+        t.join(10000);
+        Assert.assertFalse(t.isAlive());
+        Assert.assertFalse(new File(dir, DaemonClient.STATE_FILE).exists());
+    }
+
+    @Test
+    public void testExistsCachedPerCredentials() throws Exception {
+        String auth = App.basicAuthHeader("plan-a", "secret");
+        MockArtifactory art = new MockArtifactory(0, 0);
+        WarmCache.enable();
+        try {
+            art.requireAuth(auth);
+            art.getStored().put("libs-release-local/a/b/1.0/b-1.0.jar.sha1", 40L);
+            String target = art.url() + "libs-release-local/a/b/1.0/b-1.0.jar.sha1";
+            Assert.assertTrue(App.exists(line -> line, target, auth));
+            Assert.assertTrue(App.exists(line -> line, target, auth));
+            Assert.assertEquals(1, art.gets.get());
+
+            // Another plan's credentials (or none) get their own answer.
+            Assert.assertFalse(App.exists(line -> line, target, App.basicAuthHeader("plan-b", "other")));
+            Assert.assertFalse(App.exists(line -> line, target, null));
+        } finally {
+            WarmCache.disable();
+            art.close();
+        }
+    }
+
+    @Test
+    public void testForwardsOnlyPush0verProperties() {
+        Properties p = new Properties();
+        p.setProperty("java.home", "/jdk");
+        p.setProperty("user.home", "/home/x");
+        p.setProperty("push0ver.daemon.dir", "/tmp");
+        p.setProperty("repo.name", "libs-release-local");
+        p.setProperty("art.url", "http://localhost/artifactory/");
+        Map<String, String> expected = new TreeMap<>();
+        expected.put("art.url", "http://localhost/artifactory/");
+        expected.put("repo.name", "libs-release-local");
+        Assert.assertEquals(expected, DaemonClient.properties(p));
+    }
+
+    private static Thread serve(final Daemon d) {
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    d.serve();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        t.start();
+        return t;
+    }
+
+    private static List<String> args(String... args) {
+        List<String> list = new ArrayList<>();
+        Collections.addAll(list, args);
+        return list;
+    }
+
+    private static Map<String, String> props() {
+        return new TreeMap<>();
+    }
+
+    private static PrintStream quiet() {
+        return new PrintStream(new ByteArrayOutputStream());
+    }
+}
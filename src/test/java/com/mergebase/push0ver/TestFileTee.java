@@ -0,0 +1,68 @@
+package com.mergebase.push0ver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TestFileTee {
+
+    @Test
+    public void testEveryBranchGetsEveryByteReadOnce() {
+        byte[] data = new byte[FileTee.CHUNK * 40 + 123];
+        new Random(7).nextBytes(data);
+        final AtomicLong read = new AtomicLong();
+        InputStream source = new FilterInputStream(new ByteArrayInputStream(data)) {
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                read.addAndGet(Math.max(n, 0));
+                return n;
+            }
+        };
+        FileTee tee = new FileTee(source, 3);
+        List<Future<byte[]>> results = new ArrayList<>();
+        TaskScope scope = TaskScope.pooled(3);
+        try {
+            for (final InputStream branch : tee.getBranches()) {
+                results.add(scope.fork(() -> drain(branch, 1000)));
+            }
+            scope.join();
+        } finally {
+            scope.close();
+        }
+        for (Future<byte[]> f : results) {
+            Assert.assertTrue(Arrays.equals(data, TaskScope.result(f)));
+        }
+        Assert.assertEquals(data.length, read.get());
+    }
+
+    @Test
+    public void testClosedBranchDoesNotBlockTheOthers() throws Exception {
+        byte[] data = new byte[FileTee.CHUNK * (FileTee.MAX_QUEUED * 3)];
+        new Random(8).nextBytes(data);
+        FileTee tee = new FileTee(new ByteArrayInputStream(data), 2);
+        tee.getBranches().get(1).close();
+        Assert.assertTrue(Arrays.equals(data, drain(tee.getBranches().get(0), 8192)));
+    }
+
+    private static byte[] drain(InputStream in, int bufSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[bufSize];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            out.write(buf, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,100 @@
+package com.mergebase.push0ver;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Records push0ver's events with a real JFR recording (jdk.jfr through reflection, like {@link Jfr} itself).
+ */
+public class TestJfr {
+
+    @Test
+    public void testDisabledIsNoop() {
+        // No recording running:  nothing is enabled, and events are the shared no-op.
+        Jfr.Event e = Jfr.SUBPROCESS.begin();
+        Assert.assertFalse(e.isRecording());
+        e.set("command", "git status").set("exitCode", 0).commit();
+    }
+
+    @Test
+    public void testRecording() throws Exception {
+        Class<?> recordingClass;
+        try {
+            recordingClass = Class.forName("jdk.jfr.Recording");
+        } catch (ClassNotFoundException cnfe) {
+            // No JFR in this JVM.
+            Assume.assumeNoException(cnfe);
+            return;
+        }
+        Object recording = recordingClass.getConstructor().newInstance();
+        Method enable = recordingClass.getMethod("enable", String.class);
+        for (String name : new String[]{"push0ver.SentinelScan", "push0ver.Subprocess", "push0ver.TagResolution"}) {
+            enable.invoke(recording, name);
+        }
+        File dir = Files.createTempDirectory("push0ver-jfr").toFile();
+        File out = new File(dir, "push0ver.jfr");
+        try {
+            File src = new File(dir, "a.txt");
+            Files.write(src.toPath(), ("v=" + "0".substring(0, 1) + ".0.0-PUSH0VER\n").getBytes(StandardCharsets.UTF_8));
+
+            recordingClass.getMethod("start").invoke(recording);
+            Assert.assertTrue(Jfr.SENTINEL_SCAN.isEnabled());
+            WorkspaceScanner.inject(dir, "1.2.3", line -> line, new RunStats("pre"));
+            TagExtractor.getTag(dir.getPath(), dir.getPath(), false, line -> line, new String[1]);
+            recordingClass.getMethod("stop").invoke(recording);
+            recordingClass.getMethod("dump", Path.class).invoke(recording, out.toPath());
+
+            List<String> events = read(out);
+            Set<String> names = new HashSet<>();
+            for (String e : events) {
+                names.add(e.split(" ")[0]);
+            }
+            Assert.assertTrue(events.toString(), names.contains("push0ver.SentinelScan"));
+            Assert.assertTrue(events.toString(), names.contains("push0ver.Subprocess"));
+            Assert.assertTrue(events.toString(), names.contains("push0ver.TagResolution"));
+            Assert.assertTrue(events.toString(), events.contains("push0ver.SentinelScan " + src.getPath() + " hits=1"));
+        } finally {
+            recordingClass.getMethod("close").invoke(recording);
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * @return each event as "name" plus, for scans, " file hits=N".
+     */
+    private static List<String> read(File f) throws Exception {
+        Class<?> recordingFile = Class.forName("jdk.jfr.consumer.RecordingFile");
+        Class<?> recordedEvent = Class.forName("jdk.jfr.consumer.RecordedEvent");
+        Class<?> recordedObject = Class.forName("jdk.jfr.consumer.RecordedObject");
+        Method getEventType = recordedEvent.getMethod("getEventType");
+        Method getName = Class.forName("jdk.jfr.EventType").getMethod("getName");
+        Method getValue = recordedObject.getMethod("getValue", String.class);
+        List<?> all = (List<?>) recordingFile.getMethod("readAllEvents", Path.class).invoke(null, f.toPath());
+        List<String> events = new ArrayList<>();
+        for (Object e : all) {
+            String name = (String) getName.invoke(getEventType.invoke(e));
+            if ("push0ver.SentinelScan".equals(name)) {
+                name += " " + getValue.invoke(e, "file") + " hits=" + getValue.invoke(e, "hits");
+            }
+            events.add(name);
+        }
+        return events;
+    }
+}
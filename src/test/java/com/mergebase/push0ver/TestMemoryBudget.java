@@ -0,0 +1,79 @@
+package com.mergebase.push0ver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+public class TestMemoryBudget {
+
+    @Test
+    public void testReserveAndPeak() {
+        Assert.assertEquals(64L * 1024 * 1024, MemoryBudget.parseSize(" 64M "));
+        Assert.assertEquals(512L * 1024, MemoryBudget.parseSize("512kb"));
+        Assert.assertEquals(1000, MemoryBudget.parseSize("1000"));
+        Assert.assertEquals(-1, MemoryBudget.parseSize("lots"));
+
+        Properties p = new Properties();
+        p.setProperty("memory.budget", "4k");
+        MemoryBudget memory = MemoryBudget.fromProperties(p);
+        Assert.assertEquals(4096, memory.getLimit());
+        Assert.assertEquals(1024, memory.share());
+
+        Assert.assertFalse(memory.tryReserve(1025));
+        Assert.assertTrue(memory.tryReserve(1024));
+        Assert.assertTrue(memory.tryReserve(1024));
+        Assert.assertTrue(memory.tryReserve(1024));
+        Assert.assertTrue(memory.tryReserve(1000));
+        Assert.assertFalse(memory.tryReserve(100));
+        memory.release(3048);
+        Assert.assertEquals(1024, memory.getUsed());
+        Assert.assertEquals(4072, memory.getPeak());
+
+        RunStats stats = new RunStats("post");
+        stats.setMemory(memory);
+        Assert.assertTrue(stats.summary(), stats.summary().contains("memory=4072/4096 bytes"));
+        RunStats copy = RunStats.fromJson(stats.toJson().toString());
+        Assert.assertEquals(4072, copy.getMemory().getPeak());
+    }
+
+    @Test
+    public void testTailStaysWithinBudget() {
+        MemoryBudget memory = new MemoryBudget(4000);
+        App.Tail tail = new App.Tail(500, memory);
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            line.append('x');
+            tail.add(line.toString());
+            Assert.assertTrue(memory.getUsed() <= memory.getLimit());
+        }
+        List<String> kept = new ArrayList<>();
+        for (String s : tail) {
+            kept.add(s);
+        }
+        Assert.assertEquals(100, kept.get(kept.size() - 1).length());
+        Assert.assertTrue(kept.size() < 100);
+
+        // Too long for the share on its own:  kept, but cut short.
+        char[] huge = new char[5000];
+        Arrays.fill(huge, 'y');
+        tail.add(new String(huge));
+        Assert.assertTrue(memory.getUsed() <= memory.getLimit());
+
+        tail.clear();
+        Assert.assertEquals(0, memory.getUsed());
+    }
+
+    @Test
+    public void testNpmVersionsAreStreamed() throws Exception {
+        String packument = "{\"_id\":\"@mb/lib\",\"versions\":{\"1.10.0\":{\"name\":\"x\",\"scripts\":{\"a\":[1,2]}},"
+                + "\"1.2.0\":{},\"1.9.0-rc1\":{\"dist\":{\"tarball\":\"t\"}}},\"time\":{\"1.2.0\":\"2017\"}}";
+        List<Version> versions = Npm.listVersions(new StringReader(packument));
+        VersionKey.sort(versions);
+        Assert.assertEquals("[1.2.0, 1.9.0-rc1, 1.10.0]", versions.toString());
+    }
+}
@@ -0,0 +1,100 @@
+package com.mergebase.push0ver;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class TestMirrors {
+    private static final String PRIMARY = "libs-release-local/";
+    private static final String MIRROR = "dr-local/";
+
+    private ReleaseBenchmark b;
+    private MockArtifactory art;
+
+    @Before
+    public void setUp() throws Exception {
+        b = new ReleaseBenchmark(
+                "modules=2", "artifacts=2", "artifactBytes=5000", "files=5", "fileBytes=500", "density=0.5",
+                "commits=20", "latencyMillis=0", "npm=false", "mirrors=dr-local");
+        b.setUp();
+        art = new MockArtifactory(0, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        art.close();
+        b.tearDown();
+    }
+
+    @Test
+    public void testRerunCompletesTheMirror() throws Exception {
+        art.failPuts(MIRROR);
+        try {
+            b.run(art);
+            Assert.fail("mirror upload failed, the run should have too");
+        } catch (RuntimeException expected) {
+            // Whatever reached the primary stays there.
+        }
+        List<String> onPrimary = new ArrayList<>(art.getStored().keySet());
+        Assert.assertFalse(onPrimary.isEmpty());
+        Assert.assertEquals(0, count(MIRROR));
+
+        art.failPuts(null);
+        b.resetWorkspace();
+        b.log.setLength(0);
+        b.run(art);
+        String log = b.log.toString();
+        Assert.assertTrue(log, log.contains("Already Exists!"));
+        for (String path : onPrimary) {
+            Assert.assertFalse(path + " uploaded twice", log.contains(path + "?"));
+        }
+        // 2 modules, each a pom and 2 jars, each with its .md5 and .sha1.
+        Assert.assertEquals(18, count(PRIMARY));
+        Assert.assertEquals(18, count(MIRROR));
+
+        // Nothing left to do anywhere.
+        int puts = art.puts.get();
+        b.resetWorkspace();
+        b.log.setLength(0);
+        b.run(art);
+        Assert.assertEquals(puts, art.puts.get());
+    }
+
+    @Test
+    public void testWithoutMirrorsPartialReleaseIsLeftAlone() throws Exception {
+        ReleaseBenchmark single = new ReleaseBenchmark(
+                "modules=2", "artifacts=2", "artifactBytes=5000", "files=5", "fileBytes=500", "density=0.5",
+                "commits=20", "latencyMillis=0", "npm=false");
+        single.setUp();
+        try {
+            // An earlier run got one jar of the second module out, and nothing else.
+            String m1 = PRIMARY + "com/example/bench/m1/1.2.3/";
+            art.getStored().put(m1 + "m1-1.2.3.jar", 5000L);
+            art.getStored().put(m1 + "m1-1.2.3.jar.sha1", 40L);
+
+            single.run(art);
+            String log = single.log.toString();
+            Assert.assertTrue(log, log.contains("m1-1.2.3.jar Already Exists! Aborting."));
+            // The first module was not released yet, so it goes out; nothing is added to the second.
+            Assert.assertEquals(9, count(PRIMARY + "com/example/bench/m0/"));
+            Assert.assertEquals(2, count(m1));
+        } finally {
+            single.tearDown();
+        }
+    }
+
+    private int count(String prefix) {
+        int n = 0;
+        for (Map.Entry<String, Long> e : art.getStored().entrySet()) {
+            if (e.getKey().startsWith(prefix)) {
+                n++;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,211 @@
+package com.mergebase.push0ver;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+public class TestNpmPublisher {
+    private GitFixture fx;
+    private File root;
+
+    @Before
+    public void setUp() throws Exception {
+        fx = new GitFixture();
+        root = fx.root;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fx.delete();
+    }
+
+    @Test
+    public void testPackWithNpmignore() throws Exception {
+        write("package.json", "{\"name\":\"@mb/lib\",\"version\":\"1.2.3\",\"description\":\"d\"}");
+        write("README.md", "readme");
+        write("index.js", "module.exports = 1;");
+        write("src/a.js", "a");
+        write("src/a.test.js", "test");
+        write("src/keep.test.js", "keep");
+        write("docs/guide.md", "guide");
+        write("node_modules/dep/index.js", "dep");
+        write(".npmrc", "secret");
+        write(".npmignore", "docs/\n*.test.js\n!keep.test.js\n");
+
+        NpmPublisher.Tarball t = NpmPublisher.pack(root, new MemoryBudget(MemoryBudget.DEFAULT_LIMIT));
+        Assert.assertEquals(Arrays.asList("README.md", "index.js", "package.json", "src/a.js", "src/keep.test.js"), t.files);
+        Assert.assertTrue(t.tgz.inMemory());
+        byte[] bytes = bytes(t);
+
+        Map<String, String> entries = untar(bytes);
+        Assert.assertEquals(Arrays.asList("package/README.md", "package/index.js", "package/package.json",
+                "package/src/a.js", "package/src/keep.test.js"), new ArrayList<>(entries.keySet()));
+        Assert.assertEquals("module.exports = 1;", entries.get("package/index.js"));
+
+        Assert.assertEquals(hex(MessageDigest.getInstance("SHA-1").digest(bytes)), t.shasum);
+        Assert.assertEquals("sha512-" + DatatypeConverter.printBase64Binary(
+                MessageDigest.getInstance("SHA-512").digest(bytes)), t.integrity);
+        Assert.assertEquals("lib-1.2.3.tgz", t.fileName());
+
+        JsonObject doc = NpmPublisher.packument(t, "http://repo/api/npm/npm-local/");
+        Assert.assertEquals("1.2.3", doc.getAsJsonObject("dist-tags").get("latest").getAsString());
+        JsonObject dist = doc.getAsJsonObject("versions").getAsJsonObject("1.2.3").getAsJsonObject("dist");
+        Assert.assertEquals("http://repo/api/npm/npm-local/@mb/lib/-/lib-1.2.3.tgz", dist.get("tarball").getAsString());
+        Assert.assertEquals(bytes.length, doc.getAsJsonObject("_attachments")
+                .getAsJsonObject("lib-1.2.3.tgz").get("length").getAsInt());
+        Assert.assertEquals("@mb%2flib", NpmPublisher.escapeName(t.name));
+    }
+
+    @Test
+    public void testPackWithFilesAndLongNames() throws Exception {
+        String deep = "lib/" + repeat("d", 90) + "/" + repeat("e", 90) + "/x.js";
+        String huge = "lib/" + repeat("f", 240) + ".js";
+        write("package.json", "{\"name\":\"app\",\"version\":\"2.0.0\",\"files\":[\"lib\",\"!lib/skip.js\"]}");
+        write("LICENSE", "MIT");
+        write("index.js", "not listed");
+        write("lib/main.js", "main");
+        write("lib/skip.js", "skip");
+        write(deep, "deep");
+        write(huge, "huge");
+        write(".npmignore", "lib/\n");
+
+        NpmPublisher.Tarball t = NpmPublisher.pack(root, new MemoryBudget(MemoryBudget.DEFAULT_LIMIT));
+        Map<String, String> entries = untar(bytes(t));
+        Assert.assertEquals(Arrays.asList("package/LICENSE", "package/lib/" + repeat("d", 90) + "/" + repeat("e", 90) + "/x.js",
+                "package/" + huge, "package/lib/main.js", "package/package.json"), new ArrayList<>(entries.keySet()));
+        Assert.assertEquals("deep", entries.get("package/" + deep));
+        Assert.assertEquals("huge", entries.get("package/" + huge));
+    }
+
+    @Test
+    public void testSpillsOverBudget() throws Exception {
+        write("package.json", "{\"name\":\"big\",\"version\":\"3.0.0\"}");
+        byte[] noise = new byte[200000];
+        new Random(7).nextBytes(noise);
+        Files.write(new File(root, "noise.bin").toPath(), noise);
+
+        MemoryBudget memory = new MemoryBudget(64 * 1024);
+        NpmPublisher.Tarball t = NpmPublisher.pack(root, memory);
+        Assert.assertFalse(t.tgz.inMemory());
+        Assert.assertTrue(memory.getPeak() <= memory.share());
+        byte[] bytes = bytes(t);
+        Assert.assertEquals(hex(MessageDigest.getInstance("SHA-1").digest(bytes)), t.shasum);
+
+        // The streamed body is the same packument, with the tarball encoded in place.
+        NpmPublisher.PackumentEntity entity = new NpmPublisher.PackumentEntity(NpmPublisher.packument(t, "http://r/"), t.tgz);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        entity.writeTo(body);
+        Assert.assertEquals(entity.getContentLength(), body.size());
+        JsonObject doc = new JsonParser().parse(body.toString("UTF-8")).getAsJsonObject();
+        String data = doc.getAsJsonObject("_attachments").getAsJsonObject("big-3.0.0.tgz").get("data").getAsString();
+        Assert.assertArrayEquals(bytes, DatatypeConverter.parseBase64Binary(data));
+
+        t.dispose();
+        Assert.assertEquals(0, memory.getUsed());
+    }
+
+    @Test
+    public void testPublishAllUsesTheRunsClient() throws Exception {
+        List<File> dirs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            write("p" + i + "/package.json", "{\"name\":\"p" + i + "\",\"version\":\"1.0.0\"}");
+            dirs.add(new File(root, "p" + i));
+        }
+        MockArtifactory art = new MockArtifactory(0, 0);
+        Transport transport = Transport.open(false, false, line -> line);
+        try {
+            int published = NpmPublisher.publishAll(dirs, art.url() + "api/npm/npm-local/", "Basic x",
+                    transport.getHttpClient(), true, line -> line, new RunStats("post"));
+            Assert.assertEquals(3, published);
+            Assert.assertEquals(3, art.npmPublishes.get());
+            // Still open for the rest of the run.
+            Assert.assertEquals(404, transport.get(art.url() + "libs-release-local/missing.sha1", "Basic x"));
+        } finally {
+            transport.close();
+            art.close();
+        }
+    }
+
+    private static byte[] bytes(NpmPublisher.Tarball t) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        t.tgz.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private void write(String path, String content) throws Exception {
+        File f = new File(root, path);
+        f.getParentFile().mkdirs();
+        Files.write(f.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String repeat(String s, int n) {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            buf.append(s);
+        }
+        return buf.toString();
+    }
+
+    private static String hex(byte[] b) {
+        return DatatypeConverter.printHexBinary(b).toLowerCase(Locale.ENGLISH);
+    }
+
+    private static Map<String, String> untar(byte[] tgz) throws Exception {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(tgz));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            bytes.write(buf, 0, n);
+        }
+        byte[] tar = bytes.toByteArray();
+
+        Map<String, String> entries = new LinkedHashMap<>();
+        String paxPath = null;
+        int pos = 0;
+        while (pos + 512 <= tar.length && tar[pos] != 0) {
+            String name = cstring(tar, pos, 100);
+            String prefix = cstring(tar, pos + 345, 155);
+            int size = Integer.parseInt(cstring(tar, pos + 124, 12).trim(), 8);
+            char type = (char) tar[pos + 156];
+            String body = new String(tar, pos + 512, size, StandardCharsets.UTF_8);
+            if (type == 'x') {
+                paxPath = body.substring(body.indexOf("path=") + 5, body.length() - 1);
+            } else {
+                String path = paxPath != null ? paxPath : "".equals(prefix) ? name : prefix + "/" + name;
+                entries.put(path, body);
+                paxPath = null;
+            }
+            pos += 512 + ((size + 511) / 512) * 512;
+        }
+        return entries;
+    }
+
+    private static String cstring(byte[] b, int off, int len) {
+        int end = off;
+        while (end < off + len && b[end] != 0) {
+            end++;
+        }
+        return new String(b, off, end - off, StandardCharsets.UTF_8);
+    }
+}
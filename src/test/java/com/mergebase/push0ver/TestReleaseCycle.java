@@ -0,0 +1,42 @@
+package com.mergebase.push0ver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * {@link ReleaseBenchmark} at toy size:  the whole pre + post cycle ends up in the mock Artifactory.
+ */
+public class TestReleaseCycle {
+
+    @Test
+    public void testReleaseLandsInArtifactory() throws Exception {
+        ReleaseBenchmark b = new ReleaseBenchmark(
+                "modules=2", "artifacts=2", "artifactBytes=5000", "files=5", "fileBytes=500", "density=0.5",
+                "commits=20", "latencyMillis=0");
+        b.setUp();
+        MockArtifactory art = new MockArtifactory(0, 0);
+        try {
+            b.run(art);
+            Map<String, Long> stored = art.getStored();
+            String log = b.log.toString();
+            for (int m = 0; m < 2; m++) {
+                String a = ReleaseBenchmark.module(m);
+                String base = "libs-release-local/com/example/bench/" + a + "/" + ReleaseBenchmark.VERSION + "/"
+                        + a + "-" + ReleaseBenchmark.VERSION;
+                Assert.assertTrue(log + stored.keySet(), stored.containsKey(base + ".jar"));
+                Assert.assertTrue(stored.keySet().toString(), stored.containsKey(base + "-c1.jar"));
+                Assert.assertTrue(stored.keySet().toString(), stored.containsKey(base + ".jar.sha1"));
+                Assert.assertTrue(stored.keySet().toString(), stored.containsKey(base + ".pom"));
+            }
+            Assert.assertEquals(1, art.npmPublishes.get());
+            Assert.assertTrue(stored.keySet().toString(),
+                    stored.containsKey("api/npm/npm-local/bench-ui/-/bench-ui-" + ReleaseBenchmark.VERSION + ".tgz"));
+            Assert.assertTrue(b.report(0, art), b.post.getBytesUploaded() > 4 * 5000);
+        } finally {
+            art.close();
+            b.tearDown();
+        }
+    }
+}
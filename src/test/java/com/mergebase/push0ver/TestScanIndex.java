@@ -0,0 +1,85 @@
+package com.mergebase.push0ver;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+
+public class TestScanIndex {
+    // Keep the sentinel out of this file's source and bytecode.
+    private static final String SENTINEL = "0".substring(0, 1) + ".0.0-PUSH0VER";
+    private static final String SAME_LENGTH = "1.2.3-abcdefgh";
+
+    private GitFixture fx;
+    private File ws;
+
+    @Before
+    public void setUp() throws Exception {
+        fx = new GitFixture();
+        ws = fx.cloneOf(fx.bareRemote("remote.git"), "ws");
+        fx.commit(ws, "pom.xml", "<version>" + SENTINEL + "</version>");
+        for (int i = 0; i < 20; i++) {
+            fx.commit(ws, "src/F" + i + ".java", "class F" + i + " { String v = \"" + SAME_LENGTH + "\"; }");
+        }
+        Assert.assertEquals(SENTINEL.length(), SAME_LENGTH.length());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fx.delete();
+    }
+
+    @Test
+    public void testOnlyChangedFilesAreRescanned() throws Exception {
+        Tag tag = new Tag(ws.getPath(), "2.0.0", null);
+
+        RunStats stats = scan(tag);
+        Assert.assertEquals(0, stats.getFilesSkipped());
+        Assert.assertTrue(read("pom.xml").contains("2.0.0"));
+        Assert.assertTrue(new File(ws, ".git/" + ScanIndex.INDEX_FILE).isFile());
+
+        // Next build: the checkout puts the sentinel back in pom.xml, nothing else changed.
+        fx.git(ws, "checkout", "--", "pom.xml");
+        stats = scan(tag);
+        Assert.assertEquals(20, stats.getFilesSkipped());
+        Assert.assertTrue(read("pom.xml").contains("2.0.0"));
+        Assert.assertTrue(stats.summary(), stats.summary().contains("(20 unchanged)"));
+        fx.git(ws, "checkout", "--", "pom.xml");
+
+        // Same size, same inode, same mtime:  only the blob id gives it away.
+        File f = new File(ws, "src/F7.java");
+        FileTime mtime = Files.getLastModifiedTime(f.toPath());
+        fx.commit(ws, "src/F7.java", read("src/F7.java").replace(SAME_LENGTH, SENTINEL));
+        Files.setLastModifiedTime(f.toPath(), mtime);
+
+        // New file, never seen before.
+        fx.commit(ws, "src/New.java", "class New { String v = \"" + SENTINEL + "\"; }");
+
+        stats = scan(tag);
+        Assert.assertEquals(19, stats.getFilesSkipped());
+        Assert.assertTrue(read("src/F7.java").contains("2.0.0"));
+        Assert.assertTrue(read("src/New.java").contains("2.0.0"));
+
+        // Switched off:  everything is read again.
+        fx.git(ws, "checkout", "--", ".");
+        stats = new RunStats("pre");
+        WorkspaceScanner.scan(ws.getPath(), Collections.singletonList(tag), true, line -> line, stats);
+        Assert.assertEquals(0, stats.getFilesSkipped());
+        Assert.assertTrue(read("src/F7.java").contains("2.0.0"));
+    }
+
+    private RunStats scan(Tag tag) {
+        RunStats stats = new RunStats("pre");
+        WorkspaceScanner.scan(ws.getPath(), Collections.singletonList(tag), true, line -> line, stats, ScanIndex.load(ws));
+        return stats;
+    }
+
+    private String read(String path) throws Exception {
+        return new String(Files.readAllBytes(new File(ws, path).toPath()), "UTF-8");
+    }
+}
@@ -0,0 +1,107 @@
+package com.mergebase.push0ver;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Every {@link TagHistory.Scenario} resolves the same way from the generated "git log --pretty=%d" stream,
+ * from real "git log" output, and through {@link TagExtractor#getTag} (tag index + first-parent walk).
+ */
+public class TestTagHistory {
+    private static final int COMMITS = 1000;
+
+    private GitFixture fx;
+
+    @Before
+    public void setUp() throws IOException {
+        fx = new GitFixture();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        fx.delete();
+    }
+
+    @Test
+    public void testScenarios() throws Exception {
+        check(TagHistory.Scenario.RELEASE_ON_HEAD, false, "{=9.0.0}");
+        check(TagHistory.Scenario.RELEASE_AND_SNAPSHOT_ON_HEAD, false, "{=9.1.0}");
+        check(TagHistory.Scenario.RELEASE_AND_SNAPSHOT_ON_HEAD, true, "{=9.1.1-SNAPSHOT}");
+        check(TagHistory.Scenario.SNAPSHOT_AFTER_RELEASE, false, "{=9.2.0-SNAPSHOT}");
+        check(TagHistory.Scenario.STALE_RELEASE, false, "null (stale: {=9.3.0}-AND-100-COMMITS)");
+        check(TagHistory.Scenario.DIRECTORIES, false, "{/api=/api/9.4.0, /web=/web/9.5.0}");
+        check(TagHistory.Scenario.PARENT_CHILD_CONFLICT, false,
+                "Incompatible parent/child tag combo. /lib=9.6.0 but /lib/core=9.7.0");
+        check(TagHistory.Scenario.DEEP_SNAPSHOT, false, "{=0.1.0-SNAPSHOT}");
+    }
+
+    @Test
+    public void testReproducible() {
+        TagHistory a = new TagHistory(5000, 46, TagHistory.Scenario.RELEASE_ON_HEAD);
+        TagHistory b = new TagHistory(5000, 46, TagHistory.Scenario.RELEASE_ON_HEAD);
+        Assert.assertEquals(read(a.decorations()), read(b.decorations()));
+        Assert.assertTrue(a.getTagCount() > 5000 / 50);
+    }
+
+    private void check(TagHistory.Scenario scenario, boolean releaseExists, String expected) throws Exception {
+        TagHistory history = new TagHistory(COMMITS, 46, scenario);
+        String name = scenario + (releaseExists ? "-exists" : "");
+        Assert.assertEquals(name + " (generated)", expected, resolve(history.decorations(), releaseExists));
+
+        File repo = new File(fx.root, name);
+        history.writeTo(repo);
+        String gitLog = fx.git(repo, "--no-pager", "log", "--pretty=%d", "--first-parent");
+        Assert.assertEquals(name + " (git log)", expected, resolve(new StringReader(gitLog), releaseExists));
+
+        String path = repo.getAbsolutePath();
+        String[] badTag = new String[1];
+        String indexed;
+        try {
+            indexed = describe(TagExtractor.getTag(path, path, releaseExists, null, badTag), badTag);
+        } catch (IllegalArgumentException iae) {
+            indexed = iae.getMessage();
+        }
+        Assert.assertEquals(name + " (getTag)", expected, indexed);
+    }
+
+    private static String resolve(Reader r, boolean releaseExists) {
+        String[] badTag = new String[1];
+        try {
+            Map<String, Tag> tags = TagExtractor.extractTag(".", r, releaseExists, null, badTag, "master");
+            TagExtractor.validateAndCleanTags(tags);
+            return describe(tags, badTag);
+        } catch (IllegalArgumentException iae) {
+            return iae.getMessage();
+        }
+    }
+
+    private static String describe(Map<String, Tag> tags, String[] badTag) {
+        if (tags == null) {
+            return "null" + (badTag[0] != null ? " (stale: " + badTag[0] + ")" : "");
+        }
+        return new TreeMap<>(tags).toString();
+    }
+
+    private static String read(Reader r) {
+        StringBuilder buf = new StringBuilder();
+        char[] chars = new char[100];
+        int n;
+        try {
+            while ((n = r.read(chars)) >= 0) {
+                buf.append(chars, 0, n);
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe);
+        }
+        return buf.toString();
+    }
+}
@@ -0,0 +1,106 @@
+package com.mergebase.push0ver;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.Map;
+
+public class TestTagIndex {
+    private GitFixture fx;
+    private File repo;
+    private String gitDir;
+
+    @Before
+    public void setUp() throws Exception {
+        fx = new GitFixture();
+        repo = new File(fx.root, "repo");
+        gitDir = repo.getAbsolutePath() + "/.git";
+        fx.git(fx.root, "init", "-q", "repo");
+        for (int i = 0; i < 12; i++) {
+            fx.commit(repo, "f.txt", "commit " + i);
+            if (i % 4 == 0) {
+                fx.git(repo, "tag", "1." + i + ".0");
+                fx.git(repo, "tag", "-a", "-m", "annotated", "api/1." + i + ".1");
+            }
+        }
+        fx.git(repo, "tag", "1.20.0-SNAPSHOT");
+        fx.git(repo, "tag", "1.3.0-SNAPSHOT");
+        fx.git(repo, "tag", "not-a-version");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fx.delete();
+    }
+
+    @Test
+    public void testSplitsByKindAndDirectory() throws Exception {
+        TagIndex index = TagIndex.update(gitDir);
+        Assert.assertEquals(9, index.size());
+
+        TagIndex.Entry head = index.get(fx.git(repo, "rev-parse", "HEAD"));
+        Assert.assertEquals("1.20.0-SNAPSHOT", head.snapshot.get(""));
+        Assert.assertTrue(head.release.isEmpty());
+        Assert.assertEquals("[not-a-version]", head.invalid.toString());
+
+        TagIndex.Entry annotated = index.get(fx.git(repo, "rev-parse", "HEAD~3"));
+        Assert.assertEquals("1.8.0", annotated.release.get(""));
+        Assert.assertEquals("api/1.8.1", annotated.release.get("/api"));
+    }
+
+    @Test
+    public void testUpdatesOnlyChangedRefs() throws Exception {
+        Assert.assertEquals(9 + 4, TagIndex.update(gitDir).getLastChanged());
+        Assert.assertTrue(new File(gitDir, TagIndex.INDEX_FILE).isFile());
+        Assert.assertEquals(0, TagIndex.update(gitDir).getLastChanged());
+        assertSameAsGitLog();
+
+        // Move one tag, delete another, add a third.
+        fx.git(repo, "tag", "-f", "1.20.0-SNAPSHOT", "HEAD~1");
+        fx.git(repo, "tag", "-d", "1.3.0-SNAPSHOT");
+        fx.commit(repo, "f.txt", "newer");
+        fx.git(repo, "tag", "2.0.0");
+
+        TagIndex index = TagIndex.update(gitDir);
+        // 2 refs peeled, 3 commits re-indexed (HEAD, HEAD~1, HEAD~2).
+        Assert.assertEquals(2 + 3, index.getLastChanged());
+        Assert.assertTrue(index.get(fx.git(repo, "rev-parse", "HEAD~1")).snapshot.isEmpty());
+        Assert.assertEquals("1.20.0-SNAPSHOT", index.get(fx.git(repo, "rev-parse", "HEAD~2")).snapshot.get(""));
+        assertSameAsGitLog();
+
+        fx.git(repo, "commit-graph", "write", "--reachable");
+        fx.commit(repo, "f.txt", "newest");
+        assertSameAsGitLog();
+    }
+
+    @Test
+    public void testTreeAndBlobTagsArePeeledOnce() throws Exception {
+        fx.git(repo, "tag", "tree-1.0.0", "HEAD^{tree}");
+        fx.git(repo, "tag", "-a", "-m", "annotated", "blob-1.0.0", "HEAD:f.txt");
+        TagIndex index = TagIndex.update(gitDir);
+        Assert.assertEquals(11 + 4, index.getLastChanged());
+        Assert.assertEquals(0, TagIndex.update(gitDir).getLastChanged());
+        assertSameAsGitLog();
+
+        fx.git(repo, "tag", "-f", "tree-1.0.0", "HEAD~1^{tree}");
+        Assert.assertEquals(1, TagIndex.update(gitDir).getLastChanged());
+    }
+
+    private void assertSameAsGitLog() throws Exception {
+        String path = repo.getAbsolutePath();
+        String[] badTag = new String[1];
+        Map<String, Tag> indexed = TagExtractor.getTag(path, path, false, null, badTag);
+
+        String log = fx.git(repo, "log", "--pretty=%d", "--first-parent") + "\n";
+        String[] expectedBadTag = new String[1];
+        Map<String, Tag> expected = TagExtractor.extractTag(path, new StringReader(log), false, null, expectedBadTag, "master");
+        TagExtractor.validateAndCleanTags(expected);
+
+        Assert.assertEquals(String.valueOf(expected), String.valueOf(indexed));
+        Assert.assertEquals(expectedBadTag[0], badTag[0]);
+    }
+}
@@ -0,0 +1,78 @@
+package com.mergebase.push0ver;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+public class TestTagSync {
+    private static final MyLogger LOG = logLine -> logLine;
+
+    private GitFixture fx;
+    private File upstream;
+    private File agent;
+
+    @Before
+    public void setUp() throws Exception {
+        fx = new GitFixture();
+        File remote = fx.bareRemote("remote.git");
+        upstream = fx.cloneOf(remote, "upstream");
+        fx.commit(upstream, "pom.xml", "<project/>");
+        fx.git(upstream, "tag", "1.0.0");
+        fx.git(upstream, "push", "-q", "origin", "HEAD:refs/heads/master", "--tags");
+        agent = fx.cloneOf(remote, "agent", "--no-tags", "--branch", "master");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fx.delete();
+    }
+
+    @Test
+    public void testFetchesOnlyNewAndMovedTags() throws Exception {
+        String path = agent.getAbsolutePath();
+        Assert.assertEquals("", fx.git(agent, "tag", "-l"));
+
+        Assert.assertEquals(1, TagSync.sync(LOG, path, true, new RunStats("pre")));
+        Assert.assertEquals("1.0.0", fx.git(agent, "tag", "-l"));
+
+        // Nothing changed on the remote: nothing to fetch.
+        Assert.assertEquals(0, TagSync.sync(LOG, path, true, new RunStats("pre")));
+
+        // One new tag and one moved tag.
+        fx.commit(upstream, "README", "hello");
+        fx.git(upstream, "tag", "1.0.1-SNAPSHOT");
+        fx.git(upstream, "tag", "-f", "1.0.0");
+        fx.git(upstream, "push", "-q", "-f", "origin", "HEAD:refs/heads/master", "--tags");
+
+        Assert.assertEquals(2, TagSync.sync(LOG, path, true, new RunStats("pre")));
+        Assert.assertEquals(fx.git(upstream, "rev-parse", "1.0.0"), fx.git(agent, "rev-parse", "1.0.0"));
+        Assert.assertEquals(fx.git(upstream, "rev-parse", "1.0.1-SNAPSHOT"), fx.git(agent, "rev-parse", "1.0.1-SNAPSHOT"));
+    }
+
+    @Test
+    public void testRefetchesTagDeletedLocally() throws Exception {
+        String path = agent.getAbsolutePath();
+        Assert.assertEquals(1, TagSync.sync(LOG, path, true, new RunStats("pre")));
+
+        // Unchanged on the remote, but gone here.
+        fx.git(agent, "tag", "-d", "1.0.0");
+        Assert.assertEquals(1, TagSync.sync(LOG, path, false, new RunStats("post")));
+        Assert.assertEquals(fx.git(upstream, "rev-parse", "1.0.0"), fx.git(agent, "rev-parse", "1.0.0"));
+    }
+
+    @Test
+    public void testPostTaskReusesPreTaskSync() throws Exception {
+        String path = agent.getAbsolutePath();
+        Assert.assertEquals(1, TagSync.sync(LOG, path, true, new RunStats("pre")));
+
+        RunStats post = new RunStats("post");
+        Assert.assertEquals(TagSync.SKIPPED, TagSync.sync(LOG, path, false, post));
+        Assert.assertEquals(1.0, post.getCacheHitRate(), 0.0);
+
+        // The pre task's sync is consumed once:  a second post task asks the remote again.
+        Assert.assertEquals(0, TagSync.sync(LOG, path, false, new RunStats("post")));
+    }
+}
@@ -0,0 +1,88 @@
+package com.mergebase.push0ver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestTaskScope {
+
+    @Test
+    public void testResults() {
+        TaskScope scope = TaskScope.pooled(4);
+        List<Future<Integer>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < 20; i++) {
+                final int n = i;
+                results.add(scope.fork(() -> n * n));
+            }
+            scope.join();
+        } finally {
+            scope.close();
+        }
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(Integer.valueOf(i * i), TaskScope.result(results.get(i)));
+        }
+    }
+
+    @Test
+    public void testFailureInterruptsSiblings() throws Exception {
+        final CountDownLatch started = new CountDownLatch(3);
+        final AtomicInteger interrupted = new AtomicInteger();
+        TaskScope scope = TaskScope.pooled(4);
+        long start = System.currentTimeMillis();
+        try {
+            for (int i = 0; i < 3; i++) {
+                scope.fork(() -> {
+                    started.countDown();
+                    try {
+                        Thread.sleep(60000);
+                    } catch (InterruptedException ie) {
+                        interrupted.incrementAndGet();
+                    }
+                    return null;
+                });
+            }
+            started.await();
+            scope.fork(() -> {
+                throw new IOException("boom");
+            });
+            scope.join();
+            Assert.fail("join() should rethrow");
+        } catch (RuntimeException re) {
+            Assert.assertTrue(re.getCause() instanceof IOException);
+        } finally {
+            scope.close();
+        }
+        Assert.assertEquals(3, interrupted.get());
+        Assert.assertTrue(System.currentTimeMillis() - start < 30000);
+    }
+
+    @Test
+    public void testFailureSkipsLaterJobs() {
+        final AtomicInteger ran = new AtomicInteger();
+        // One at a time:  everything after the failure is skipped.
+        TaskScope scope = TaskScope.pooled(1);
+        try {
+            scope.fork(() -> ran.incrementAndGet());
+            scope.fork(() -> {
+                throw new IllegalStateException("boom");
+            });
+            scope.fork(() -> ran.incrementAndGet());
+            scope.join();
+            Assert.fail("join() should rethrow");
+        } catch (IllegalStateException ise) {
+            Assert.assertEquals("boom", ise.getMessage());
+        } finally {
+            scope.close();
+        }
+        if (!TaskScope.isVirtual()) {
+            Assert.assertEquals(1, ran.get());
+        }
+    }
+}
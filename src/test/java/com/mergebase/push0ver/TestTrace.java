@@ -0,0 +1,174 @@
+package com.mergebase.push0ver;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+public class TestTrace {
+    private final StringBuilder log = new StringBuilder();
+    private final MyLogger logger = line -> {
+        log.append(line).append('\n');
+        return line;
+    };
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("push0ver-trace").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testDisabled() {
+        Assert.assertNull(Trace.file(new Properties(), dir.getPath(), "post"));
+        Trace.Span root = Trace.root(null, "push0ver post", logger);
+        Trace.Span child = Trace.start("fetch-tags").attr("url.full", "http://x/");
+        Assert.assertFalse(root.isRecording());
+        Assert.assertFalse(child.isRecording());
+        Assert.assertNull(Trace.current());
+        child.end();
+        root.end();
+        Assert.assertNull(Trace.current());
+    }
+
+    @Test
+    public void testNestingAndExport() throws Exception {
+        File out = new File(dir, "trace.json");
+        Trace.Span root = Trace.root(out, "push0ver post", logger);
+        Trace.Span phase = Trace.start("upload");
+        TaskScope scope = TaskScope.pooled(2);
+        try {
+            for (int i = 0; i < 2; i++) {
+                final int n = i;
+                scope.fork(() -> {
+                    Trace.client("PUT").attr("url.full", "http://art/" + n).attr("http.response.status_code", 201).end();
+                    return null;
+                });
+            }
+            scope.join();
+        } finally {
+            scope.close();
+        }
+        Trace.start("rewrite file").discard();
+        phase.end();
+        // An exception skipped past this one:  the root closes it as failed.
+        Trace.start("reactor");
+        root.end();
+        Assert.assertNull(Trace.current());
+
+        JsonArray spans = spans(out);
+        Map<String, JsonObject> byName = new HashMap<>();
+        Set<String> ids = new HashSet<>();
+        for (JsonElement e : spans) {
+            JsonObject s = e.getAsJsonObject();
+            byName.put(s.get("name").getAsString(), s);
+            Assert.assertEquals(16, s.get("spanId").getAsString().length());
+            Assert.assertEquals(32, s.get("traceId").getAsString().length());
+            Assert.assertTrue(ids.add(s.get("spanId").getAsString()));
+            Assert.assertTrue(s.get("endTimeUnixNano").getAsLong() >= s.get("startTimeUnixNano").getAsLong());
+        }
+        Assert.assertEquals(5, spans.size());
+        Assert.assertFalse(byName.containsKey("rewrite file"));
+        Assert.assertNull(byName.get("push0ver post").get("parentSpanId"));
+        Assert.assertEquals(id(byName.get("push0ver post")), parent(byName.get("upload")));
+        Assert.assertEquals(id(byName.get("push0ver post")), parent(byName.get("reactor")));
+        Assert.assertEquals(2, byName.get("reactor").getAsJsonObject("status").get("code").getAsInt());
+        int puts = 0;
+        for (JsonElement e : spans) {
+            JsonObject s = e.getAsJsonObject();
+            if ("PUT".equals(s.get("name").getAsString())) {
+                puts++;
+                Assert.assertEquals(id(byName.get("upload")), parent(s));
+                Assert.assertEquals(3, s.get("kind").getAsInt());
+                JsonObject status = s.getAsJsonArray("attributes").get(1).getAsJsonObject();
+                Assert.assertEquals("http.response.status_code", status.get("key").getAsString());
+                Assert.assertEquals("201", status.getAsJsonObject("value").get("intValue").getAsString());
+            }
+        }
+        Assert.assertEquals(2, puts);
+    }
+
+    @Test
+    public void testWriteFailureGoesToBuildLog() throws Exception {
+        File notADir = new File(dir, "plain-file");
+        Files.write(notADir.toPath(), new byte[0]);
+        Trace.Span root = Trace.root(new File(notADir, "trace.json"), "push0ver pre", logger);
+        Trace.start("fetch-tags").end();
+        root.end();
+        Assert.assertTrue(log.toString(), log.toString().startsWith("push0ver - could not write trace ["));
+    }
+
+    @Test
+    public void testReleaseCycle() throws Exception {
+        ReleaseBenchmark b = new ReleaseBenchmark(
+                "modules=1", "artifacts=1", "artifactBytes=5000", "files=5", "fileBytes=500", "density=0.5",
+                "commits=20", "latencyMillis=0", "trace=" + dir.getPath());
+        b.setUp();
+        MockArtifactory art = new MockArtifactory(0, 0);
+        try {
+            b.run(art);
+        } finally {
+            art.close();
+            b.tearDown();
+        }
+        Set<String> pre = names(spans(b.preTrace));
+        Set<String> post = names(spans(b.postTrace));
+        Assert.assertTrue(pre.toString(), pre.containsAll(
+                Arrays.asList("push0ver pre", "fetch-tags", "inject", "windup", "rewrite file", "git rev-parse")));
+        Assert.assertTrue(post.toString(), post.containsAll(
+                Arrays.asList("push0ver post", "reactor", "mvn dependency:tree", "exists", "GET", "PUT",
+                        "upload", "rewrite pom", "npm-publish")));
+        Assert.assertTrue(b.log.toString(), b.log.toString().contains("push0ver - TRACE: [" + b.postTrace.getPath()));
+    }
+
+    private static JsonArray spans(File f) throws IOException {
+        JsonObject json = new JsonParser().parse(new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8))
+                .getAsJsonObject();
+        JsonObject resourceSpans = json.getAsJsonArray("resourceSpans").get(0).getAsJsonObject();
+        Assert.assertEquals("service.name", resourceSpans.getAsJsonObject("resource").getAsJsonArray("attributes")
+                .get(0).getAsJsonObject().get("key").getAsString());
+        return resourceSpans.getAsJsonArray("scopeSpans").get(0).getAsJsonObject().getAsJsonArray("spans");
+    }
+
+    private static Set<String> names(JsonArray spans) {
+        Set<String> names = new HashSet<>();
+        for (JsonElement e : spans) {
+            names.add(e.getAsJsonObject().get("name").getAsString());
+        }
+        return names;
+    }
+
+    private static String id(JsonObject span) {
+        return span.get("spanId").getAsString();
+    }
+
+    private static String parent(JsonObject span) {
+        return span.get("parentSpanId").getAsString();
+    }
+}
@@ -0,0 +1,162 @@
+package com.mergebase.push0ver;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestTransport {
+    private File dir;
+    private H2cStandIn standIn;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("push0ver-transport").toFile();
+        standIn = new H2cStandIn(5);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        standIn.close();
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testHttp1() throws Exception {
+        Transport t = Transport.open(false, false, line -> line);
+        try {
+            List<Transport.Upload> uploads = uploads(5, 1000);
+            t.putAll(uploads, "Basic x");
+            for (Transport.Upload u : uploads) {
+                Assert.assertEquals(201, u.getStatus());
+            }
+            Assert.assertEquals(404, t.get(standIn.url() + "missing.sha1", "Basic x"));
+            Assert.assertEquals("HTTP/1.1", t.getProtocol());
+            Assert.assertEquals(6, standIn.h1Requests.get());
+            Assert.assertEquals(5000, standIn.bytesReceived.get());
+        } finally {
+            t.close();
+        }
+    }
+
+    @Test
+    public void testHttp2Multiplexed() throws Exception {
+        assumeJavaNetHttp();
+        Transport t = Transport.open(true, false, line -> line);
+        try {
+            Assert.assertTrue(t instanceof Http2Transport);
+            standIn.getStatus = 200;
+            Assert.assertTrue(App.exists(line -> line, standIn.url() + "there.sha1", "Basic x", t));
+
+            // Bigger than the 64KB initial flow-control windows.
+            List<Transport.Upload> uploads = uploads(30, 100000);
+            t.putAll(uploads, "Basic x");
+            for (Transport.Upload u : uploads) {
+                Assert.assertNull(u.getFailure());
+                Assert.assertEquals(201, u.getStatus());
+            }
+            Assert.assertEquals("HTTP_2", t.getProtocol());
+            Assert.assertEquals(1, standIn.connections.get());
+            Assert.assertEquals(31, standIn.h2Requests.get());
+            Assert.assertEquals(3000000, standIn.bytesReceived.get());
+        } finally {
+            t.close();
+        }
+    }
+
+    @Test
+    public void testHttp2FallsBackWhenServerWontUpgrade() throws Exception {
+        assumeJavaNetHttp();
+        HttpServer h1 = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        h1.createContext("/", exchange -> {
+            while (exchange.getRequestBody().read() >= 0) {
+                // drain
+            }
+            exchange.sendResponseHeaders(201, -1);
+            exchange.close();
+        });
+        h1.start();
+        Transport t = Transport.open(true, false, line -> line);
+        try {
+            File f = file("a.jar", 10);
+            Assert.assertEquals(201, t.put("http://127.0.0.1:" + h1.getAddress().getPort() + "/a.jar", f, null));
+            Assert.assertEquals("HTTP_1_1", t.getProtocol());
+        } finally {
+            t.close();
+            h1.stop(0);
+        }
+    }
+
+    @Test
+    public void testStreamedPut() throws Exception {
+        for (boolean http2 : new boolean[]{false, true}) {
+            Transport t = Transport.open(http2, false, line -> line);
+            try {
+                InputStream body = new ByteArrayInputStream(new byte[150000]);
+                Assert.assertEquals(201, t.put(standIn.url() + "libs-release-local/a/b.jar", body, 150000, "Basic x"));
+            } finally {
+                t.close();
+            }
+        }
+        Assert.assertEquals(300000, standIn.bytesReceived.get());
+    }
+
+    @Test
+    public void testRedirectIsNotFollowed() throws Exception {
+        MockArtifactory art = new MockArtifactory(0, 0);
+        try {
+            art.redirectGets("libs-release-local/");
+            String target = art.url() + "libs-release-local/a/b/1.0/b-1.0.jar.sha1";
+            boolean old = App.exists(line -> line, target, "Basic x");
+            for (boolean http2 : new boolean[]{false, true}) {
+                Transport t = Transport.open(http2, false, line -> line);
+                try {
+                    // Not the login page's 200:  the same answer as the HttpURLConnection check.
+                    Assert.assertEquals(302, t.get(target, "Basic x"));
+                    Assert.assertEquals(old, App.exists(line -> line, target, "Basic x", t));
+                } finally {
+                    t.close();
+                }
+            }
+            Assert.assertEquals(0, art.logins.get());
+        } finally {
+            art.close();
+        }
+    }
+
+    private static void assumeJavaNetHttp() {
+        try {
+            Class.forName("java.net.http.HttpClient");
+        } catch (ClassNotFoundException cnfe) {
+            // java.net.http needs Java 11.
+            Assume.assumeNoException(cnfe);
+        }
+    }
+
+    private List<Transport.Upload> uploads(int n, int size) throws Exception {
+        List<Transport.Upload> uploads = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            uploads.add(new Transport.Upload(standIn.url() + "libs-release-local/a/" + i + ".jar", file(i + ".jar", size)));
+        }
+        return uploads;
+    }
+
+    private File file(String name, int size) throws Exception {
+        File f = new File(dir, name);
+        Files.write(f.toPath(), new byte[size]);
+        return f;
+    }
+}
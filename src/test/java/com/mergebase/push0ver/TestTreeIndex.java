@@ -0,0 +1,139 @@
+package com.mergebase.push0ver;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TestTreeIndex {
+    // Keep the sentinel out of this file's source and bytecode.
+    private static final String SENTINEL = "0".substring(0, 1) + ".0.0-PUSH0VER";
+    private static final MyLogger LOG = line -> line;
+
+    private GitFixture fx;
+    private File ws;
+
+    @Before
+    public void setUp() throws Exception {
+        fx = new GitFixture();
+        ws = fx.cloneOf(fx.bareRemote("remote.git"), "ws");
+        fx.commit(ws, "pom.xml", "<version>" + SENTINEL + "</version>");
+        fx.commit(ws, "a/pom.xml", "<version>" + SENTINEL + "</version>");
+        fx.commit(ws, "b/package.json", "{\"version\": \"" + SENTINEL + "\"}");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fx.delete();
+    }
+
+    @Test
+    public void testOnlyChangedDirectoriesArePublished() throws Exception {
+        Tag a = new Tag(ws.getPath(), "a/1.0.1-SNAPSHOT", LOG);
+        Tag b = new Tag(ws.getPath(), "b/2.0.1-SNAPSHOT", LOG);
+        List<Tag> tags = Arrays.asList(a, b);
+
+        TreeIndex trees = TreeIndex.load(ws.getPath(), ws.getPath(), tags, LOG);
+        Assert.assertEquals(40, trees.getTree(a).length());
+        Assert.assertTrue(trees.unchanged(tags, LOG).isEmpty());
+        trees.published(a);
+        trees.published(b);
+        Assert.assertTrue(new File(ws, ".git/" + TreeIndex.INDEX_FILE).isFile());
+
+        // Next build:  only "b" changed.
+        fx.commit(ws, "b/index.js", "module.exports = 1;");
+        trees = TreeIndex.load(ws.getPath(), ws.getPath(), tags, LOG);
+        Assert.assertEquals(Collections.singletonList(a), trees.unchanged(tags, LOG));
+
+        // Same tree, but a new version to publish.
+        Tag a2 = new Tag(ws.getPath(), "a/1.0.2-SNAPSHOT", LOG);
+        Assert.assertFalse(trees.isUnchanged(a2));
+
+        // A change outside both directories changes neither.
+        trees.published(b);
+        fx.commit(ws, "README.md", "hello");
+        trees = TreeIndex.load(ws.getPath(), ws.getPath(), tags, LOG);
+        Assert.assertEquals(tags, trees.unchanged(tags, LOG));
+    }
+
+    @Test
+    public void testSkippedDirectoryIsNotInjected() throws Exception {
+        Tag root = new Tag(ws.getPath(), "3.0.0", LOG);
+        Tag a = new Tag(ws.getPath(), "a/1.0.1", LOG);
+        WorkspaceScanner.Workspace w = WorkspaceScanner.scan(ws.getPath(), Collections.singletonList(root),
+                Collections.singletonList(a), true, LOG, new RunStats("pre"), null);
+
+        Assert.assertTrue(read("pom.xml").contains("3.0.0"));
+        Assert.assertTrue(read("b/package.json").contains("3.0.0"));
+        // Neither its own version nor the enclosing directory's.
+        Assert.assertTrue(read("a/pom.xml").contains(SENTINEL));
+        Assert.assertNull(w.get(a));
+    }
+
+    @Test
+    public void testSecondReleaseOfSameTree() throws Exception {
+        ReleaseBenchmark b = new ReleaseBenchmark(
+                "modules=1", "artifacts=1", "artifactBytes=5000", "files=5", "fileBytes=500", "density=0.5",
+                "commits=20", "latencyMillis=0", "npm=false");
+        b.setUp();
+        MockArtifactory art = new MockArtifactory(0, 0);
+        try {
+            b.run(art);
+            int puts = art.puts.get();
+            Assert.assertTrue(puts > 0);
+
+            b.log.setLength(0);
+            b.run(art);
+            Assert.assertEquals(b.log.toString(), puts, art.puts.get());
+            Assert.assertTrue(b.log.toString(), b.log.toString().contains("push0ver - SKIPPING UNCHANGED TAG"));
+        } finally {
+            art.close();
+            b.tearDown();
+        }
+    }
+
+    @Test
+    public void testFailedPublishIsNotRecorded() throws Exception {
+        ReleaseBenchmark b = new ReleaseBenchmark(
+                "modules=1", "artifacts=1", "artifactBytes=5000", "files=5", "fileBytes=500", "density=0.5",
+                "commits=20", "latencyMillis=0", "npm=true");
+        b.setUp();
+        MockArtifactory art = new MockArtifactory(0, 0);
+        try {
+            // Logged, not thrown.
+            art.failPuts("api/npm/");
+            b.run(art);
+            Assert.assertEquals(0, art.npmPublishes.get());
+            Assert.assertTrue(b.log.toString(), b.log.toString().contains("it will be published again"));
+
+            art.failPuts(null);
+            b.resetWorkspace();
+            b.log.setLength(0);
+            b.run(art);
+            Assert.assertFalse(b.log.toString(), b.log.toString().contains("SKIPPING UNCHANGED TAG"));
+            Assert.assertEquals(1, art.npmPublishes.get());
+        } finally {
+            art.close();
+            b.tearDown();
+        }
+    }
+
+    @Test
+    public void testNoGitDir() throws Exception {
+        File plain = new File(fx.root, "plain");
+        plain.mkdirs();
+        Tag t = new Tag(plain.getPath(), "1.0.0", LOG);
+        Assert.assertNull(TreeIndex.load(plain.getPath(), plain.getPath(), Collections.singletonList(t), LOG));
+    }
+
+    private String read(String path) throws Exception {
+        return new String(Files.readAllBytes(new File(ws, path).toPath()), StandardCharsets.UTF_8);
+    }
+}
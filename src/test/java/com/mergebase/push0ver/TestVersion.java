@@ -9,6 +9,8 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
 public class TestVersion {
     @Test
@@ -247,6 +249,94 @@ public class TestVersion {
 
     }
 
+    private static final String[] TOKENS = {
+            "0", "1", "2", "3", "9", "10", "11", "00", "0003", "42", "999999999999", "-1", "-7",
+            "rc", "RC", "b", "beta", "a", "alpha", "snapshot", "SNAPSHOT", "push0ver", "PUSH0VER",
+            "cvs", "svn", "bzr", "hg", "git", "rev", "r", "release", "update", "u", "patch", "p",
+            "hotfix", "fix", "v", "x", "z", "abc", "final", "GA", "\u00e9", "\u4e2d",
+            "-", "_", "+", "~", "--", "-SNAPSHOT", "-PUSH0VER", ".", ".", ".", "."
+    };
+
+    @Test
+    public void testKeyOrderMatchesCompareTo() {
+        Random r = new Random(20261019L);
+        List<Version> versions = new ArrayList<Version>();
+        while (versions.size() < 3000) {
+            Version v = randomVersion(r);
+            if (!isDegenerate(v)) {
+                versions.add(v);
+            }
+        }
+
+        for (int i = 0; i < 200000; i++) {
+            Version v1 = versions.get(r.nextInt(versions.size()));
+            Version v2 = versions.get(r.nextInt(versions.size()));
+            int expected = Integer.signum(v1.compareTo(v2));
+            int actual = Integer.signum(VersionKey.COMPARE_KEYS.compare(v1.getKey(), v2.getKey()));
+            if (expected != actual) {
+                Assert.fail("[" + v1 + "] vs [" + v2 + "]: compareTo=" + expected + " key=" + actual);
+            }
+        }
+
+        // Neighbours after sorting are where the finest distinctions live.
+        List<Version> sorted = new ArrayList<Version>(versions);
+        Collections.sort(sorted);
+        for (int i = 1; i < sorted.size(); i++) {
+            Version v1 = sorted.get(i - 1);
+            Version v2 = sorted.get(i);
+            Assert.assertEquals("[" + v1 + "] vs [" + v2 + "]",
+                    Integer.signum(v1.compareTo(v2)), Integer.signum(VersionKey.COMPARE_KEYS.compare(v1.getKey(), v2.getKey())));
+        }
+
+        List<Version> keySorted = new ArrayList<Version>(versions);
+        VersionKey.sort(keySorted);
+        Assert.assertEquals(sorted.toString(), keySorted.toString());
+    }
+
+    @Test
+    public void testKeyExamples() {
+        String[] ordered = {"1.2", "1.2.3-SNAPSHOT", "1.2.3alpha99", "1.2.3beta3", "1.2.3rc1", "1.2.3",
+                "1.2.3-PUSH0VER", "1.2.3-patch1", "1.2.3-release", "1.2.11", "1.10"};
+        for (int i = 1; i < ordered.length; i++) {
+            byte[] k1 = new Version(ordered[i - 1]).getKey();
+            byte[] k2 = new Version(ordered[i]).getKey();
+            Assert.assertTrue(ordered[i - 1] + " < " + ordered[i], VersionKey.COMPARE_KEYS.compare(k1, k2) < 0);
+        }
+        Assert.assertTrue(VersionKey.COMPARE_KEYS.compare(new Version("1.2.0003").getKey(), new Version("1.2.3").getKey()) < 0);
+        Assert.assertArrayEquals(new Version("1.2.3").getKey(), new Version(" 1.2.3 ").getKey());
+    }
+
+    private static Version randomVersion(Random r) {
+        StringBuilder buf = new StringBuilder();
+        int len = r.nextInt(8);
+        for (int i = 0; i < len; i++) {
+            buf.append(TOKENS[r.nextInt(TOKENS.length)]);
+        }
+        return new Version(buf.toString());
+    }
+
+    /**
+     * COMPARE_VERSIONS is not transitive once letters or digits follow a component with none (e.g. "1..2"),
+     * or for digit runs too big for a long:  see {@link VersionKey}.
+     */
+    private static boolean isDegenerate(Version v) {
+        boolean empty = false;
+        for (String component : v.getSplit()) {
+            String[] words = VersionComparators.splitIntoAlphasAndNums(component);
+            boolean hasWords = words.length > 1;
+            if (empty && hasWords) {
+                return true;
+            }
+            empty = empty || !hasWords;
+            for (String w : words) {
+                if (w.length() > 0 && Character.isDigit(w.charAt(w.length() - 1)) && VersionComparators.toLong(w) == null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Sorts the provided file (arg0) and outputs the sorted version to stdout.
      */
@@ -0,0 +1,159 @@
+package com.mergebase.push0ver;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class TestWorkspaceScanner {
+    // Keep the sentinel out of this file's source and bytecode.
+    private static final String SENTINEL = "0".substring(0, 1) + ".0.0-PUSH0VER";
+
+    private GitFixture fx;
+    private File root;
+
+    @Before
+    public void setUp() throws Exception {
+        fx = new GitFixture();
+        root = fx.root;
+        write("pom.xml", "<version>" + SENTINEL + "</version>");
+        write("src/Main.java", "String v = \"" + SENTINEL + "\";");
+        write("Main.class", SENTINEL);
+        write("web/package.json", "{\"name\":\"web\",\"version\":\"" + SENTINEL + "\"}");
+        write("web/lib/package.json", "{\"name\":\"lib\",\"version\":\"1.0.0\"}");
+        write("web/node_modules/dep/package.json", "{\"version\":\"" + SENTINEL + "\"}");
+        write(".git/config", SENTINEL);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fx.delete();
+    }
+
+    @Test
+    public void testOnePassForAllTagDirectories() throws Exception {
+        Tag rootTag = new Tag(root.getPath(), "1.2.3", null);
+        Tag webTag = new Tag(root.getPath(), "web/4.5.6", null);
+        RunStats stats = new RunStats("pre");
+        WorkspaceScanner.Workspace ws = WorkspaceScanner.scan(
+                root.getPath(), Arrays.asList(rootTag, webTag), true, line -> line, stats);
+
+        WorkspaceScanner.Module r = ws.get(rootTag);
+        Assert.assertTrue(r.isMaven());
+        Assert.assertFalse(r.isNode());
+        Assert.assertEquals(2, r.getMatches().size());
+        Assert.assertTrue(read("pom.xml").contains("1.2.3"));
+        Assert.assertTrue(read("Main.class").contains(SENTINEL));
+        Assert.assertTrue(read(".git/config").contains(SENTINEL));
+
+        WorkspaceScanner.Module w = ws.get(webTag);
+        Assert.assertFalse(w.isMaven());
+        Assert.assertTrue(w.isNode());
+        Assert.assertTrue(read("web/package.json").contains("4.5.6"));
+        Assert.assertTrue(read("web/node_modules/dep/package.json").contains(SENTINEL));
+        Assert.assertEquals(2, w.getPackageJsons().size());
+        Assert.assertEquals(stats.getFilesScanned(), ws.getFiles());
+
+        // The post task scans without injecting, and is told what the pre task injected.
+        Set<File> injected = new HashSet<>();
+        injected.add(new File(root, "web/package.json").getCanonicalFile());
+        ws = WorkspaceScanner.scan(root.getPath(), Arrays.asList(rootTag, webTag), false, line -> line, stats);
+        Assert.assertTrue(ws.get(webTag).isNode(injected));
+        Assert.assertFalse(ws.get(rootTag).isNode(injected));
+        Assert.assertTrue(ws.get(webTag).getMatches().isEmpty());
+    }
+
+    @Test
+    public void testArchivesAndOpaqueFiles() throws Exception {
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A};
+        write("logo.png", (new String(png, "ISO-8859-1") + SENTINEL).getBytes("ISO-8859-1"));
+        write("notes.gz", ("\u001f\u008b" + SENTINEL).getBytes("ISO-8859-1"));
+        write("Stored.txt", SENTINEL);
+
+        File jar = new File(root, "lib/vendored.jar");
+        jar.getParentFile().mkdirs();
+        ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(jar));
+        zout.setComment("keep me");
+        putEntry(zout, "META-INF/maven/x/pom.properties", ("version=" + SENTINEL + "\n").getBytes("UTF-8"), false);
+        putEntry(zout, "stored/version.txt", SENTINEL.getBytes("UTF-8"), true);
+        putEntry(zout, "img/logo.png", (new String(png, "ISO-8859-1") + SENTINEL).getBytes("ISO-8859-1"), false);
+        putEntry(zout, "unchanged.txt", "nothing here".getBytes("UTF-8"), false);
+        zout.close();
+
+        Tag tag = new Tag(root.getPath(), "7.8.9", null);
+        WorkspaceScanner.Module m = WorkspaceScanner.scan(
+                root.getPath(), Collections.singletonList(tag), true, line -> line, new RunStats("pre")).get(tag);
+
+        // Raw bytes of the deflated entry never had the sentinel:  only reading the entry finds it.
+        Assert.assertTrue(m.getMatches().contains(jar));
+        Assert.assertTrue(read("logo.png").endsWith(SENTINEL));
+        Assert.assertTrue(read("notes.gz").endsWith(SENTINEL));
+        Assert.assertEquals("7.8.9", read("Stored.txt"));
+
+        ZipFile zip = new ZipFile(jar);
+        try {
+            Assert.assertEquals("keep me", zip.getComment());
+            Assert.assertEquals("version=7.8.9\n", entry(zip, "META-INF/maven/x/pom.properties"));
+            Assert.assertEquals("7.8.9", entry(zip, "stored/version.txt"));
+            Assert.assertEquals(ZipEntry.STORED, zip.getEntry("stored/version.txt").getMethod());
+            Assert.assertTrue(entry(zip, "img/logo.png").endsWith(SENTINEL));
+            Assert.assertEquals("nothing here", entry(zip, "unchanged.txt"));
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static void putEntry(ZipOutputStream zout, String name, byte[] content, boolean stored) throws Exception {
+        ZipEntry e = new ZipEntry(name);
+        if (stored) {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            e.setMethod(ZipEntry.STORED);
+            e.setSize(content.length);
+            e.setCrc(crc.getValue());
+        }
+        zout.putNextEntry(e);
+        zout.write(content);
+        zout.closeEntry();
+    }
+
+    private static String entry(ZipFile zip, String name) throws Exception {
+        InputStream in = zip.getInputStream(zip.getEntry(name));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            out.write(buf, 0, n);
+        }
+        in.close();
+        return out.toString("ISO-8859-1");
+    }
+
+    private void write(String path, String content) throws Exception {
+        write(path, content.getBytes("UTF-8"));
+    }
+
+    private void write(String path, byte[] content) throws Exception {
+        File f = new File(root, path);
+        f.getParentFile().mkdirs();
+        Files.write(f.toPath(), content);
+    }
+
+    private String read(String path) throws Exception {
+        return new String(Files.readAllBytes(new File(root, path).toPath()), "UTF-8");
+    }
+}
@@ -0,0 +1,66 @@
+package com.mergebase.push0ver;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uploads N artifacts the way {@link Rename} does (a .sha1 existence check, then the file, .md5 and .sha1)
+ * to a local {@link H2cStandIn}, once per transport, and prints wall time and connections used.
+ * <p>
+ * Usage:  TransportBenchmark [artifacts] [latencyMillis] [artifactBytes]
+ */
+public class TransportBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int artifacts = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        long latency = args.length > 1 ? Long.parseLong(args[1]) : 5;
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+
+        File dir = Files.createTempDirectory("push0ver-bench").toFile();
+        try {
+            File jar = new File(dir, "a.jar");
+            File md5 = new File(dir, "a.jar.md5");
+            File sha1 = new File(dir, "a.jar.sha1");
+            Files.write(jar.toPath(), new byte[size]);
+            Files.write(md5.toPath(), new byte[32]);
+            Files.write(sha1.toPath(), new byte[40]);
+
+            for (int round = 0; round < 3; round++) {
+                for (boolean http2 : new boolean[]{false, true}) {
+                    H2cStandIn standIn = new H2cStandIn(latency);
+                    Transport t = Transport.open(http2, false, line -> {
+                        System.out.println(line);
+                        return line;
+                    });
+                    long start = System.nanoTime();
+                    try {
+                        for (int i = 0; i < artifacts; i++) {
+                            String base = standIn.url() + "libs-release-local/g/m/1.0." + i + "/m-1.0." + i + ".jar";
+                            t.get(base + ".sha1", "Basic x");
+                            List<Transport.Upload> uploads = new ArrayList<>(Arrays.asList(
+                                    new Transport.Upload(base, jar),
+                                    new Transport.Upload(base + ".md5", md5),
+                                    new Transport.Upload(base + ".sha1", sha1)));
+                            t.putAll(uploads, "Basic x");
+                        }
+                    } finally {
+                        t.close();
+                        standIn.close();
+                    }
+                    long millis = (System.nanoTime() - start) / 1000000;
+                    System.out.printf("round %d  %-9s %4d requests in %5d ms (%6.0f req/s), %d connection(s)%n",
+                            round, t.getProtocol(), artifacts * 4, millis, artifacts * 4 * 1000.0 / Math.max(millis, 1),
+                            standIn.connections.get());
+                }
+            }
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+}